@@ -1,11 +1,15 @@
 package org.openbot;
 
+import android.app.ActivityManager;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.SharedPreferences;
 import androidx.annotation.NonNull;
 import androidx.preference.PreferenceManager;
 import org.jetbrains.annotations.NotNull;
+import org.openbot.tflite.InterpreterCache;
+import org.openbot.tflite.TfLiteBackend;
 import org.openbot.vehicle.Vehicle;
 import timber.log.Timber;
 
@@ -13,11 +17,16 @@ public class OpenBotApplication extends Application {
 
   static Context context;
   public static Vehicle vehicle;
+  private static InterpreterCache interpreterCache;
 
   public static Context getContext() {
     return context;
   }
 
+  public static InterpreterCache getInterpreterCache() {
+    return interpreterCache;
+  }
+
   @Override
   public void onCreate() {
     super.onCreate();
@@ -27,6 +36,12 @@ public class OpenBotApplication extends Application {
     int baudRate = Integer.parseInt(sharedPreferences.getString("baud_rate", "115200"));
     vehicle = new Vehicle(this, baudRate);
     vehicle.connectUsb();
+
+    // Let idle interpreters take up to a quarter of the heap of the app.
+    ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+    long memoryBudget = activityManager.getMemoryClass() * 1024L * 1024L / 4;
+    interpreterCache = new InterpreterCache(TfLiteBackend::load, memoryBudget);
+
     if (BuildConfig.DEBUG) {
       Timber.plant(
           new Timber.DebugTree() {
@@ -38,4 +53,12 @@ public class OpenBotApplication extends Application {
           });
     }
   }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      interpreterCache.clear();
+    }
+  }
 }
@@ -8,7 +8,6 @@ import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.SystemClock;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -19,20 +18,29 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.camera.core.ImageProxy;
 import androidx.navigation.Navigation;
+import androidx.preference.PreferenceManager;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import java.io.IOException;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
+import org.openbot.OpenBotApplication;
 import org.openbot.R;
 import org.openbot.common.CameraFragment;
 import org.openbot.databinding.FragmentAutopilotBinding;
 import org.openbot.env.BorderedText;
 import org.openbot.env.ImageUtils;
+import org.openbot.env.LumaFrame;
+import org.openbot.env.SharedPreferencesManager;
+import org.openbot.env.YuvFrame;
 import org.openbot.tflite.Autopilot;
+import org.openbot.tflite.FrameChangeGate;
+import org.openbot.tflite.InferencePipeline;
+import org.openbot.tflite.InferenceTuner;
 import org.openbot.tflite.Model;
 import org.openbot.tflite.Network;
+import org.openbot.tflite.TfLiteBackend;
 import org.openbot.tracking.MultiBoxTracker;
 import org.openbot.utils.Constants;
 import org.openbot.utils.Enums;
@@ -46,9 +54,24 @@ public class AutopilotFragment extends CameraFragment {
   private FragmentAutopilotBinding binding;
   private Handler handler;
   private HandlerThread handlerThread;
+  private Handler actuationHandler;
+  private HandlerThread actuationThread;
+
+  /** Frames are preprocessed on the camera thread while the previous one is inferred. */
+  private static final int NUM_PIPELINE_BUFFERS = 3;
+
+  private volatile InferencePipeline<Autopilot, Control> pipeline;
+
+  /** Skips frames while standing still in front of an unchanged scene, null if disabled. */
+  private volatile FrameChangeGate frameGate;
+
+  private int lastIndicator;
+  /** Copy of the last control of the network, only accessed on the actuation thread. */
+  private final Control lastControl = new Control(0, 0);
+
+  private boolean hasLastControl;
 
   private long lastProcessingTimeMs;
-  private boolean computingNetwork = false;
 
   private static final float TEXT_SIZE_DIP = 10;
 
@@ -63,6 +86,8 @@ public class AutopilotFragment extends CameraFragment {
   private Model model;
   private Network.Device device = Network.Device.CPU;
   private int numThreads = -1;
+  private boolean autoConfiguration;
+  private final InferenceTuner tuner = new InferenceTuner(TfLiteBackend::load);
 
   @Override
   public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -94,11 +119,16 @@ public class AutopilotFragment extends CameraFragment {
     initModelSpinner(binding.modelSpinner, models, preferencesManager.getAutopilotModel());
     initServerSpinner(binding.serverSpinner);
 
+    setYuvPreprocessing(true);
     setAnalyserResolution(Enums.Preview.HD.getValue());
     binding.deviceSpinner.setOnItemSelectedListener(
         new AdapterView.OnItemSelectedListener() {
           @Override
           public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+            if (position == SharedPreferencesManager.AUTO_DEVICE) {
+              setAutoConfiguration();
+              return;
+            }
             String selected = parent.getItemAtPosition(position).toString();
             setDevice(Network.Device.valueOf(selected.toUpperCase()));
           }
@@ -196,7 +226,6 @@ public class AutopilotFragment extends CameraFragment {
   }
 
   protected void onInferenceConfigurationChanged() {
-    computingNetwork = false;
     if (croppedBitmap == null) {
       // Defer creation until we're getting camera frames.
       return;
@@ -210,16 +239,40 @@ public class AutopilotFragment extends CameraFragment {
   private void recreateNetwork(Model model, Network.Device device, int numThreads) {
     if (model == null) return;
     tracker.clearTrackedObjects();
+    if (pipeline != null) {
+      pipeline.close();
+      pipeline = null;
+    }
+    if (frameGate != null) frameGate.reset();
     if (autopilot != null) {
       Timber.d("Closing autoPilot.");
       autopilot.close();
       autopilot = null;
     }
 
+    // A default configuration is used until the model is benchmarked in the background.
+    if (device == null) {
+      InferenceTuner.Configuration configuration =
+          tuner.getConfiguration(requireActivity(), model, preferencesManager, this::onTuned);
+      Timber.d("Using tuned configuration %s", configuration);
+      device = configuration.device;
+      numThreads = configuration.numThreads;
+      final String tuned =
+          device == Network.Device.CPU ? String.valueOf(numThreads) : device.toString();
+      requireActivity().runOnUiThread(() -> binding.threads.setText(tuned));
+    }
+
     try {
       Timber.d(
           "Creating autopilot (model=%s, device=%s, numThreads=%d)", model, device, numThreads);
-      autopilot = Autopilot.create(requireActivity(), model, device, numThreads);
+      autopilot =
+          Autopilot.create(
+              OpenBotApplication.getInterpreterCache(),
+              requireActivity(),
+              model,
+              device,
+              numThreads);
+      autopilot.setNumInputBuffers(NUM_PIPELINE_BUFFERS);
       croppedBitmap =
           Bitmap.createBitmap(
               autopilot.getImageSizeX(), autopilot.getImageSizeY(), Bitmap.Config.ARGB_8888);
@@ -242,6 +295,7 @@ public class AutopilotFragment extends CameraFragment {
       Matrix cropToFrameTransform = new Matrix();
       frameToCropTransform.invert(cropToFrameTransform);
 
+      pipeline = createPipeline(autopilot);
     } catch (IllegalArgumentException | IOException e) {
       String msg = "Failed to create network.";
       Timber.e(e, msg);
@@ -256,33 +310,92 @@ public class AutopilotFragment extends CameraFragment {
     }
   }
 
+  private InferencePipeline<Autopilot, Control> createPipeline(Autopilot autopilot) {
+    return new InferencePipeline<>(
+        autopilot,
+        NUM_PIPELINE_BUFFERS,
+        this::runInBackground,
+        this::runOnActuationThread,
+        (network, index, frameId) -> {
+          network.selectInputBuffer(index);
+          return network.recognizePreprocessedImage(vehicle.getIndicator());
+        },
+        (control, frameId) -> {
+          lastControl.set(control.getLeft(), control.getRight());
+          hasLastControl = true;
+          handleDriveCommand(control);
+          onFrameConsumed(frameId);
+        });
+  }
+
   @Override
   public synchronized void onResume() {
     handlerThread = new HandlerThread("inference");
     handlerThread.start();
     handler = new Handler(handlerThread.getLooper());
+    actuationThread = new HandlerThread("actuation");
+    actuationThread.start();
+    actuationHandler = new Handler(actuationThread.getLooper());
+    if (autopilot != null) pipeline = createPipeline(autopilot);
+    frameGate =
+        PreferenceManager.getDefaultSharedPreferences(requireContext())
+                .getBoolean("frame_gating", false)
+            ? new FrameChangeGate()
+            : null;
     super.onResume();
   }
 
   @Override
   public synchronized void onPause() {
+    if (pipeline != null) {
+      pipeline.close();
+      pipeline = null;
+    }
     handlerThread.quitSafely();
+    actuationThread.quitSafely();
     try {
       handlerThread.join();
       handlerThread = null;
       handler = null;
+      actuationThread.join();
+      actuationThread = null;
+      actuationHandler = null;
     } catch (final InterruptedException e) {
       e.printStackTrace();
     }
     super.onPause();
   }
 
+  @Override
+  public void onDestroy() {
+    // Hands the interpreter back to the cache for the next fragment.
+    if (autopilot != null) {
+      autopilot.close();
+      autopilot = null;
+    }
+    super.onDestroy();
+  }
+
+  /** Recreates the network with the tuned configuration unless the selection changed meanwhile. */
+  private void onTuned(Model model, InferenceTuner.Configuration configuration) {
+    runInBackground(
+        () -> {
+          if (model == getModel() && getDevice() == null) recreateNetwork(model, null, 0);
+        });
+  }
+
   protected synchronized void runInBackground(final Runnable r) {
     if (handler != null) {
       handler.post(r);
     }
   }
 
+  protected synchronized void runOnActuationThread(final Runnable r) {
+    if (actuationHandler != null) {
+      actuationHandler.post(r);
+    }
+  }
+
   @Override
   protected void processUSBData(String data) {
     binding.controllerContainer.speedInfo.setText(
@@ -353,6 +466,7 @@ public class AutopilotFragment extends CameraFragment {
     binding.controllerContainer.driveMode.setAlpha(b ? 0.5f : 1f);
     binding.controllerContainer.speedMode.setAlpha(b ? 0.5f : 1f);
 
+    if (frameGate != null) frameGate.reset();
     if (!b) handler.postDelayed(() -> vehicle.setControl(0, 0), 500);
   }
 
@@ -362,37 +476,99 @@ public class AutopilotFragment extends CameraFragment {
   protected void processFrame(Bitmap bitmap, ImageProxy image) {
     if (tracker == null) updateCropImageInfo();
 
-    ++frameNum;
+    frameNum = getFrameId();
     if (binding != null && binding.autoSwitch.isChecked()) {
-      // If network is busy, return.
-      if (computingNetwork) {
+      final InferencePipeline<Autopilot, Control> pipeline = this.pipeline;
+      // Inference pauses while the model is benchmarked on the same cores.
+      if (pipeline == null || tuner.isTuning()) {
         return;
       }
 
-      computingNetwork = true;
-      Timber.i("Putting image " + frameNum + " for detection in bg thread.");
-
-      runInBackground(
-          () -> {
-            final Canvas canvas = new Canvas(croppedBitmap);
-            canvas.drawBitmap(bitmap, frameToCropTransform, null);
-
-            if (autopilot != null) {
-              Timber.i("Running autopilot on image %s", frameNum);
-              final long startTime = SystemClock.elapsedRealtime();
-              handleDriveCommand(autopilot.recognizeImage(croppedBitmap, vehicle.getIndicator()));
-              lastProcessingTimeMs = SystemClock.elapsedRealtime() - startTime;
+      pipeline.submit(
+          frameNum,
+          (network, index) -> {
+            if (bitmap != null) {
+              final Canvas canvas = new Canvas(croppedBitmap);
+              canvas.drawBitmap(bitmap, frameToCropTransform, null);
+              network.convertBitmapToByteBuffer(croppedBitmap, index);
+            } else {
+              // Fused preprocessing from the still open YUV image.
+              network.convertYuvToByteBuffer(YuvFrame.of(image), frameToCropTransform, index);
             }
-
-            computingNetwork = false;
           });
-      if (lastProcessingTimeMs > 0)
+
+      lastProcessingTimeMs =
+          (long) pipeline.getLastStageTimeMs(InferencePipeline.Stage.INFERENCE);
+      if (frameNum % 100 == 0) {
+        Timber.d(
+            "Pipeline: pre %.1f ms, inference %.1f ms, actuation %.1f ms, dropped %d/%d",
+            pipeline.getAverageStageTimeMs(InferencePipeline.Stage.PREPROCESS),
+            pipeline.getAverageStageTimeMs(InferencePipeline.Stage.INFERENCE),
+            pipeline.getAverageStageTimeMs(InferencePipeline.Stage.ACTUATION),
+            pipeline.getDroppedFrames(),
+            pipeline.getSubmittedFrames());
+        if (frameGate != null) {
+          Timber.d(
+              "Frame gate: skipped %d/%d (%.0f%%)",
+              frameGate.getSkippedFrames(),
+              frameGate.getCheckedFrames(),
+              100 * frameGate.getSkipRatio());
+        }
+      }
+      final double intervalMs = pipeline.getAverageIntervalMs();
+      if (intervalMs > 0) {
+        final double p50 = getLatencyTracker().getLatencyPercentileMs(50);
+        final double p90 = getLatencyTracker().getLatencyPercentileMs(90);
         requireActivity()
             .runOnUiThread(
                 () ->
                     binding.inferenceInfo.setText(
-                        String.format(Locale.US, "%d fps", 1000 / lastProcessingTimeMs)));
+                        String.format(
+                            Locale.US,
+                            "%d fps, %.0f/%.0f ms",
+                            Math.round(1000 / intervalMs),
+                            p50,
+                            p90)));
+      }
+    }
+  }
+
+  /**
+   * Reuses the last control for a frame whose brightness did not change, so that the frame is not
+   * even converted to colour.
+   */
+  @Override
+  protected boolean processLumaFrame(LumaFrame frame, ImageProxy image) {
+    if (binding == null
+        || !binding.autoSwitch.isChecked()
+        || pipeline == null
+        || tuner.isTuning()
+        || !skipFrame(frame)) {
+      return false;
     }
+    frameNum = getFrameId();
+    final long skippedFrame = frameNum;
+    runOnActuationThread(
+        () -> {
+          if (hasLastControl) handleDriveCommand(lastControl);
+          onFrameConsumed(skippedFrame);
+        });
+    return true;
+  }
+
+  /**
+   * Returns true if the last control can be reused for the frame. A new indicator changes the
+   * output of the network, so it always leads to an inference.
+   */
+  private boolean skipFrame(LumaFrame frame) {
+    final FrameChangeGate frameGate = this.frameGate;
+    if (frameGate == null) return false;
+    final int indicator = vehicle.getIndicator();
+    if (indicator != lastIndicator) {
+      lastIndicator = indicator;
+      frameGate.reset();
+    }
+    return frameGate.shouldSkip(frame, vehicle.getSpeedPercent());
   }
 
   protected void handleDriveCommand(Control control) {
@@ -424,14 +600,29 @@ public class AutopilotFragment extends CameraFragment {
     }
   }
 
+  /** Returns null if the device and number of threads are tuned automatically. */
   protected Network.Device getDevice() {
-    return device;
+    return autoConfiguration ? null : device;
+  }
+
+  private void setAutoConfiguration() {
+    if (!autoConfiguration) {
+      Timber.d("Updating  device: auto");
+      autoConfiguration = true;
+      binding.plus.setEnabled(false);
+      binding.minus.setEnabled(false);
+      binding.threads.setText(R.string.auto);
+      binding.threads.setTextColor(Color.GRAY);
+      preferencesManager.setDevice(SharedPreferencesManager.AUTO_DEVICE);
+      onInferenceConfigurationChanged();
+    }
   }
 
   private void setDevice(Network.Device device) {
-    if (this.device != device) {
+    if (this.device != device || autoConfiguration) {
       Timber.d("Updating  device: %s", device);
       this.device = device;
+      autoConfiguration = false;
       final boolean threadsEnabled = device == Network.Device.CPU;
       binding.plus.setEnabled(threadsEnabled);
       binding.minus.setEnabled(threadsEnabled);
@@ -1,6 +1,7 @@
 package org.openbot.common;
 
 import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.os.Bundle;
@@ -20,30 +21,47 @@ import androidx.camera.core.Preview;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
 import androidx.core.content.ContextCompat;
+import androidx.preference.PreferenceManager;
 import androidx.viewbinding.ViewBinding;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import org.openbot.R;
+import org.openbot.env.FrameBuffer;
+import org.openbot.env.FrameBufferPool;
+import org.openbot.env.FrameLatencyTracker;
 import org.openbot.env.ImageUtils;
+import org.openbot.env.LumaFrame;
+import org.openbot.env.YuvFrame;
+import org.openbot.env.YuvToArgbConverter;
 import org.openbot.utils.Constants;
 import org.openbot.utils.Enums;
 import org.openbot.utils.PermissionUtils;
-import org.openbot.utils.YuvToRgbConverter;
 import timber.log.Timber;
 
 public abstract class CameraFragment extends ControlsFragment {
 
+  /** Images CameraX queues for the analyzer by default if frames are not dropped. */
+  private static final int DEFAULT_IMAGE_QUEUE_DEPTH = 6;
+
   private ExecutorService cameraExecutor;
   private PreviewView previewView;
   private Preview preview;
   private static int lensFacing = CameraSelector.LENS_FACING_BACK;
   private ProcessCameraProvider cameraProvider;
   private Size analyserResolution = Enums.Preview.HD.getValue();
-  private YuvToRgbConverter converter;
-  private Bitmap bitmapBuffer;
+  private final YuvToArgbConverter converter = new YuvToArgbConverter();
+  /** Consumers only read a frame until processFrame returns, so one buffer serves every frame. */
+  private final FrameBufferPool framePool = new FrameBufferPool(1);
+
+  private final FrameLatencyTracker latencyTracker = new FrameLatencyTracker(100);
+
+  private long frameId;
   private int rotationDegrees;
+  private int analyseImageWidth;
+  private int analyseImageHeight;
+  private boolean yuvPreprocessing = false;
 
   protected View inflateFragment(int resId, LayoutInflater inflater, ViewGroup container) {
     return addCamera(inflater.inflate(resId, container, false), inflater, container);
@@ -96,8 +114,6 @@ public abstract class CameraFragment extends ControlsFragment {
 
   @SuppressLint({"UnsafeExperimentalUsageError", "UnsafeOptInUsageError"})
   private void bindCameraUseCases() {
-    converter = new YuvToRgbConverter(requireContext());
-    bitmapBuffer = null;
     preview = new Preview.Builder().setTargetAspectRatio(AspectRatio.RATIO_16_9).build();
     final boolean rotated = ImageUtils.getScreenOrientation(requireActivity()) % 180 == 90;
     final PreviewView.ScaleType scaleType =
@@ -106,26 +122,58 @@ public abstract class CameraFragment extends ControlsFragment {
     preview.setSurfaceProvider(previewView.getSurfaceProvider());
     CameraSelector cameraSelector =
         new CameraSelector.Builder().requireLensFacing(lensFacing).build();
-    ImageAnalysis imageAnalysis;
+    ImageAnalysis.Builder analysisBuilder = new ImageAnalysis.Builder();
 
     if (analyserResolution == null)
-      imageAnalysis =
-          new ImageAnalysis.Builder().setTargetAspectRatio(AspectRatio.RATIO_16_9).build();
-    else
-      imageAnalysis = new ImageAnalysis.Builder().setTargetResolution(analyserResolution).build();
+      analysisBuilder.setTargetAspectRatio(AspectRatio.RATIO_16_9);
+    else analysisBuilder.setTargetResolution(analyserResolution);
+    setBackpressureStrategy(analysisBuilder);
+    ImageAnalysis imageAnalysis = analysisBuilder.build();
+    latencyTracker.reset();
     // insert your code here.
     imageAnalysis.setAnalyzer(
         cameraExecutor,
         image -> {
-          if (bitmapBuffer == null)
-            bitmapBuffer =
-                Bitmap.createBitmap(image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888);
-
+          ++frameId;
+          latencyTracker.stampEntry(frameId, image.getImageInfo().getTimestamp());
+          analyseImageWidth = image.getWidth();
+          analyseImageHeight = image.getHeight();
           rotationDegrees = image.getImageInfo().getRotationDegrees();
-          converter.yuvToRgb(image.getImage(), bitmapBuffer);
-          image.close();
+          if (processLumaFrame(LumaFrame.of(image), image)) {
+            // Handled from the brightness alone, without any colour conversion.
+            image.close();
+            return;
+          }
+          if (yuvPreprocessing) {
+            // Keep the image open while processing, so its planes can be read directly.
+            processFrame((Bitmap) null, image);
+            image.close();
+            return;
+          }
+
+          final FrameBuffer frame =
+              framePool.acquire(
+                  image.getWidth(),
+                  image.getHeight(),
+                  frameId,
+                  image.getImageInfo().getTimestamp());
+          if (frame == null) {
+            image.close();
+            final long dropped = framePool.getDroppedFrames();
+            if (dropped % 100 == 1) {
+              Timber.d("Dropped frame %d, %d frames in total", frameId, dropped);
+            }
+            return;
+          }
 
-          processFrame(bitmapBuffer, image);
+          try {
+            converter.convert(YuvFrame.of(image), frame.getBitmap());
+            latencyTracker.stampConversion(frameId);
+            image.close();
+            processFrame(frame, image);
+          } finally {
+            frame.release();
+          }
         });
     try {
       if (cameraProvider != null) {
@@ -137,6 +185,24 @@ public abstract class CameraFragment extends ControlsFragment {
     }
   }
 
+  /**
+   * Keeps only the latest image for the analyzer by default, so that a slow analyzer always gets a
+   * fresh frame. Alternatively, the camera queues up to the configured number of images and stalls
+   * once the queue is full, which processes every frame at the cost of latency.
+   */
+  private void setBackpressureStrategy(ImageAnalysis.Builder builder) {
+    SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(requireContext());
+    if ("queue".equals(preferences.getString("analysis_backpressure", "latest"))) {
+      final int depth = preferences.getInt("image_queue_depth", DEFAULT_IMAGE_QUEUE_DEPTH);
+      Timber.d("Analysis backpressure: queue of %d images", depth);
+      builder
+          .setBackpressureStrategy(ImageAnalysis.STRATEGY_BLOCK_PRODUCER)
+          .setImageQueueDepth(depth);
+    } else {
+      builder.setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST);
+    }
+  }
+
   public int getRotationDegrees() {
     return rotationDegrees;
   }
@@ -167,7 +233,19 @@ public abstract class CameraFragment extends ControlsFragment {
   }
 
   public Size getMaxAnalyseImageSize() {
-    return new Size(bitmapBuffer.getWidth(), bitmapBuffer.getHeight());
+    return new Size(analyseImageWidth, analyseImageHeight);
+  }
+
+  /**
+   * Skips the RGB conversion of camera frames. {@link #processFrame} is then called without a
+   * bitmap and with the image still open, so that networks can preprocess the YUV planes directly.
+   */
+  protected void setYuvPreprocessing(boolean yuvPreprocessing) {
+    this.yuvPreprocessing = yuvPreprocessing;
+  }
+
+  protected boolean isYuvPreprocessing() {
+    return yuvPreprocessing;
   }
 
   public void toggleCamera() {
@@ -188,5 +266,64 @@ public abstract class CameraFragment extends ControlsFragment {
     bindCameraUseCases();
   }
 
-  protected abstract void processFrame(Bitmap image, ImageProxy imageProxy);
+  /** Frames converted to ARGB, and the number of frames dropped because all buffers were in use. */
+  protected FrameBufferPool getFramePool() {
+    return framePool;
+  }
+
+  /**
+   * Id of the frame that is currently analyzed, incremented for every camera image. It identifies
+   * the frame in {@link #onFrameConsumed}.
+   */
+  protected long getFrameId() {
+    return frameId;
+  }
+
+  /** Timestamps of the frames, from capture to the control derived from them. */
+  protected FrameLatencyTracker getLatencyTracker() {
+    return latencyTracker;
+  }
+
+  /**
+   * Called by subclasses once they are done with a frame, e.g. after the control computed from it
+   * was sent to the vehicle, from any thread. Records the capture-to-control latency of the frame.
+   */
+  protected void onFrameConsumed(long frameId) {
+    if (latencyTracker.stampConsumed(frameId) && latencyTracker.getRecordedFrames() % 100 == 0) {
+      Timber.d(
+          "Latency: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms (queue %.1f ms, conversion %.1f ms,"
+              + " consumer %.1f ms)",
+          latencyTracker.getLatencyPercentileMs(50),
+          latencyTracker.getLatencyPercentileMs(90),
+          latencyTracker.getLatencyPercentileMs(99),
+          latencyTracker.getAverageQueueMs(),
+          latencyTracker.getAverageConversionMs(),
+          latencyTracker.getAverageConsumerMs());
+    }
+  }
+
+  /**
+   * Receives the frames converted to ARGB. The buffer is reused as soon as this method returns, so
+   * pixels that are read on another thread have to be copied first. The default implementation
+   * passes the bitmap on to {@link #processFrame(Bitmap, ImageProxy)}.
+   */
+  protected void processFrame(FrameBuffer frame, ImageProxy imageProxy) {
+    processFrame(frame.getBitmap(), imageProxy);
+  }
+
+  /**
+   * Receives the frames, with a null bitmap and the image still open if {@link
+   * #setYuvPreprocessing} is set. The bitmap is only valid until this method returns.
+   */
+  protected void processFrame(Bitmap image, ImageProxy imageProxy) {}
+
+  /**
+   * Receives every frame as a view on its Y plane before any colour conversion. Consumers that only
+   * need the brightness of a frame, e.g. to tell that the scene did not change, handle it here and
+   * return true; the frame is then neither converted nor passed to {@link #processFrame}. The frame
+   * is only valid until this method returns.
+   */
+  protected boolean processLumaFrame(LumaFrame frame, ImageProxy imageProxy) {
+    return false;
+  }
 }
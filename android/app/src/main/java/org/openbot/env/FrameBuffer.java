@@ -0,0 +1,47 @@
+package org.openbot.env;
+
+import android.graphics.Bitmap;
+
+/**
+ * A camera frame converted to ARGB, owned by a {@link FrameBufferPool}. The pixels may only be
+ * read until the buffer is released.
+ */
+public class FrameBuffer {
+
+  private final FrameBufferPool pool;
+
+  /** Guarded by the pool. */
+  boolean inUse;
+
+  Bitmap bitmap;
+  private long frameId;
+  private long timestampNs;
+
+  FrameBuffer(FrameBufferPool pool) {
+    this.pool = pool;
+  }
+
+  void set(Bitmap bitmap, long frameId, long timestampNs) {
+    this.bitmap = bitmap;
+    this.frameId = frameId;
+    this.timestampNs = timestampNs;
+  }
+
+  public Bitmap getBitmap() {
+    return bitmap;
+  }
+
+  public long getFrameId() {
+    return frameId;
+  }
+
+  /** Sensor timestamp of the camera image. */
+  public long getTimestampNs() {
+    return timestampNs;
+  }
+
+  /** Gives the buffer back to the pool, which reuses it for a later frame. */
+  public void release() {
+    pool.release(this);
+  }
+}
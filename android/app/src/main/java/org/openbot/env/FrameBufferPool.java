@@ -0,0 +1,91 @@
+package org.openbot.env;
+
+import android.graphics.Bitmap;
+
+/**
+ * A fixed number of ARGB frame buffers, so that the camera reuses the bitmaps it converts frames
+ * into instead of allocating one per frame.
+ *
+ * <p>The camera {@link #acquire}s a buffer per frame, hands it to the consumers and gives it back
+ * with {@link FrameBuffer#release} once they returned; consumers that need the pixels later copy
+ * them, like the JPEG encoder of the logger. If all buffers are still in use, the frame is dropped
+ * and counted, instead of overwriting pixels that are still read.
+ */
+public class FrameBufferPool {
+
+  private final FrameBuffer[] buffers;
+  private long acquiredFrames;
+  private long droppedFrames;
+
+  public FrameBufferPool(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("At least one buffer is required: " + size);
+    }
+    buffers = new FrameBuffer[size];
+    for (int i = 0; i < size; i++) {
+      buffers[i] = new FrameBuffer(this);
+    }
+  }
+
+  /**
+   * Returns a free buffer holding a bitmap of the given size with one reference, which the caller
+   * releases, or null if all buffers are in use.
+   */
+  public FrameBuffer acquire(int width, int height, long frameId, long timestampNs) {
+    final FrameBuffer buffer;
+    synchronized (this) {
+      buffer = findFree();
+      if (buffer == null) {
+        droppedFrames++;
+        return null;
+      }
+      acquiredFrames++;
+      buffer.inUse = true;
+    }
+    Bitmap bitmap = buffer.bitmap;
+    if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+      // Allocated lazily, and again after the resolution of the camera changed.
+      bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+    buffer.set(bitmap, frameId, timestampNs);
+    return buffer;
+  }
+
+  private FrameBuffer findFree() {
+    for (FrameBuffer buffer : buffers) {
+      if (!buffer.inUse) {
+        return buffer;
+      }
+    }
+    return null;
+  }
+
+  synchronized void release(FrameBuffer buffer) {
+    if (!buffer.inUse) {
+      throw new IllegalStateException("The frame buffer has already been released.");
+    }
+    buffer.inUse = false;
+  }
+
+  public int getSize() {
+    return buffers.length;
+  }
+
+  /** Number of buffers that are currently acquired and not released. */
+  public synchronized int getNumInUse() {
+    int inUse = 0;
+    for (FrameBuffer buffer : buffers) {
+      if (buffer.inUse) inUse++;
+    }
+    return inUse;
+  }
+
+  public synchronized long getAcquiredFrames() {
+    return acquiredFrames;
+  }
+
+  /** Frames that could not be converted because all buffers were still in use. */
+  public synchronized long getDroppedFrames() {
+    return droppedFrames;
+  }
+}
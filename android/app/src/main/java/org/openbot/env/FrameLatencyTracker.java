@@ -0,0 +1,175 @@
+package org.openbot.env;
+
+import android.os.SystemClock;
+import java.util.Arrays;
+
+/**
+ * Follows camera frames from capture to the control derived from them, to tell stale frames from
+ * slow processing.
+ *
+ * <p>Each frame is stamped with the sensor timestamp of the camera and the time it entered the
+ * analyzer, then when its conversion is done and finally when its consumer, e.g. the network and
+ * the vehicle control, is done with it. The time between capture and analyzer entry is spent in
+ * the queue of the camera, so a growing queue time points to stale frames, while a growing
+ * consumer time points to slow inference. Capture-to-control latencies of the last frames are kept
+ * for percentiles; frames that are dropped on the way are never recorded.
+ *
+ * <p>All times are in the timebase of the sensor timestamps, which is either {@link
+ * SystemClock#elapsedRealtimeNanos} or {@link System#nanoTime}, depending on the camera.
+ */
+public class FrameLatencyTracker {
+
+  /** Frames that can be in flight between the analyzer and their consumer at the same time. */
+  private static final int NUM_SLOTS = 16;
+
+  private static final double SMOOTHING = 0.1;
+  private static final double NANOS_PER_MS = 1e6;
+
+  private final long[] slotFrameIds = new long[NUM_SLOTS];
+  private final long[] sensorTimestamps = new long[NUM_SLOTS];
+  private final long[] entryTimes = new long[NUM_SLOTS];
+  private final long[] conversionTimes = new long[NUM_SLOTS];
+
+  private final long[] latencies;
+  private final long[] sorted;
+  private int numLatencies;
+  private int nextLatency;
+  private boolean sortedValid;
+
+  private double averageQueueMs;
+  private double averageConversionMs;
+  private double averageConsumerMs;
+  private long recordedFrames;
+
+  private volatile Boolean realtimeTimebase;
+
+  /** Keeps the latencies of the last {@code windowSize} frames for percentiles. */
+  public FrameLatencyTracker(int windowSize) {
+    if (windowSize < 1) {
+      throw new IllegalArgumentException("The window needs at least one frame: " + windowSize);
+    }
+    latencies = new long[windowSize];
+    sorted = new long[windowSize];
+    Arrays.fill(slotFrameIds, -1);
+  }
+
+  /** Current time in the timebase of the sensor timestamps. */
+  public long now() {
+    return Boolean.TRUE.equals(realtimeTimebase)
+        ? SystemClock.elapsedRealtimeNanos()
+        : System.nanoTime();
+  }
+
+  /** Stamps a frame entering the analyzer now. The first frame selects the timebase. */
+  public void stampEntry(long frameId, long sensorTimestampNs) {
+    if (realtimeTimebase == null) {
+      // Whichever clock is closer to the sensor timestamp is the one the camera uses.
+      realtimeTimebase =
+          Math.abs(SystemClock.elapsedRealtimeNanos() - sensorTimestampNs)
+              < Math.abs(System.nanoTime() - sensorTimestampNs);
+    }
+    stampEntry(frameId, sensorTimestampNs, now());
+  }
+
+  synchronized void stampEntry(long frameId, long sensorTimestampNs, long entryNs) {
+    final int slot = slot(frameId);
+    slotFrameIds[slot] = frameId;
+    sensorTimestamps[slot] = sensorTimestampNs;
+    entryTimes[slot] = entryNs;
+    conversionTimes[slot] = entryNs;
+  }
+
+  /**
+   * Stamps the end of the conversion of a frame now. Frames that are not stamped here are handed
+   * to their consumer unconverted, e.g. as YUV planes.
+   */
+  public void stampConversion(long frameId) {
+    stampConversion(frameId, now());
+  }
+
+  synchronized void stampConversion(long frameId, long conversionNs) {
+    final int slot = slot(frameId);
+    if (slotFrameIds[slot] == frameId) conversionTimes[slot] = conversionNs;
+  }
+
+  /**
+   * Stamps a frame whose consumer is done now and records its latency. Returns false if the frame
+   * is unknown, because it was already recorded or too many frames were stamped since its entry.
+   */
+  public boolean stampConsumed(long frameId) {
+    return stampConsumed(frameId, now());
+  }
+
+  synchronized boolean stampConsumed(long frameId, long consumedNs) {
+    final int slot = slot(frameId);
+    if (slotFrameIds[slot] != frameId) return false;
+    slotFrameIds[slot] = -1;
+
+    final long sensorNs = sensorTimestamps[slot];
+    final long entryNs = entryTimes[slot];
+    final long conversionNs = conversionTimes[slot];
+    averageQueueMs = smooth(averageQueueMs, (entryNs - sensorNs) / NANOS_PER_MS);
+    averageConversionMs = smooth(averageConversionMs, (conversionNs - entryNs) / NANOS_PER_MS);
+    averageConsumerMs = smooth(averageConsumerMs, (consumedNs - conversionNs) / NANOS_PER_MS);
+
+    latencies[nextLatency] = consumedNs - sensorNs;
+    nextLatency = (nextLatency + 1) % latencies.length;
+    numLatencies = Math.min(numLatencies + 1, latencies.length);
+    sortedValid = false;
+    recordedFrames++;
+    return true;
+  }
+
+  private static int slot(long frameId) {
+    return (int) (frameId % NUM_SLOTS);
+  }
+
+  private static double smooth(double average, double value) {
+    return average == 0 ? value : average + SMOOTHING * (value - average);
+  }
+
+  /**
+   * Returns the given percentile (0 to 100) of the capture-to-control latency over the last
+   * frames, or 0 before any frame was recorded.
+   */
+  public synchronized double getLatencyPercentileMs(double percentile) {
+    if (numLatencies == 0) return 0;
+    if (!sortedValid) {
+      System.arraycopy(latencies, 0, sorted, 0, numLatencies);
+      Arrays.sort(sorted, 0, numLatencies);
+      sortedValid = true;
+    }
+    final int rank = (int) Math.ceil(percentile / 100 * numLatencies) - 1;
+    return sorted[Math.max(0, Math.min(numLatencies - 1, rank))] / NANOS_PER_MS;
+  }
+
+  /** Average time between capture and analyzer entry, spent in the camera queue. */
+  public synchronized double getAverageQueueMs() {
+    return averageQueueMs;
+  }
+
+  public synchronized double getAverageConversionMs() {
+    return averageConversionMs;
+  }
+
+  /** Average time from the end of the conversion until the consumer is done. */
+  public synchronized double getAverageConsumerMs() {
+    return averageConsumerMs;
+  }
+
+  public synchronized long getRecordedFrames() {
+    return recordedFrames;
+  }
+
+  /** Forgets all frames and selects the timebase again, e.g. after switching the camera. */
+  public synchronized void reset() {
+    Arrays.fill(slotFrameIds, -1);
+    numLatencies = 0;
+    nextLatency = 0;
+    sortedValid = false;
+    averageQueueMs = 0;
+    averageConversionMs = 0;
+    averageConsumerMs = 0;
+    realtimeTimebase = null;
+  }
+}
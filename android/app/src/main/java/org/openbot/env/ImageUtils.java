@@ -58,6 +58,12 @@ public class ImageUtils {
    * @param filename The filename for the bitmap.
    */
   public static void saveBitmap(final Bitmap bitmap, final String root, final String filename) {
+    saveBitmap(bitmap, root, filename, 99);
+  }
+
+  /** Saves a bitmap as JPEG with the given quality from 0 to 100. */
+  public static void saveBitmap(
+      final Bitmap bitmap, final String root, final String filename, final int quality) {
     LOGGER.i("Saving %dx%d bitmap to %s.", bitmap.getWidth(), bitmap.getHeight(), root);
     final File myDir = new File(root);
 
@@ -73,7 +79,7 @@ public class ImageUtils {
     }
     try {
       final FileOutputStream out = new FileOutputStream(file);
-      bitmap.compress(Bitmap.CompressFormat.JPEG, 99, out);
+      bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
       out.flush();
       out.close();
     } catch (final Exception e) {
@@ -100,7 +106,7 @@ public class ImageUtils {
     }
   }
 
-  private static int YUV2RGB(int y, int u, int v) {
+  public static int YUV2RGB(int y, int u, int v) {
     // Adjust and check YUV values
     y = (y - 16) < 0 ? 0 : (y - 16);
     u -= 128;
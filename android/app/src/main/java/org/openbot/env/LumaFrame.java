@@ -0,0 +1,104 @@
+package org.openbot.env;
+
+import androidx.camera.core.ImageProxy;
+import java.nio.ByteBuffer;
+
+/**
+ * A view on the Y (brightness) plane of a YUV_420_888 image for consumers that do not need colour,
+ * e.g. frame differencing or exposure statistics. The plane is not copied, so a {@code LumaFrame}
+ * is only valid as long as the image it was created from is open.
+ *
+ * <p>Rows may be padded ({@link #getRowStride} larger than the width) and the last row may end
+ * right after its last pixel, so always address pixels through this class.
+ */
+public class LumaFrame {
+
+  private final ByteBuffer plane;
+  private final int width;
+  private final int height;
+  private final int rowStride;
+  private final int pixelStride;
+
+  /** Used for bulk reads, so that the position of the plane buffer is left untouched. */
+  private final ByteBuffer reader;
+
+  public LumaFrame(ByteBuffer plane, int width, int height, int rowStride, int pixelStride) {
+    if (rowStride < (width - 1) * pixelStride + 1 || pixelStride < 1) {
+      throw new IllegalArgumentException(
+          "Invalid strides for width " + width + ": " + rowStride + ", " + pixelStride);
+    }
+    this.plane = plane;
+    this.width = width;
+    this.height = height;
+    this.rowStride = rowStride;
+    this.pixelStride = pixelStride;
+    reader = plane.duplicate();
+  }
+
+  public static LumaFrame of(ImageProxy image) {
+    ImageProxy.PlaneProxy plane = image.getPlanes()[0];
+    return new LumaFrame(
+        plane.getBuffer(),
+        image.getWidth(),
+        image.getHeight(),
+        plane.getRowStride(),
+        plane.getPixelStride());
+  }
+
+  public static LumaFrame of(YuvFrame frame) {
+    return new LumaFrame(
+        frame.getYPlane(), frame.getWidth(), frame.getHeight(), frame.getYRowStride(), 1);
+  }
+
+  public ByteBuffer getPlane() {
+    return plane;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getRowStride() {
+    return rowStride;
+  }
+
+  public int getPixelStride() {
+    return pixelStride;
+  }
+
+  /** Returns the brightness of a pixel in [0, 255]. */
+  public int get(int x, int y) {
+    return plane.get(y * rowStride + x * pixelStride) & 0xff;
+  }
+
+  /** Copies the {@link #getWidth} pixels of row {@code y} into {@code dst} at {@code offset}. */
+  public void getRow(int y, byte[] dst, int offset) {
+    final int start = y * rowStride;
+    if (pixelStride == 1) {
+      reader.position(start);
+      reader.get(dst, offset, width);
+    } else {
+      for (int x = 0; x < width; x++) {
+        dst[offset + x] = plane.get(start + x * pixelStride);
+      }
+    }
+  }
+
+  /** Mean brightness of every {@code step}-th pixel in both directions, e.g. for exposure. */
+  public float getMean(int step) {
+    long sum = 0;
+    int count = 0;
+    for (int y = 0; y < height; y += step) {
+      final int row = y * rowStride;
+      for (int x = 0; x < width; x += step) {
+        sum += plane.get(row + x * pixelStride) & 0xff;
+        count++;
+      }
+    }
+    return count == 0 ? 0 : (float) sum / count;
+  }
+}
@@ -27,8 +27,12 @@ public class SharedPreferencesManager {
   private static final String OBJECT_TYPE = "OBJECT_TYPE";
   private static final String DEFAULT_OBJECT_TYPE = "person";
 
-  private static final int DEFAULT_DEVICE = Network.Device.CPU.ordinal();
+  /** Device spinner position after the {@link Network.Device} entries: tune automatically. */
+  public static final int AUTO_DEVICE = Network.Device.values().length;
+
+  private static final int DEFAULT_DEVICE = AUTO_DEVICE;
   private static final String DEVICE = "DEVICE";
+  private static final String INFERENCE_CONFIG = "INFERENCE_CONFIG_";
   private static final int DEFAULT_NUM_THREAD = 4;
   private static final String NUM_THREAD = "NUM_THREAD";
   private static final String CAMERA_SWITCH = "CAMERA_SWITCH";
@@ -164,6 +168,14 @@ public class SharedPreferencesManager {
     return preferences.getBoolean(sensor, false);
   }
 
+  public void setInferenceConfig(String model, String config) {
+    preferences.edit().putString(INFERENCE_CONFIG + model, config).apply();
+  }
+
+  public String getInferenceConfig(String model) {
+    return preferences.getString(INFERENCE_CONFIG + model, null);
+  }
+
   public void setDelay(int delay) {
     preferences.edit().putInt(DELAY, delay).apply();
   }
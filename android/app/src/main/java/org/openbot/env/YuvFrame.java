@@ -0,0 +1,84 @@
+package org.openbot.env;
+
+import androidx.camera.core.ImageProxy;
+import java.nio.ByteBuffer;
+
+/**
+ * A lightweight view on the three planes of a YUV_420_888 image. The plane buffers are not copied,
+ * so a {@code YuvFrame} is only valid as long as the image it was created from is open.
+ */
+public class YuvFrame {
+
+  private final ByteBuffer yPlane;
+  private final ByteBuffer uPlane;
+  private final ByteBuffer vPlane;
+  private final int width;
+  private final int height;
+  private final int yRowStride;
+  private final int uvRowStride;
+  private final int uvPixelStride;
+
+  public YuvFrame(
+      ByteBuffer yPlane,
+      ByteBuffer uPlane,
+      ByteBuffer vPlane,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride) {
+    this.yPlane = yPlane;
+    this.uPlane = uPlane;
+    this.vPlane = vPlane;
+    this.width = width;
+    this.height = height;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+  }
+
+  public static YuvFrame of(ImageProxy image) {
+    ImageProxy.PlaneProxy[] planes = image.getPlanes();
+    return new YuvFrame(
+        planes[0].getBuffer(),
+        planes[1].getBuffer(),
+        planes[2].getBuffer(),
+        image.getWidth(),
+        image.getHeight(),
+        planes[0].getRowStride(),
+        planes[1].getRowStride(),
+        planes[1].getPixelStride());
+  }
+
+  public ByteBuffer getYPlane() {
+    return yPlane;
+  }
+
+  public ByteBuffer getUPlane() {
+    return uPlane;
+  }
+
+  public ByteBuffer getVPlane() {
+    return vPlane;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getYRowStride() {
+    return yRowStride;
+  }
+
+  public int getUvRowStride() {
+    return uvRowStride;
+  }
+
+  public int getUvPixelStride() {
+    return uvPixelStride;
+  }
+}
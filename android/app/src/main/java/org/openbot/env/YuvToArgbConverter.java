@@ -0,0 +1,223 @@
+package org.openbot.env;
+
+import android.graphics.Bitmap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts YUV_420_888 frames to ARGB_8888 with the same integer arithmetic as {@link
+ * ImageUtils#YUV2RGB}, so the results are identical, but without per-pixel multiplies and clamps:
+ *
+ * <ul>
+ *   <li>the contribution of every Y, U and V value to each channel is looked up in tables, and so
+ *       is the clamped and shifted channel value;
+ *   <li>two rows are converted at a time, so that the chroma terms of a 2x2 block are computed once
+ *       and shared by its four pixels;
+ *   <li>the rows are split into bands that are converted in parallel on a {@link ForkJoinPool}.
+ * </ul>
+ *
+ * <p>The pixels can be written into an {@code int[]}, a {@link Bitmap} or a direct {@link
+ * ByteBuffer}. A converter is not thread-safe, each camera pipeline should own one.
+ */
+public class YuvToArgbConverter {
+
+  /** Bands are not split below this number of rows, to keep the task overhead low. */
+  private static final int DEFAULT_MIN_ROWS_PER_TASK = 32;
+
+  private static final int[] Y_TABLE = new int[256];
+  private static final int[] V_TO_R = new int[256];
+  private static final int[] V_TO_G = new int[256];
+  private static final int[] U_TO_G = new int[256];
+  private static final int[] U_TO_B = new int[256];
+
+  /** Offset of the clamp tables, so that they can be indexed with negative shifted values. */
+  private static final int CLAMP_OFFSET;
+
+  private static final int[] CLAMP_R;
+  private static final int[] CLAMP_G;
+  private static final int[] CLAMP_B;
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      Y_TABLE[i] = 1192 * Math.max(i - 16, 0);
+      V_TO_R[i] = 1634 * (i - 128);
+      V_TO_G[i] = -833 * (i - 128);
+      U_TO_G[i] = -400 * (i - 128);
+      U_TO_B[i] = 2066 * (i - 128);
+    }
+    // Clamping to [0, kMaxChannelValue] and shifting by 10 equals shifting and clamping to 8 bits.
+    final int min = Math.min(V_TO_R[0], Math.min(V_TO_G[255] + U_TO_G[255], U_TO_B[0])) >> 10;
+    final int max =
+        (Y_TABLE[255] + Math.max(V_TO_R[255], Math.max(V_TO_G[0] + U_TO_G[0], U_TO_B[255])))
+            >> 10;
+    CLAMP_OFFSET = -min;
+    CLAMP_R = new int[max - min + 1];
+    CLAMP_G = new int[max - min + 1];
+    CLAMP_B = new int[max - min + 1];
+    for (int i = min; i <= max; i++) {
+      final int value = Math.max(0, Math.min(i, 255));
+      CLAMP_R[i + CLAMP_OFFSET] = value << 16;
+      CLAMP_G[i + CLAMP_OFFSET] = value << 8;
+      CLAMP_B[i + CLAMP_OFFSET] = value;
+    }
+  }
+
+  private final ForkJoinPool pool;
+  private final int minRowsPerTask;
+
+  private int[] pixels = new int[0];
+
+  /** Converts on the common fork-join pool. */
+  public YuvToArgbConverter() {
+    this(ForkJoinPool.commonPool(), DEFAULT_MIN_ROWS_PER_TASK);
+  }
+
+  /**
+   * @param pool Pool the row bands are converted on.
+   * @param minRowsPerTask Bands with fewer rows are not split any further.
+   */
+  public YuvToArgbConverter(ForkJoinPool pool, int minRowsPerTask) {
+    this.pool = pool;
+    this.minRowsPerTask = Math.max(2, minRowsPerTask & ~1);
+  }
+
+  /** Writes the pixels row by row into {@code out}, which needs width * height entries. */
+  public void convert(YuvFrame frame, int[] out) {
+    if (out.length < frame.getWidth() * frame.getHeight()) {
+      throw new IllegalArgumentException("Output too small: " + out.length);
+    }
+    pool.invoke(new Band(frame, out, null, 0, frame.getHeight()));
+  }
+
+  /** Writes the pixels into a bitmap of the size of the frame. */
+  public void convert(YuvFrame frame, Bitmap out) {
+    final int width = frame.getWidth();
+    final int height = frame.getHeight();
+    if (pixels.length < width * height) {
+      pixels = new int[width * height];
+    }
+    convert(frame, pixels);
+    out.setPixels(pixels, 0, width, 0, 0, width, height);
+  }
+
+  /**
+   * Writes the pixels from the current position of {@code out} in the memory layout of an
+   * ARGB_8888 {@link Bitmap} (R, G, B, A bytes), e.g. for {@link Bitmap#copyPixelsFromBuffer}. The
+   * position of {@code out} is not changed.
+   */
+  public void convert(YuvFrame frame, ByteBuffer out) {
+    if (out.remaining() < 4 * frame.getWidth() * frame.getHeight()) {
+      throw new IllegalArgumentException("Output too small: " + out.remaining());
+    }
+    pool.invoke(new Band(frame, null, out, 0, frame.getHeight()));
+  }
+
+  /** Converts the rows in [rowStart, rowEnd), rowStart must be even. */
+  private class Band extends RecursiveAction {
+    private final YuvFrame frame;
+    private final int[] out;
+    private final ByteBuffer byteOut;
+    private final int rowStart;
+    private final int rowEnd;
+
+    Band(YuvFrame frame, int[] out, ByteBuffer byteOut, int rowStart, int rowEnd) {
+      this.frame = frame;
+      this.out = out;
+      this.byteOut = byteOut;
+      this.rowStart = rowStart;
+      this.rowEnd = rowEnd;
+    }
+
+    @Override
+    protected void compute() {
+      if (rowEnd - rowStart <= minRowsPerTask) {
+        if (out != null) {
+          convertRows(frame, rowStart, rowEnd, out, rowStart * frame.getWidth());
+        } else {
+          convertRows(frame, rowStart, rowEnd, byteOut);
+        }
+        return;
+      }
+      final int middle = ((rowStart + rowEnd) >>> 1) & ~1;
+      invokeAll(
+          new Band(frame, out, byteOut, rowStart, middle),
+          new Band(frame, out, byteOut, middle, rowEnd));
+    }
+  }
+
+  private static void convertRows(YuvFrame frame, int rowStart, int rowEnd, ByteBuffer out) {
+    final int width = frame.getWidth();
+    final int[] rows = new int[2 * width];
+    final ByteBuffer buffer = out.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    final int base = out.position();
+    for (int row = rowStart; row < rowEnd; row += 2) {
+      final int end = Math.min(row + 2, rowEnd);
+      convertRows(frame, row, end, rows, 0);
+      int offset = base + 4 * row * width;
+      for (int i = 0; i < (end - row) * width; i++, offset += 4) {
+        // Swap red and blue, so that the little endian int is stored as R, G, B, A.
+        final int argb = rows[i];
+        buffer.putInt(offset, (argb & 0xff00ff00) | ((argb >> 16) & 0xff) | ((argb & 0xff) << 16));
+      }
+    }
+  }
+
+  /**
+   * Converts the rows in [rowStart, rowEnd) on the calling thread and writes them into {@code out}
+   * starting at {@code offset}. {@code rowStart} must be even.
+   */
+  static void convertRows(YuvFrame frame, int rowStart, int rowEnd, int[] out, int offset) {
+    final ByteBuffer yPlane = frame.getYPlane();
+    final ByteBuffer uPlane = frame.getUPlane();
+    final ByteBuffer vPlane = frame.getVPlane();
+    final int width = frame.getWidth();
+    final int yRowStride = frame.getYRowStride();
+    final int uvRowStride = frame.getUvRowStride();
+    final int uvPixelStride = frame.getUvPixelStride();
+    final int evenWidth = width & ~1;
+
+    for (int row = rowStart; row < rowEnd; row += 2) {
+      final boolean pair = row + 1 < rowEnd;
+      final int y0 = row * yRowStride;
+      final int y1 = y0 + yRowStride;
+      final int out0 = offset + (row - rowStart) * width;
+      final int out1 = out0 + width;
+      int uv = (row >> 1) * uvRowStride;
+
+      for (int col = 0; col < evenWidth; col += 2, uv += uvPixelStride) {
+        final int u = uPlane.get(uv) & 0xff;
+        final int v = vPlane.get(uv) & 0xff;
+        final int r = V_TO_R[v];
+        final int g = V_TO_G[v] + U_TO_G[u];
+        final int b = U_TO_B[u];
+
+        out[out0 + col] = toArgb(Y_TABLE[yPlane.get(y0 + col) & 0xff], r, g, b);
+        out[out0 + col + 1] = toArgb(Y_TABLE[yPlane.get(y0 + col + 1) & 0xff], r, g, b);
+        if (pair) {
+          out[out1 + col] = toArgb(Y_TABLE[yPlane.get(y1 + col) & 0xff], r, g, b);
+          out[out1 + col + 1] = toArgb(Y_TABLE[yPlane.get(y1 + col + 1) & 0xff], r, g, b);
+        }
+      }
+      if (evenWidth < width) {
+        final int u = uPlane.get(uv) & 0xff;
+        final int v = vPlane.get(uv) & 0xff;
+        final int r = V_TO_R[v];
+        final int g = V_TO_G[v] + U_TO_G[u];
+        final int b = U_TO_B[u];
+        out[out0 + evenWidth] = toArgb(Y_TABLE[yPlane.get(y0 + evenWidth) & 0xff], r, g, b);
+        if (pair) {
+          out[out1 + evenWidth] = toArgb(Y_TABLE[yPlane.get(y1 + evenWidth) & 0xff], r, g, b);
+        }
+      }
+    }
+  }
+
+  private static int toArgb(int y, int r, int g, int b) {
+    return 0xff000000
+        | CLAMP_R[((y + r) >> 10) + CLAMP_OFFSET]
+        | CLAMP_G[((y + g) >> 10) + CLAMP_OFFSET]
+        | CLAMP_B[((y + b) >> 10) + CLAMP_OFFSET];
+  }
+}
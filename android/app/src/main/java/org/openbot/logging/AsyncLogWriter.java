@@ -0,0 +1,532 @@
+package org.openbot.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import timber.log.Timber;
+
+/**
+ * Writes the lines of several log files on a thread of its own, so that logging a sensor event
+ * costs the caller an enqueue instead of a write and flush.
+ *
+ * <p>Lines from any number of threads go through one bounded ring buffer without locks: a
+ * producer claims a slot by advancing the tail with a compare-and-set and publishes it through the
+ * sequence number of the slot. If the ring is full, the line is dropped and counted instead of
+ * blocking the producer. The writer thread appends the lines to buffered files and commits them
+ * as a group, once enough bytes are pending or the oldest pending line is old enough. The files
+ * are only synced to storage when the writer is closed, which also happens on the writer thread,
+ * so that closing does not block the caller; {@link #awaitClosed} waits for it.
+ *
+ * <p>Binary logs of fixed-width records, see {@link BinaryLogFile}, go through the same ring in
+ * chunks of records instead of lines.
+ */
+public class AsyncLogWriter {
+
+  /** A file lines are appended to, with the number of lines enqueued, written and dropped. */
+  public static class LogFile {
+    private final File file;
+    private final FileOutputStream stream;
+    /** Null for binary logs, which are written to the channel of the stream. */
+    private final BufferedWriter writer;
+
+    final AtomicLong enqueuedLines = new AtomicLong();
+    final AtomicLong droppedLines = new AtomicLong();
+    private volatile long writtenLines;
+    /** Lines appended to the writer but not flushed yet, only accessed by the writer thread. */
+    private int pendingLines;
+
+    private LogFile(File file, int bufferSize) throws IOException {
+      this.file = file;
+      stream = new FileOutputStream(file, true);
+      writer =
+          bufferSize > 0
+              ? new BufferedWriter(
+                  new OutputStreamWriter(stream, StandardCharsets.UTF_8), bufferSize)
+              : null;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public long getEnqueuedLines() {
+      return enqueuedLines.get();
+    }
+
+    /** Lines that were flushed to the file. */
+    public long getWrittenLines() {
+      return writtenLines;
+    }
+
+    /** Lines that were dropped because the ring was full or the file could not be written. */
+    public long getDroppedLines() {
+      return droppedLines.get();
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: %d enqueued, %d written, %d dropped",
+          file.getName(), getEnqueuedLines(), getWrittenLines(), getDroppedLines());
+    }
+  }
+
+  /**
+   * A binary log of fixed-width records as described by its {@link LogSchema}, which is written at
+   * the start of the file.
+   *
+   * <p>A record is appended by {@link #beginRecord}, a put for every column in the order of the
+   * schema and {@link #endRecord}. Records are collected in direct buffers in the byte order of
+   * the schema, and a buffer is handed to the writer thread once it is full or its first record is
+   * older than the flush interval. The writer thread hands over old buffers itself, so that the
+   * records of a log that is rarely appended to do not wait in memory until the log is closed.
+   * When all buffers of the file are waiting to be written, records are dropped and counted.
+   *
+   * <p>Records of one file have to be appended from one thread at a time, which must not append
+   * anymore when the writer is closed. A record is put together in a buffer of its own and copied
+   * into the current chunk when it ends, which is the only step that is synchronized with the
+   * writer thread.
+   */
+  public static class BinaryLogFile extends LogFile {
+    private final AsyncLogWriter owner;
+    private final LogSchema schema;
+    private final int chunkSize;
+    private final ArrayBlockingQueue<ByteBuffer> freeChunks;
+    /** The record being put together, only accessed by the appending thread. */
+    private final ByteBuffer record;
+
+    private int column = -1;
+
+    // Guarded by this.
+    private int allocatedChunks;
+    private ByteBuffer chunk;
+    private int chunkRecords;
+    private long chunkStartNs;
+
+    private BinaryLogFile(AsyncLogWriter owner, File file, LogSchema schema) throws IOException {
+      super(file, 0);
+      this.owner = owner;
+      this.schema = schema;
+      chunkSize = Math.max(1, CHUNK_SIZE / schema.getRecordSize()) * schema.getRecordSize();
+      freeChunks = new ArrayBlockingQueue<>(MAX_CHUNKS_PER_FILE);
+      record = ByteBuffer.allocate(schema.getRecordSize()).order(LogSchema.BYTE_ORDER);
+    }
+
+    public LogSchema getSchema() {
+      return schema;
+    }
+
+    /** Starts a record, whose columns are put next. */
+    public BinaryLogFile beginRecord() {
+      if (column >= 0) throw new IllegalStateException("The previous record was not ended.");
+      record.clear();
+      column = 0;
+      return this;
+    }
+
+    private ByteBuffer column(LogSchema.Type type) {
+      if (column < 0 || column >= schema.getColumnCount() || schema.getType(column) != type) {
+        throw new IllegalStateException(
+            "Column " + column + " of " + getFile().getName() + " is not of type " + type);
+      }
+      column++;
+      return record;
+    }
+
+    public BinaryLogFile putInt(int value) {
+      column(LogSchema.Type.INT32).putInt(value);
+      return this;
+    }
+
+    public BinaryLogFile putLong(long value) {
+      column(LogSchema.Type.INT64).putLong(value);
+      return this;
+    }
+
+    public BinaryLogFile putFloat(float value) {
+      column(LogSchema.Type.FLOAT32).putFloat(value);
+      return this;
+    }
+
+    public BinaryLogFile putDouble(double value) {
+      column(LogSchema.Type.FLOAT64).putDouble(value);
+      return this;
+    }
+
+    /** Puts the first {@code count} values into the next columns. */
+    public BinaryLogFile putFloats(float[] values, int count) {
+      for (int i = 0; i < count; i++) putFloat(values[i]);
+      return this;
+    }
+
+    /** Ends the record, which must have a value for every column of the schema. */
+    public void endRecord() {
+      if (column != schema.getColumnCount()) {
+        throw new IllegalStateException(
+            "Record of " + getFile().getName() + " ended after " + column + " columns.");
+      }
+      column = -1;
+      enqueuedLines.incrementAndGet();
+      record.flip();
+      synchronized (this) {
+        if (chunk == null) {
+          chunk = freeChunks.poll();
+          if (chunk == null && allocatedChunks < MAX_CHUNKS_PER_FILE) {
+            allocatedChunks++;
+            chunk = ByteBuffer.allocateDirect(chunkSize).order(LogSchema.BYTE_ORDER);
+          }
+          if (chunk == null) {
+            droppedLines.incrementAndGet();
+            return;
+          }
+          chunkStartNs = System.nanoTime();
+        }
+        chunk.put(record);
+        chunkRecords++;
+        if (!chunk.hasRemaining()) handOver();
+      }
+    }
+
+    /** Hands over the current chunk if its first record was appended before the given time. */
+    synchronized void handOverIfStartedBefore(long timeNs) {
+      if (chunk != null && chunkStartNs - timeNs <= 0) handOver();
+    }
+
+    /** Queues the records of the current chunk for writing. */
+    synchronized void handOver() {
+      if (chunk == null) return;
+      chunk.flip();
+      if (!owner.enqueue(this, chunk)) {
+        droppedLines.addAndGet(chunkRecords);
+        recycle(chunk);
+      }
+      chunk = null;
+      chunkRecords = 0;
+    }
+
+    private void recycle(ByteBuffer chunk) {
+      chunk.clear();
+      freeChunks.offer(chunk);
+    }
+  }
+
+  private static final int FILE_BUFFER_SIZE = 64 * 1024;
+  private static final int CHUNK_SIZE = 16 * 1024;
+  private static final int MAX_CHUNKS_PER_FILE = 4;
+
+  private final int mask;
+  private final LogFile[] slotFiles;
+  /** A line for text logs, or a chunk of records for binary logs. */
+  private final Object[] slotItems;
+  /** Slot i is free for position p if its sequence is p, and holds the line of p if it is p+1. */
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  /** Only accessed by the writer thread. */
+  private long head;
+  /** Producers that may have passed the check for {@link #closed} without publishing their slot. */
+  private final AtomicInteger activeProducers = new AtomicInteger();
+
+  private final int flushBytes;
+  private final long flushIntervalNs;
+  private final List<LogFile> files = new ArrayList<>();
+  private final Thread thread;
+  private volatile boolean sleeping;
+  private volatile boolean closed;
+  private final CountDownLatch filesClosed = new CountDownLatch(1);
+
+  /**
+   * @param capacity Lines the ring holds, rounded up to a power of two.
+   * @param flushBytes Bytes of pending lines that trigger a commit.
+   * @param flushInterval Time after which pending lines are committed at the latest.
+   */
+  public AsyncLogWriter(int capacity, int flushBytes, long flushInterval, TimeUnit unit) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+    }
+    final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    mask = size - 1;
+    slotFiles = new LogFile[size];
+    slotItems = new Object[size];
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.flushBytes = flushBytes;
+    this.flushIntervalNs = unit.toNanos(flushInterval);
+    thread = new Thread(this::run, "log-writer");
+    thread.start();
+  }
+
+  /** Opens a file for appending, creating it and its directory if needed. */
+  public LogFile open(File file) throws IOException {
+    final File dir = file.getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Could not create " + dir);
+    }
+    return add(new LogFile(file, FILE_BUFFER_SIZE));
+  }
+
+  /**
+   * Opens a binary log with the given schema, creating its directory if needed. An existing file
+   * is replaced, since records can only be read with the schema at its start.
+   */
+  public BinaryLogFile openBinary(File file, LogSchema schema) throws IOException {
+    final File dir = file.getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Could not create " + dir);
+    }
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      final ByteBuffer header = schema.toByteBuffer();
+      while (header.hasRemaining()) out.getChannel().write(header);
+    }
+    return add(new BinaryLogFile(this, file, schema));
+  }
+
+  private <T extends LogFile> T add(T logFile) {
+    synchronized (files) {
+      files.add(logFile);
+    }
+    return logFile;
+  }
+
+  /**
+   * Queues a line for the file without blocking; a line separator is added when it is written.
+   *
+   * @return False if the line was dropped because the ring is full or the writer is closed.
+   */
+  public boolean append(LogFile file, String line) {
+    file.enqueuedLines.incrementAndGet();
+    if (!enqueue(file, line)) {
+      file.droppedLines.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  private boolean enqueue(LogFile file, Object item) {
+    // Announced before checking closed, so that the writer waits for the slot once it saw closed.
+    activeProducers.incrementAndGet();
+    try {
+      return claimAndPublish(file, item);
+    } finally {
+      activeProducers.decrementAndGet();
+    }
+  }
+
+  private boolean claimAndPublish(LogFile file, Object item) {
+    if (closed) return false;
+    long position = tail.get();
+    int index;
+    while (true) {
+      index = (int) position & mask;
+      final long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) break;
+        position = tail.get();
+      } else if (difference < 0) {
+        // The writer has not consumed the line of the previous round yet.
+        return false;
+      } else {
+        // Another producer claimed the slot first.
+        position = tail.get();
+      }
+    }
+    slotFiles[index] = file;
+    slotItems[index] = item;
+    // A full barrier, so that the writer cannot miss the line while going to sleep.
+    sequences.set(index, position + 1);
+    if (sleeping) LockSupport.unpark(thread);
+    return true;
+  }
+
+  private void run() {
+    final List<LogFile> dirtyFiles = new ArrayList<>();
+    int pendingBytes = 0;
+    long firstPendingNs = 0;
+    while (true) {
+      final boolean closing = closed;
+      final int index = (int) head & mask;
+      if (sequences.get(index) == head + 1) {
+        final LogFile file = slotFiles[index];
+        final Object item = slotItems[index];
+        slotFiles[index] = null;
+        slotItems[index] = null;
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+
+        final boolean clean = file.pendingLines == 0;
+        final int bytes =
+            item instanceof String
+                ? writeLine(file, (String) item)
+                : writeRecords(file, (ByteBuffer) item);
+        if (bytes > 0) {
+          if (clean) dirtyFiles.add(file);
+          if (pendingBytes == 0) firstPendingNs = System.nanoTime();
+          pendingBytes += bytes;
+        }
+        if (pendingBytes < flushBytes) continue;
+      } else if (closing) {
+        // Producers that passed the check for closed may still publish a slot they claimed.
+        if (activeProducers.get() > 0 || head != tail.get()) {
+          Thread.yield();
+          continue;
+        }
+        // The ring was drained after the writer was closed.
+        commit(dirtyFiles);
+        break;
+      } else if (pendingBytes == 0) {
+        sleep(flushIntervalNs);
+        continue;
+      } else {
+        final long waitNs = firstPendingNs + flushIntervalNs - System.nanoTime();
+        if (waitNs > 0) {
+          sleep(waitNs);
+          continue;
+        }
+      }
+      commit(dirtyFiles);
+      pendingBytes = 0;
+    }
+    closeFiles();
+    filesClosed.countDown();
+  }
+
+  /** Appends a line to the buffered writer of the file and returns its length. */
+  private static int writeLine(LogFile file, String line) {
+    try {
+      file.writer.write(line);
+      file.writer.newLine();
+      file.pendingLines++;
+      return line.length() + 1;
+    } catch (IOException e) {
+      Timber.e(e, "Could not write to %s", file.file);
+      file.droppedLines.incrementAndGet();
+      return 0;
+    }
+  }
+
+  /** Writes a chunk of records of a binary log and returns its size. */
+  private static int writeRecords(LogFile file, ByteBuffer chunk) {
+    final BinaryLogFile binaryFile = (BinaryLogFile) file;
+    final int bytes = chunk.remaining();
+    final int records = bytes / binaryFile.schema.getRecordSize();
+    try {
+      final FileChannel channel = file.stream.getChannel();
+      while (chunk.hasRemaining()) channel.write(chunk);
+      file.pendingLines += records;
+      return bytes;
+    } catch (IOException e) {
+      Timber.e(e, "Could not write to %s", file.file);
+      file.droppedLines.addAndGet(records);
+      return 0;
+    } finally {
+      binaryFile.recycle(chunk);
+    }
+  }
+
+  /**
+   * Parks until a producer appends a line, the timeout expires or the writer is closed. Chunks of
+   * binary logs that are older than the flush interval are handed over first, so their records are
+   * written even if no further record fills or ages them.
+   */
+  private void sleep(long timeoutNs) {
+    handOverStaleChunks();
+    sleeping = true;
+    if (sequences.get((int) head & mask) != head + 1 && !closed) {
+      LockSupport.parkNanos(this, timeoutNs);
+    }
+    sleeping = false;
+  }
+
+  private void handOverStaleChunks() {
+    final long startedBeforeNs = System.nanoTime() - flushIntervalNs;
+    synchronized (files) {
+      for (LogFile file : files) {
+        if (file instanceof BinaryLogFile) {
+          ((BinaryLogFile) file).handOverIfStartedBefore(startedBeforeNs);
+        }
+      }
+    }
+  }
+
+  private void commit(List<LogFile> dirtyFiles) {
+    for (LogFile file : dirtyFiles) {
+      try {
+        if (file.writer != null) file.writer.flush();
+        file.writtenLines += file.pendingLines;
+      } catch (IOException e) {
+        Timber.e(e, "Could not write to %s", file.file);
+        file.droppedLines.addAndGet(file.pendingLines);
+      }
+      file.pendingLines = 0;
+    }
+    dirtyFiles.clear();
+  }
+
+  private void closeFiles() {
+    synchronized (files) {
+      for (LogFile file : files) {
+        try {
+          if (file.writer != null) file.writer.flush();
+          file.stream.getFD().sync();
+          if (file.writer != null) file.writer.close();
+          else file.stream.close();
+        } catch (IOException e) {
+          Timber.e(e, "Could not close %s", file.file);
+        }
+        Timber.d("Closed %s", file);
+      }
+    }
+  }
+
+  /**
+   * Stops accepting lines without waiting: the writer thread writes the remaining lines and
+   * records, syncs all files to storage and closes them. Lines appended afterwards are dropped.
+   */
+  public void closeAsync() {
+    for (LogFile file : getFiles()) {
+      if (file instanceof BinaryLogFile) ((BinaryLogFile) file).handOver();
+    }
+    closed = true;
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * Waits until the files are closed after {@link #closeAsync}.
+   *
+   * @return False if the timeout expired first.
+   */
+  public boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+    return filesClosed.await(timeout, unit);
+  }
+
+  /** Like {@link #closeAsync}, but waits until the files are closed. */
+  public void close() {
+    closeAsync();
+    try {
+      filesClosed.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public List<LogFile> getFiles() {
+    synchronized (files) {
+      return new ArrayList<>(files);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package org.openbot.logging;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams the records of a binary log written by {@link AsyncLogWriter.BinaryLogFile}, or converts
+ * it to the text log with the same header and values.
+ *
+ * <pre>
+ *   try (BinaryLogReader reader = new BinaryLogReader(file)) {
+ *     while (reader.next()) {
+ *       long timestamp = reader.getLong(0);
+ *       ...
+ *     }
+ *   }
+ * </pre>
+ *
+ * A record that was cut off at the end of the file, e.g. because the app was killed, is ignored.
+ */
+public class BinaryLogReader implements Closeable {
+
+  public static final String BINARY_EXTENSION = ".bin";
+  public static final String TEXT_EXTENSION = ".txt";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileInputStream stream;
+  private final FileChannel channel;
+  private final LogSchema schema;
+  private final int[] offsets;
+  private final ByteBuffer buffer;
+  private int recordStart = -1;
+  private long records;
+
+  public BinaryLogReader(File file) throws IOException {
+    stream = new FileInputStream(file);
+    channel = stream.getChannel();
+    try {
+      final ByteBuffer header = ByteBuffer.allocate(BUFFER_SIZE).order(LogSchema.BYTE_ORDER);
+      while (header.hasRemaining() && channel.read(header) >= 0) {}
+      header.flip();
+      schema = LogSchema.read(header);
+      channel.position(header.position());
+    } catch (IOException e) {
+      stream.close();
+      throw new IOException(file + ": " + e.getMessage(), e);
+    }
+    offsets = new int[schema.getColumnCount()];
+    for (int i = 1; i < offsets.length; i++) {
+      offsets[i] = offsets[i - 1] + schema.getType(i - 1).getSize();
+    }
+    final int recordSize = schema.getRecordSize();
+    buffer =
+        ByteBuffer.allocate(Math.max(1, BUFFER_SIZE / recordSize) * recordSize)
+            .order(LogSchema.BYTE_ORDER);
+    buffer.flip();
+  }
+
+  public LogSchema getSchema() {
+    return schema;
+  }
+
+  /** Number of records read so far. */
+  public long getRecords() {
+    return records;
+  }
+
+  /** Moves to the next record and returns false if there is none. */
+  public boolean next() throws IOException {
+    final int recordSize = schema.getRecordSize();
+    if (recordStart >= 0) buffer.position(recordStart + recordSize);
+    if (buffer.remaining() < recordSize) {
+      buffer.compact();
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+      buffer.flip();
+      if (buffer.remaining() < recordSize) {
+        recordStart = -1;
+        return false;
+      }
+    }
+    recordStart = buffer.position();
+    records++;
+    return true;
+  }
+
+  private int offset(int column, LogSchema.Type type) {
+    if (recordStart < 0) throw new IllegalStateException("No current record.");
+    if (schema.getType(column) != type) {
+      throw new IllegalArgumentException(
+          "Column " + column + " is of type " + schema.getType(column));
+    }
+    return recordStart + offsets[column];
+  }
+
+  public int getInt(int column) {
+    return buffer.getInt(offset(column, LogSchema.Type.INT32));
+  }
+
+  public long getLong(int column) {
+    return buffer.getLong(offset(column, LogSchema.Type.INT64));
+  }
+
+  public float getFloat(int column) {
+    return buffer.getFloat(offset(column, LogSchema.Type.FLOAT32));
+  }
+
+  public double getDouble(int column) {
+    return buffer.getDouble(offset(column, LogSchema.Type.FLOAT64));
+  }
+
+  /** Appends the current record as a line of the text log, without line separator. */
+  public StringBuilder appendCsv(StringBuilder line) {
+    for (int column = 0; column < offsets.length; column++) {
+      if (column > 0) line.append(',');
+      switch (schema.getType(column)) {
+        case INT32:
+          line.append(getInt(column));
+          break;
+        case INT64:
+          line.append(getLong(column));
+          break;
+        case FLOAT32:
+          line.append(getFloat(column));
+          break;
+        case FLOAT64:
+          line.append(getDouble(column));
+          break;
+      }
+    }
+    return line;
+  }
+
+  /** Writes the header and all remaining records to a text log. */
+  public void writeCsv(File file) throws IOException {
+    try (BufferedWriter writer =
+        new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+            BUFFER_SIZE)) {
+      writer.write(schema.getHeader());
+      writer.newLine();
+      final StringBuilder line = new StringBuilder();
+      while (next()) {
+        line.setLength(0);
+        writer.append(appendCsv(line));
+        writer.newLine();
+      }
+    }
+  }
+
+  /**
+   * Converts every binary log in the folder to a text log next to it, e.g. poseLog.bin to
+   * poseLog.txt, so that a session can be processed like one that was logged as text.
+   *
+   * @return The number of converted logs.
+   */
+  public static int convertFolder(File folder) throws IOException {
+    final File[] files = folder.listFiles((dir, name) -> name.endsWith(BINARY_EXTENSION));
+    if (files == null) throw new IOException("Not a folder: " + folder);
+    for (File file : files) {
+      final String name = file.getName();
+      final String textName =
+          name.substring(0, name.length() - BINARY_EXTENSION.length()) + TEXT_EXTENSION;
+      try (BinaryLogReader reader = new BinaryLogReader(file)) {
+        reader.writeCsv(new File(folder, textName));
+      }
+    }
+    return files.length;
+  }
+
+  @Override
+  public void close() throws IOException {
+    stream.close();
+  }
+}
@@ -0,0 +1,260 @@
+package org.openbot.logging;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.openbot.env.ImageUtils;
+import timber.log.Timber;
+
+/**
+ * Encodes the logged camera frames to JPEG on worker threads, so that encoding never throttles the
+ * camera.
+ *
+ * <p>A submitted frame is copied into a bitmap of the pool and queued; the caller can reuse its
+ * frame right away. The queue is bounded: when it is full, either the oldest queued frame or the
+ * submitted frame is dropped, depending on the {@link DropPolicy}. Bitmaps, including the ones for
+ * the crops each worker draws, are reused for later frames of the same size.
+ *
+ * <p>Frames are submitted from one thread, e.g. the camera thread. {@link #close} returns once the
+ * queued frames are written, and frames submitted afterwards are rejected, so a pool per logging
+ * session tells when the images of the session are complete.
+ */
+public class JpegEncoderPool {
+
+  public enum DropPolicy {
+    /** Replaces the frame that waits longest, so that the latest frames are encoded. */
+    DROP_OLDEST,
+    /** Keeps the queued frames and drops the submitted one. */
+    DROP_NEWEST
+  }
+
+  /** A frame waiting for or being encoded, together with its pooled copy. */
+  private static class Job {
+    Bitmap bitmap;
+    long frameNumber;
+    String folder;
+    boolean savePreview;
+    Matrix frameToCrop;
+    int cropWidth;
+    int cropHeight;
+    long submitNs;
+  }
+
+  private static final double SMOOTHING = 0.1;
+
+  private final int queueCapacity;
+  private final DropPolicy dropPolicy;
+  private final int quality;
+  private final List<Thread> workers = new ArrayList<>();
+
+  private final Object lock = new Object();
+  private final ArrayDeque<Job> queue;
+  private final ArrayDeque<Job> freeJobs;
+  private boolean closed;
+
+  // Guarded by lock.
+  private long submittedFrames;
+  private long droppedFrames;
+  private long encodedFrames;
+  private double averageQueueMs;
+  private double averageEncodeMs;
+  private double maxEncodeMs;
+
+  /**
+   * @param numWorkers Threads that encode frames in parallel.
+   * @param queueCapacity Frames that may wait for a worker.
+   * @param quality JPEG quality from 0 to 100.
+   */
+  public JpegEncoderPool(int numWorkers, int queueCapacity, DropPolicy dropPolicy, int quality) {
+    this(numWorkers, queueCapacity, dropPolicy, quality, true);
+  }
+
+  /** Allows tests to fill the queue before the workers are started with {@link #start}. */
+  JpegEncoderPool(
+      int numWorkers, int queueCapacity, DropPolicy dropPolicy, int quality, boolean start) {
+    if (numWorkers < 1 || queueCapacity < 1) {
+      throw new IllegalArgumentException(
+          "Invalid pool: " + numWorkers + " workers, queue of " + queueCapacity);
+    }
+    this.queueCapacity = queueCapacity;
+    this.dropPolicy = dropPolicy;
+    this.quality = Math.max(0, Math.min(100, quality));
+    queue = new ArrayDeque<>(queueCapacity);
+    // One job per queued frame and per worker, so a job is free whenever the queue is not full.
+    freeJobs = new ArrayDeque<>(queueCapacity + numWorkers);
+    for (int i = 0; i < queueCapacity + numWorkers; i++) freeJobs.add(new Job());
+    for (int i = 0; i < numWorkers; i++) {
+      workers.add(new Thread(this::runWorker, "jpeg-encoder-" + i));
+    }
+    if (start) start();
+  }
+
+  void start() {
+    for (Thread worker : workers) worker.start();
+  }
+
+  /**
+   * Queues a copy of the frame to be saved as {@code <frameNumber>_preview.jpeg} and, if {@code
+   * frameToCrop} is not null, cropped to {@code <frameNumber>_crop.jpeg} in the folder.
+   *
+   * @return False if the frame was dropped because the queue is full and the policy is {@link
+   *     DropPolicy#DROP_NEWEST}, or because the pool is closed.
+   */
+  public boolean submit(
+      Bitmap frame,
+      long frameNumber,
+      String folder,
+      boolean savePreview,
+      Matrix frameToCrop,
+      int cropWidth,
+      int cropHeight) {
+    final Job job;
+    synchronized (lock) {
+      if (closed) return false;
+      submittedFrames++;
+      if (queue.size() >= queueCapacity) {
+        droppedFrames++;
+        if (dropPolicy == DropPolicy.DROP_NEWEST) return false;
+        // The oldest frame gives its job to the new frame.
+        freeJobs.add(queue.pollFirst());
+      }
+      job = freeJobs.pollFirst();
+    }
+
+    if (job.bitmap == null
+        || job.bitmap.getWidth() != frame.getWidth()
+        || job.bitmap.getHeight() != frame.getHeight()) {
+      job.bitmap =
+          Bitmap.createBitmap(frame.getWidth(), frame.getHeight(), Bitmap.Config.ARGB_8888);
+    }
+    new Canvas(job.bitmap).drawBitmap(frame, 0, 0, null);
+    job.frameNumber = frameNumber;
+    job.folder = folder;
+    job.savePreview = savePreview;
+    job.frameToCrop = frameToCrop;
+    job.cropWidth = cropWidth;
+    job.cropHeight = cropHeight;
+    job.submitNs = System.nanoTime();
+
+    synchronized (lock) {
+      queue.addLast(job);
+      lock.notify();
+    }
+    return true;
+  }
+
+  private void runWorker() {
+    Bitmap cropBitmap = null;
+    Canvas cropCanvas = null;
+    while (true) {
+      final Job job;
+      synchronized (lock) {
+        while (queue.isEmpty() && !closed) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        // Frames queued before the pool was closed are still encoded.
+        job = queue.pollFirst();
+        if (job == null) return;
+      }
+
+      final long startNs = System.nanoTime();
+      if (job.savePreview) {
+        ImageUtils.saveBitmap(job.bitmap, job.folder, job.frameNumber + "_preview.jpeg", quality);
+      }
+      if (job.frameToCrop != null) {
+        if (cropBitmap == null
+            || cropBitmap.getWidth() != job.cropWidth
+            || cropBitmap.getHeight() != job.cropHeight) {
+          cropBitmap =
+              Bitmap.createBitmap(job.cropWidth, job.cropHeight, Bitmap.Config.ARGB_8888);
+          cropCanvas = new Canvas(cropBitmap);
+        }
+        cropCanvas.drawBitmap(job.bitmap, job.frameToCrop, null);
+        ImageUtils.saveBitmap(cropBitmap, job.folder, job.frameNumber + "_crop.jpeg", quality);
+      }
+      final long endNs = System.nanoTime();
+
+      synchronized (lock) {
+        final double queueMs = (startNs - job.submitNs) / 1e6;
+        final double encodeMs = (endNs - startNs) / 1e6;
+        averageQueueMs =
+            encodedFrames == 0 ? queueMs : averageQueueMs + SMOOTHING * (queueMs - averageQueueMs);
+        averageEncodeMs =
+            encodedFrames == 0
+                ? encodeMs
+                : averageEncodeMs + SMOOTHING * (encodeMs - averageEncodeMs);
+        maxEncodeMs = Math.max(maxEncodeMs, encodeMs);
+        if (++encodedFrames % 100 == 0) {
+          Timber.d(
+              "JPEG encoding: queued %.1f ms, encoded %.1f ms (max %.1f), dropped %d/%d",
+              averageQueueMs, averageEncodeMs, maxEncodeMs, droppedFrames, submittedFrames);
+        }
+        job.folder = null;
+        job.frameToCrop = null;
+        freeJobs.add(job);
+      }
+    }
+  }
+
+  /** Stops accepting frames and waits until the queued frames are encoded. */
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  public long getSubmittedFrames() {
+    synchronized (lock) {
+      return submittedFrames;
+    }
+  }
+
+  /** Frames that were not encoded because the queue was full. */
+  public long getDroppedFrames() {
+    synchronized (lock) {
+      return droppedFrames;
+    }
+  }
+
+  public long getEncodedFrames() {
+    synchronized (lock) {
+      return encodedFrames;
+    }
+  }
+
+  /** Moving average of the time frames wait for a worker. */
+  public double getAverageQueueMs() {
+    synchronized (lock) {
+      return averageQueueMs;
+    }
+  }
+
+  /** Moving average of the time to encode and write the images of a frame. */
+  public double getAverageEncodeMs() {
+    synchronized (lock) {
+      return averageEncodeMs;
+    }
+  }
+
+  public double getMaxEncodeMs() {
+    synchronized (lock) {
+      return maxEncodeMs;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package org.openbot.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Layout of the fixed-width records of a binary log: the type of every column and the header line
+ * of the equivalent text log, whose comma-separated entries name the columns.
+ *
+ * <p>A binary log starts with its schema, followed by the records without any separators. All
+ * values are little-endian:
+ *
+ * <pre>
+ *   int32    magic "OBLG"
+ *   int16    format version
+ *   int16    number of columns n
+ *   int8[n]  column types, see {@link Type#getId}
+ *   int16    length of the header line in bytes
+ *   byte[]   header line in UTF-8
+ * </pre>
+ */
+public final class LogSchema {
+
+  /** Type of a column and the number of bytes it takes in a record. */
+  public enum Type {
+    INT32(0, 4),
+    INT64(1, 8),
+    FLOAT32(2, 4),
+    FLOAT64(3, 8);
+
+    private final int id;
+    private final int size;
+
+    Type(int id, int size) {
+      this.id = id;
+      this.size = size;
+    }
+
+    /** Identifies the type in the schema header of a file. */
+    public int getId() {
+      return id;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    static Type fromId(int id) throws IOException {
+      for (Type type : values()) if (type.id == id) return type;
+      throw new IOException("Unknown column type: " + id);
+    }
+  }
+
+  /** "OBLG" read as little-endian int. */
+  private static final int MAGIC = 0x474c424f;
+
+  private static final int VERSION = 1;
+
+  public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  private final String header;
+  private final String[] columnNames;
+  private final Type[] types;
+  private final int recordSize;
+
+  /**
+   * @param header Header line of the text log, naming one column per type.
+   * @param types Types of the columns in the order they are written.
+   */
+  public LogSchema(String header, Type... types) {
+    columnNames = header.split(",");
+    if (columnNames.length != types.length) {
+      throw new IllegalArgumentException(
+          "The header names " + columnNames.length + " columns, not " + types.length);
+    }
+    for (int i = 0; i < columnNames.length; i++) columnNames[i] = columnNames[i].trim();
+    this.header = header;
+    this.types = types.clone();
+    int size = 0;
+    for (Type type : types) size += type.size;
+    recordSize = size;
+  }
+
+  public String getHeader() {
+    return header;
+  }
+
+  public int getColumnCount() {
+    return types.length;
+  }
+
+  public String getColumnName(int column) {
+    return columnNames[column];
+  }
+
+  public Type getType(int column) {
+    return types[column];
+  }
+
+  /** Bytes per record. */
+  public int getRecordSize() {
+    return recordSize;
+  }
+
+  /** Returns the schema header of a file in a buffer ready to be written. */
+  public ByteBuffer toByteBuffer() {
+    final byte[] headerBytes = header.getBytes(StandardCharsets.UTF_8);
+    final ByteBuffer buffer =
+        ByteBuffer.allocate(10 + types.length + headerBytes.length).order(BYTE_ORDER);
+    buffer.putInt(MAGIC).putShort((short) VERSION).putShort((short) types.length);
+    for (Type type : types) buffer.put((byte) type.id);
+    buffer.putShort((short) headerBytes.length).put(headerBytes);
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Reads a schema header from the buffer, which must be in little-endian order and hold the whole
+   * header.
+   */
+  public static LogSchema read(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+      throw new IOException("Not a binary log.");
+    }
+    final int version = buffer.getShort();
+    if (version != VERSION) throw new IOException("Unsupported log version: " + version);
+    final Type[] types = new Type[buffer.getShort() & 0xffff];
+    if (buffer.remaining() < types.length + 2) throw new IOException("Truncated log header.");
+    for (int i = 0; i < types.length; i++) types[i] = Type.fromId(buffer.get());
+    final byte[] headerBytes = new byte[buffer.getShort() & 0xffff];
+    if (buffer.remaining() < headerBytes.length) throw new IOException("Truncated log header.");
+    buffer.get(headerBytes);
+    try {
+      return new LogSchema(new String(headerBytes, StandardCharsets.UTF_8), types);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof LogSchema)) return false;
+    final LogSchema other = (LogSchema) o;
+    return header.equals(other.header) && Arrays.equals(types, other.types);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * header.hashCode() + Arrays.hashCode(types);
+  }
+}
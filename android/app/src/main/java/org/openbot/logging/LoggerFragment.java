@@ -4,8 +4,8 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.os.Bundle;
@@ -13,6 +13,7 @@ import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
 import android.os.SystemClock;
@@ -26,19 +27,25 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.camera.core.ImageProxy;
 import androidx.navigation.Navigation;
+import androidx.preference.PreferenceManager;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
 import org.openbot.R;
 import org.openbot.common.CameraFragment;
 import org.openbot.databinding.FragmentLoggerBinding;
 import org.openbot.env.BotToControllerEventBus;
+import org.openbot.env.FrameBuffer;
 import org.openbot.env.ImageUtils;
+import org.openbot.server.SessionUploader;
 import org.openbot.tflite.Model;
 import org.openbot.utils.ConnectionUtils;
 import org.openbot.utils.Constants;
@@ -66,6 +73,24 @@ public class LoggerFragment extends CameraFragment {
   private RectF cropRect;
   private boolean maintainAspectRatio;
 
+  /** Frames waiting for a JPEG encoder before frames are dropped. */
+  private static final int ENCODER_QUEUE_CAPACITY = 3;
+
+  /** Encodes the images of the current logging session, null while not logging. */
+  private volatile JpegEncoderPool encoderPool;
+
+  /** Seconds between uploads of the session files that were finished while logging. */
+  private static final long UPLOAD_INTERVAL_S = 30;
+
+  /** Time after its last modification from which a session file counts as finished. */
+  private static final long UPLOAD_QUIET_MS = 5000;
+
+  /** Seconds to wait for the sensor service to write and close its logs. */
+  private static final long LOG_CLOSE_TIMEOUT_S = 5;
+
+  private ScheduledExecutorService uploadExecutor;
+  private SessionUploader sessionUploader;
+
   @Override
   public View onCreateView(
       @NotNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -185,6 +210,19 @@ public class LoggerFragment extends CameraFragment {
     super.onResume();
   }
 
+  private JpegEncoderPool createEncoderPool() {
+    SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(requireContext());
+    JpegEncoderPool.DropPolicy dropPolicy =
+        preferences.getString("jpeg_drop_policy", "oldest").equals("newest")
+            ? JpegEncoderPool.DropPolicy.DROP_NEWEST
+            : JpegEncoderPool.DropPolicy.DROP_OLDEST;
+    return new JpegEncoderPool(
+        preferences.getInt("jpeg_encoder_threads", 2),
+        ENCODER_QUEUE_CAPACITY,
+        dropPolicy,
+        preferences.getInt("jpeg_quality", 99));
+  }
+
   @Override
   public synchronized void onPause() {
     handlerThread.quitSafely();
@@ -198,10 +236,9 @@ public class LoggerFragment extends CameraFragment {
     super.onPause();
   }
 
-  protected synchronized void runInBackground(final Runnable r) {
-    if (handler != null) {
-      handler.post(r);
-    }
+  /** Returns false if the task was not queued, because the fragment is paused. */
+  protected synchronized boolean runInBackground(final Runnable r) {
+    return handler != null && handler.post(r);
   }
 
   Messenger sensorMessenger;
@@ -221,45 +258,54 @@ public class LoggerFragment extends CameraFragment {
         }
       };
 
+  // While the sensor service runs in this process, records are published to its telemetry channel
+  // instead of sending a message for each.
   protected void sendFrameNumberToSensorService(long frameNumber) {
-    if (sensorMessenger != null) {
-      try {
-        sensorMessenger.send(LogDataUtils.generateFrameNumberMessage(frameNumber));
-      } catch (RemoteException e) {
-        e.printStackTrace();
-      }
-    }
+    Messenger messenger = sensorMessenger;
+    if (messenger == null) return;
+    TelemetryChannel channel = SensorService.getTelemetryChannel();
+    if (channel != null) {
+      channel.publish(
+          SensorService.MSG_FRAME, SystemClock.elapsedRealtimeNanos(), frameNumber, 0, null);
+    } else send(messenger, LogDataUtils.generateFrameNumberMessage(frameNumber));
   }
 
   protected void sendControlToSensorService() {
-    if (sensorMessenger != null) {
-      try {
-        sensorMessenger.send(
-            LogDataUtils.generateControlDataMessage(
-                (int) vehicle.getLeftSpeed(), (int) vehicle.getRightSpeed()));
-      } catch (RemoteException e) {
-        e.printStackTrace();
-      }
-    }
+    Messenger messenger = sensorMessenger;
+    if (messenger == null) return;
+    int left = (int) vehicle.getLeftSpeed();
+    int right = (int) vehicle.getRightSpeed();
+    TelemetryChannel channel = SensorService.getTelemetryChannel();
+    if (channel != null) {
+      channel.publish(
+          SensorService.MSG_CONTROL, SystemClock.elapsedRealtimeNanos(), left, right, null);
+    } else send(messenger, LogDataUtils.generateControlDataMessage(left, right));
   }
 
   protected void sendVehicleDataToSensorService(long timestamp, String data, int type) {
-    if (sensorMessenger != null) {
-      try {
-        sensorMessenger.send(LogDataUtils.generateVehicleDataMessage(timestamp, data, type));
-      } catch (RemoteException e) {
-        e.printStackTrace();
-      }
-    }
+    Messenger messenger = sensorMessenger;
+    if (messenger == null) return;
+    TelemetryChannel channel = SensorService.getTelemetryChannel();
+    if (channel != null) channel.publish(type, timestamp, 0, 0, data);
+    else send(messenger, LogDataUtils.generateVehicleDataMessage(timestamp, data, type));
   }
 
   protected void sendIndicatorToSensorService() {
-    if (sensorMessenger != null) {
-      try {
-        sensorMessenger.send(LogDataUtils.generateIndicatorMessage(vehicle.getIndicator()));
-      } catch (RemoteException e) {
-        e.printStackTrace();
-      }
+    Messenger messenger = sensorMessenger;
+    if (messenger == null) return;
+    int indicator = vehicle.getIndicator();
+    TelemetryChannel channel = SensorService.getTelemetryChannel();
+    if (channel != null) {
+      channel.publish(
+          SensorService.MSG_INDICATOR, SystemClock.elapsedRealtimeNanos(), indicator, 0, null);
+    } else send(messenger, LogDataUtils.generateIndicatorMessage(indicator));
+  }
+
+  private static void send(Messenger messenger, Message msg) {
+    try {
+      messenger.send(msg);
+    } catch (RemoteException e) {
+      e.printStackTrace();
     }
   }
 
@@ -270,9 +316,26 @@ public class LoggerFragment extends CameraFragment {
             + getString(R.string.app_name)
             + File.separator
             + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+    encoderPool = createEncoderPool();
     intentSensorService.putExtra("logFolder", logFolder + File.separator + "sensor_data");
     requireActivity().startService(intentSensorService);
     requireActivity().bindService(intentSensorService, sensorConnection, Context.BIND_AUTO_CREATE);
+
+    // Uploads run on their own thread, so that they never delay the logging thread.
+    SessionUploader uploader = new SessionUploader(new File(logFolder), UPLOAD_QUIET_MS);
+    sessionUploader = uploader;
+    uploadExecutor = Executors.newSingleThreadScheduledExecutor();
+    if (PreferenceManager.getDefaultSharedPreferences(requireContext())
+        .getBoolean("upload_while_logging", false)) {
+      uploadExecutor.scheduleWithFixedDelay(
+          () -> {
+            String uploadUrl = serverCommunication.getUploadUrl();
+            if (uploadUrl != null) uploader.uploadClosedFiles(uploadUrl);
+          },
+          UPLOAD_INTERVAL_S,
+          UPLOAD_INTERVAL_S,
+          TimeUnit.SECONDS);
+    }
     runInBackground(
         () -> {
           try {
@@ -287,27 +350,71 @@ public class LoggerFragment extends CameraFragment {
   }
 
   private void stopLogging(boolean isCancel) {
+    // Taken before the service is stopped, which closes the logs in the background.
+    AsyncLogWriter logWriter = SensorService.getLogWriter();
     if (sensorConnection != null) requireActivity().unbindService(sensorConnection);
     requireActivity().stopService(intentSensorService);
-
-    // Pack and upload the collected data
-    runInBackground(
-        () -> {
-          try {
-            File folder = new File(logFolder);
-            if (!isCancel) {
-              // Zip the log folder and then upload it
-              serverCommunication.upload(zip(folder));
-            }
-            TimeUnit.MILLISECONDS.sleep(500);
-            FileUtils.deleteQuietly(folder);
-          } catch (InterruptedException e) {
-            Timber.e(e, "Got interrupted.");
-          }
-        });
+    // Later frames are not logged; the queued ones are encoded before the session is finished.
+    JpegEncoderPool pool = encoderPool;
+    encoderPool = null;
+
+    File folder = new File(logFolder);
+    SessionUploader uploader = sessionUploader;
+    uploadExecutor.execute(() -> finishSession(folder, isCancel, logWriter, pool, uploader));
+    // Cancels the uploads while logging; the final upload still runs.
+    uploadExecutor.shutdown();
+    uploadExecutor = null;
+    sessionUploader = null;
     loggingEnabled = false;
   }
 
+  /**
+   * Uploads the rest of a stopped session, or packs it to be uploaded when a server is connected,
+   * and deletes its folder. Waits until the files of the session are complete first: the queued
+   * images are encoded and the sensor logs are closed. Runs on the upload thread.
+   */
+  private void finishSession(
+      File folder,
+      boolean isCancel,
+      AsyncLogWriter logWriter,
+      JpegEncoderPool pool,
+      SessionUploader uploader) {
+    if (pool != null) pool.close();
+    try {
+      if (logWriter != null && !logWriter.awaitClosed(LOG_CLOSE_TIMEOUT_S, TimeUnit.SECONDS)) {
+        // Packing or deleting logs that are still written would cut them off.
+        Timber.e("Sensor logs were not closed in time, keeping %s", folder);
+        return;
+      }
+    } catch (InterruptedException e) {
+      Timber.e(e, "Got interrupted.");
+      return;
+    }
+    if (!isCancel) {
+      convertBinaryLogs(new File(folder, "sensor_data"));
+      String uploadUrl = serverCommunication.getUploadUrl();
+      if (uploadUrl == null || !uploader.uploadRemaining(uploadUrl)) zip(folder);
+    }
+    FileUtils.deleteQuietly(folder);
+  }
+
+  /**
+   * Replaces the binary logs of a session by text logs, since the policy server and the training
+   * pipeline only read text logs. A binary log is kept if it could not be converted.
+   */
+  private static void convertBinaryLogs(File sensorFolder) {
+    File[] binaryLogs =
+        sensorFolder.listFiles((dir, name) -> name.endsWith(BinaryLogReader.BINARY_EXTENSION));
+    if (binaryLogs == null || binaryLogs.length == 0) return;
+    try {
+      BinaryLogReader.convertFolder(sensorFolder);
+    } catch (IOException e) {
+      Timber.e(e, "Could not convert binary logs in %s", sensorFolder);
+      return;
+    }
+    for (File binaryLog : binaryLogs) FileUtils.deleteQuietly(binaryLog);
+  }
+
   private File zip(File folder) {
     String zipFileName = folder + ".zip";
     File zip = new File(zipFileName);
@@ -524,7 +631,7 @@ public class LoggerFragment extends CameraFragment {
   private long frameNum = 0;
 
   @Override
-  protected void processFrame(Bitmap bitmap, ImageProxy image) {
+  protected void processFrame(FrameBuffer frame, ImageProxy image) {
     ++frameNum;
     if (binding != null) {
       if (isAdded())
@@ -535,33 +642,35 @@ public class LoggerFragment extends CameraFragment {
                         String.format(Locale.US, "%d x %d", image.getWidth(), image.getHeight())));
 
       if (!binding.loggerSwitch.isChecked()) return;
-
-      if (binding.previewCheckBox.isChecked() || binding.trainingDataCheckBox.isChecked()) {
-        sendFrameNumberToSensorService(frameNum);
-      }
-
-      if (binding.previewCheckBox.isChecked()) {
-        if (bitmap != null)
-          ImageUtils.saveBitmap(
-              bitmap, logFolder + File.separator + "images", frameNum + "_preview.jpeg");
-      }
-      if (binding.trainingDataCheckBox.isChecked()) {
-        if (frameToCropTransform == null)
-          frameToCropTransform =
-              ImageUtils.getTransformationMatrix(
-                  getMaxAnalyseImageSize().getWidth(),
-                  getMaxAnalyseImageSize().getHeight(),
-                  croppedBitmap.getWidth(),
-                  croppedBitmap.getHeight(),
-                  sensorOrientation,
-                  cropRect,
-                  maintainAspectRatio);
-
-        final Canvas canvas = new Canvas(croppedBitmap);
-        canvas.drawBitmap(bitmap, frameToCropTransform, null);
-        ImageUtils.saveBitmap(
-            croppedBitmap, logFolder + File.separator + "images", frameNum + "_crop.jpeg");
-      }
+      final JpegEncoderPool pool = encoderPool;
+      if (pool == null) return;
+
+      final boolean savePreview = binding.previewCheckBox.isChecked();
+      final boolean saveCrop = binding.trainingDataCheckBox.isChecked();
+      if (!savePreview && !saveCrop) return;
+      // Frames are logged even if the encoder drops them, so that their numbers match the time.
+      sendFrameNumberToSensorService(frameNum);
+
+      if (saveCrop && frameToCropTransform == null)
+        frameToCropTransform =
+            ImageUtils.getTransformationMatrix(
+                getMaxAnalyseImageSize().getWidth(),
+                getMaxAnalyseImageSize().getHeight(),
+                croppedBitmap.getWidth(),
+                croppedBitmap.getHeight(),
+                sensorOrientation,
+                cropRect,
+                maintainAspectRatio);
+
+      // The pool copies the frame, so that the camera can reuse it right away.
+      pool.submit(
+          frame.getBitmap(),
+          frameNum,
+          logFolder + File.separator + "images",
+          savePreview,
+          saveCrop ? frameToCropTransform : null,
+          croppedBitmap.getWidth(),
+          croppedBitmap.getHeight());
     }
   }
 
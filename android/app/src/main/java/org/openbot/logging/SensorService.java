@@ -18,15 +18,16 @@ import android.os.Message;
 import android.os.Messenger;
 import android.os.SystemClock;
 import androidx.annotation.RequiresApi;
+import androidx.preference.PreferenceManager;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import org.openbot.R;
 import org.openbot.env.Logger;
 import org.openbot.env.SharedPreferencesManager;
@@ -45,25 +46,33 @@ public class SensorService extends Service implements SensorEventListener {
   private Sensor poseSensor;
   private Sensor motionSensor;
 
-  private BufferedWriter accelerometerLog;
-  private BufferedWriter gyroscopeLog;
-  private BufferedWriter gravityLog;
-  private BufferedWriter magneticLog;
-  private BufferedWriter lightLog;
-  private BufferedWriter proximityLog;
-  private BufferedWriter pressureLog;
-  private BufferedWriter temperatureLog;
-  private BufferedWriter poseLog;
-  private BufferedWriter motionLog;
-  private BufferedWriter gpsLog;
-  private BufferedWriter frameLog;
-  private BufferedWriter inferenceLog;
-  private BufferedWriter ctrlLog;
-  private BufferedWriter indicatorLog;
-  private BufferedWriter voltageLog;
-  private BufferedWriter sonarLog;
-  private BufferedWriter wheelsLog;
-  private BufferedWriter bumperLog;
+  private AsyncLogWriter.LogFile accelerometerLog;
+  private AsyncLogWriter.LogFile gyroscopeLog;
+  private AsyncLogWriter.LogFile gravityLog;
+  private AsyncLogWriter.LogFile magneticLog;
+  private AsyncLogWriter.LogFile lightLog;
+  private AsyncLogWriter.LogFile proximityLog;
+  private AsyncLogWriter.LogFile pressureLog;
+  private AsyncLogWriter.LogFile temperatureLog;
+  private AsyncLogWriter.LogFile poseLog;
+  private AsyncLogWriter.LogFile motionLog;
+  private AsyncLogWriter.LogFile gpsLog;
+  private AsyncLogWriter.LogFile frameLog;
+  private AsyncLogWriter.LogFile inferenceLog;
+  private AsyncLogWriter.LogFile ctrlLog;
+  private AsyncLogWriter.LogFile indicatorLog;
+  private AsyncLogWriter.LogFile voltageLog;
+  private AsyncLogWriter.LogFile sonarLog;
+  private AsyncLogWriter.LogFile wheelsLog;
+  private AsyncLogWriter.LogFile bumperLog;
+
+  /**
+   * Lines of all logs are written on one thread and committed in groups. Set while the service
+   * logs; after it is destroyed, the writer closes the logs in the background.
+   */
+  private static volatile AsyncLogWriter logWriter;
+  /** Whether the logs of numeric values are written as binary logs instead of text. */
+  private boolean binaryLogs;
 
   private boolean trackingLocation = false;
   private boolean hasStarted = false;
@@ -81,7 +90,18 @@ public class SensorService extends Service implements SensorEventListener {
   public static final int MSG_BUMPER = 7;
 
   private static final Logger LOGGER = new Logger();
-  Messenger messenger = new Messenger(new SensorMessageHandler());
+
+  // Lines waiting to be written, and when they are committed to the files.
+  private static final int LOG_CAPACITY = 8192;
+  private static final int LOG_FLUSH_BYTES = 32 * 1024;
+  private static final long LOG_FLUSH_INTERVAL_MS = 500;
+  private final android.os.Handler messageHandler = new SensorMessageHandler();
+  Messenger messenger = new Messenger(messageHandler);
+
+  /** Set while the service exists; records sent through it are logged like messages. */
+  private static volatile TelemetryChannel telemetryChannel;
+
+  private static final int TELEMETRY_CAPACITY = 1024;
 
   private SharedPreferencesManager preferencesManager;
 
@@ -103,6 +123,13 @@ public class SensorService extends Service implements SensorEventListener {
     // Initialize the FusedLocationClient.
     fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
     preferencesManager = new SharedPreferencesManager(this);
+    telemetryChannel =
+        new TelemetryChannel(
+            TELEMETRY_CAPACITY,
+            messageHandler::post,
+            // None of the logged records has float values yet.
+            (type, timestamp, value0, value1, floats, text) ->
+                logTelemetry(type, timestamp, value0, value1, text));
   }
 
   @Override
@@ -118,94 +145,141 @@ public class SensorService extends Service implements SensorEventListener {
       logFolder = (String) extras.get("logFolder");
     }
 
+    binaryLogs =
+        PreferenceManager.getDefaultSharedPreferences(this)
+            .getString("log_format", "text")
+            .equals("binary");
+    if (logWriter == null) {
+      logWriter =
+          new AsyncLogWriter(
+              LOG_CAPACITY, LOG_FLUSH_BYTES, LOG_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
     int delay = (int) (preferencesManager.getDelay() * 1000);
     if (preferencesManager.getSensorStatus(Enums.SensorType.ACCELEROMETER.getSensor())
         && accelerometerSensor != null) {
-      accelerometerLog = openLog(logFolder, "accelerometerLog.txt");
-      appendLog(accelerometerLog, "timestamp[ns],x[m/s^2],y[m/s^2],z[m/s^2]");
+      accelerometerLog =
+          openLog(
+              logFolder,
+              "accelerometerLog",
+              sensorSchema("timestamp[ns],x[m/s^2],y[m/s^2],z[m/s^2]"));
       sensorManager.registerListener(this, accelerometerSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.GYROSCOPE.getSensor())
         && gyroscopeSensor != null) {
-      gyroscopeLog = openLog(logFolder, "gyroscopeLog.txt");
-      appendLog(gyroscopeLog, "timestamp[ns],x[rad/s],y[rad/s],z[rad/s]");
+      gyroscopeLog =
+          openLog(
+              logFolder,
+              "gyroscopeLog",
+              sensorSchema("timestamp[ns],x[rad/s],y[rad/s],z[rad/s]"));
       sensorManager.registerListener(this, gyroscopeSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.GRAVITY.getSensor())
         && gravitySensor != null) {
-      gravityLog = openLog(logFolder, "gravityLog.txt");
-      appendLog(gravityLog, "timestamp[ns],x[m/s^2],y[m/s^2],z[m/s^2]");
+      gravityLog =
+          openLog(
+              logFolder,
+              "gravityLog",
+              sensorSchema("timestamp[ns],x[m/s^2],y[m/s^2],z[m/s^2]"));
       sensorManager.registerListener(this, gravitySensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.MAGNETIC.getSensor())
         && magneticSensor != null) {
-      magneticLog = openLog(logFolder, "magneticLog.txt");
-      appendLog(magneticLog, "timestamp[ns],x[uT],y[uT],z[uT]");
+      magneticLog =
+          openLog(logFolder, "magneticLog", sensorSchema("timestamp[ns],x[uT],y[uT],z[uT]"));
       sensorManager.registerListener(this, magneticSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.LIGHT.getSensor())
         && lightSensor != null) {
-      lightLog = openLog(logFolder, "lightLog.txt");
-      appendLog(lightLog, "timestamp[ns],light[lux]");
+      lightLog = openLog(logFolder, "lightLog", sensorSchema("timestamp[ns],light[lux]"));
       sensorManager.registerListener(this, lightSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.PROXIMITY.getSensor())
         && proximitySensor != null) {
-      proximityLog = openLog(logFolder, "proximityLog.txt");
-      appendLog(proximityLog, "timestamp[ns],proximity[cm]");
+      proximityLog =
+          openLog(logFolder, "proximityLog", sensorSchema("timestamp[ns],proximity[cm]"));
       sensorManager.registerListener(this, proximitySensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.PRESSURE.getSensor())
         && pressureSensor != null) {
-      pressureLog = openLog(logFolder, "pressureLog.txt");
-      appendLog(pressureLog, "timestamp[ns],pressure[hPa]");
+      pressureLog = openLog(logFolder, "pressureLog", sensorSchema("timestamp[ns],pressure[hPa]"));
       sensorManager.registerListener(this, pressureSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.TEMPERATURE.getSensor())
         && temperatureSensor != null) {
-      temperatureLog = openLog(logFolder, "temperatureLog.txt");
-      appendLog(temperatureLog, "timestamp[ns],temperature[degrees]");
+      temperatureLog =
+          openLog(logFolder, "temperatureLog", sensorSchema("timestamp[ns],temperature[degrees]"));
       sensorManager.registerListener(this, temperatureSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.POSE.getSensor())
         && poseSensor != null) {
-      poseLog = openLog(logFolder, "poseLog.txt");
-      appendLog(poseLog, "timestamp[ns],x,y,z,w,x,y,z,dx,dy,dz,dw,dx,dy,dz,id");
+      poseLog =
+          openLog(
+              logFolder,
+              "poseLog",
+              sensorSchema("timestamp[ns],x,y,z,w,x,y,z,dx,dy,dz,dw,dx,dy,dz,id"));
       sensorManager.registerListener(this, poseSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.MOTION.getSensor())
         && motionSensor != null) {
-      motionLog = openLog(logFolder, "motionLog.txt");
-      appendLog(motionLog, "timestamp[ns],motion");
+      motionLog = openLog(logFolder, "motionLog", sensorSchema("timestamp[ns],motion"));
       sensorManager.registerListener(this, motionSensor, delay);
     }
 
     if (preferencesManager.getSensorStatus(Enums.SensorType.GPS.getSensor())) {
-      gpsLog = openLog(logFolder, "gpsLog.txt");
-      appendLog(gpsLog, "timestamp[ns],latitude,longitude,altitude[m],bearing,speed[m/s]");
+      gpsLog =
+          openLog(
+              logFolder,
+              "gpsLog",
+              new LogSchema(
+                  "timestamp[ns],latitude,longitude,altitude[m],bearing,speed[m/s]",
+                  LogSchema.Type.INT64,
+                  LogSchema.Type.FLOAT64,
+                  LogSchema.Type.FLOAT64,
+                  LogSchema.Type.FLOAT64,
+                  LogSchema.Type.FLOAT32,
+                  LogSchema.Type.FLOAT32));
     }
 
-    frameLog = openLog(logFolder, "rgbFrames.txt");
-    appendLog(frameLog, "timestamp[ns],frame");
-
-    inferenceLog = openLog(logFolder, "inferenceTime.txt");
-    appendLog(inferenceLog, "frame, inferenceTime [ns]");
-
-    ctrlLog = openLog(logFolder, "ctrlLog.txt");
-    appendLog(ctrlLog, "timestamp[ns],leftCtrl,rightCtrl");
-
-    indicatorLog = openLog(logFolder, "indicatorLog.txt");
-    appendLog(indicatorLog, "timestamp[ns],signal");
-
+    frameLog =
+        openLog(
+            logFolder,
+            "rgbFrames",
+            new LogSchema("timestamp[ns],frame", LogSchema.Type.INT64, LogSchema.Type.INT64));
+
+    inferenceLog =
+        openLog(
+            logFolder,
+            "inferenceTime",
+            new LogSchema(
+                "frame, inferenceTime [ns]", LogSchema.Type.INT64, LogSchema.Type.INT64));
+
+    ctrlLog =
+        openLog(
+            logFolder,
+            "ctrlLog",
+            new LogSchema(
+                "timestamp[ns],leftCtrl,rightCtrl",
+                LogSchema.Type.INT64,
+                LogSchema.Type.INT32,
+                LogSchema.Type.INT32));
+
+    indicatorLog =
+        openLog(
+            logFolder,
+            "indicatorLog",
+            new LogSchema("timestamp[ns],signal", LogSchema.Type.INT64, LogSchema.Type.INT32));
+
+    // The vehicle reports its data as text, which is logged as it is.
     if (preferencesManager.getSensorStatus(Enums.SensorType.VEHICLE.getSensor())) {
       voltageLog = openLog(logFolder, "voltageLog.txt");
       appendLog(voltageLog, "timestamp[ns],batteryVoltage");
@@ -223,6 +297,18 @@ public class SensorService extends Service implements SensorEventListener {
           public void onLocationResult(LocationResult locationResult) {
             Location location = locationResult.getLastLocation();
             if (location != null) {
+              if (gpsLog instanceof AsyncLogWriter.BinaryLogFile) {
+                ((AsyncLogWriter.BinaryLogFile) gpsLog)
+                    .beginRecord()
+                    .putLong(location.getElapsedRealtimeNanos())
+                    .putDouble(location.getLatitude())
+                    .putDouble(location.getLongitude())
+                    .putDouble(location.getAltitude())
+                    .putFloat(location.getBearing())
+                    .putFloat(location.getSpeed())
+                    .endRecord();
+                return;
+              }
               appendLog(
                   gpsLog,
                   location.getElapsedRealtimeNanos()
@@ -268,71 +354,39 @@ public class SensorService extends Service implements SensorEventListener {
       case Sensor.TYPE_ACCELEROMETER:
         // Acceleration including gravity along the X, Y and Z axis
         // Units are m/s^2
-        appendLog(
-            accelerometerLog,
-            event.timestamp
-                + ","
-                + event.values[0]
-                + ","
-                + event.values[1]
-                + ","
-                + event.values[2]);
+        logValues(accelerometerLog, event.timestamp, event.values, 3);
         break;
       case Sensor.TYPE_GYROSCOPE:
         // Angular speed around the device's local X, Y and Z axis
         // Units are radians/second
         // The coordinate system is the same as is used by the acceleration sensor
-        appendLog(
-            gyroscopeLog,
-            event.timestamp
-                + ","
-                + event.values[0]
-                + ","
-                + event.values[1]
-                + ","
-                + event.values[2]);
+        logValues(gyroscopeLog, event.timestamp, event.values, 3);
         break;
       case Sensor.TYPE_GRAVITY:
         // A three dimensional vector indicating the direction and magnitude of gravity
         // Units are m/s^2
         // The coordinate system is the same as is used by the acceleration sensor
-        appendLog(
-            gravityLog,
-            event.timestamp
-                + ","
-                + event.values[0]
-                + ","
-                + event.values[1]
-                + ","
-                + event.values[2]);
+        logValues(gravityLog, event.timestamp, event.values, 3);
         break;
       case Sensor.TYPE_MAGNETIC_FIELD:
         // Ambient magnetic field in the X, Y and Z axis in micro-Tesla (uT).
-        appendLog(
-            magneticLog,
-            event.timestamp
-                + ","
-                + event.values[0]
-                + ","
-                + event.values[1]
-                + ","
-                + event.values[2]);
+        logValues(magneticLog, event.timestamp, event.values, 3);
         break;
       case Sensor.TYPE_LIGHT:
         // Ambient light level in SI lux units
-        appendLog(lightLog, event.timestamp + "," + event.values[0]);
+        logValues(lightLog, event.timestamp, event.values, 1);
         break;
       case Sensor.TYPE_PROXIMITY:
         // Proximity sensor distance measured in centimeters
-        appendLog(proximityLog, event.timestamp + "," + event.values[0]);
+        logValues(proximityLog, event.timestamp, event.values, 1);
         break;
       case Sensor.TYPE_PRESSURE:
         // Atmospheric pressure in mPa (millibar)
-        appendLog(pressureLog, event.timestamp + "," + event.values[0]);
+        logValues(pressureLog, event.timestamp, event.values, 1);
         break;
       case Sensor.TYPE_AMBIENT_TEMPERATURE:
         // Ambient temperature in degrees
-        appendLog(temperatureLog, event.timestamp + "," + event.values[0]);
+        logValues(temperatureLog, event.timestamp, event.values, 1);
         break;
       case Sensor.TYPE_POSE_6DOF:
         // values[0]: x*sin(θ/2)
@@ -350,45 +404,13 @@ public class SensorService extends Service implements SensorEventListener {
         // values[12]: Delta translation along y axis.
         // values[13]: Delta translation along z axis.
         // values[14]: Sequence number
-        appendLog(
-            poseLog,
-            event.timestamp
-                + ","
-                + event.values[0]
-                + ","
-                + event.values[1]
-                + ","
-                + event.values[2]
-                + ","
-                + event.values[3]
-                + ","
-                + event.values[4]
-                + ","
-                + event.values[5]
-                + ","
-                + event.values[6]
-                + ","
-                + event.values[7]
-                + ","
-                + event.values[8]
-                + ","
-                + event.values[9]
-                + ","
-                + event.values[10]
-                + ","
-                + event.values[11]
-                + ","
-                + event.values[12]
-                + ","
-                + event.values[13]
-                + ","
-                + event.values[14]);
+        logValues(poseLog, event.timestamp, event.values, 15);
         break;
       case Sensor.TYPE_MOTION_DETECT:
-        appendLog(motionLog, event.timestamp + "," + event.values[0]);
+        logValues(motionLog, event.timestamp, event.values, 1);
         break;
       case Sensor.TYPE_STATIONARY_DETECT:
-        appendLog(motionLog, event.timestamp + "," + (-1) * event.values[0]);
+        logValue(motionLog, event.timestamp, (-1) * event.values[0]);
         break;
       default:
         // Unknown sensor
@@ -399,118 +421,188 @@ public class SensorService extends Service implements SensorEventListener {
   private class SensorMessageHandler extends android.os.Handler {
     @Override
     public void handleMessage(Message msg) {
-      if (hasStarted) {
-        if (msg.what == MSG_FRAME) {
-          long frameNumber = msg.getData().getLong("frameNumber");
-          long timestamp = msg.getData().getLong("timestamp");
-          if (frameLog != null) appendLog(frameLog, timestamp + "," + frameNumber);
-        } else if (msg.what == MSG_INFERENCE) {
-          long frameNumber = msg.getData().getLong("frameNumber");
-          long inferenceTime = msg.getData().getLong("inferenceTime");
-          if (inferenceLog != null) appendLog(inferenceLog, frameNumber + "," + inferenceTime);
-        } else if (msg.what == MSG_CONTROL) {
-          // msg.arg1 and msg.arg2 contain left and right control signals respectively
-          if (ctrlLog != null)
-            appendLog(
-                ctrlLog, SystemClock.elapsedRealtimeNanos() + "," + msg.arg1 + "," + msg.arg2);
-        } else if (msg.what == MSG_INDICATOR) {
-          // msg.arg1 contains indicator signal
-          if (indicatorLog != null)
-            appendLog(indicatorLog, SystemClock.elapsedRealtimeNanos() + "," + msg.arg1);
-        } else if (msg.what == MSG_VOLTAGE) {
-          long timestamp = msg.getData().getLong("timestamp");
-          String data = msg.getData().getString("data");
-          if (voltageLog != null) appendLog(voltageLog, timestamp + "," + data);
-        } else if (msg.what == MSG_SONAR) {
-          long timestamp = msg.getData().getLong("timestamp");
-          String data = msg.getData().getString("data");
-          if (sonarLog != null) appendLog(sonarLog, timestamp + "," + data);
-        } else if (msg.what == MSG_WHEELS) {
-          long timestamp = msg.getData().getLong("timestamp");
-          String data = msg.getData().getString("data");
-          if (wheelsLog != null) appendLog(wheelsLog, timestamp + "," + data);
-        } else if (msg.what == MSG_BUMPER) {
-          long timestamp = msg.getData().getLong("timestamp");
-          String data = msg.getData().getString("data");
-          if (bumperLog != null) appendLog(bumperLog, timestamp + "," + data);
-        } else LOGGER.d("Message skipped.");
+      if (msg.what == MSG_FRAME) {
+        Bundle data = msg.getData();
+        logTelemetry(msg.what, data.getLong("timestamp"), data.getLong("frameNumber"), 0, null);
+      } else if (msg.what == MSG_INFERENCE) {
+        Bundle data = msg.getData();
+        logTelemetry(
+            msg.what, 0, data.getLong("frameNumber"), data.getLong("inferenceTime"), null);
+      } else if (msg.what == MSG_CONTROL || msg.what == MSG_INDICATOR) {
+        // msg.arg1 and msg.arg2 contain left and right control signals, or the indicator signal
+        logTelemetry(msg.what, SystemClock.elapsedRealtimeNanos(), msg.arg1, msg.arg2, null);
+      } else {
+        Bundle data = msg.getData();
+        logTelemetry(msg.what, data.getLong("timestamp"), 0, 0, data.getString("data"));
       }
     }
   }
 
+  /**
+   * Logs a record received as message or through the {@link TelemetryChannel}. Frames are logged
+   * with their number as first value, inference times with the frame number and the time, control
+   * signals with left and right value, the indicator with its signal, and vehicle data as text.
+   */
+  private void logTelemetry(int type, long timestamp, long value0, long value1, String text) {
+    if (!hasStarted) return;
+    switch (type) {
+      case MSG_FRAME:
+        logLongs(frameLog, timestamp, value0);
+        break;
+      case MSG_INFERENCE:
+        logLongs(inferenceLog, value0, value1);
+        break;
+      case MSG_CONTROL:
+        if (ctrlLog instanceof AsyncLogWriter.BinaryLogFile) {
+          ((AsyncLogWriter.BinaryLogFile) ctrlLog)
+              .beginRecord()
+              .putLong(timestamp)
+              .putInt((int) value0)
+              .putInt((int) value1)
+              .endRecord();
+        } else appendLog(ctrlLog, timestamp + "," + value0 + "," + value1);
+        break;
+      case MSG_INDICATOR:
+        if (indicatorLog instanceof AsyncLogWriter.BinaryLogFile) {
+          ((AsyncLogWriter.BinaryLogFile) indicatorLog)
+              .beginRecord()
+              .putLong(timestamp)
+              .putInt((int) value0)
+              .endRecord();
+        } else appendLog(indicatorLog, timestamp + "," + value0);
+        break;
+      case MSG_VOLTAGE:
+        appendLog(voltageLog, timestamp + "," + text);
+        break;
+      case MSG_SONAR:
+        appendLog(sonarLog, timestamp + "," + text);
+        break;
+      case MSG_WHEELS:
+        appendLog(wheelsLog, timestamp + "," + text);
+        break;
+      case MSG_BUMPER:
+        appendLog(bumperLog, timestamp + "," + text);
+        break;
+      default:
+        LOGGER.d("Message skipped.");
+        break;
+    }
+  }
+
+  /**
+   * Returns the channel of the service for sending records without messages, or null if the
+   * service does not run in this process.
+   */
+  static TelemetryChannel getTelemetryChannel() {
+    return telemetryChannel;
+  }
+
+  /**
+   * Returns the writer of the logs while the service runs in this process, or null. Once the
+   * service is stopped, {@link AsyncLogWriter#awaitClosed} tells when the logs are complete.
+   */
+  static AsyncLogWriter getLogWriter() {
+    return logWriter;
+  }
+
   @Override
   public void onDestroy() {
     hasStarted = false;
+    if (telemetryChannel != null) {
+      LOGGER.i(
+          "Telemetry: "
+              + telemetryChannel.getDroppedRecords()
+              + " of "
+              + telemetryChannel.getPublishedRecords()
+              + " records dropped");
+      telemetryChannel = null;
+    }
     sensorManager.unregisterListener(this);
     stopTrackingLocation();
 
-    if (accelerometerLog != null) closeLog(accelerometerLog);
-    if (gyroscopeLog != null) closeLog(gyroscopeLog);
-    if (gravityLog != null) closeLog(gravityLog);
-    if (magneticLog != null) closeLog(magneticLog);
-    if (lightLog != null) closeLog(lightLog);
-    if (proximityLog != null) closeLog(proximityLog);
-    if (pressureLog != null) closeLog(pressureLog);
-    if (temperatureLog != null) closeLog(temperatureLog);
-    if (poseLog != null) closeLog(poseLog);
-    if (motionLog != null) closeLog(motionLog);
-    if (gpsLog != null) closeLog(gpsLog);
-    if (frameLog != null) closeLog(frameLog);
-    if (inferenceLog != null) closeLog(inferenceLog);
-    if (ctrlLog != null) closeLog(ctrlLog);
-    if (indicatorLog != null) closeLog(indicatorLog);
-    if (voltageLog != null) closeLog(voltageLog);
-    if (sonarLog != null) closeLog(sonarLog);
-    if (wheelsLog != null) closeLog(wheelsLog);
-    if (bumperLog != null) closeLog(bumperLog);
+    if (logWriter != null) {
+      // The remaining lines are written and the logs synced to storage on the writer thread, see
+      // getLogWriter.
+      logWriter.closeAsync();
+      logWriter = null;
+    }
   }
 
-  public BufferedWriter openLog(String path, String filename) {
+  public AsyncLogWriter.LogFile openLog(String path, String filename) {
     LOGGER.i("Opening log file: " + filename);
-    final File myDir = new File(path);
-
-    if (!myDir.exists()) {
-      if (!myDir.mkdirs()) {
-        LOGGER.i("Make dir failed");
-      }
+    try {
+      return logWriter.open(new File(path, filename));
+    } catch (IOException e) {
+      LOGGER.e(e, "Could not open log file: %s", filename);
+      return null;
     }
+  }
 
-    final File file = new File(myDir, filename);
+  /** Queues a line for the log without waiting for it to be written. */
+  public void appendLog(AsyncLogWriter.LogFile log, String text) {
+    final AsyncLogWriter writer = logWriter;
+    // Lines arriving after the service was destroyed are dropped.
+    if (log != null && writer != null) writer.append(log, text);
+  }
 
-    if (!file.exists()) {
-      try {
-        file.createNewFile();
-      } catch (IOException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
+  /**
+   * Opens the log {@code name} as binary log with the schema, or as text log with the header of
+   * the schema if binary logs are disabled.
+   */
+  private AsyncLogWriter.LogFile openLog(String path, String name, LogSchema schema) {
+    if (!binaryLogs) {
+      AsyncLogWriter.LogFile log = openLog(path, name + BinaryLogReader.TEXT_EXTENSION);
+      appendLog(log, schema.getHeader());
+      return log;
     }
-
+    LOGGER.i("Opening binary log file: " + name);
     try {
-      // BufferedWriter for performance, true to set append to file flag
-      return new BufferedWriter(new FileWriter(file, true));
+      return logWriter.openBinary(new File(path, name + BinaryLogReader.BINARY_EXTENSION), schema);
     } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+      LOGGER.e(e, "Could not open binary log file: %s", name);
       return null;
     }
   }
 
-  public void appendLog(BufferedWriter writer, String text) {
-    try {
-      writer.append(text);
-      writer.newLine();
-      writer.flush();
-    } catch (Exception e) {
-      e.printStackTrace();
+  /** Schema of a sensor log: the timestamp followed by the float values the header names. */
+  private static LogSchema sensorSchema(String header) {
+    LogSchema.Type[] types = new LogSchema.Type[header.split(",").length];
+    Arrays.fill(types, LogSchema.Type.FLOAT32);
+    types[0] = LogSchema.Type.INT64;
+    return new LogSchema(header, types);
+  }
+
+  private void logValues(AsyncLogWriter.LogFile log, long timestamp, float[] values, int count) {
+    if (log instanceof AsyncLogWriter.BinaryLogFile) {
+      ((AsyncLogWriter.BinaryLogFile) log)
+          .beginRecord()
+          .putLong(timestamp)
+          .putFloats(values, count)
+          .endRecord();
+    } else if (log != null) {
+      StringBuilder line = new StringBuilder().append(timestamp);
+      for (int i = 0; i < count; i++) line.append(',').append(values[i]);
+      appendLog(log, line.toString());
     }
   }
 
-  public void closeLog(BufferedWriter writer) {
-    try {
-      writer.close();
-    } catch (IOException e) {
-      e.printStackTrace();
+  private void logValue(AsyncLogWriter.LogFile log, long timestamp, float value) {
+    if (log instanceof AsyncLogWriter.BinaryLogFile) {
+      ((AsyncLogWriter.BinaryLogFile) log)
+          .beginRecord()
+          .putLong(timestamp)
+          .putFloat(value)
+          .endRecord();
+    } else if (log != null) {
+      appendLog(log, timestamp + "," + value);
+    }
+  }
+
+  private void logLongs(AsyncLogWriter.LogFile log, long first, long second) {
+    if (log instanceof AsyncLogWriter.BinaryLogFile) {
+      ((AsyncLogWriter.BinaryLogFile) log).beginRecord().putLong(first).putLong(second).endRecord();
+    } else if (log != null) {
+      appendLog(log, first + "," + second);
     }
   }
 
@@ -0,0 +1,159 @@
+package org.openbot.logging;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Passes telemetry records from any thread to a consumer on another thread without allocating,
+ * as an in-process replacement for sending a {@link android.os.Message} with a {@link
+ * android.os.Bundle} per record.
+ *
+ * <p>A record is a type, a timestamp, two long values, {@link #FLOAT_VALUES} float values and an
+ * optional text, e.g. the data line of the vehicle that was received as string anyway. Records are
+ * stored in the primitive slots of a preallocated ring, which producers claim without locks. When
+ * the ring is full, records are dropped and counted. The consumer is run on the executor to drain
+ * the ring; it is scheduled once when the first record arrives in an empty ring, not for every
+ * record.
+ */
+public class TelemetryChannel {
+
+  /** Called on the executor for every record, in the order of publication. */
+  public interface Consumer {
+    /** @param floats The float values of the record, only valid until this method returns. */
+    void onRecord(int type, long timestamp, long value0, long value1, float[] floats, String text);
+  }
+
+  /** Float values per record; values that were not published are zero. */
+  public static final int FLOAT_VALUES = 4;
+
+  private final int mask;
+  private final int[] types;
+  private final long[] timestamps;
+  private final long[] values0;
+  private final long[] values1;
+  /** The float values of slot i start at {@code i * FLOAT_VALUES}. */
+  private final float[] floatValues;
+  private final String[] texts;
+  /** Only accessed by the consumer. */
+  private final float[] recordFloats = new float[FLOAT_VALUES];
+  /** Slot i is free for position p if its sequence is p, and holds the record of p if p+1. */
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  /** Only accessed by the consumer. */
+  private long head;
+
+  private final Executor executor;
+  private final Consumer consumer;
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+  private final Runnable drainTask = this::drain;
+
+  private final AtomicLong publishedRecords = new AtomicLong();
+  private final AtomicLong droppedRecords = new AtomicLong();
+
+  /**
+   * @param capacity Records the ring holds, rounded up to a power of two.
+   * @param executor Runs the consumer, e.g. {@code handler::post}.
+   */
+  public TelemetryChannel(int capacity, Executor executor, Consumer consumer) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+    }
+    final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    mask = size - 1;
+    types = new int[size];
+    timestamps = new long[size];
+    values0 = new long[size];
+    values1 = new long[size];
+    floatValues = new float[size * FLOAT_VALUES];
+    texts = new String[size];
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.executor = executor;
+    this.consumer = consumer;
+  }
+
+  /**
+   * Queues a record without float values for the consumer without blocking.
+   *
+   * @return False if the record was dropped because the ring is full.
+   */
+  public boolean publish(int type, long timestamp, long value0, long value1, String text) {
+    return publish(type, timestamp, value0, value1, null, 0, text);
+  }
+
+  /**
+   * Queues a record with the first {@code count} values of {@code floats} for the consumer without
+   * blocking.
+   *
+   * @return False if the record was dropped because the ring is full.
+   */
+  public boolean publish(
+      int type, long timestamp, long value0, long value1, float[] floats, int count, String text) {
+    if (count < 0 || count > FLOAT_VALUES) {
+      throw new IllegalArgumentException(
+          "Records hold up to " + FLOAT_VALUES + " float values: " + count);
+    }
+    publishedRecords.incrementAndGet();
+    long position = tail.get();
+    int index;
+    while (true) {
+      index = (int) position & mask;
+      final long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) break;
+        position = tail.get();
+      } else if (difference < 0) {
+        // The consumer has not taken the record of the previous round yet.
+        droppedRecords.incrementAndGet();
+        return false;
+      } else {
+        // Another producer claimed the slot first.
+        position = tail.get();
+      }
+    }
+    types[index] = type;
+    timestamps[index] = timestamp;
+    values0[index] = value0;
+    values1[index] = value1;
+    final int offset = index * FLOAT_VALUES;
+    for (int i = 0; i < FLOAT_VALUES; i++) {
+      floatValues[offset + i] = i < count ? floats[i] : 0;
+    }
+    texts[index] = text;
+    // A full barrier, so that a running drain either sees the record or is rescheduled.
+    sequences.set(index, position + 1);
+    if (!drainScheduled.get() && drainScheduled.compareAndSet(false, true)) {
+      executor.execute(drainTask);
+    }
+    return true;
+  }
+
+  private void drain() {
+    // Cleared before draining, so that records published meanwhile schedule another drain.
+    drainScheduled.set(false);
+    while (true) {
+      final int index = (int) head & mask;
+      if (sequences.get(index) != head + 1) return;
+      final String text = texts[index];
+      texts[index] = null;
+      System.arraycopy(floatValues, index * FLOAT_VALUES, recordFloats, 0, FLOAT_VALUES);
+      consumer.onRecord(
+          types[index], timestamps[index], values0[index], values1[index], recordFloats, text);
+      sequences.lazySet(index, head + mask + 1);
+      head++;
+    }
+  }
+
+  public long getPublishedRecords() {
+    return publishedRecords.get();
+  }
+
+  /** Records that were dropped because the consumer fell behind by the capacity of the ring. */
+  public long getDroppedRecords() {
+    return droppedRecords.get();
+  }
+}
@@ -80,7 +80,8 @@ public class EditModelDialogFragment extends DialogFragment {
                     .filter(
                         f ->
                             selected.equals(Model.TYPE.AUTOPILOT.name())
-                                == f.equals(Model.CLASS.AUTOPILOT_F.toString()))
+                                == (f.equals(Model.CLASS.AUTOPILOT_F.toString())
+                                    || f.equals(Model.CLASS.AUTOPILOT_Q.toString())))
                     .collect(Collectors.toList()));
             classAdapter.notifyDataSetChanged();
             binding.classSpinner.setSelection(classAdapter.getPosition(model.classType.toString()));
@@ -10,7 +10,6 @@ import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.SystemClock;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -22,20 +21,29 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.camera.core.ImageProxy;
 import androidx.navigation.Navigation;
+import androidx.preference.PreferenceManager;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import org.jetbrains.annotations.NotNull;
+import org.openbot.OpenBotApplication;
 import org.openbot.R;
 import org.openbot.common.CameraFragment;
 import org.openbot.databinding.FragmentObjectNavBinding;
 import org.openbot.env.BorderedText;
 import org.openbot.env.ImageUtils;
+import org.openbot.env.LumaFrame;
+import org.openbot.env.SharedPreferencesManager;
+import org.openbot.env.YuvFrame;
 import org.openbot.tflite.Detector;
+import org.openbot.tflite.FrameChangeGate;
+import org.openbot.tflite.InferencePipeline;
+import org.openbot.tflite.InferenceTuner;
 import org.openbot.tflite.Model;
 import org.openbot.tflite.Network;
+import org.openbot.tflite.TfLiteBackend;
 import org.openbot.tracking.MultiBoxTracker;
 import org.openbot.utils.Constants;
 import org.openbot.utils.Enums;
@@ -48,8 +56,16 @@ public class ObjectNavFragment extends CameraFragment {
   private FragmentObjectNavBinding binding;
   private Handler handler;
   private HandlerThread handlerThread;
+  private Handler actuationHandler;
+  private HandlerThread actuationThread;
 
-  private boolean computingNetwork = false;
+  /** Frames are preprocessed on the camera thread while the previous one is inferred. */
+  private static final int NUM_PIPELINE_BUFFERS = 3;
+
+  private volatile InferencePipeline<Detector, List<Detector.Recognition>> pipeline;
+
+  /** Reuses the tracked detections for unchanged frames while standing still, null if disabled. */
+  private volatile FrameChangeGate frameGate;
   private static float MINIMUM_CONFIDENCE_TF_OD_API = 0.5f;
 
   private static final float TEXT_SIZE_DIP = 10;
@@ -58,8 +74,8 @@ public class ObjectNavFragment extends CameraFragment {
 
   private Matrix frameToCropTransform;
   private Bitmap croppedBitmap;
-  private int sensorOrientation;
   private Bitmap cropCopyBitmap;
+  private int sensorOrientation;
   private Matrix cropToFrameTransform;
 
   private MultiBoxTracker tracker;
@@ -67,6 +83,8 @@ public class ObjectNavFragment extends CameraFragment {
   private Model model;
   private Network.Device device = Network.Device.CPU;
   private int numThreads = -1;
+  private boolean autoConfiguration;
+  private final InferenceTuner tuner = new InferenceTuner(TfLiteBackend::load);
   private String classType = "person";
 
   private long lastProcessingTimeMs = -1;
@@ -126,6 +144,7 @@ public class ObjectNavFragment extends CameraFragment {
           public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
             classType = parent.getItemAtPosition(position).toString();
             preferencesManager.setObjectType(classType);
+            if (frameGate != null) frameGate.reset();
           }
 
           @Override
@@ -141,11 +160,16 @@ public class ObjectNavFragment extends CameraFragment {
         getModelNames(f -> f.type.equals(Model.TYPE.DETECTOR) && f.pathType != Model.PATH_TYPE.URL);
     initModelSpinner(binding.modelSpinner, models, preferencesManager.getObjectNavModel());
 
+    setYuvPreprocessing(true);
     setAnalyserResolution(Enums.Preview.HD.getValue());
     binding.deviceSpinner.setOnItemSelectedListener(
         new AdapterView.OnItemSelectedListener() {
           @Override
           public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+            if (position == SharedPreferencesManager.AUTO_DEVICE) {
+              setAutoConfiguration();
+              return;
+            }
             String selected = parent.getItemAtPosition(position).toString();
             setDevice(Network.Device.valueOf(selected.toUpperCase()));
           }
@@ -243,7 +267,6 @@ public class ObjectNavFragment extends CameraFragment {
   }
 
   protected void onInferenceConfigurationChanged() {
-    computingNetwork = false;
     if (croppedBitmap == null) {
       // Defer creation until we're getting camera frames.
       return;
@@ -258,15 +281,38 @@ public class ObjectNavFragment extends CameraFragment {
     resetFpsUi();
     if (model == null) return;
     tracker.clearTrackedObjects();
+    if (pipeline != null) {
+      pipeline.close();
+      pipeline = null;
+    }
+    if (frameGate != null) frameGate.reset();
     if (detector != null) {
       Timber.d("Closing detector.");
       detector.close();
       detector = null;
     }
 
+    if (device == null) {
+      InferenceTuner.Configuration configuration =
+          tuner.getConfiguration(requireActivity(), model, preferencesManager, this::onTuned);
+      Timber.d("Using tuned configuration %s", configuration);
+      device = configuration.device;
+      numThreads = configuration.numThreads;
+      final String tuned =
+          device == Network.Device.CPU ? String.valueOf(numThreads) : device.toString();
+      requireActivity().runOnUiThread(() -> binding.threads.setText(tuned));
+    }
+
     try {
       Timber.d("Creating detector (model=%s, device=%s, numThreads=%d)", model, device, numThreads);
-      detector = Detector.create(requireActivity(), model, device, numThreads);
+      detector =
+          Detector.create(
+              OpenBotApplication.getInterpreterCache(),
+              requireActivity(),
+              model,
+              device,
+              numThreads);
+      detector.setNumInputBuffers(NUM_PIPELINE_BUFFERS);
 
       croppedBitmap =
           Bitmap.createBitmap(
@@ -283,6 +329,7 @@ public class ObjectNavFragment extends CameraFragment {
 
       cropToFrameTransform = new Matrix();
       frameToCropTransform.invert(cropToFrameTransform);
+      pipeline = createPipeline(detector);
 
       requireActivity()
           .runOnUiThread(
@@ -313,33 +360,89 @@ public class ObjectNavFragment extends CameraFragment {
     }
   }
 
+  private InferencePipeline<Detector, List<Detector.Recognition>> createPipeline(
+      Detector detector) {
+    return new InferencePipeline<>(
+        detector,
+        NUM_PIPELINE_BUFFERS,
+        this::runInBackground,
+        this::runOnActuationThread,
+        (network, index, frameId) -> {
+          Timber.i("Running detection on image %s", frameId);
+          network.selectInputBuffer(index);
+          network.setMinConfidence(MINIMUM_CONFIDENCE_TF_OD_API);
+          return network.recognizePreprocessedImage(classType);
+        },
+        this::handleRecognitions);
+  }
+
   @Override
   public synchronized void onResume() {
     handlerThread = new HandlerThread("inference");
     handlerThread.start();
     handler = new Handler(handlerThread.getLooper());
+    actuationThread = new HandlerThread("actuation");
+    actuationThread.start();
+    actuationHandler = new Handler(actuationThread.getLooper());
+    if (detector != null) pipeline = createPipeline(detector);
+    frameGate =
+        PreferenceManager.getDefaultSharedPreferences(requireContext())
+                .getBoolean("frame_gating", false)
+            ? new FrameChangeGate()
+            : null;
     super.onResume();
   }
 
   @Override
   public synchronized void onPause() {
+    if (pipeline != null) {
+      pipeline.close();
+      pipeline = null;
+    }
     handlerThread.quitSafely();
+    actuationThread.quitSafely();
     try {
       handlerThread.join();
       handlerThread = null;
       handler = null;
+      actuationThread.join();
+      actuationThread = null;
+      actuationHandler = null;
     } catch (final InterruptedException e) {
       e.printStackTrace();
     }
     super.onPause();
   }
 
+  @Override
+  public void onDestroy() {
+    if (detector != null) {
+      detector.close();
+      detector = null;
+    }
+    super.onDestroy();
+  }
+
+  /** Recreates the network with the tuned configuration unless the selection changed meanwhile. */
+  private void onTuned(Model model, InferenceTuner.Configuration configuration) {
+    runInBackground(
+        () -> {
+          if (model == getModel() && getDevice() == null) recreateNetwork(model, null, 0);
+        });
+  }
+
   protected synchronized void runInBackground(final Runnable r) {
     if (handler != null) {
       handler.post(r);
     }
   }
 
+  protected synchronized void runOnActuationThread(final Runnable r) {
+    if (actuationHandler != null) {
+      actuationHandler.post(r);
+    }
+  }
+
   @Override
   protected void processUSBData(String data) {
     binding.controllerContainer.speedInfo.setText(
@@ -381,6 +484,7 @@ public class ObjectNavFragment extends CameraFragment {
     binding.controllerContainer.speedMode.setAlpha(b ? 0.5f : 1f);
 
     resetFpsUi();
+    if (frameGate != null) frameGate.reset();
     if (!b) handler.postDelayed(() -> vehicle.setControl(0, 0), Math.max(lastProcessingTimeMs, 50));
   }
 
@@ -388,81 +492,134 @@ public class ObjectNavFragment extends CameraFragment {
   protected void processFrame(Bitmap bitmap, ImageProxy image) {
     if (tracker == null) updateCropImageInfo();
 
-    ++frameNum;
+    frameNum = getFrameId();
     if (binding != null && binding.autoSwitch.isChecked()) {
-      // If network is busy, return.
-      if (computingNetwork) {
+      final InferencePipeline<Detector, List<Detector.Recognition>> pipeline = this.pipeline;
+      // Inference pauses while the model is benchmarked on the same cores.
+      if (pipeline == null || tuner.isTuning()) {
         return;
       }
 
-      computingNetwork = true;
-      Timber.i("Putting image " + frameNum + " for detection in bg thread.");
-
-      runInBackground(
-          () -> {
-            final Canvas canvas = new Canvas(croppedBitmap);
-            canvas.drawBitmap(bitmap, frameToCropTransform, null);
-
-            if (detector != null) {
-              Timber.i("Running detection on image %s", frameNum);
-              final long startTime = SystemClock.elapsedRealtime();
-              final List<Detector.Recognition> results =
-                  detector.recognizeImage(croppedBitmap, classType);
-              lastProcessingTimeMs = SystemClock.elapsedRealtime() - startTime;
-
-              if (!results.isEmpty())
-                Timber.i(
-                    "Object: "
-                        + results.get(0).getLocation().centerX()
-                        + ", "
-                        + results.get(0).getLocation().centerY()
-                        + ", "
-                        + results.get(0).getLocation().height()
-                        + ", "
-                        + results.get(0).getLocation().width());
-
-              cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-              final Canvas canvas1 = new Canvas(cropCopyBitmap);
-              final Paint paint = new Paint();
-              paint.setColor(Color.RED);
-              paint.setStyle(Paint.Style.STROKE);
-              paint.setStrokeWidth(2.0f);
-
-              final List<Detector.Recognition> mappedRecognitions = new LinkedList<>();
-
-              for (final Detector.Recognition result : results) {
-                final RectF location = result.getLocation();
-                if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API) {
-                  canvas1.drawRect(location, paint);
-                  cropToFrameTransform.mapRect(location);
-                  result.setLocation(location);
-                  mappedRecognitions.add(result);
-                }
-              }
-
-              tracker.trackResults(mappedRecognitions, frameNum);
-              handleDriveCommand(tracker.updateTarget());
-              binding.trackingOverlay.postInvalidate();
+      pipeline.submit(
+          frameNum,
+          (network, index) -> {
+            if (bitmap != null) {
+              final Canvas canvas = new Canvas(croppedBitmap);
+              canvas.drawBitmap(bitmap, frameToCropTransform, null);
+              network.convertBitmapToByteBuffer(croppedBitmap, index);
+            } else {
+              // Fused preprocessing from the still open YUV image.
+              network.convertYuvToByteBuffer(YuvFrame.of(image), frameToCropTransform, index);
             }
-
-            computingNetwork = false;
           });
-      if (lastProcessingTimeMs > 0) {
+
+      lastProcessingTimeMs =
+          (long) pipeline.getLastStageTimeMs(InferencePipeline.Stage.INFERENCE);
+      if (frameNum % 100 == 0) {
+        Timber.d(
+            "Pipeline: pre %.1f ms, inference %.1f ms, actuation %.1f ms, dropped %d/%d",
+            pipeline.getAverageStageTimeMs(InferencePipeline.Stage.PREPROCESS),
+            pipeline.getAverageStageTimeMs(InferencePipeline.Stage.INFERENCE),
+            pipeline.getAverageStageTimeMs(InferencePipeline.Stage.ACTUATION),
+            pipeline.getDroppedFrames(),
+            pipeline.getSubmittedFrames());
+        if (frameGate != null) {
+          Timber.d(
+              "Frame gate: skipped %d/%d (%.0f%%)",
+              frameGate.getSkippedFrames(),
+              frameGate.getCheckedFrames(),
+              100 * frameGate.getSkipRatio());
+        }
+      }
+      final double intervalMs = pipeline.getAverageIntervalMs();
+      if (intervalMs > 0) {
         if (isBenchmarkMode) {
-          double avgProcessingTimeMs = movingAvgProcessingTimeMs.next(lastProcessingTimeMs);
+          double avgIntervalMs = movingAvgProcessingTimeMs.next(Math.round(intervalMs));
           processedFrames += 1;
-          if (processedFrames >= movingAvgSize) updateFpsUi(avgProcessingTimeMs);
-        } else updateFpsUi(lastProcessingTimeMs);
+          if (processedFrames >= movingAvgSize) updateFpsUi(avgIntervalMs);
+        } else updateFpsUi(intervalMs);
+      }
+    }
+  }
+
+  /**
+   * Keeps following the last detections for a frame whose brightness did not change, so that the
+   * frame is not even converted to colour.
+   */
+  @Override
+  protected boolean processLumaFrame(LumaFrame frame, ImageProxy image) {
+    final FrameChangeGate frameGate = this.frameGate;
+    if (frameGate == null
+        || binding == null
+        || !binding.autoSwitch.isChecked()
+        || pipeline == null
+        || tuner.isTuning()
+        || !frameGate.shouldSkip(frame, vehicle.getSpeedPercent())) {
+      return false;
+    }
+    // The tracker still holds the detections of the last inferred frame.
+    frameNum = getFrameId();
+    final long skippedFrame = frameNum;
+    runOnActuationThread(
+        () -> {
+          handleDriveCommand(tracker.updateTarget());
+          onFrameConsumed(skippedFrame);
+        });
+    return true;
+  }
+
+  private void handleRecognitions(List<Detector.Recognition> results, long frameId) {
+    if (!results.isEmpty())
+      Timber.i(
+          "Object: "
+              + results.get(0).getLocation().centerX()
+              + ", "
+              + results.get(0).getLocation().centerY()
+              + ", "
+              + results.get(0).getLocation().height()
+              + ", "
+              + results.get(0).getLocation().width());
+
+    // The cropped frame may already hold a newer frame, the boxes are only drawn for debugging.
+    cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
+    final Canvas canvas1 = new Canvas(cropCopyBitmap);
+    final Paint paint = new Paint();
+    paint.setColor(Color.RED);
+    paint.setStyle(Paint.Style.STROKE);
+    paint.setStrokeWidth(2.0f);
+
+    final List<Detector.Recognition> mappedRecognitions = new LinkedList<>();
+
+    for (final Detector.Recognition result : results) {
+      final RectF location = result.getLocation();
+      if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API) {
+        canvas1.drawRect(location, paint);
+        cropToFrameTransform.mapRect(location);
+        result.setLocation(location);
+        mappedRecognitions.add(result);
       }
     }
+
+    tracker.trackResults(mappedRecognitions, frameId);
+    handleDriveCommand(tracker.updateTarget());
+    onFrameConsumed(frameId);
+    binding.trackingOverlay.postInvalidate();
   }
 
+  /** Shows the frame rate and the median and 90th percentile of the capture-to-control latency. */
   private void updateFpsUi(double processingTimeMs) {
+    final double p50 = getLatencyTracker().getLatencyPercentileMs(50);
+    final double p90 = getLatencyTracker().getLatencyPercentileMs(90);
     requireActivity()
         .runOnUiThread(
             () ->
                 binding.inferenceInfo.setText(
-                    String.format(Locale.US, "%.1f fps", 1000.f / processingTimeMs)));
+                    String.format(
+                        Locale.US,
+                        "%.1f fps, %.0f/%.0f ms",
+                        1000.f / processingTimeMs,
+                        p50,
+                        p90)));
   }
 
   private void resetFpsUi() {
@@ -496,14 +653,29 @@ public class ObjectNavFragment extends CameraFragment {
     }
   }
 
+  /** Returns null if the device and number of threads are tuned automatically. */
   protected Network.Device getDevice() {
-    return device;
+    return autoConfiguration ? null : device;
+  }
+
+  private void setAutoConfiguration() {
+    if (!autoConfiguration) {
+      Timber.d("Updating  device: auto");
+      autoConfiguration = true;
+      binding.plus.setEnabled(false);
+      binding.minus.setEnabled(false);
+      binding.threads.setText(R.string.auto);
+      binding.threads.setTextColor(Color.GRAY);
+      preferencesManager.setDevice(SharedPreferencesManager.AUTO_DEVICE);
+      onInferenceConfigurationChanged();
+    }
   }
 
   private void setDevice(Network.Device device) {
-    if (this.device != device) {
+    if (this.device != device || autoConfiguration) {
       Timber.d("Updating  device: %s", device);
       this.device = device;
+      autoConfiguration = false;
       final boolean threadsEnabled = device == Network.Device.CPU;
       binding.plus.setEnabled(threadsEnabled);
       binding.minus.setEnabled(threadsEnabled);
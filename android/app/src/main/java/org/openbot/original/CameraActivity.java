@@ -87,16 +87,19 @@ import org.openbot.env.AudioPlayer;
 import org.openbot.env.BotToControllerEventBus;
 import org.openbot.env.ControllerToBotEventBus;
 import org.openbot.env.GameController;
-import org.openbot.env.ImageUtils;
 import org.openbot.env.Logger;
 import org.openbot.env.PhoneController;
 import org.openbot.env.SharedPreferencesManager;
+import org.openbot.env.YuvFrame;
+import org.openbot.env.YuvToArgbConverter;
 import org.openbot.logging.LogDataUtils;
 import org.openbot.logging.SensorService;
 import org.openbot.server.ServerCommunication;
 import org.openbot.server.ServerListener;
+import org.openbot.tflite.InferenceTuner;
 import org.openbot.tflite.Model;
 import org.openbot.tflite.Network.Device;
+import org.openbot.tflite.TfLiteBackend;
 import org.openbot.utils.ConnectionUtils;
 import org.openbot.utils.Constants;
 import org.openbot.utils.Enums;
@@ -137,6 +140,7 @@ public abstract class CameraActivity extends AppCompatActivity
   private int yRowStride;
   private Runnable postInferenceCallback;
   private Runnable imageConverter;
+  private final YuvToArgbConverter yuvToArgbConverter = new YuvToArgbConverter();
 
   private LinearLayout bottomSheetLayout;
   private LinearLayout gestureLayout;
@@ -165,6 +169,8 @@ public abstract class CameraActivity extends AppCompatActivity
   private Model model;
   private Device device = Device.CPU;
   private int numThreads = -1;
+  private boolean autoConfiguration;
+  private final InferenceTuner tuner = new InferenceTuner(TfLiteBackend::load);
 
   public int[] BaudRates = {9600, 14400, 19200, 38400, 57600, 115200, 230400, 460800, 921600};
   private int baudRate = 115200;
@@ -527,7 +533,19 @@ public abstract class CameraActivity extends AppCompatActivity
         new Runnable() {
           @Override
           public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
+            // NV21: the Y plane is followed by interleaved V and U samples.
+            final int frameSize = previewWidth * previewHeight;
+            yuvToArgbConverter.convert(
+                new YuvFrame(
+                    ByteBuffer.wrap(bytes),
+                    ByteBuffer.wrap(bytes, frameSize + 1, bytes.length - frameSize - 1).slice(),
+                    ByteBuffer.wrap(bytes, frameSize, bytes.length - frameSize).slice(),
+                    previewWidth,
+                    previewHeight,
+                    previewWidth,
+                    previewWidth,
+                    2),
+                rgbBytes);
           }
         };
 
@@ -576,15 +594,16 @@ public abstract class CameraActivity extends AppCompatActivity
           new Runnable() {
             @Override
             public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
-                  yuvBytes[0],
-                  yuvBytes[1],
-                  yuvBytes[2],
-                  previewWidth,
-                  previewHeight,
-                  yRowStride,
-                  uvRowStride,
-                  uvPixelStride,
+              yuvToArgbConverter.convert(
+                  new YuvFrame(
+                      ByteBuffer.wrap(yuvBytes[0]),
+                      ByteBuffer.wrap(yuvBytes[1]),
+                      ByteBuffer.wrap(yuvBytes[2]),
+                      previewWidth,
+                      previewHeight,
+                      yRowStride,
+                      uvRowStride,
+                      uvPixelStride),
                   rgbBytes);
             }
           };
@@ -973,14 +992,57 @@ public abstract class CameraActivity extends AppCompatActivity
     }
   }
 
+  /** Returns null if the device and number of threads are tuned automatically. */
   protected Device getDevice() {
-    return device;
+    return autoConfiguration ? null : device;
+  }
+
+  /**
+   * Returns the tuned configuration for the model, or a default one while the model is benchmarked
+   * in the background on first use. The network is recreated once the benchmark finished.
+   */
+  protected InferenceTuner.Configuration getTunedConfiguration(Model model) {
+    InferenceTuner.Configuration configuration =
+        tuner.getConfiguration(
+            this,
+            model,
+            preferencesManager,
+            (tunedModel, best) -> runInBackground(() -> onTuned(tunedModel)));
+    LOGGER.d("Using tuned configuration " + configuration);
+    final String tuned =
+        configuration.device == Device.CPU
+            ? String.valueOf(configuration.numThreads)
+            : configuration.device.toString();
+    runOnUiThread(() -> threadsTextView.setText(tuned));
+    return configuration;
+  }
+
+  /** Whether a model is benchmarked; inference pauses meanwhile to leave it the cores. */
+  protected boolean isTuning() {
+    return tuner.isTuning();
+  }
+
+  /** Called on the inference thread once the model was tuned. */
+  protected void onTuned(Model model) {}
+
+  private void setAutoConfiguration() {
+    if (!autoConfiguration) {
+      LOGGER.d("Updating  device: auto");
+      autoConfiguration = true;
+      plusImageView.setEnabled(false);
+      minusImageView.setEnabled(false);
+      threadsTextView.setText(R.string.auto);
+      threadsTextView.setTextColor(Color.GRAY);
+      preferencesManager.setDevice(SharedPreferencesManager.AUTO_DEVICE);
+      onInferenceConfigurationChanged();
+    }
   }
 
   private void setDevice(Device device) {
-    if (this.device != device) {
+    if (this.device != device || autoConfiguration) {
       LOGGER.d("Updating  device: " + device);
       this.device = device;
+      autoConfiguration = false;
       final boolean threadsEnabled = device == Device.CPU;
       plusImageView.setEnabled(threadsEnabled);
       minusImageView.setEnabled(threadsEnabled);
@@ -1260,7 +1322,8 @@ public abstract class CameraActivity extends AppCompatActivity
         e.printStackTrace();
       }
     } else if (parent == deviceSpinner) {
-      setDevice(Device.valueOf(selected.toUpperCase()));
+      if (pos == SharedPreferencesManager.AUTO_DEVICE) setAutoConfiguration();
+      else setDevice(Device.valueOf(selected.toUpperCase()));
     } else if (parent == logSpinner) {
       setLogMode(LogMode.valueOf(selected.toUpperCase()));
     } else if (parent == controlModeSpinner) {
@@ -41,6 +41,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
+import org.openbot.OpenBotApplication;
 import org.openbot.R;
 import org.openbot.customview.OverlayView;
 import org.openbot.customview.OverlayView.DrawCallback;
@@ -50,6 +51,7 @@ import org.openbot.env.ImageUtils;
 import org.openbot.env.Logger;
 import org.openbot.tflite.Autopilot;
 import org.openbot.tflite.Detector;
+import org.openbot.tflite.InferenceTuner;
 import org.openbot.tflite.Model;
 import org.openbot.tflite.Network.Device;
 import org.openbot.tracking.MultiBoxTracker;
@@ -179,8 +181,8 @@ public class DefaultActivity extends CameraActivity implements OnImageAvailableL
 
     // Network is control of the vehicle
     if (networkEnabled) {
-      // If network is busy, return.
-      if (computingNetwork) {
+      // If network is busy or the model is benchmarked, return.
+      if (computingNetwork || isTuning()) {
         return;
       }
 
@@ -344,6 +346,11 @@ public class DefaultActivity extends CameraActivity implements OnImageAvailableL
     runInBackground(() -> recreateNetwork(model, device, numThreads));
   }
 
+  @Override
+  protected void onTuned(Model model) {
+    if (model == getModel() && getDevice() == null) recreateNetwork(model, null, 0);
+  }
+
   private void recreateNetwork(Model model, Device device, int numThreads) {
     if (model == null) return;
     tracker.clearTrackedObjects();
@@ -358,11 +365,19 @@ public class DefaultActivity extends CameraActivity implements OnImageAvailableL
       autopilot = null;
     }
 
+    if (device == null) {
+      InferenceTuner.Configuration configuration = getTunedConfiguration(model);
+      device = configuration.device;
+      numThreads = configuration.numThreads;
+    }
+
     try {
       if (model.type == Model.TYPE.DETECTOR) {
         LOGGER.d(
             "Creating detector (model=%s, device=%s, numThreads=%d)", model, device, numThreads);
-        detector = Detector.create(this, model, device, numThreads);
+        detector =
+            Detector.create(
+                OpenBotApplication.getInterpreterCache(), this, model, device, numThreads);
         croppedBitmap =
             Bitmap.createBitmap(
                 detector.getImageSizeX(), detector.getImageSizeY(), Config.ARGB_8888);
@@ -378,7 +393,9 @@ public class DefaultActivity extends CameraActivity implements OnImageAvailableL
       } else {
         LOGGER.d(
             "Creating autopilot (model=%s, device=%s, numThreads=%d)", model, device, numThreads);
-        autopilot = Autopilot.create(this, model, device, numThreads);
+        autopilot =
+            Autopilot.create(
+                OpenBotApplication.getInterpreterCache(), this, model, device, numThreads);
         croppedBitmap =
             Bitmap.createBitmap(
                 autopilot.getImageSizeX(), autopilot.getImageSizeY(), Config.ARGB_8888);
@@ -24,6 +24,7 @@ import com.google.ar.core.TrackingFailureReason;
 import com.google.ar.core.TrackingState;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.NotYetAvailableException;
+import com.google.ar.core.exceptions.ResourceExhaustedException;
 import com.google.ar.core.exceptions.SessionPausedException;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
 import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
@@ -54,13 +55,17 @@ public class ArCore implements GLSurfaceView.Renderer {
   private final TwoDRenderer twoDRenderer = new TwoDRenderer();
   private Pose currentPose;
   private float gpuTextureAspectRatio = 16.0f / 9.0f;
-  private ArCoreListener arCoreListener = null;
+  private volatile ArCoreListener arCoreListener = null;
   private final float[] anchorMatrix = new float[16];
   private Anchor startAnchor, targetAnchor;
   private Handler handlerMain;
   private GLSurfaceView surfaceView;
   private boolean renderFrame = true;
   private Pose startPose = null, targetPose = null;
+  /** Camera image copies cycle through these buffers instead of being allocated per frame. */
+  private final DirectBufferPool bufferPool = new DirectBufferPool(4);
+  /** Hands out the camera images without copying them; the listener then closes them. */
+  private boolean wrapCameraImages = false;
 
   public ArCore(Context context, GLSurfaceView surfaceView, Handler handlerMain) {
     this.appContext = context;
@@ -202,39 +207,37 @@ public class ArCore implements GLSurfaceView.Renderer {
       }
 
       // Get image.
-      // TODO: If needed, we could possibly implement some performance optimization here:
-      // Do we really need to copy here? We could use several cycling textures instead of only
-      // 1 texture. This would allow to close the image faster.
       Image image = null;
       try {
         image = frame.acquireCameraImage();
-      } catch (NotYetAvailableException e) {
+      } catch (NotYetAvailableException | ResourceExhaustedException e) {
+        // Too many images are still held if wrapped images are not released fast enough.
         Timber.d(e, "ARCore image not available.");
       }
 
       // Send arcore data
       if (image != null) {
-        // TODO: We could use another data structure here to avoid additional copying later.
-        // (Important: We need to be fast here such that `image` is closed as fast
-        // as possible. Hence, we currently use ByteBuffer.get() and .put() to copy in a fast way.
-        // Is there a faster way?)
-        ImageFrame imageFrame = new ImageFrame(image);
-
-        runOnMainThread(
-            () -> {
-              if (arCoreListener != null) {
-                arCoreListener.onArCoreUpdate(
-                    new NavigationPoses(currentPose, targetPose, startPose),
-                    imageFrame,
-                    new CameraIntrinsics(camera.getImageIntrinsics()),
-                    timestamp);
-              }
-            });
-      }
-
-      // Release image
-      if (image != null) {
-        image.close();
+        // Copies are made into pooled buffers, so that the image is closed as fast as possible
+        // without allocating on the GL thread. Wrapped images stay open until they are released.
+        ImageFrame imageFrame;
+        if (wrapCameraImages) {
+          imageFrame = ImageFrame.wrap(image);
+        } else {
+          imageFrame = new ImageFrame(image, bufferPool);
+          image.close();
+        }
+
+        // The listener only hands the frame over to its own thread.
+        final ArCoreListener listener = arCoreListener;
+        if (listener != null) {
+          listener.onArCoreUpdate(
+              new NavigationPoses(currentPose, targetPose, startPose),
+              imageFrame,
+              new CameraIntrinsics(camera.getImageIntrinsics()),
+              timestamp);
+        } else {
+          imageFrame.release();
+        }
       }
     }
 
@@ -273,14 +276,10 @@ public class ArCore implements GLSurfaceView.Renderer {
     }
   }
 
-  protected synchronized void runOnMainThread(final Runnable r) {
-    new Thread(
-            () -> {
-              if (handlerMain != null) {
-                handlerMain.post(r);
-              }
-            })
-        .start();
+  protected void runOnMainThread(final Runnable r) {
+    if (handlerMain != null) {
+      handlerMain.post(r);
+    }
   }
 
   public void resume()
@@ -448,6 +447,14 @@ public class ArCore implements GLSurfaceView.Renderer {
     this.arCoreListener = arCoreListener;
   }
 
+  /**
+   * Passes the camera images to the listener without copying them. Each image then stays open
+   * until the listener releases its frame, and ARCore skips frames while too many are held.
+   */
+  public void setWrapCameraImages(boolean wrapCameraImages) {
+    this.wrapCameraImages = wrapCameraImages;
+  }
+
   public void removeArCoreListener() {
     this.arCoreListener = null;
   }
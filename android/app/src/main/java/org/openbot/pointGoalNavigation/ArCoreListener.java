@@ -4,12 +4,17 @@ import com.google.ar.core.TrackingFailureReason;
 
 public interface ArCoreListener {
 
+  /**
+   * Called on the render thread of ARCore, which should not be blocked. The listener releases
+   * {@code rgb} once it is done with it.
+   */
   void onArCoreUpdate(
       NavigationPoses navigationPoses,
       ImageFrame rgb,
       CameraIntrinsics cameraIntrinsics,
       long timestamp);
 
+  /** Called on the main thread, like {@link #onArCoreSessionPaused}. */
   void onArCoreTrackingFailure(long timestamp, TrackingFailureReason trackingFailureReason);
 
   void onArCoreSessionPaused(long timestamp);
@@ -13,7 +13,22 @@ public class DepthFrame {
   private int pixelStride;
   private ByteBuffer data;
 
-  public DepthFrame(final Image depthImage) {
+  /** The pool the copied data is returned to, null if the data is not pooled. */
+  private DirectBufferPool pool;
+  /** The image the data is wrapped from, null if the data is a copy. */
+  private Image image;
+
+  /**
+   * Copies the depth image into a buffer of the pool, so that the image can be closed right away.
+   * The buffer goes back to the pool with {@link #release}.
+   */
+  public DepthFrame(final Image depthImage, DirectBufferPool pool) {
+    this(depthImage);
+    this.pool = pool;
+    data = pool.copyOf(depthImage.getPlanes()[0].getBuffer());
+  }
+
+  private DepthFrame(final Image depthImage) {
     assert (depthImage.getFormat() == ImageFormat.DEPTH16);
     assert (depthImage.getPlanes().length == 1);
 
@@ -22,11 +37,17 @@ public class DepthFrame {
 
     rowStride = depthImage.getPlanes()[0].getRowStride();
     pixelStride = depthImage.getPlanes()[0].getPixelStride();
+  }
 
-    ByteBuffer byteBuffer = depthImage.getPlanes()[0].getBuffer();
-    data = ByteBuffer.allocate(byteBuffer.capacity());
-    data.put(byteBuffer);
-    data = data.order(ByteOrder.nativeOrder());
+  /**
+   * Reads the depth image without copying it. The image must stay open until the frame is {@link
+   * #release released}, which closes it.
+   */
+  public static DepthFrame wrap(final Image depthImage) {
+    DepthFrame frame = new DepthFrame(depthImage);
+    frame.image = depthImage;
+    frame.data = depthImage.getPlanes()[0].getBuffer().duplicate().order(ByteOrder.nativeOrder());
+    return frame;
   }
 
   // INFO: This constructor is only used for testing. This is bad practice.
@@ -63,4 +84,14 @@ public class DepthFrame {
     int idx = col * pixelStride + row * rowStride;
     return data.getShort(idx);
   }
+
+  /**
+   * Returns the pooled buffer or closes the wrapped image. The frame must not be read afterwards.
+   */
+  public void release() {
+    if (pool != null && data != null) pool.release(data);
+    if (image != null) image.close();
+    data = null;
+    image = null;
+  }
 }
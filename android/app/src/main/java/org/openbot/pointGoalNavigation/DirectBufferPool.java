@@ -0,0 +1,70 @@
+package org.openbot.pointGoalNavigation;
+
+import android.util.SparseArray;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Reuses direct byte buffers for the copies of ARCore camera and depth images. The planes of these
+ * images have the same size in every frame, so buffers are kept per capacity and handed out again
+ * once released, instead of allocating several hundred kilobytes on the GL thread per frame.
+ */
+public class DirectBufferPool {
+
+  private final int maxBuffersPerSize;
+  private final SparseArray<ArrayDeque<ByteBuffer>> freeBuffers = new SparseArray<>();
+  private long allocatedBuffers;
+  private long reusedBuffers;
+
+  /** Keeps up to {@code maxBuffersPerSize} released buffers of each capacity. */
+  public DirectBufferPool(int maxBuffersPerSize) {
+    if (maxBuffersPerSize < 1) {
+      throw new IllegalArgumentException("At least one buffer per size: " + maxBuffersPerSize);
+    }
+    this.maxBuffersPerSize = maxBuffersPerSize;
+  }
+
+  /** Returns a direct buffer in native byte order with the given capacity and position 0. */
+  public synchronized ByteBuffer acquire(int capacity) {
+    final ArrayDeque<ByteBuffer> buffers = freeBuffers.get(capacity);
+    final ByteBuffer buffer = buffers != null ? buffers.pollFirst() : null;
+    if (buffer != null) {
+      reusedBuffers++;
+      buffer.clear();
+      return buffer;
+    }
+    allocatedBuffers++;
+    return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+  }
+
+  /** Returns a copy of the remaining bytes of {@code source}, without moving its position. */
+  public ByteBuffer copyOf(ByteBuffer source) {
+    final ByteBuffer copy = acquire(source.remaining());
+    copy.put(source.duplicate());
+    copy.rewind();
+    return copy;
+  }
+
+  /** Gives a buffer back for reuse. The buffer must not be accessed afterwards. */
+  public synchronized void release(ByteBuffer buffer) {
+    if (!buffer.isDirect()) {
+      throw new IllegalArgumentException("Only direct buffers of the pool can be released.");
+    }
+    ArrayDeque<ByteBuffer> buffers = freeBuffers.get(buffer.capacity());
+    if (buffers == null) {
+      buffers = new ArrayDeque<>(maxBuffersPerSize);
+      freeBuffers.put(buffer.capacity(), buffers);
+    }
+    if (buffers.size() < maxBuffersPerSize) buffers.addFirst(buffer);
+  }
+
+  /** Number of buffers allocated because no released buffer of the same size was available. */
+  public synchronized long getAllocatedBuffers() {
+    return allocatedBuffers;
+  }
+
+  public synchronized long getReusedBuffers() {
+    return reusedBuffers;
+  }
+}
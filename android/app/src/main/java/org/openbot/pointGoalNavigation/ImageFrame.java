@@ -3,26 +3,66 @@ package org.openbot.pointGoalNavigation;
 import android.graphics.ImageFormat;
 import android.media.Image;
 import java.nio.ByteBuffer;
+import org.openbot.env.YuvFrame;
 
-/* fillBytes() taken From: https://github.com/wangjiangyong/tflite_android_facedemo/blob/master/app/src/main/java/org/tensorflow/demo/CameraActivity.java */
-
+/**
+ * The planes of an ARCore camera image, either copied into buffers of a {@link DirectBufferPool}
+ * or wrapped while the image stays open. Either way, the frame is {@link #release released} once
+ * it is no longer needed.
+ */
 public class ImageFrame {
 
-  private byte[][] yuvBytes = new byte[3][];
+  private final ByteBuffer[] planes = new ByteBuffer[3];
   int width;
   int height;
   private int yRowStride;
   private int uvRowStride;
   private int uvPixelStride;
 
-  public ImageFrame(final Image image) {
+  /** The pool the copied planes are returned to, null if the planes are wrapped. */
+  private DirectBufferPool pool;
+  /** The image the planes are wrapped from, null if the planes are copies. */
+  private Image image;
+
+  /**
+   * Copies the planes of the image into buffers of the pool, so that the image can be closed right
+   * away. The buffers go back to the pool with {@link #release}.
+   */
+  public ImageFrame(final Image image, DirectBufferPool pool) {
+    this(image);
+    this.pool = pool;
+    Image.Plane[] imagePlanes = image.getPlanes();
+    for (int i = 0; i < planes.length; ++i) {
+      planes[i] = pool.copyOf(imagePlanes[i].getBuffer());
+    }
+  }
+
+  /** Wraps planes that belong to neither an image nor a pool; releasing the frame drops them. */
+  ImageFrame(
+      ByteBuffer yPlane,
+      ByteBuffer uPlane,
+      ByteBuffer vPlane,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride) {
+    planes[0] = yPlane;
+    planes[1] = uPlane;
+    planes[2] = vPlane;
+    this.width = width;
+    this.height = height;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+  }
+
+  private ImageFrame(final Image image) {
     assert (image.getFormat() == ImageFormat.YUV_420_888);
     assert (image.getPlanes().length == 3);
 
     Image.Plane[] planes = image.getPlanes();
 
-    fillBytes(planes, yuvBytes);
-
     width = image.getWidth();
     height = image.getHeight();
 
@@ -31,8 +71,18 @@ public class ImageFrame {
     uvPixelStride = planes[1].getPixelStride();
   }
 
-  public byte[][] getYuvBytes() {
-    return yuvBytes;
+  /**
+   * Reads the planes of the image without copying them. The image must stay open until the frame
+   * is {@link #release released}, which closes it.
+   */
+  public static ImageFrame wrap(final Image image) {
+    ImageFrame frame = new ImageFrame(image);
+    frame.image = image;
+    Image.Plane[] imagePlanes = image.getPlanes();
+    for (int i = 0; i < frame.planes.length; ++i) {
+      frame.planes[i] = imagePlanes[i].getBuffer().duplicate();
+    }
+    return frame;
   }
 
   public int getWidth() {
@@ -55,15 +105,28 @@ public class ImageFrame {
     return uvPixelStride;
   }
 
-  protected void fillBytes(final Image.Plane[] planes, final byte[][] yuvBytes) {
-    // Because of the variable row stride it's not possible to know in
-    // advance the actual necessary dimensions of the yuv planes.
+  /** Views the planes without copying them; only valid until the frame is released. */
+  public YuvFrame getYuvFrame() {
+    return new YuvFrame(
+        planes[0].duplicate(),
+        planes[1].duplicate(),
+        planes[2].duplicate(),
+        width,
+        height,
+        yRowStride,
+        uvRowStride,
+        uvPixelStride);
+  }
+
+  /**
+   * Returns the pooled buffers or closes the wrapped image. The frame must not be read afterwards.
+   */
+  public void release() {
     for (int i = 0; i < planes.length; ++i) {
-      final ByteBuffer buffer = planes[i].getBuffer();
-      if (yuvBytes[i] == null) {
-        yuvBytes[i] = new byte[buffer.capacity()];
-      }
-      buffer.get(yuvBytes[i]);
+      if (pool != null && planes[i] != null) pool.release(planes[i]);
+      planes[i] = null;
     }
+    if (image != null) image.close();
+    image = null;
   }
 }
@@ -0,0 +1,274 @@
+package org.openbot.pointGoalNavigation;
+
+import android.graphics.Matrix;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.openbot.tflite.Navigation;
+import org.openbot.tflite.Network.Device;
+import org.openbot.vehicle.Control;
+import org.openbot.vehicle.Vehicle;
+import timber.log.Timber;
+
+/**
+ * Runs the navigation policy on a long-lived thread of its own, so that neither the render loop of
+ * ARCore nor the UI thread waits for the preprocessing and inference of a frame.
+ *
+ * <p>Poses and camera frames are handed over through a slot holding one frame, where the latest
+ * frame wins: a frame that arrives while the policy is busy replaces the waiting one, which is
+ * released and counted as dropped. The worker sends the resulting controls to the vehicle until
+ * it is stopped or the goal is reached.
+ */
+public class NavigationWorker {
+
+  /**
+   * Creates the policy; called on the worker thread, which the policy is then used on, possibly
+   * after the screen that started the worker was left.
+   */
+  public interface PolicyFactory {
+    Navigation create(Device device, int numThreads) throws IOException;
+  }
+
+  /** Called on the worker thread. */
+  public interface Listener {
+    void onGoalReached();
+
+    void onPolicyError(Exception e);
+  }
+
+  /** Distance to the goal in meters at which the robot stops. */
+  private static final float GOAL_RADIUS = 0.15f;
+  /** Scale of the camera frames to the policy input, as the policy was trained with. */
+  private static final float RESIZE_FACTOR = 160.f / 480.f;
+
+  private static final double SMOOTHING = 0.1;
+
+  private final ExecutorService executor;
+  private final PolicyFactory policyFactory;
+  private final Vehicle vehicle;
+  private final Listener listener;
+  private final Runnable navigationTask = this::runNavigation;
+
+  // Only accessed on the worker thread.
+  private Navigation policy;
+  private Device device;
+  private int numThreads;
+  private final Matrix frameToCropTransform = new Matrix();
+
+  private final Object lock = new Object();
+  private boolean running;
+  private boolean scheduled;
+  private boolean closed;
+  /** Incremented by every start and stop; a start only takes effect if it is still the latest. */
+  private long generation;
+  private NavigationPoses pendingPoses;
+  private ImageFrame pendingFrame;
+
+  private volatile long submittedFrames;
+  private volatile long droppedFrames;
+  private volatile long processedFrames;
+  private volatile double averageTimeMs;
+
+  public NavigationWorker(PolicyFactory policyFactory, Vehicle vehicle, Listener listener) {
+    this(
+        policyFactory,
+        vehicle,
+        listener,
+        Executors.newSingleThreadExecutor(r -> new Thread(r, "navigation")));
+  }
+
+  /** Runs the policy on {@code executor}, which must run one task at a time in order. */
+  NavigationWorker(
+      PolicyFactory policyFactory, Vehicle vehicle, Listener listener, ExecutorService executor) {
+    this.executor = executor;
+    this.policyFactory = policyFactory;
+    this.vehicle = vehicle;
+    this.listener = listener;
+  }
+
+  /**
+   * Starts driving towards the target pose of the submitted frames. The policy is created on the
+   * worker thread first, or again if the device or the number of threads changed.
+   */
+  public void start(Device device, int numThreads) {
+    final long startGeneration;
+    synchronized (lock) {
+      if (closed) return;
+      startGeneration = ++generation;
+    }
+    executor.execute(
+        () -> {
+          if (policy == null || this.device != device || this.numThreads != numThreads) {
+            closePolicy();
+            try {
+              Timber.d("Creating navigation policy: %s, %d threads", device, numThreads);
+              policy = policyFactory.create(device, numThreads);
+              this.device = device;
+              this.numThreads = numThreads;
+            } catch (IOException | RuntimeException e) {
+              Timber.e(e, "Navigation policy could not be initialized.");
+              listener.onPolicyError(e);
+              return;
+            }
+          }
+          synchronized (lock) {
+            // Stopped or started again while the policy was created.
+            running = !closed && generation == startGeneration;
+          }
+        });
+  }
+
+  /**
+   * Stops driving. No control is sent to the vehicle after this method returns, and frames are
+   * released without being processed until the worker is started again.
+   */
+  public void stop() {
+    synchronized (lock) {
+      generation++;
+      running = false;
+      releasePendingFrame();
+    }
+  }
+
+  /**
+   * Hands a frame over to the worker, which releases it once done. The frame waiting for the
+   * worker, if any, is dropped.
+   *
+   * @return False if the frame was released right away because the worker is not running.
+   */
+  public boolean submit(NavigationPoses poses, ImageFrame frame) {
+    synchronized (lock) {
+      if (!running) {
+        frame.release();
+        return false;
+      }
+      submittedFrames++;
+      if (pendingFrame != null) {
+        // Latest frame wins.
+        releasePendingFrame();
+        droppedFrames++;
+      }
+      pendingPoses = poses;
+      pendingFrame = frame;
+      if (!scheduled) {
+        scheduled = true;
+        executor.execute(navigationTask);
+      }
+    }
+    return true;
+  }
+
+  private void releasePendingFrame() {
+    if (pendingFrame != null) pendingFrame.release();
+    pendingFrame = null;
+    pendingPoses = null;
+  }
+
+  private void runNavigation() {
+    final NavigationPoses poses;
+    final ImageFrame frame;
+    synchronized (lock) {
+      scheduled = false;
+      poses = pendingPoses;
+      frame = pendingFrame;
+      pendingPoses = null;
+      pendingFrame = null;
+    }
+    if (frame == null) return;
+
+    final long startTime = System.nanoTime();
+    try {
+      navigate(poses, frame);
+    } catch (RuntimeException e) {
+      Timber.e(e, "Navigation failed.");
+    } finally {
+      frame.release();
+    }
+
+    final double timeMs = (System.nanoTime() - startTime) / 1e6;
+    averageTimeMs =
+        averageTimeMs == 0 ? timeMs : averageTimeMs + SMOOTHING * (timeMs - averageTimeMs);
+    if (++processedFrames % 100 == 0) {
+      Timber.d(
+          "Navigation: %.1f ms, dropped %d/%d", averageTimeMs, droppedFrames, submittedFrames);
+    }
+  }
+
+  private void navigate(NavigationPoses poses, ImageFrame frame) {
+    final float goalDistance =
+        PointGoalNavigationFragment.computeDistance(poses.getTargetPose(), poses.getCurrentPose());
+
+    if (goalDistance < GOAL_RADIUS) {
+      synchronized (lock) {
+        if (!running) return;
+        running = false;
+        releasePendingFrame();
+        vehicle.stopBot();
+      }
+      listener.onGoalReached();
+      return;
+    }
+
+    final float deltaYaw =
+        PointGoalNavigationFragment.computeDeltaYaw(poses.getCurrentPose(), poses.getTargetPose());
+
+    // Scale the 640x480 frame to 213x160 and crop rows 30 to 120, straight from YUV.
+    frameToCropTransform.setScale(RESIZE_FACTOR, RESIZE_FACTOR);
+    frameToCropTransform.postTranslate(0, -30);
+    policy.convertYuvToByteBuffer(frame.getYuvFrame(), frameToCropTransform);
+
+    final Control control =
+        policy.recognizePreprocessedImage(
+            goalDistance, (float) Math.sin(deltaYaw), (float) Math.cos(deltaYaw));
+
+    synchronized (lock) {
+      // The robot may have been stopped during inference.
+      if (!running) return;
+      Timber.d("control: (" + control.getLeft() + ", " + control.getRight() + ")");
+      vehicle.setControl(control);
+    }
+  }
+
+  private void closePolicy() {
+    if (policy != null) {
+      policy.close();
+      policy = null;
+    }
+  }
+
+  /** Whether the worker was started and neither stopped nor done with the goal since. */
+  public boolean isRunning() {
+    synchronized (lock) {
+      return running;
+    }
+  }
+
+  public long getSubmittedFrames() {
+    return submittedFrames;
+  }
+
+  /** Frames that were replaced by a newer frame while the policy was busy. */
+  public long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  public long getProcessedFrames() {
+    return processedFrames;
+  }
+
+  /** Moving average of the preprocessing and inference time per frame. */
+  public double getAverageTimeMs() {
+    return averageTimeMs;
+  }
+
+  /** Stops driving and closes the policy on the worker thread. */
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      running = false;
+      releasePendingFrame();
+    }
+    executor.execute(this::closePolicy);
+    executor.shutdown();
+  }
+}
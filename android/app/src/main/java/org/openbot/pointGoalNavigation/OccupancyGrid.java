@@ -0,0 +1,280 @@
+package org.openbot.pointGoalNavigation;
+
+import android.graphics.PointF;
+import com.google.ar.core.Pose;
+import java.util.concurrent.TimeUnit;
+import org.openbot.vehicle.Vehicle;
+
+/**
+ * A 2D occupancy grid on the floor plane around the robot, updated incrementally from depth
+ * frames.
+ *
+ * <p>Every frame, a subsample of the depth pixels is projected into the world with the camera
+ * intrinsics and the camera pose. Heights are measured from the floor, which is either given as a
+ * plane, e.g. the lowest horizontal plane ARCore detected, or lies the mounting height of the
+ * camera below it. Points in the height band of obstacles mark their cell as hit; points below the
+ * band are on the floor and mark their cell as free, while points above the robot are ignored.
+ * Each cell that was seen in a frame is updated once, in log-odds, so that a single frame cannot
+ * saturate a cell.
+ *
+ * <p>The grid has a fixed number of cells and is addressed like a ring: world cell (x, z) is
+ * stored at (x mod n, z mod n) together with its world coordinates. When the robot moves on, cells
+ * that leave the covered area are taken over by the cells entering it and reset on their first
+ * update, so the grid never has to be shifted or rebuilt.
+ *
+ * <p>World coordinates are those of ARCore: y points up and the floor is the x-z plane. The grid is
+ * meant to be updated from one thread; only {@link #getFreeDistanceAhead} may be called from any
+ * thread. When no depth frame was integrated for a while, nothing ahead counts as free anymore.
+ */
+public class OccupancyGrid implements Vehicle.ObstacleSensor {
+
+  private static final float LOG_ODDS_HIT = 0.85f;
+  private static final float LOG_ODDS_FREE = -0.4f;
+  private static final float LOG_ODDS_MAX = 3.5f;
+  private static final float LOG_ODDS_OCCUPIED = 1.f;
+  /** Depth points of a cell in one frame that count as a hit rather than noise. */
+  private static final int MIN_HITS = 2;
+
+  private final int numCells;
+  private final float cellSize;
+
+  private final int[] cellX;
+  private final int[] cellZ;
+  private final float[] logOdds;
+  private final int[] frameHits;
+  private final int[] frameFree;
+  private final int[] touchedCells;
+  private int numTouched;
+
+  private final float[] cameraToWorld = new float[16];
+
+  private int sampleStep = 4;
+  private float maxRange = 4.f;
+  private float cameraHeight = 0.15f;
+  /** World y of the floor, NaN if it is derived from the camera height. */
+  private float floorY = Float.NaN;
+
+  private float minObstacleHeight = 0.03f;
+  private float maxObstacleHeight = 0.3f;
+  private float halfWidth = 0.1f;
+  private float lookAhead = 1.5f;
+  private long maxAgeNs = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private volatile float freeDistanceAhead = Float.POSITIVE_INFINITY;
+  /** Time of the last integrated frame, 0 if there was none since the last reset. */
+  private volatile long lastIntegrationNs;
+
+  /**
+   * @param numCells Number of cells along each side of the grid.
+   * @param cellSize Side length of a cell in meters.
+   */
+  public OccupancyGrid(int numCells, float cellSize) {
+    if (numCells < 1 || cellSize <= 0) {
+      throw new IllegalArgumentException("Invalid grid: " + numCells + " cells of " + cellSize);
+    }
+    this.numCells = numCells;
+    this.cellSize = cellSize;
+    cellX = new int[numCells * numCells];
+    cellZ = new int[numCells * numCells];
+    logOdds = new float[numCells * numCells];
+    frameHits = new int[numCells * numCells];
+    frameFree = new int[numCells * numCells];
+    touchedCells = new int[numCells * numCells];
+    reset();
+  }
+
+  /** Projects every {@code sampleStep}-th depth pixel in both directions. */
+  public OccupancyGrid setSampleStep(int sampleStep) {
+    this.sampleStep = Math.max(1, sampleStep);
+    return this;
+  }
+
+  /** Ignores depth beyond this distance in meters, where depth estimates become unreliable. */
+  public OccupancyGrid setMaxRange(float maxRange) {
+    this.maxRange = maxRange;
+    return this;
+  }
+
+  /** Height of the camera above the floor in meters, used while no floor plane is set. */
+  public OccupancyGrid setCameraHeight(float cameraHeight) {
+    this.cameraHeight = cameraHeight;
+    return this;
+  }
+
+  /** World y of the floor plane, or NaN to derive the floor from the camera height again. */
+  public OccupancyGrid setFloorY(float floorY) {
+    this.floorY = floorY;
+    return this;
+  }
+
+  /**
+   * Height band of obstacles in meters above the floor. Points below the band belong to the floor,
+   * points above it pass over the robot.
+   */
+  public OccupancyGrid setObstacleHeightRange(float minHeight, float maxHeight) {
+    this.minObstacleHeight = minHeight;
+    this.maxObstacleHeight = maxHeight;
+    return this;
+  }
+
+  /**
+   * Corridor in front of the camera that {@link #getFreeDistanceAhead} checks: half its width and
+   * its length in meters.
+   */
+  public OccupancyGrid setCorridor(float halfWidth, float lookAhead) {
+    this.halfWidth = halfWidth;
+    this.lookAhead = lookAhead;
+    return this;
+  }
+
+  /**
+   * Time after the last depth frame from which on {@link #getFreeDistanceAhead} reports no free
+   * space, so that the robot does not drive on stale depth.
+   */
+  public OccupancyGrid setMaxAge(long maxAge, TimeUnit unit) {
+    this.maxAgeNs = unit.toNanos(maxAge);
+    return this;
+  }
+
+  /** Integrates a depth frame taken with the given intrinsics from the given camera pose. */
+  public void integrate(DepthFrame depth, CameraIntrinsics intrinsics, Pose cameraPose) {
+    cameraPose.toMatrix(cameraToWorld, 0);
+    integrate(depth, intrinsics, cameraToWorld);
+  }
+
+  /**
+   * Integrates a depth frame, with the camera pose given as column-major 4x4 matrix from camera to
+   * world coordinates. The camera looks along its negative z axis with y up, like in ARCore.
+   */
+  public void integrate(DepthFrame depth, CameraIntrinsics intrinsics, float[] cameraToWorld) {
+    // The intrinsics belong to the camera image, the depth image usually has a lower resolution.
+    final float scaleX = depth.getWidth() / (float) intrinsics.getSize().getWidth();
+    final float scaleY = depth.getHeight() / (float) intrinsics.getSize().getHeight();
+    final PointF focalLength = intrinsics.getFocalLength();
+    final PointF principalPoint = intrinsics.getPrincipalPoint();
+    final float fx = focalLength.x * scaleX;
+    final float fy = focalLength.y * scaleY;
+    final float cx = principalPoint.x * scaleX;
+    final float cy = principalPoint.y * scaleY;
+
+    final float[] m = cameraToWorld;
+    final float floor = Float.isNaN(floorY) ? m[13] - cameraHeight : floorY;
+
+    for (int row = sampleStep / 2; row < depth.getHeight(); row += sampleStep) {
+      final float yPerMeter = -(row - cy) / fy;
+      for (int col = sampleStep / 2; col < depth.getWidth(); col += sampleStep) {
+        // Unsigned millimeters; 0 marks pixels without depth.
+        final float d = (depth.getPixelValue(row, col) & 0xFFFF) / 1000.f;
+        if (d <= 0 || d > maxRange) continue;
+
+        final float xc = (col - cx) / fx * d;
+        final float yc = yPerMeter * d;
+        final float zc = -d;
+        final float height = m[1] * xc + m[5] * yc + m[9] * zc + m[13] - floor;
+        if (height > maxObstacleHeight) continue;
+
+        final float x = m[0] * xc + m[4] * yc + m[8] * zc + m[12];
+        final float z = m[2] * xc + m[6] * yc + m[10] * zc + m[14];
+        final int cell = touch(cellIndex(x), cellIndex(z));
+        if (height >= minObstacleHeight) frameHits[cell]++;
+        else frameFree[cell]++;
+      }
+    }
+
+    for (int i = 0; i < numTouched; i++) {
+      final int cell = touchedCells[i];
+      final float update = frameHits[cell] >= MIN_HITS ? LOG_ODDS_HIT : LOG_ODDS_FREE;
+      logOdds[cell] = Math.max(-LOG_ODDS_MAX, Math.min(LOG_ODDS_MAX, logOdds[cell] + update));
+      frameHits[cell] = 0;
+      frameFree[cell] = 0;
+    }
+    numTouched = 0;
+
+    // The viewing direction of the camera, projected onto the floor.
+    freeDistanceAhead = getFreeDistance(m[12], m[14], -m[8], -m[10], lookAhead);
+    lastIntegrationNs = System.nanoTime();
+  }
+
+  private int cellIndex(float coordinate) {
+    return (int) Math.floor(coordinate / cellSize);
+  }
+
+  private int slot(int x, int z) {
+    return Math.floorMod(z, numCells) * numCells + Math.floorMod(x, numCells);
+  }
+
+  /** Returns the slot of a world cell for this frame, taking it over if it held another cell. */
+  private int touch(int x, int z) {
+    final int slot = slot(x, z);
+    final boolean touched = frameHits[slot] != 0 || frameFree[slot] != 0;
+    if (cellX[slot] != x || cellZ[slot] != z) {
+      cellX[slot] = x;
+      cellZ[slot] = z;
+      logOdds[slot] = 0;
+      frameHits[slot] = 0;
+      frameFree[slot] = 0;
+    }
+    if (!touched) touchedCells[numTouched++] = slot;
+    return slot;
+  }
+
+  /** Returns true if the cell at the world position is known to be occupied. */
+  public boolean isOccupied(float x, float z) {
+    final int cx = cellIndex(x);
+    final int cz = cellIndex(z);
+    final int slot = slot(cx, cz);
+    return cellX[slot] == cx && cellZ[slot] == cz && logOdds[slot] > LOG_ODDS_OCCUPIED;
+  }
+
+  /**
+   * Returns the distance from the position along the direction on the floor to the first occupied
+   * cell in the corridor, or {@code maxDistance} if there is none. Cells that were never seen count
+   * as free.
+   */
+  public float getFreeDistance(float x, float z, float dirX, float dirZ, float maxDistance) {
+    final float norm = (float) Math.hypot(dirX, dirZ);
+    if (norm == 0) return maxDistance;
+    dirX /= norm;
+    dirZ /= norm;
+    final float step = cellSize / 2;
+    for (float distance = step; distance <= maxDistance; distance += step) {
+      final float centerX = x + distance * dirX;
+      final float centerZ = z + distance * dirZ;
+      for (float offset = -halfWidth; offset <= halfWidth; offset += step) {
+        // Perpendicular to the direction.
+        if (isOccupied(centerX - offset * dirZ, centerZ + offset * dirX)) return distance;
+      }
+    }
+    return maxDistance;
+  }
+
+  /**
+   * Free distance in front of the camera at the last integrated frame, in meters. Infinite before
+   * the first frame, and 0 once the last frame is older than the maximum age.
+   */
+  @Override
+  public float getFreeDistanceAhead() {
+    return getFreeDistanceAhead(System.nanoTime());
+  }
+
+  float getFreeDistanceAhead(long nowNs) {
+    final long lastNs = lastIntegrationNs;
+    if (lastNs != 0 && nowNs - lastNs > maxAgeNs) return 0;
+    return freeDistanceAhead;
+  }
+
+  /** Forgets all cells, e.g. when tracking was lost and the poses cannot be trusted anymore. */
+  public void reset() {
+    for (int i = 0; i < logOdds.length; i++) {
+      // No world cell maps to a slot with these coordinates.
+      cellX[i] = Integer.MIN_VALUE;
+      cellZ[i] = Integer.MIN_VALUE;
+      logOdds[i] = 0;
+      frameHits[i] = 0;
+      frameFree[i] = 0;
+    }
+    numTouched = 0;
+    freeDistanceAhead = Float.POSITIVE_INFINITY;
+    lastIntegrationNs = 0;
+  }
+}
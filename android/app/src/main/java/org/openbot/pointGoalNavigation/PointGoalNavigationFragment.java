@@ -2,6 +2,7 @@ package org.openbot.pointGoalNavigation;
 
 import static java.lang.Math.abs;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.os.Handler;
@@ -23,10 +24,13 @@ import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import java.io.IOException;
+import org.openbot.OpenBotApplication;
 import org.openbot.R;
 import org.openbot.common.ControlsFragment;
 import org.openbot.databinding.FragmentPointGoalNavigationBinding;
+import org.openbot.env.YuvToArgbConverter;
 import org.openbot.main.MainViewModel;
+import org.openbot.tflite.InferenceBackend;
 import org.openbot.tflite.Model;
 import org.openbot.tflite.Model.CLASS;
 import org.openbot.tflite.Model.PATH_TYPE;
@@ -35,11 +39,11 @@ import org.openbot.tflite.Navigation;
 import org.openbot.tflite.Network.Device;
 import org.openbot.utils.Constants;
 import org.openbot.utils.PermissionUtils;
-import org.openbot.vehicle.Control;
 import org.openbot.vehicle.Vehicle;
 import timber.log.Timber;
 
-public class PointGoalNavigationFragment extends ControlsFragment implements ArCoreListener {
+public class PointGoalNavigationFragment extends ControlsFragment
+    implements ArCoreListener, NavigationWorker.Listener {
 
   private MainViewModel mainViewModel;
   private Vehicle vehicle;
@@ -48,8 +52,7 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
   private FragmentPointGoalNavigationBinding binding;
   private boolean isRunning = false;
   private boolean isPermissionRequested = false;
-  private Navigation navigationPolicy;
-  static final int kMaxChannelValue = 262143;
+  private NavigationWorker navigationWorker;
 
   public PointGoalNavigationFragment() {
     // Required empty public constructor
@@ -87,6 +90,15 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
     handlerMain = new Handler(Looper.getMainLooper());
 
     arCore = new ArCore(requireContext(), binding.surfaceView, handlerMain);
+    // The policy is created on the worker thread, where the fragment may be detached already.
+    final Context context = requireContext().getApplicationContext();
+    final InferenceBackend.Factory backendFactory = OpenBotApplication.getInterpreterCache();
+    navigationWorker =
+        new NavigationWorker(
+            (device, numThreads) ->
+                createNavigationPolicy(backendFactory, context, device, numThreads),
+            vehicle,
+            this);
 
     showStartDialog();
   }
@@ -97,29 +109,26 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
       ImageFrame rgb,
       CameraIntrinsics cameraIntrinsics,
       long timestamp) {
-    if (isRunning) {
-      float goalDistance =
-          computeDistance(navigationPoses.getTargetPose(), navigationPoses.getCurrentPose());
-
-      if (goalDistance < 0.15f) {
-        stop();
-        audioPlayer.playFromStringID(R.string.goal_reached);
-        showInfoDialog(getString(R.string.goal_reached));
-      } else {
-        float deltaYaw =
-            computeDeltaYaw(navigationPoses.getCurrentPose(), navigationPoses.getTargetPose());
-
-        Bitmap bitmap = convertRGBFrameToScaledBitmap(rgb, 160.f / 480.f);
-        bitmap = Bitmap.createBitmap(bitmap, 0, 30, 160, 90);
-
-        Control control =
-            navigationPolicy.recognizeImage(
-                bitmap, goalDistance, (float) Math.sin(deltaYaw), (float) Math.cos(deltaYaw));
-
-        Timber.d("control: (" + control.getLeft() + ", " + control.getRight() + ")");
-        vehicle.setControl(control);
-      }
-    }
+    navigationWorker.submit(navigationPoses, rgb);
+  }
+
+  @Override
+  public void onGoalReached() {
+    handlerMain.post(
+        () -> {
+          stop();
+          audioPlayer.playFromStringID(R.string.goal_reached);
+          showInfoDialog(getString(R.string.goal_reached));
+        });
+  }
+
+  @Override
+  public void onPolicyError(Exception e) {
+    handlerMain.post(
+        () -> {
+          stop();
+          showInfoDialog("Navigation policy could not be initialized.");
+        });
   }
 
   public static Bitmap convertRGBFrameToScaledBitmap(ImageFrame bImg, float resizeFactor) {
@@ -134,46 +143,10 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
 
     Bitmap rgbFrameBitmap =
         Bitmap.createBitmap(previewWidth, previewHeight, Bitmap.Config.ARGB_8888);
-    int[] rgbBytes = new int[previewWidth * previewHeight];
-
-    convertYUV420ToARGB8888(
-        bImg.getYuvBytes()[0],
-        bImg.getYuvBytes()[1],
-        bImg.getYuvBytes()[2],
-        previewWidth,
-        previewHeight,
-        bImg.getYRowStride(),
-        bImg.getUvRowStride(),
-        bImg.getUvPixelStride(),
-        rgbBytes);
-
-    rgbFrameBitmap.setPixels(rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
+    new YuvToArgbConverter().convert(bImg.getYuvFrame(), rgbFrameBitmap);
     return Bitmap.createScaledBitmap(rgbFrameBitmap, width, height, true);
   }
 
-  public static void convertYUV420ToARGB8888(
-      byte[] yData,
-      byte[] uData,
-      byte[] vData,
-      int width,
-      int height,
-      int yRowStride,
-      int uvRowStride,
-      int uvPixelStride,
-      int[] out) {
-    int yp = 0;
-    for (int j = 0; j < height; j++) {
-      int pY = yRowStride * j;
-      int pUV = uvRowStride * (j >> 1);
-
-      for (int i = 0; i < width; i++) {
-        int uv_offset = pUV + (i >> 1) * uvPixelStride;
-
-        out[yp++] = YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
-      }
-    }
-  }
-
   public static float computeDeltaYaw(Pose pose, Pose goalPose) {
     // compute robot forward axis (global coordinate system)
     float[] forward = new float[] {0.f, 0.f, -1.f};
@@ -195,30 +168,6 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
     return (float) yaw;
   }
 
-  private static int YUV2RGB(int y, int u, int v) {
-    // Adjust and check YUV values
-    y = (y - 16) < 0 ? 0 : (y - 16);
-    u -= 128;
-    v -= 128;
-
-    // This is the floating point equivalent. We do the conversion in integer
-    // because some Android devices do not have floating point in hardware.
-    // nR = (int)(1.164 * nY + 2.018 * nU);
-    // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
-    // nB = (int)(1.164 * nY + 1.596 * nV);
-    int y1192 = 1192 * y;
-    int r = (y1192 + 1634 * v);
-    int g = (y1192 - 833 * v - 400 * u);
-    int b = (y1192 + 2066 * u);
-
-    // Clipping RGB values to be inside boundaries [ 0 , kMaxChannelValue ]
-    r = r > kMaxChannelValue ? kMaxChannelValue : (r < 0 ? 0 : r);
-    g = g > kMaxChannelValue ? kMaxChannelValue : (g < 0 ? 0 : g);
-    b = b > kMaxChannelValue ? kMaxChannelValue : (b < 0 ? 0 : b);
-
-    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
-  }
-
   @Override
   public void onArCoreTrackingFailure(long timestamp, TrackingFailureReason trackingFailureReason) {
     if (isRunning) {
@@ -236,12 +185,13 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
   }
 
   private void stop() {
+    navigationWorker.stop();
     arCore.detachAnchors();
     vehicle.stopBot();
     isRunning = false;
   }
 
-  private static float computeDistance(Pose goalPose, Pose robotPose) {
+  static float computeDistance(Pose goalPose, Pose robotPose) {
     Float dx = abs(goalPose.tx() - robotPose.tx());
     Float dz = abs(goalPose.tz() - robotPose.tz());
     float distance = (float) Math.sqrt(dx * dx + dz * dz);
@@ -287,6 +237,7 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
     super.onDestroy();
 
     arCore.closeSession();
+    navigationWorker.close();
   }
 
   private void resume() {
@@ -434,6 +385,17 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
       showInfoDialog(getString(R.string.tracking_lost));
       return;
     }
+    // The device and the number of threads are shared with the autopilot.
+    final int device = preferencesManager.getDevice();
+    navigationWorker.start(
+        device < Device.values().length ? Device.values()[device] : Device.CPU,
+        preferencesManager.getNumThreads());
+    isRunning = true;
+  }
+
+  private static Navigation createNavigationPolicy(
+      InferenceBackend.Factory backendFactory, Context context, Device device, int numThreads)
+      throws IOException {
     Model model =
         new Model(
             0,
@@ -443,15 +405,6 @@ public class PointGoalNavigationFragment extends ControlsFragment implements ArC
             PATH_TYPE.ASSET,
             "networks/navigation.tflite",
             "160x90");
-
-    try {
-      navigationPolicy = new Navigation(requireActivity(), model, Device.CPU, 1);
-    } catch (IOException e) {
-      e.printStackTrace();
-      showInfoDialog("Navigation policy could not be initialized.");
-      return;
-    }
-
-    isRunning = true;
+    return new Navigation(backendFactory, context, model, device, numThreads);
   }
 }
@@ -146,7 +146,7 @@ public class ServerCommunication {
   private final ServerListener serverListener;
   private Timer timer;
 
-  private String serverUrl;
+  private volatile String serverUrl;
 
   public ServerCommunication(Context context, ServerListener serverListener) {
     this.client = new AsyncHttpClient();
@@ -214,6 +214,15 @@ public class ServerCommunication {
     client.post(context, serverUrl + "/upload", params, new UploadResponseHandler(file));
   }
 
+  /** Returns the URL of the upload endpoint, or null if no server is connected. */
+  public String getUploadUrl() {
+    String url = serverUrl;
+    if (url == null || url.isEmpty()) {
+      return null;
+    }
+    return url + "/upload";
+  }
+
   public void uploadAll() {
     String logDir =
         Environment.getExternalStorageDirectory().getAbsolutePath()
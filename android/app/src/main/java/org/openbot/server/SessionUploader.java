@@ -0,0 +1,230 @@
+package org.openbot.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.openbot.logging.BinaryLogReader;
+import timber.log.Timber;
+
+/**
+ * Uploads the files of a logging session as zip archives that are compressed while they are sent,
+ * instead of packing the session to a zip file first and uploading that.
+ *
+ * <p>Every upload is a multipart POST to the {@code /upload} endpoint of the policy server, whose
+ * body is streamed in HTTP chunks through fixed-size buffers, so memory does not grow with the
+ * session. While logging is in progress, {@link #uploadClosedFiles} sends the files that have not
+ * been modified for a while, e.g. the saved images, as a part {@code <session>.part<n>.zip}. When
+ * logging stopped, {@link #uploadRemaining} sends everything else as {@code <session>.zip}. The
+ * server extracts all parts of a session into the same folder.
+ *
+ * <p>Logs are only appended to, so a file that grew after it was uploaded is sent again in full.
+ * Binary logs are not uploaded, since they are converted to text logs when logging stopped.
+ * Not thread-safe; uploads are run on one background thread.
+ */
+public class SessionUploader {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int CONNECT_TIMEOUT_MS = 10000;
+  private static final int READ_TIMEOUT_MS = 60000;
+  private static final String BOUNDARY = "OpenBotSessionBoundary";
+  private static final String LINE_END = "\r\n";
+
+  private final File folder;
+  private final long quietMs;
+  private final byte[] buffer = new byte[CHUNK_SIZE];
+  /** Uploaded length of every file by its path relative to the session folder. */
+  private final Map<String, Long> uploadedLengths = new HashMap<>();
+
+  private int parts;
+  private long uploadedBytes;
+
+  /**
+   * @param folder Folder of the session, whose name names the uploads.
+   * @param quietMs Time since the last modification after which a file is considered closed.
+   */
+  public SessionUploader(File folder, long quietMs) {
+    this.folder = folder;
+    this.quietMs = quietMs;
+  }
+
+  /**
+   * Uploads the files that were not modified within the quiet time and not uploaded yet, as the
+   * next part of the session.
+   *
+   * @param uploadUrl URL of the upload endpoint of the server.
+   * @return False if the upload failed; the files are then retried with the next upload.
+   */
+  public boolean uploadClosedFiles(String uploadUrl) {
+    final List<File> files = pendingFiles(System.currentTimeMillis() - quietMs);
+    if (files.isEmpty()) return true;
+    return upload(uploadUrl, folder.getName() + ".part" + (parts + 1) + ".zip", files);
+  }
+
+  /**
+   * Uploads all files that were not uploaded yet or grew since. Call it after logging stopped.
+   *
+   * @param uploadUrl URL of the upload endpoint of the server.
+   * @return False if the upload failed.
+   */
+  public boolean uploadRemaining(String uploadUrl) {
+    final List<File> files = pendingFiles(Long.MAX_VALUE);
+    if (files.isEmpty()) return true;
+    return upload(uploadUrl, folder.getName() + ".zip", files);
+  }
+
+  private List<File> pendingFiles(long modifiedBefore) {
+    final List<File> files = new ArrayList<>();
+    collectFiles(folder, modifiedBefore, files);
+    return files;
+  }
+
+  private void collectFiles(File dir, long modifiedBefore, List<File> files) {
+    final File[] children = dir.listFiles();
+    if (children == null) return;
+    for (File child : children) {
+      if (child.isDirectory()) {
+        collectFiles(child, modifiedBefore, files);
+      } else if (child.lastModified() < modifiedBefore
+          && !child.getName().endsWith(BinaryLogReader.BINARY_EXTENSION)) {
+        final Long uploadedLength = uploadedLengths.get(entryName(child));
+        if (uploadedLength == null || uploadedLength != child.length()) files.add(child);
+      }
+    }
+  }
+
+  private String entryName(File file) {
+    return folder.toURI().relativize(file.toURI()).getPath();
+  }
+
+  private boolean upload(String uploadUrl, String fileName, List<File> files) {
+    final long startMs = System.currentTimeMillis();
+    final Map<String, Long> lengths = new HashMap<>();
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) new URL(uploadUrl).openConnection();
+      connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+      connection.setReadTimeout(READ_TIMEOUT_MS);
+      connection.setDoOutput(true);
+      connection.setRequestMethod("POST");
+      connection.setChunkedStreamingMode(CHUNK_SIZE);
+      connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+
+      final long bytes;
+      try (OutputStream body = connection.getOutputStream()) {
+        writeAscii(
+            body,
+            "--"
+                + BOUNDARY
+                + LINE_END
+                + "Content-Disposition: form-data; name=\"file\"; filename=\""
+                + fileName
+                + "\""
+                + LINE_END
+                + "Content-Type: application/zip"
+                + LINE_END
+                + LINE_END);
+        bytes = writeZip(body, files, lengths);
+        writeAscii(body, LINE_END + "--" + BOUNDARY + "--" + LINE_END);
+      }
+
+      final int status = connection.getResponseCode();
+      try (InputStream response =
+          status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+        if (response != null) while (response.read(buffer) >= 0) {}
+      }
+      if (status / 100 != 2) {
+        Timber.e("Upload of %s failed: HTTP %d", fileName, status);
+        return false;
+      }
+      uploadedLengths.putAll(lengths);
+      parts++;
+      uploadedBytes += bytes;
+      Timber.d(
+          "Uploaded %s: %d files, %d KB in %d ms",
+          fileName, files.size(), bytes / 1024, System.currentTimeMillis() - startMs);
+      return true;
+    } catch (IOException e) {
+      Timber.e(e, "Upload of %s failed", fileName);
+      return false;
+    } finally {
+      if (connection != null) connection.disconnect();
+    }
+  }
+
+  /** Compresses the files into the body and returns the number of bytes read from them. */
+  private long writeZip(OutputStream body, List<File> files, Map<String, Long> lengths)
+      throws IOException {
+    long bytes = 0;
+    // Closing the zip releases its deflater but keeps the body open for the multipart trailer.
+    final ZipOutputStream zip = new ZipOutputStream(new NonClosingOutputStream(body));
+    for (File file : files) {
+      final String name = entryName(file);
+      final ZipEntry entry = new ZipEntry(name);
+      entry.setTime(file.lastModified());
+      // Images are compressed already.
+      zip.setLevel(isCompressed(name) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+      zip.putNextEntry(entry);
+      long length = 0;
+      try (InputStream in = new FileInputStream(file)) {
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+          zip.write(buffer, 0, read);
+          length += read;
+        }
+      }
+      zip.closeEntry();
+      // Only what was read counts as uploaded, in case the file grows meanwhile.
+      lengths.put(name, length);
+      bytes += length;
+    }
+    zip.close();
+    return bytes;
+  }
+
+  private static boolean isCompressed(String name) {
+    return name.endsWith(".jpeg") || name.endsWith(".jpg") || name.endsWith(".png");
+  }
+
+  private static void writeAscii(OutputStream out, String text) throws IOException {
+    out.write(text.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /** Number of successful uploads. */
+  public int getUploadedParts() {
+    return parts;
+  }
+
+  /** Uncompressed bytes of the files uploaded so far. */
+  public long getUploadedBytes() {
+    return uploadedBytes;
+  }
+
+  private static class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
@@ -6,6 +6,7 @@ import android.app.Activity;
 import android.graphics.Bitmap;
 import android.os.SystemClock;
 import android.os.Trace;
+import android.util.Log;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -18,6 +19,7 @@ public abstract class Autopilot extends Network {
   /**
    * Creates a autopilot with the provided configuration.
    *
+   * @param backendFactory Loads the model, e.g. the interpreter cache of the app.
    * @param activity The current Activity.
    * @param model The model to use for classification.
    * @param device The device to use for classification.
@@ -31,39 +33,110 @@ public abstract class Autopilot extends Network {
   private int cmdIndex;
   private int imgIndex;
 
-  public static Autopilot create(Activity activity, Model model, Device device, int numThreads)
+  /** Preallocated inputs and outputs, so that the inference loop does not allocate. */
+  private Object[] inputArray;
+
+  private final ControlOutput controlOutput = new ControlOutput();
+
+  /** Quantization of the command input and the control output, null for float tensors. */
+  private Quantization cmdQuantization;
+
+  private Quantization outputQuantization;
+  private byte[][] quantizedOutput;
+
+  public static Autopilot create(
+      InferenceBackend.Factory backendFactory,
+      Activity activity,
+      Model model,
+      Device device,
+      int numThreads)
       throws IOException, IllegalArgumentException {
-    return new AutopilotFloat(activity, model, device, numThreads);
+    final InferenceBackend backend = backendFactory.load(activity, model, device, numThreads);
+    try {
+      return create(model, backend);
+    } catch (RuntimeException e) {
+      backend.close();
+      throw e;
+    }
   }
 
-  /** Initializes a {@code Autopilot}. */
-  protected Autopilot(Activity activity, Model model, Device device, int numThreads)
-      throws IOException, IllegalArgumentException {
-    super(activity, model, device, numThreads);
+  /**
+   * Creates an autopilot that runs on the given backend. Models with an 8 bit image input get a
+   * quantized autopilot.
+   */
+  public static Autopilot create(Model model, InferenceBackend backend)
+      throws IllegalArgumentException {
+    if (model.classType == Model.CLASS.AUTOPILOT_Q
+        || backend.getInputQuantization(getImageInputIndex(backend)) != null) {
+      return new AutopilotQuantized(model, backend);
+    }
+    return new AutopilotFloat(model, backend);
+  }
+
+  private static int getImageInputIndex(InferenceBackend backend) {
+    try {
+      return backend.getInputIndex("serving_default_img_input:0");
+    } catch (IllegalArgumentException e) {
+      return backend.getInputIndex("img_input");
+    }
+  }
+
+  private static int getCmdInputIndex(InferenceBackend backend) {
     try {
-      cmdIndex = tflite.getInputIndex("serving_default_cmd_input:0");
-      imgIndex = tflite.getInputIndex("serving_default_img_input:0");
+      return backend.getInputIndex("serving_default_cmd_input:0");
     } catch (IllegalArgumentException e) {
-      cmdIndex = tflite.getInputIndex("cmd_input");
-      imgIndex = tflite.getInputIndex("img_input");
+      return backend.getInputIndex("cmd_input");
     }
+  }
+
+  /** Initializes a {@code Autopilot}. */
+  protected Autopilot(Model model, InferenceBackend backend) throws IllegalArgumentException {
+    super(model, backend);
+    cmdIndex = getCmdInputIndex(backend);
+    imgIndex = getImageInputIndex(backend);
     if (!Arrays.equals(
-        tflite.getInputTensor(imgIndex).shape(),
-        new int[] {1, getImageSizeY(), getImageSizeX(), 3}))
+        backend.getInputShape(imgIndex), new int[] {1, getImageSizeY(), getImageSizeX(), 3}))
       throw new IllegalArgumentException("Invalid tensor dimensions");
 
-    cmdBuffer = ByteBuffer.allocateDirect(4);
+    cmdQuantization = backend.getInputQuantization(cmdIndex);
+    cmdBuffer = ByteBuffer.allocateDirect(cmdQuantization != null ? 1 : 4);
     cmdBuffer.order(ByteOrder.nativeOrder());
 
+    if (cmdIndex == 0) {
+      inputArray = new Object[] {cmdBuffer, imgData};
+    } else {
+      inputArray = new Object[] {imgData, cmdBuffer};
+    }
+    outputQuantization = backend.getOutputQuantization(0);
+    if (outputQuantization != null) {
+      quantizedOutput = new byte[1][2];
+      outputMap.put(0, quantizedOutput);
+    } else {
+      outputMap.put(0, controlOutput.tensor);
+    }
+
     Timber.d("Created a Tensorflow Lite Autopilot.");
   }
 
+  protected int getImageInputIndex() {
+    return imgIndex;
+  }
+
+  @Override
+  protected void onInputBufferChanged() {
+    inputArray[cmdIndex == 0 ? 1 : 0] = imgData;
+  }
+
   private void convertIndicatorToByteBuffer(int indicator) {
     if (cmdBuffer == null) {
       return;
     }
     cmdBuffer.rewind();
-    cmdBuffer.putFloat(indicator);
+    if (cmdQuantization != null) {
+      cmdBuffer.put(cmdQuantization.quantize(indicator));
+    } else {
+      cmdBuffer.putFloat(indicator);
+    }
   }
 
   public Control recognizeImage(final Bitmap bitmap, final int indicator) {
@@ -71,27 +144,40 @@ public abstract class Autopilot extends Network {
     Trace.beginSection("recognizeImage");
     Trace.beginSection("preprocessBitmap");
     convertBitmapToByteBuffer(bitmap);
-    convertIndicatorToByteBuffer(indicator);
     Trace.endSection(); // preprocessBitmap
+    Control control = runInference(indicator);
+    Trace.endSection(); // "recognizeImage"
+    return control;
+  }
+
+  /**
+   * Runs the policy on an image that has already been written into {@code imgData}, e.g. by
+   * {@link #convertYuvToByteBuffer}.
+   */
+  public Control recognizePreprocessedImage(final int indicator) {
+    Trace.beginSection("recognizeImage");
+    Control control = runInference(indicator);
+    Trace.endSection(); // "recognizeImage"
+    return control;
+  }
+
+  private Control runInference(final int indicator) {
+    convertIndicatorToByteBuffer(indicator);
 
     // Run the inference call.
     Trace.beginSection("runInference");
     long startTime = SystemClock.elapsedRealtime();
-    Object[] inputArray;
-    if (cmdIndex == 0) {
-      inputArray = new Object[] {cmdBuffer, imgData};
-    } else {
-      inputArray = new Object[] {imgData, cmdBuffer};
-    }
-
-    float[][] predicted_ctrl = new float[1][2];
-    outputMap.put(0, predicted_ctrl);
-    tflite.runForMultipleInputsOutputs(inputArray, outputMap);
+    backend.run(inputArray, outputMap);
     long endTime = SystemClock.elapsedRealtime();
     Trace.endSection();
-    Timber.v("Timecost to run model inference: %s", (endTime - startTime));
+    if (LOGGER.checkLoggable(Log.VERBOSE)) {
+      LOGGER.v("Timecost to run model inference: " + (endTime - startTime));
+    }
 
-    Trace.endSection(); // "recognizeImage"
-    return new Control(predicted_ctrl[0][0], predicted_ctrl[0][1]);
+    if (outputQuantization != null) {
+      controlOutput.tensor[0][0] = outputQuantization.dequantize(quantizedOutput[0][0]);
+      controlOutput.tensor[0][1] = outputQuantization.dequantize(quantizedOutput[0][1]);
+    }
+    return controlOutput.toControl();
   }
 }
@@ -2,9 +2,8 @@
 
 package org.openbot.tflite;
 
-import android.app.Activity;
 import android.graphics.RectF;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 class AutopilotFloat extends Autopilot {
 
@@ -16,11 +15,12 @@ class AutopilotFloat extends Autopilot {
   /**
    * Initializes a {@code AutopilotFloat}.
    *
-   * @param activity
+   * @param model
+   * @param backend
    */
-  public AutopilotFloat(Activity activity, Model model, Device device, int numThreads)
-      throws IOException {
-    super(activity, model, device, numThreads);
+  AutopilotFloat(Model model, InferenceBackend backend) {
+    super(model, backend);
+    setInputNormalization(IMAGE_MEAN, IMAGE_STD, null);
   }
 
   @Override
@@ -39,9 +39,9 @@ class AutopilotFloat extends Autopilot {
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+  protected void addPixelValue(ByteBuffer buffer, int pixelValue) {
+    buffer.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+    buffer.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+    buffer.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
   }
 }
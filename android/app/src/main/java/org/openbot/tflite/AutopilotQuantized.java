@@ -0,0 +1,52 @@
+package org.openbot.tflite;
+
+import android.graphics.RectF;
+import java.nio.ByteBuffer;
+
+/**
+ * Autopilot for models with an 8 bit (uint8 or int8) image input. Pixels are quantized with the
+ * parameters of the input tensor through a lookup table, so each channel takes a single byte.
+ */
+class AutopilotQuantized extends Autopilot {
+
+  /** Normalization of the float model the quantized model was converted from. */
+  private static final float IMAGE_MEAN = 0.0f;
+
+  private static final float IMAGE_STD = 255.0f;
+
+  /** Quantized value of every 8 bit channel value. */
+  private final byte[] pixelTable;
+
+  AutopilotQuantized(Model model, InferenceBackend backend) {
+    super(model, backend);
+    Quantization quantization = backend.getInputQuantization(getImageInputIndex());
+    if (quantization == null) {
+      throw new IllegalArgumentException("The image input of the model is not quantized.");
+    }
+    pixelTable = quantization.createPixelTable(IMAGE_MEAN, IMAGE_STD);
+    setInputNormalization(IMAGE_MEAN, IMAGE_STD, quantization);
+  }
+
+  @Override
+  public boolean getMaintainAspect() {
+    return true;
+  }
+
+  @Override
+  public RectF getCropRect() {
+    return new RectF(0.0f, 240.0f / 720.0f, 0.0f, 0.0f);
+  }
+
+  @Override
+  protected int getNumBytesPerChannel() {
+    // the quantized model uses a single byte only
+    return 1;
+  }
+
+  @Override
+  protected void addPixelValue(ByteBuffer buffer, int pixelValue) {
+    buffer.put(pixelTable[(pixelValue >> 16) & 0xFF]);
+    buffer.put(pixelTable[(pixelValue >> 8) & 0xFF]);
+    buffer.put(pixelTable[pixelValue & 0xFF]);
+  }
+}
@@ -0,0 +1,34 @@
+package org.openbot.tflite;
+
+import org.openbot.vehicle.Control;
+
+/**
+ * Preallocated [1, 2] control output of a driving policy together with a small pool of {@link
+ * Control} objects. A returned control is overwritten by the {@link #POOL_SIZE}th inference after
+ * it, so it is only valid as long as actuation keeps up with inference, e.g. for a result waiting
+ * in an {@link InferencePipeline}. Whoever may fall further behind or keeps a control, such as the
+ * vehicle, copies its values right away.
+ */
+class ControlOutput {
+
+  static final int POOL_SIZE = 4;
+
+  /** Output tensor buffer passed to the interpreter. */
+  final float[][] tensor = new float[1][2];
+
+  private final Control[] pool = new Control[POOL_SIZE];
+  private int next = 0;
+
+  ControlOutput() {
+    for (int i = 0; i < POOL_SIZE; i++) {
+      pool[i] = new Control(0, 0);
+    }
+  }
+
+  /** Returns the current content of the output tensor as a recycled {@link Control}. */
+  Control toControl() {
+    Control control = pool[next];
+    next = (next + 1) % POOL_SIZE;
+    return control.set(tensor[0][0], tensor[0][1]);
+  }
+}
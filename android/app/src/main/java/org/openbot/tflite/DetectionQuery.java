@@ -0,0 +1,68 @@
+package org.openbot.tflite;
+
+import java.util.BitSet;
+
+/**
+ * Selects which detections a {@link Detector} returns: a set of class ids (or all classes), a
+ * minimum confidence and a maximum number of results. Queries are created by {@link
+ * Detector#createQuery} and {@link Detector#createQueryForAll}, which translate class names into
+ * the class ids of that detector once, so that candidates can be filtered on integer ids while the
+ * network output is decoded. Queries are immutable and can be reused for every frame.
+ */
+public class DetectionQuery {
+
+  private final BitSet classIds;
+  private final int[] classIdList;
+  private final float minConfidence;
+  private final int maxResults;
+
+  /**
+   * @param classIds Accepted class ids, or null to accept all classes.
+   * @param minConfidence Minimum confidence of a returned detection.
+   * @param maxResults Maximum number of returned detections over all classes.
+   */
+  DetectionQuery(BitSet classIds, float minConfidence, int maxResults) {
+    if (maxResults < 0) {
+      throw new IllegalArgumentException("maxResults must not be negative: " + maxResults);
+    }
+    this.classIds = classIds != null ? (BitSet) classIds.clone() : null;
+    this.minConfidence = minConfidence;
+    this.maxResults = maxResults;
+    if (classIds != null) {
+      classIdList = new int[classIds.cardinality()];
+      for (int i = 0, c = classIds.nextSetBit(0); c >= 0; c = classIds.nextSetBit(c + 1)) {
+        classIdList[i++] = c;
+      }
+    } else {
+      classIdList = null;
+    }
+  }
+
+  /** Returns true if detections of {@code classId} are requested. */
+  public boolean accepts(int classId) {
+    return classId >= 0 && (classIds == null || classIds.get(classId));
+  }
+
+  /** Returns true if the query accepts every class. */
+  public boolean isAllClasses() {
+    return classIds == null;
+  }
+
+  /** Number of accepted class ids, only meaningful if not {@link #isAllClasses()}. */
+  public int getNumClassIds() {
+    return classIdList != null ? classIdList.length : 0;
+  }
+
+  /** The i-th accepted class id in increasing order, only valid if not {@link #isAllClasses()}. */
+  public int getClassId(int i) {
+    return classIdList[i];
+  }
+
+  public float getMinConfidence() {
+    return minConfidence;
+  }
+
+  public int getMaxResults() {
+    return maxResults;
+  }
+}
@@ -0,0 +1,99 @@
+package org.openbot.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Detection candidates of one frame stored as parallel primitive arrays. The arrays are reused
+ * between frames and only grow, so decoding the network output does not allocate per candidate.
+ */
+public class Detections {
+
+  private int size;
+  private int[] index;
+  private int[] classId;
+  private float[] score;
+  private float[] left;
+  private float[] top;
+  private float[] right;
+  private float[] bottom;
+
+  public Detections(int capacity) {
+    capacity = Math.max(1, capacity);
+    index = new int[capacity];
+    classId = new int[capacity];
+    score = new float[capacity];
+    left = new float[capacity];
+    top = new float[capacity];
+    right = new float[capacity];
+    bottom = new float[capacity];
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Appends a candidate.
+   *
+   * @param index Row of the candidate in the network output.
+   * @param classId Detected class.
+   * @param score Confidence of the detected class.
+   */
+  public void add(
+      int index, int classId, float score, float left, float top, float right, float bottom) {
+    if (size == this.index.length) {
+      grow();
+    }
+    this.index[size] = index;
+    this.classId[size] = classId;
+    this.score[size] = score;
+    this.left[size] = left;
+    this.top[size] = top;
+    this.right[size] = right;
+    this.bottom[size] = bottom;
+    size++;
+  }
+
+  private void grow() {
+    int capacity = 2 * index.length;
+    index = Arrays.copyOf(index, capacity);
+    classId = Arrays.copyOf(classId, capacity);
+    score = Arrays.copyOf(score, capacity);
+    left = Arrays.copyOf(left, capacity);
+    top = Arrays.copyOf(top, capacity);
+    right = Arrays.copyOf(right, capacity);
+    bottom = Arrays.copyOf(bottom, capacity);
+  }
+
+  public int getIndex(int i) {
+    return index[i];
+  }
+
+  public int getClassId(int i) {
+    return classId[i];
+  }
+
+  public float getScore(int i) {
+    return score[i];
+  }
+
+  public float getLeft(int i) {
+    return left[i];
+  }
+
+  public float getTop(int i) {
+    return top[i];
+  }
+
+  public float getRight(int i) {
+    return right[i];
+  }
+
+  public float getBottom(int i) {
+    return bottom[i];
+  }
+}
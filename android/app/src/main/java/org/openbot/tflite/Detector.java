@@ -26,10 +26,11 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.PriorityQueue;
 import timber.log.Timber;
 
 /**
@@ -51,20 +52,39 @@ public abstract class Detector extends Network {
   /**
    * Creates a detector with the provided configuration.
    *
+   * @param backendFactory Loads the model, e.g. the interpreter cache of the app.
    * @param activity The current Activity.
    * @param model The model to use for classification.
    * @param device The device to use for classification.
    * @param numThreads The number of threads to use for classification.
    * @return A detector with the desired configuration.
    */
-  public static Detector create(Activity activity, Model model, Device device, int numThreads)
+  public static Detector create(
+      InferenceBackend.Factory backendFactory,
+      Activity activity,
+      Model model,
+      Device device,
+      int numThreads)
       throws IOException {
     switch (model.classType) {
       case MOBILENETV1_1_0_Q:
       case MOBILENETV3_S_Q:
-        return new DetectorQuantizedMobileNet(activity, model, device, numThreads);
+        return new DetectorQuantizedMobileNet(backendFactory, activity, model, device, numThreads);
       case YOLOV4:
-        return new DetectorFloatYoloV4(activity, model, device, numThreads);
+        return new DetectorFloatYoloV4(backendFactory, activity, model, device, numThreads);
+      default:
+        return null;
+    }
+  }
+
+  /** Creates a detector that runs on the given backend, with the labels of the model. */
+  public static Detector create(Model model, InferenceBackend backend, List<String> labels) {
+    switch (model.classType) {
+      case MOBILENETV1_1_0_Q:
+      case MOBILENETV3_S_Q:
+        return new DetectorQuantizedMobileNet(model, backend, labels);
+      case YOLOV4:
+        return new DetectorFloatYoloV4(model, backend, labels);
       default:
         return null;
     }
@@ -153,15 +173,31 @@ public abstract class Detector extends Network {
   }
 
   /** Initializes a {@code Detector}. */
-  protected Detector(Activity activity, Model model, Device device, int numThreads)
+  protected Detector(
+      InferenceBackend.Factory backendFactory,
+      Activity activity,
+      Model model,
+      Device device,
+      int numThreads)
       throws IOException {
-    super(activity, model, device, numThreads);
+    super(backendFactory, activity, model, device, numThreads);
 
+    nonMaxSuppression = new NonMaxSuppression(mNmsThresh);
     labels = loadLabelList(activity);
     parseTflite();
     Timber.d("Created a Tensorflow Lite Detector.");
   }
 
+  /** Initializes a {@code Detector} that runs on the given backend. */
+  protected Detector(Model model, InferenceBackend backend, List<String> labels) {
+    super(model, backend);
+
+    nonMaxSuppression = new NonMaxSuppression(mNmsThresh);
+    this.labels = labels;
+    parseTflite();
+    Timber.d("Created a Tensorflow Lite Detector.");
+  }
+
   /** Reads label list from Assets. */
   private List<String> loadLabelList(Activity activity) throws IOException {
     List<String> labels = new ArrayList<String>();
@@ -177,6 +213,11 @@ public abstract class Detector extends Network {
 
   public List<Recognition> recognizeImage(final Bitmap bitmap, String className)
       throws IllegalArgumentException {
+    return recognizeImage(bitmap, getQuery(className));
+  }
+
+  /** Detects all objects in the image that match the query with a single inference. */
+  public List<Recognition> recognizeImage(final Bitmap bitmap, DetectionQuery query) {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
@@ -184,6 +225,66 @@ public abstract class Detector extends Network {
     convertBitmapToByteBuffer(bitmap);
     Trace.endSection(); // preprocessBitmap
 
+    detect();
+
+    Trace.endSection(); // "recognizeImage"
+    return getRecognitions(query);
+  }
+
+  /**
+   * Runs the detector on an image that has already been written into {@code imgData}, e.g. by
+   * {@link #convertYuvToByteBuffer}.
+   */
+  public List<Recognition> recognizePreprocessedImage(String className)
+      throws IllegalArgumentException {
+    return recognizePreprocessedImage(getQuery(className));
+  }
+
+  /** Like {@link #recognizePreprocessedImage(String)} for all objects that match the query. */
+  public List<Recognition> recognizePreprocessedImage(DetectionQuery query) {
+    Trace.beginSection("recognizeImage");
+    detect();
+    Trace.endSection(); // "recognizeImage"
+    return getRecognitions(query);
+  }
+
+  /**
+   * Creates a query for the given class names. Unknown names are ignored.
+   *
+   * @param classNames Labels of the classes to detect.
+   * @param minConfidence Minimum confidence of the returned detections.
+   * @param maxResults Maximum number of returned detections over all classes.
+   */
+  public DetectionQuery createQuery(
+      Collection<String> classNames, float minConfidence, int maxResults) {
+    BitSet classIds = new BitSet();
+    for (String className : classNames) {
+      final int classId = getClassId(className);
+      if (classId >= 0) {
+        classIds.set(classId);
+      }
+    }
+    return new DetectionQuery(classIds, minConfidence, maxResults);
+  }
+
+  /** Creates a query that returns objects of every class. */
+  public DetectionQuery createQueryForAll(float minConfidence, int maxResults) {
+    return new DetectionQuery(null, minConfidence, maxResults);
+  }
+
+  /** Returns the query for a single class, reusing the last one if nothing changed. */
+  private DetectionQuery getQuery(String className) {
+    if (lastQuery == null
+        || !className.equals(lastQueryClassName)
+        || lastQuery.getMinConfidence() != minConfidence) {
+      lastQuery =
+          createQuery(Collections.singletonList(className), minConfidence, Integer.MAX_VALUE);
+      lastQueryClassName = className;
+    }
+    return lastQuery;
+  }
+
+  private void detect() {
     // Copy the input data into TensorFlow.
     Trace.beginSection("feed");
     feedData();
@@ -196,85 +297,85 @@ public abstract class Detector extends Network {
     long endTime = SystemClock.elapsedRealtime();
     Trace.endSection();
     Timber.v("Timecost to run model inference: %s", (endTime - startTime));
-
-    Trace.endSection(); // "recognizeImage"
-    return getRecognitions(className);
   }
 
   protected float mNmsThresh = 0.25f;
 
-  // non maximum suppression
-  protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-    ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-    for (int k = 0; k < labels.size(); k++) {
-      // 1. Find max confidence per class
-      PriorityQueue<Recognition> pq =
-          new PriorityQueue<Recognition>(
-              50,
-              new Comparator<Recognition>() {
-                @Override
-                public int compare(final Recognition lhs, final Recognition rhs) {
-                  // Intentionally reversed to put high confidence at the head of the queue.
-                  return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                }
-              });
-
-      for (int i = 0; i < list.size(); ++i) {
-        if (list.get(i).getClassId() == k) {
-          pq.add(list.get(i));
-        }
-      }
+  /** Non maximum suppression of the decoded candidates, with the IoU threshold above. */
+  protected final NonMaxSuppression nonMaxSuppression;
 
-      // 2. Do non maximum suppression
-      while (pq.size() > 0) {
-        // insert detection with max confidence
-        Recognition[] a = new Recognition[pq.size()];
-        Recognition[] detections = pq.toArray(a);
-        Recognition max = detections[0];
-        nmsList.add(max);
-        pq.clear();
-
-        for (int j = 1; j < detections.length; j++) {
-          Recognition detection = detections[j];
-          RectF b = detection.getLocation();
-          if (box_iou(max.getLocation(), b) < mNmsThresh) {
-            pq.add(detection);
-          }
-        }
-      }
-    }
-    return nmsList;
+  /** IoU above which a box is suppressed, or its score decayed with soft-NMS. */
+  public void setNmsThreshold(float nmsThresh) {
+    mNmsThresh = nmsThresh;
+    nonMaxSuppression.setIouThreshold(nmsThresh);
+  }
+
+  public float getNmsThreshold() {
+    return mNmsThresh;
+  }
+
+  /** Selects greedy NMS or soft-NMS with linear or gaussian decay; greedy by default. */
+  public void setNmsMethod(NonMaxSuppression.Method method) {
+    nonMaxSuppression.setMethod(method);
   }
 
-  protected float box_iou(RectF a, RectF b) {
-    return box_intersection(a, b) / box_union(a, b);
+  public NonMaxSuppression.Method getNmsMethod() {
+    return nonMaxSuppression.getMethod();
   }
 
-  protected float box_intersection(RectF a, RectF b) {
-    float w =
-        overlap((a.left + a.right) / 2, a.right - a.left, (b.left + b.right) / 2, b.right - b.left);
-    float h =
-        overlap((a.top + a.bottom) / 2, a.bottom - a.top, (b.top + b.bottom) / 2, b.bottom - b.top);
-    if (w < 0 || h < 0) return 0;
-    float area = w * h;
-    return area;
+  /** Minimum confidence for {@link #recognizeImage(Bitmap, String)}. */
+  protected float minConfidence = 0.0f;
+
+  public void setMinConfidence(float minConfidence) {
+    this.minConfidence = minConfidence;
   }
 
-  protected float box_union(RectF a, RectF b) {
-    float i = box_intersection(a, b);
-    float u = (a.right - a.left) * (a.bottom - a.top) + (b.right - b.left) * (b.bottom - b.top) - i;
-    return u;
+  public float getMinConfidence() {
+    return minConfidence;
   }
 
-  protected float overlap(float x1, float w1, float x2, float w2) {
-    float l1 = x1 - w1 / 2;
-    float l2 = x2 - w2 / 2;
-    float left = l1 > l2 ? l1 : l2;
-    float r1 = x1 + w1 / 2;
-    float r2 = x2 + w2 / 2;
-    float right = r1 < r2 ? r1 : r2;
-    return right - left;
+  private DetectionQuery lastQuery;
+  private String lastQueryClassName;
+
+  // non maximum suppression
+  protected ArrayList<Recognition> nms(Detections detections, int maxResults) {
+    nonMaxSuppression.setMaxDetections(maxResults);
+    final int numKept = nonMaxSuppression.run(detections);
+    final ArrayList<Recognition> nmsList = new ArrayList<>(numKept);
+    for (int k = 0; k < numKept; ++k) {
+      final int i = nonMaxSuppression.getKept(k);
+      final int classId = detections.getClassId(i);
+      nmsList.add(
+          new Recognition(
+              "" + detections.getIndex(i),
+              getLabel(classId),
+              nonMaxSuppression.getKeptScore(k),
+              new RectF(
+                  detections.getLeft(i),
+                  detections.getTop(i),
+                  detections.getRight(i),
+                  detections.getBottom(i)),
+              classId));
+    }
+    return nmsList;
+  }
+
+  /**
+   * Get the display name of a detected class.
+   *
+   * @return
+   */
+  protected String getLabel(int classId) {
+    return labels.get(classId);
+  }
+
+  /**
+   * Get the class id the network outputs for a label.
+   *
+   * @return The class id, or -1 if the label is unknown.
+   */
+  protected int getClassId(String label) {
+    return labels.indexOf(label);
   }
 
   /**
@@ -329,5 +430,5 @@ public abstract class Detector extends Network {
    *
    * @return
    */
-  protected abstract List<Recognition> getRecognitions(String className);
+  protected abstract List<Recognition> getRecognitions(DetectionQuery query);
 }
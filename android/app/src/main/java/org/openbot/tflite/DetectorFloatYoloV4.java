@@ -3,7 +3,9 @@ package org.openbot.tflite;
 import android.app.Activity;
 import android.graphics.RectF;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.List;
 
 public class DetectorFloatYoloV4 extends Detector {
@@ -13,12 +15,19 @@ public class DetectorFloatYoloV4 extends Detector {
 
   private static final float IMAGE_STD = 255.0f;
 
-  // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
+  // Output buffers are allocated once in parseTflite() and filled by the interpreter directly.
+  // outputLocations: buffer of shape [Batchsize, NUM_DETECTIONS,4]
   // contains the location of detected boxes
-  private float[][][] outputLocations;
-  // outputScores: array of shape [Batchsize, NUM_DETECTIONS,labels.size()]
+  private ByteBuffer outputLocationsBuffer;
+  private FloatBuffer outputLocations;
+  // outputScores: buffer of shape [Batchsize, NUM_DETECTIONS,numClasses]
   // contains the scores of detected boxes
-  private float[][][] outputScores;
+  private ByteBuffer outputScoresBuffer;
+  private FloatBuffer outputScores;
+  private int numClasses;
+
+  // decoded candidates, reused between frames
+  private Detections detections;
 
   // indices in tflite model
   private int outputLocationsIdx;
@@ -29,9 +38,20 @@ public class DetectorFloatYoloV4 extends Detector {
    *
    * @param activity
    */
-  public DetectorFloatYoloV4(Activity activity, Model model, Device device, int numThreads)
+  public DetectorFloatYoloV4(
+      InferenceBackend.Factory backendFactory,
+      Activity activity,
+      Model model,
+      Device device,
+      int numThreads)
       throws IOException {
-    super(activity, model, device, numThreads);
+    super(backendFactory, activity, model, device, numThreads);
+    setInputNormalization(IMAGE_MEAN, IMAGE_STD, null);
+  }
+
+  public DetectorFloatYoloV4(Model model, InferenceBackend backend, List<String> labels) {
+    super(model, backend, labels);
+    setInputNormalization(IMAGE_MEAN, IMAGE_STD, null);
   }
 
   @Override
@@ -63,68 +83,134 @@ public class DetectorFloatYoloV4 extends Detector {
   @Override
   protected final void parseTflite() {
     try {
-      outputLocationsIdx = tflite.getOutputIndex("Identity");
-      outputScoresIdx = tflite.getOutputIndex("Identity_1");
+      outputLocationsIdx = backend.getOutputIndex("Identity");
+      outputScoresIdx = backend.getOutputIndex("Identity_1");
     } catch (IllegalArgumentException e) {
-      outputLocationsIdx = tflite.getOutputIndex("StatefulPartitionedCall:0");
-      outputScoresIdx = tflite.getOutputIndex("StatefulPartitionedCall:1");
+      outputLocationsIdx = backend.getOutputIndex("StatefulPartitionedCall:0");
+      outputScoresIdx = backend.getOutputIndex("StatefulPartitionedCall:1");
     }
-    NUM_DETECTIONS = tflite.getOutputTensor(outputLocationsIdx).shape()[1];
+    NUM_DETECTIONS = backend.getOutputShape(outputLocationsIdx)[1];
+    numClasses = backend.getOutputShape(outputScoresIdx)[2];
+
+    outputLocationsBuffer = ByteBuffer.allocateDirect(NUM_DETECTIONS * 4 * 4);
+    outputLocationsBuffer.order(ByteOrder.nativeOrder());
+    outputLocations = outputLocationsBuffer.asFloatBuffer();
+    outputScoresBuffer = ByteBuffer.allocateDirect(NUM_DETECTIONS * numClasses * 4);
+    outputScoresBuffer.order(ByteOrder.nativeOrder());
+    outputScores = outputScoresBuffer.asFloatBuffer();
+
+    outputMap.put(outputLocationsIdx, outputLocationsBuffer);
+    outputMap.put(outputScoresIdx, outputScoresBuffer);
+
+    detections = new Detections(64);
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+  protected void addPixelValue(ByteBuffer buffer, int pixelValue) {
+    buffer.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+    buffer.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+    buffer.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
   }
 
   @Override
   protected void runInference() {
     Object[] inputArray = {imgData};
-    tflite.runForMultipleInputsOutputs(inputArray, outputMap);
+    backend.run(inputArray, outputMap);
   }
 
   @Override
   protected void feedData() {
-    outputLocations = new float[1][getNumDetections()][4];
-    outputScores = new float[1][getNumDetections()][labels.size()];
-
-    outputMap.put(outputLocationsIdx, outputLocations);
-    outputMap.put(outputScoresIdx, outputScores);
+    // The interpreter writes from the current position of the output buffers.
+    outputLocationsBuffer.rewind();
+    outputScoresBuffer.rewind();
   }
 
   @Override
-  protected List<Recognition> getRecognitions(String className) {
-    // Show the best detections.
-    // after scaling them back to the input size.
-    final ArrayList<Recognition> recognitions = new ArrayList<>(getNumDetections());
+  protected List<Recognition> getRecognitions(DetectionQuery query) {
+    detections.clear();
+    final float minConfidence = query.getMinConfidence();
+
     for (int i = 0; i < getNumDetections(); ++i) {
-      float maxClass = 0;
-      int classId = -1;
-      final float[] classes = new float[labels.size()];
-      System.arraycopy(outputScores[0][i], 0, classes, 0, labels.size());
-      for (int c = 0; c < labels.size(); ++c) {
-        if (classes[c] > maxClass) {
-          classId = c;
-          maxClass = classes[c];
-        }
+      final int row = i * numClasses;
+      final int classId =
+          query.isAllClasses() ? getBestClass(row) : getBestRequestedClass(row, query);
+      if (classId < 0) {
+        continue;
+      }
+      final float score = outputScores.get(row + classId);
+      if (score <= 0 || score < minConfidence) {
+        continue;
+      }
+      // Scale the best detections back to the input size.
+      final int box = i * 4;
+      final float xPos = outputLocations.get(box);
+      final float yPos = outputLocations.get(box + 1);
+      final float w = outputLocations.get(box + 2);
+      final float h = outputLocations.get(box + 3);
+      detections.add(
+          i,
+          classId,
+          score,
+          Math.max(0, xPos - w / 2),
+          Math.max(0, yPos - h / 2),
+          Math.min(getImageSizeX() - 1, xPos + w / 2),
+          Math.min(getImageSizeY() - 1, yPos + h / 2));
+    }
+    return nms(detections, query.getMaxResults());
+  }
+
+  /** Returns the first class with the maximum score in the row. */
+  private int getBestClass(int row) {
+    int best = 0;
+    float bestScore = outputScores.get(row);
+    for (int c = 1; c < numClasses; ++c) {
+      final float score = outputScores.get(row + c);
+      if (score > bestScore) {
+        best = c;
+        bestScore = score;
       }
-      final float score = maxClass;
-      final float xPos = outputLocations[0][i][0];
-      final float yPos = outputLocations[0][i][1];
-      final float w = outputLocations[0][i][2];
-      final float h = outputLocations[0][i][3];
-      final RectF detection =
-          new RectF(
-              Math.max(0, xPos - w / 2),
-              Math.max(0, yPos - h / 2),
-              Math.min(getImageSizeX() - 1, xPos + w / 2),
-              Math.min(getImageSizeY() - 1, yPos + h / 2));
-      if (classId > -1 && labels.get(classId).contentEquals(className)) {
-        recognitions.add(new Recognition("" + i, labels.get(classId), score, detection, classId));
+    }
+    return best;
+  }
+
+  /**
+   * Returns the best class of the row if it is requested by the query, -1 otherwise. Only the
+   * requested classes are scanned until one of them is a candidate, which keeps rows without a
+   * requested object cheap.
+   */
+  private int getBestRequestedClass(int row, DetectionQuery query) {
+    int best = -1;
+    float bestScore = 0;
+    for (int k = 0; k < query.getNumClassIds(); ++k) {
+      final int classId = query.getClassId(k);
+      if (classId >= numClasses) {
+        break;
+      }
+      final float score = outputScores.get(row + classId);
+      if (score > bestScore) {
+        best = classId;
+        bestScore = score;
+      }
+    }
+    // Cheap early exit: a requested class has to reach the threshold before we look at others.
+    if (best < 0 || bestScore < query.getMinConfidence() || !isBestClass(row, best, bestScore)) {
+      return -1;
+    }
+    return best;
+  }
+
+  /** Returns true if {@code classId} is the first class with the maximum score in the row. */
+  private boolean isBestClass(int row, int classId, float score) {
+    for (int c = 0; c < classId; ++c) {
+      if (outputScores.get(row + c) >= score) {
+        return false;
+      }
+    }
+    for (int c = classId + 1; c < numClasses; ++c) {
+      if (outputScores.get(row + c) > score) {
+        return false;
       }
     }
-    return nms(recognitions);
+    return true;
   }
 }
@@ -20,7 +20,7 @@ package org.openbot.tflite;
 import android.app.Activity;
 import android.graphics.RectF;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /** This TensorFlow Lite classifier works with the quantized MobileNet model. */
@@ -39,6 +39,9 @@ public class DetectorQuantizedMobileNet extends Detector {
   // contains the number of detected boxes
   private float[] numDetections;
 
+  // decoded candidates, reused between frames
+  private Detections detections;
+
   // indices in tflite model
   private int outputLocationsIdx;
   private int outputClassesIdx;
@@ -50,9 +53,21 @@ public class DetectorQuantizedMobileNet extends Detector {
    *
    * @param activity
    */
-  public DetectorQuantizedMobileNet(Activity activity, Model model, Device device, int numThreads)
+  public DetectorQuantizedMobileNet(
+      InferenceBackend.Factory backendFactory,
+      Activity activity,
+      Model model,
+      Device device,
+      int numThreads)
       throws IOException {
-    super(activity, model, device, numThreads);
+    super(backendFactory, activity, model, device, numThreads);
+    // Raw 8 bit pixel values.
+    setInputNormalization(0, 1, null);
+  }
+
+  public DetectorQuantizedMobileNet(Model model, InferenceBackend backend, List<String> labels) {
+    super(model, backend, labels);
+    setInputNormalization(0, 1, null);
   }
 
   @Override
@@ -83,61 +98,80 @@ public class DetectorQuantizedMobileNet extends Detector {
 
   @Override
   protected final void parseTflite() {
-    outputLocationsIdx = tflite.getOutputIndex("TFLite_Detection_PostProcess");
-    outputClassesIdx = tflite.getOutputIndex("TFLite_Detection_PostProcess:1");
-    outputScoresIdx = tflite.getOutputIndex("TFLite_Detection_PostProcess:2");
-    numDetectionsIdx = tflite.getOutputIndex("TFLite_Detection_PostProcess:3");
-    NUM_DETECTIONS = tflite.getOutputTensor(outputLocationsIdx).shape()[1];
+    outputLocationsIdx = backend.getOutputIndex("TFLite_Detection_PostProcess");
+    outputClassesIdx = backend.getOutputIndex("TFLite_Detection_PostProcess:1");
+    outputScoresIdx = backend.getOutputIndex("TFLite_Detection_PostProcess:2");
+    numDetectionsIdx = backend.getOutputIndex("TFLite_Detection_PostProcess:3");
+    NUM_DETECTIONS = backend.getOutputShape(outputLocationsIdx)[1];
+
+    // The interpreter copies the outputs into these arrays, so they are allocated once.
+    outputLocations = new float[1][NUM_DETECTIONS][4];
+    outputClasses = new float[1][NUM_DETECTIONS];
+    outputScores = new float[1][NUM_DETECTIONS];
+    numDetections = new float[1];
+
+    outputMap.put(outputLocationsIdx, outputLocations);
+    outputMap.put(outputClassesIdx, outputClasses);
+    outputMap.put(outputScoresIdx, outputScores);
+    outputMap.put(numDetectionsIdx, numDetections);
+
+    detections = new Detections(NUM_DETECTIONS);
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-    imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-    imgData.put((byte) (pixelValue & 0xFF));
+  protected void addPixelValue(ByteBuffer buffer, int pixelValue) {
+    buffer.put((byte) ((pixelValue >> 16) & 0xFF));
+    buffer.put((byte) ((pixelValue >> 8) & 0xFF));
+    buffer.put((byte) (pixelValue & 0xFF));
   }
 
   @Override
   protected void runInference() {
     Object[] inputArray = {imgData};
-    tflite.runForMultipleInputsOutputs(inputArray, outputMap);
+    backend.run(inputArray, outputMap);
   }
 
   @Override
   protected void feedData() {
-    outputLocations = new float[1][getNumDetections()][4];
-    outputClasses = new float[1][getNumDetections()];
-    outputScores = new float[1][getNumDetections()];
-    numDetections = new float[1];
+    // Output arrays are registered in parseTflite().
+  }
 
-    outputMap.put(outputLocationsIdx, outputLocations);
-    outputMap.put(outputClassesIdx, outputClasses);
-    outputMap.put(outputScoresIdx, outputScores);
-    outputMap.put(numDetectionsIdx, numDetections);
+  @Override
+  protected String getLabel(int classId) {
+    // SSD Mobilenet V1 Model assumes class 0 is background class
+    // in label file and class labels start from 1 to number_of_classes+1,
+    // while outputClasses correspond to class index from 0 to number_of_classes
+    return labels.get(classId + 1);
+  }
+
+  @Override
+  protected int getClassId(String label) {
+    final int labelId = labels.indexOf(label);
+    return labelId > 0 ? labelId - 1 : -1;
   }
 
   @Override
-  protected List<Recognition> getRecognitions(String className) {
+  protected List<Recognition> getRecognitions(DetectionQuery query) {
     // Show the best detections.
     // after scaling them back to the input size.
-    final ArrayList<Recognition> recognitions = new ArrayList<>(getNumDetections());
+    detections.clear();
     for (int i = 0; i < getNumDetections(); ++i) {
-      final RectF detection =
-          new RectF(
-              outputLocations[0][i][1] * getImageSizeY(),
-              outputLocations[0][i][0] * getImageSizeX(),
-              outputLocations[0][i][3] * getImageSizeY(),
-              outputLocations[0][i][2] * getImageSizeX());
-      // SSD Mobilenet V1 Model assumes class 0 is background class
-      // in label file and class labels start from 1 to number_of_classes+1,
-      // while outputClasses correspond to class index from 0 to number_of_classes
-      int classId = (int) outputClasses[0][i];
-      int labelId = classId + 1;
-      if (labels.get(labelId).contentEquals(className)) {
-        recognitions.add(
-            new Recognition("" + i, labels.get(labelId), outputScores[0][i], detection, classId));
+      final int classId = (int) outputClasses[0][i];
+      final float score = outputScores[0][i];
+      if (score < query.getMinConfidence()
+          || !query.accepts(classId)
+          || classId + 1 >= labels.size()) {
+        continue;
       }
+      detections.add(
+          i,
+          classId,
+          score,
+          outputLocations[0][i][1] * getImageSizeY(),
+          outputLocations[0][i][0] * getImageSizeX(),
+          outputLocations[0][i][3] * getImageSizeY(),
+          outputLocations[0][i][2] * getImageSizeX());
     }
-    return nms(recognitions);
+    return nms(detections, query.getMaxResults());
   }
 }
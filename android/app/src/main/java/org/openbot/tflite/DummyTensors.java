@@ -0,0 +1,64 @@
+package org.openbot.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Zero-filled input and output buffers shaped like the tensors of a backend, to run it without a
+ * network around it, e.g. for warm-up or benchmark runs.
+ */
+class DummyTensors {
+
+  private final InferenceBackend backend;
+  private final Object[] inputs;
+  private final ByteBuffer[] outputBuffers;
+  private final OutputMap outputs;
+
+  DummyTensors(InferenceBackend backend) {
+    this.backend = backend;
+    inputs = new Object[backend.getInputTensorCount()];
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = allocate(backend.getInputShape(i), backend.getInputQuantization(i) != null);
+    }
+    outputBuffers = new ByteBuffer[backend.getOutputTensorCount()];
+    outputs = new OutputMap(outputBuffers.length);
+    for (int i = 0; i < outputBuffers.length; i++) {
+      outputBuffers[i] =
+          allocate(backend.getOutputShape(i), backend.getOutputQuantization(i) != null);
+      outputs.put(i, outputBuffers[i]);
+    }
+  }
+
+  /** Size of a tensor in bytes, one byte per element if quantized and four otherwise. */
+  static long getSize(int[] shape, boolean quantized) {
+    long size = quantized ? 1 : 4;
+    for (int dimension : shape) {
+      size *= dimension;
+    }
+    return size;
+  }
+
+  private static ByteBuffer allocate(int[] shape, boolean quantized) {
+    return ByteBuffer.allocateDirect((int) getSize(shape, quantized))
+        .order(ByteOrder.nativeOrder());
+  }
+
+  /** Size of all input and output buffers in bytes. */
+  long getSize() {
+    long size = 0;
+    for (Object input : inputs) {
+      size += ((ByteBuffer) input).capacity();
+    }
+    for (ByteBuffer output : outputBuffers) {
+      size += output.capacity();
+    }
+    return size;
+  }
+
+  void run() {
+    for (ByteBuffer output : outputBuffers) {
+      output.rewind();
+    }
+    backend.run(inputs, outputs);
+  }
+}
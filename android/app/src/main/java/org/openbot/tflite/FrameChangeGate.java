@@ -0,0 +1,157 @@
+package org.openbot.tflite;
+
+import org.openbot.env.LumaFrame;
+
+/**
+ * Decides whether a camera frame needs to be run through a network at all. While the robot stands
+ * (almost) still and the scene does not change, the result of the last inferred frame is still
+ * valid and can be reused, which saves the energy and heat of an inference per frame.
+ *
+ * <p>Each frame is reduced to a signature of the mean brightness of a coarse grid of cells, read
+ * from every few pixels of the Y plane only. A frame is skipped if the mean absolute difference of
+ * its signature to the one of the last inferred frame is below the change threshold and the speed
+ * is below the speed threshold. Comparing against the last inferred frame rather than the previous
+ * one means that a slow drift still triggers an inference once it adds up; in addition, a frame is
+ * inferred at the latest after a maximum number of skipped frames.
+ *
+ * <p>A gate is not thread-safe, it is meant to be called from the camera analyzer thread. Only
+ * {@link #reset} may be called from other threads.
+ */
+public class FrameChangeGate {
+
+  private static final int DEFAULT_GRID_WIDTH = 16;
+  private static final int DEFAULT_GRID_HEIGHT = 12;
+  private static final int DEFAULT_SAMPLES_PER_CELL = 4;
+
+  private final int gridWidth;
+  private final int gridHeight;
+  private final int samplesPerCell;
+
+  private float changeThreshold = 3;
+  private int maxSpeedPercent = 5;
+  private int maxSkippedFrames = 30;
+
+  private int[] signature;
+  private int[] reference;
+  private volatile boolean hasReference;
+  private int consecutiveSkips;
+
+  private long checkedFrames;
+  private long skippedFrames;
+
+  public FrameChangeGate() {
+    this(DEFAULT_GRID_WIDTH, DEFAULT_GRID_HEIGHT, DEFAULT_SAMPLES_PER_CELL);
+  }
+
+  /**
+   * @param gridWidth Number of signature cells per row.
+   * @param gridHeight Number of signature cells per column.
+   * @param samplesPerCell Pixels read per cell in each direction, i.e. the square of it per cell.
+   */
+  public FrameChangeGate(int gridWidth, int gridHeight, int samplesPerCell) {
+    if (gridWidth < 1 || gridHeight < 1 || samplesPerCell < 1) {
+      throw new IllegalArgumentException(
+          "Invalid grid: " + gridWidth + "x" + gridHeight + ", " + samplesPerCell);
+    }
+    this.gridWidth = gridWidth;
+    this.gridHeight = gridHeight;
+    this.samplesPerCell = samplesPerCell;
+    signature = new int[gridWidth * gridHeight];
+    reference = new int[gridWidth * gridHeight];
+  }
+
+  /** Mean absolute difference of the cell brightness in [0, 255] below which frames are equal. */
+  public FrameChangeGate setChangeThreshold(float changeThreshold) {
+    this.changeThreshold = changeThreshold;
+    return this;
+  }
+
+  /** Frames are only skipped while {@link org.openbot.vehicle.Vehicle#getSpeedPercent} is lower. */
+  public FrameChangeGate setMaxSpeedPercent(int maxSpeedPercent) {
+    this.maxSpeedPercent = maxSpeedPercent;
+    return this;
+  }
+
+  /** Number of frames in a row after which a frame is inferred even if nothing changed. */
+  public FrameChangeGate setMaxSkippedFrames(int maxSkippedFrames) {
+    this.maxSkippedFrames = maxSkippedFrames;
+    return this;
+  }
+
+  /**
+   * Returns true if the result of the last inferred frame can be reused for {@code frame}.
+   * Otherwise the frame becomes the reference for the following ones, so this must only return
+   * false for frames that are actually inferred.
+   */
+  public boolean shouldSkip(LumaFrame frame, int speedPercent) {
+    checkedFrames++;
+    computeSignature(frame, signature);
+    if (hasReference
+        && consecutiveSkips < maxSkippedFrames
+        && Math.abs(speedPercent) < maxSpeedPercent
+        && getDifference(signature, reference) < changeThreshold) {
+      consecutiveSkips++;
+      skippedFrames++;
+      return true;
+    }
+    final int[] swap = reference;
+    reference = signature;
+    signature = swap;
+    hasReference = true;
+    consecutiveSkips = 0;
+    return false;
+  }
+
+  /** Forgets the reference frame, e.g. when the network changed and its last result is stale. */
+  public void reset() {
+    hasReference = false;
+    consecutiveSkips = 0;
+  }
+
+  void computeSignature(LumaFrame frame, int[] out) {
+    final int width = frame.getWidth();
+    final int height = frame.getHeight();
+    for (int cy = 0; cy < gridHeight; cy++) {
+      final int top = cy * height / gridHeight;
+      final int cellHeight = (cy + 1) * height / gridHeight - top;
+      for (int cx = 0; cx < gridWidth; cx++) {
+        final int left = cx * width / gridWidth;
+        final int cellWidth = (cx + 1) * width / gridWidth - left;
+        int sum = 0;
+        int count = 0;
+        for (int sy = 0; sy < samplesPerCell; sy++) {
+          final int y = top + (2 * sy + 1) * cellHeight / (2 * samplesPerCell);
+          if (y >= height) continue;
+          for (int sx = 0; sx < samplesPerCell; sx++) {
+            final int x = left + (2 * sx + 1) * cellWidth / (2 * samplesPerCell);
+            if (x >= width) continue;
+            sum += frame.get(x, y);
+            count++;
+          }
+        }
+        out[cy * gridWidth + cx] = count == 0 ? 0 : sum / count;
+      }
+    }
+  }
+
+  static float getDifference(int[] a, int[] b) {
+    long sum = 0;
+    for (int i = 0; i < a.length; i++) {
+      sum += Math.abs(a[i] - b[i]);
+    }
+    return (float) sum / a.length;
+  }
+
+  public long getCheckedFrames() {
+    return checkedFrames;
+  }
+
+  public long getSkippedFrames() {
+    return skippedFrames;
+  }
+
+  /** Fraction of the checked frames that were skipped, in [0, 1]. */
+  public float getSkipRatio() {
+    return checkedFrames == 0 ? 0 : (float) skippedFrames / checkedFrames;
+  }
+}
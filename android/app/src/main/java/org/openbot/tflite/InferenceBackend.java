@@ -0,0 +1,57 @@
+package org.openbot.tflite;
+
+import android.content.Context;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The engine a {@link Network} runs its model with. Pre- and post-processing only talk to the
+ * model through this interface, so that they can run against a stub backend on a plain JVM in
+ * unit tests as well as against {@link TfLiteBackend} on the phone.
+ *
+ * <p>Tensor indices, shapes and the input and output objects follow the conventions of {@code
+ * org.tensorflow.lite.Interpreter}: inputs are direct {@link java.nio.ByteBuffer}s or arrays, and
+ * outputs are arrays or direct buffers that are written from their current position.
+ */
+public interface InferenceBackend {
+
+  /** Loads a model into a new backend. */
+  interface Factory {
+    InferenceBackend load(Context context, Model model, Network.Device device, int numThreads)
+        throws IOException;
+  }
+
+  /**
+   * Get the index of an input tensor by name.
+   *
+   * @throws IllegalArgumentException if the model has no input with this name.
+   */
+  int getInputIndex(String name);
+
+  /**
+   * Get the index of an output tensor by name.
+   *
+   * @throws IllegalArgumentException if the model has no output with this name.
+   */
+  int getOutputIndex(String name);
+
+  int getInputTensorCount();
+
+  int getOutputTensorCount();
+
+  int[] getInputShape(int index);
+
+  int[] getOutputShape(int index);
+
+  /** Returns the quantization of an 8 bit input tensor, or null for float tensors. */
+  Quantization getInputQuantization(int index);
+
+  /** Returns the quantization of an 8 bit output tensor, or null for float tensors. */
+  Quantization getOutputQuantization(int index);
+
+  /** Runs the model once, filling all output objects of {@code outputs}. */
+  void run(Object[] inputs, Map<Integer, Object> outputs);
+
+  /** Releases the model and all resources of the backend. */
+  void close();
+}
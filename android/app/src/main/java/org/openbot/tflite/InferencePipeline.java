@@ -0,0 +1,328 @@
+package org.openbot.tflite;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs camera frames through three overlapping stages: preprocessing on the thread that submits
+ * the frame, inference and actuation on their own executors. While frame N is inferred, frame N+1
+ * is already written into another input buffer of the network, so that the control rate is bound
+ * by the slowest stage instead of the sum of all stages.
+ *
+ * <p>Both hand-overs hold at most one waiting item and the latest one wins: a preprocessed frame
+ * that has not been picked up by the inference stage is replaced by a newer frame, and so is an
+ * unconsumed result. Replaced frames and results are counted as dropped.
+ *
+ * @param <N> The network the stages run with, see {@link Network#setNumInputBuffers}.
+ * @param <T> The result of the inference stage.
+ */
+public class InferencePipeline<N, T> {
+
+  public enum Stage {
+    PREPROCESS,
+    INFERENCE,
+    ACTUATION
+  }
+
+  /** Writes a frame into the input buffer {@code index} of the network. */
+  public interface Preprocessor<N> {
+    void preprocess(N network, int index);
+  }
+
+  /** Runs the network on the input buffer {@code index}. */
+  public interface Inference<N, T> {
+    T run(N network, int index, long frameId);
+  }
+
+  /** Acts on a result, e.g. sends the control to the vehicle. */
+  public interface Actuator<T> {
+    void actuate(T result, long frameId);
+  }
+
+  private static final int FREE = 0;
+  private static final int WRITING = 1;
+  private static final int PENDING = 2;
+  private static final int INFERRING = 3;
+
+  /** Weight of the newest sample in the exponential moving averages of the stage times. */
+  private static final double SMOOTHING = 0.1;
+
+  private final N network;
+  private final Executor inferenceExecutor;
+  private final Executor actuationExecutor;
+  private final Inference<N, T> inference;
+  private final Actuator<T> actuator;
+
+  private final Object lock = new Object();
+  private final int[] bufferStates;
+  private final long[] bufferFrameIds;
+  private int pendingBuffer = -1;
+  private boolean inferenceScheduled;
+  private T pendingResult;
+  private long pendingResultFrameId;
+  private boolean actuationScheduled;
+  private boolean closed;
+
+  /** Bits of the averages of the stage times, written by the stages and read by the UI. */
+  private final AtomicLongArray averageStageTimeMs = new AtomicLongArray(Stage.values().length);
+
+  private final AtomicLongArray lastStageTimeNs = new AtomicLongArray(Stage.values().length);
+  private volatile double averageIntervalMs;
+  private long lastActuationNs;
+  private volatile long submittedFrames;
+  private volatile long droppedFrames;
+  private volatile long droppedResults;
+  private volatile long actuatedResults;
+
+  private final Runnable inferenceTask = this::runInference;
+  private final Runnable actuationTask = this::runActuation;
+
+  /**
+   * @param network The network the stages run with.
+   * @param numBuffers Number of input buffers of the network; with one buffer, frames arriving
+   *     during inference are dropped like without a pipeline.
+   * @param inferenceExecutor Runs the inference stage, one task at a time.
+   * @param actuationExecutor Runs the actuation stage, one task at a time.
+   */
+  public InferencePipeline(
+      N network,
+      int numBuffers,
+      Executor inferenceExecutor,
+      Executor actuationExecutor,
+      Inference<N, T> inference,
+      Actuator<T> actuator) {
+    if (numBuffers < 1) {
+      throw new IllegalArgumentException("At least one buffer is required: " + numBuffers);
+    }
+    this.network = network;
+    this.inferenceExecutor = inferenceExecutor;
+    this.actuationExecutor = actuationExecutor;
+    this.inference = inference;
+    this.actuator = actuator;
+    bufferStates = new int[numBuffers];
+    bufferFrameIds = new long[numBuffers];
+  }
+
+  public N getNetwork() {
+    return network;
+  }
+
+  /**
+   * Preprocesses a frame on the calling thread and queues it for inference.
+   *
+   * @return False if the frame was dropped because all buffers were busy.
+   */
+  public boolean submit(long frameId, Preprocessor<N> preprocessor) {
+    final int index;
+    synchronized (lock) {
+      if (closed) {
+        return false;
+      }
+      submittedFrames++;
+      index = acquireBuffer();
+      if (index < 0) {
+        droppedFrames++;
+        return false;
+      }
+      bufferStates[index] = WRITING;
+    }
+
+    final long startTime = System.nanoTime();
+    try {
+      preprocessor.preprocess(network, index);
+    } catch (RuntimeException e) {
+      synchronized (lock) {
+        bufferStates[index] = FREE;
+        lock.notifyAll();
+      }
+      throw e;
+    }
+    recordStageTime(Stage.PREPROCESS, System.nanoTime() - startTime);
+
+    synchronized (lock) {
+      if (closed) {
+        bufferStates[index] = FREE;
+        // Let close() return.
+        lock.notifyAll();
+        return false;
+      }
+      if (pendingBuffer >= 0) {
+        // Latest frame wins.
+        bufferStates[pendingBuffer] = FREE;
+        droppedFrames++;
+      }
+      bufferStates[index] = PENDING;
+      bufferFrameIds[index] = frameId;
+      pendingBuffer = index;
+      if (!inferenceScheduled) {
+        inferenceScheduled = true;
+        inferenceExecutor.execute(inferenceTask);
+      }
+    }
+    return true;
+  }
+
+  /** Returns a free buffer, or takes back the pending one if there is none. */
+  private int acquireBuffer() {
+    for (int i = 0; i < bufferStates.length; i++) {
+      if (bufferStates[i] == FREE) {
+        return i;
+      }
+    }
+    if (pendingBuffer >= 0) {
+      final int index = pendingBuffer;
+      pendingBuffer = -1;
+      droppedFrames++;
+      return index;
+    }
+    return -1;
+  }
+
+  private void runInference() {
+    final int index;
+    final long frameId;
+    synchronized (lock) {
+      if (closed || pendingBuffer < 0) {
+        inferenceScheduled = false;
+        return;
+      }
+      index = pendingBuffer;
+      frameId = bufferFrameIds[index];
+      pendingBuffer = -1;
+      bufferStates[index] = INFERRING;
+    }
+
+    final long startTime = System.nanoTime();
+    T result = null;
+    try {
+      result = inference.run(network, index, frameId);
+    } finally {
+      recordStageTime(Stage.INFERENCE, System.nanoTime() - startTime);
+      synchronized (lock) {
+        bufferStates[index] = FREE;
+        if (result != null && !closed) {
+          if (pendingResult != null) {
+            droppedResults++;
+          }
+          pendingResult = result;
+          pendingResultFrameId = frameId;
+          if (!actuationScheduled) {
+            actuationScheduled = true;
+            actuationExecutor.execute(actuationTask);
+          }
+        }
+        // Reschedule instead of looping, so that other tasks of the executor can run in between.
+        if (pendingBuffer >= 0 && !closed) {
+          inferenceExecutor.execute(inferenceTask);
+        } else {
+          inferenceScheduled = false;
+        }
+      }
+    }
+  }
+
+  private void runActuation() {
+    final T result;
+    final long frameId;
+    synchronized (lock) {
+      result = pendingResult;
+      frameId = pendingResultFrameId;
+      pendingResult = null;
+      actuationScheduled = false;
+      if (closed || result == null) {
+        return;
+      }
+    }
+
+    final long startTime = System.nanoTime();
+    actuator.actuate(result, frameId);
+    final long endTime = System.nanoTime();
+    recordStageTime(Stage.ACTUATION, endTime - startTime);
+    if (lastActuationNs != 0) {
+      averageIntervalMs = smooth(averageIntervalMs, (endTime - lastActuationNs) / 1e6);
+    }
+    lastActuationNs = endTime;
+    actuatedResults++;
+  }
+
+  /** Each stage only updates its own average, so no lock is needed. */
+  private void recordStageTime(Stage stage, long timeNs) {
+    final int i = stage.ordinal();
+    lastStageTimeNs.set(i, timeNs);
+    final double average = Double.longBitsToDouble(averageStageTimeMs.get(i));
+    averageStageTimeMs.set(i, Double.doubleToRawLongBits(smooth(average, timeNs / 1e6)));
+  }
+
+  private static double smooth(double average, double value) {
+    return average == 0 ? value : average + SMOOTHING * (value - average);
+  }
+
+  /**
+   * Stops accepting frames and drops waiting frames and results. Waits for a frame that is being
+   * preprocessed, so the network can be closed right after. A running inference or actuation
+   * finishes, but its result is not handed on; close the pipeline on the inference executor to
+   * close the network safely.
+   */
+  public void close() {
+    boolean interrupted = false;
+    synchronized (lock) {
+      closed = true;
+      if (pendingBuffer >= 0) {
+        bufferStates[pendingBuffer] = FREE;
+        pendingBuffer = -1;
+      }
+      pendingResult = null;
+      while (isWriting()) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private boolean isWriting() {
+    for (int state : bufferStates) {
+      if (state == WRITING) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Moving average of the time spent in a stage. */
+  public double getAverageStageTimeMs(Stage stage) {
+    return Double.longBitsToDouble(averageStageTimeMs.get(stage.ordinal()));
+  }
+
+  public double getLastStageTimeMs(Stage stage) {
+    return lastStageTimeNs.get(stage.ordinal()) / 1e6;
+  }
+
+  /** Moving average of the time between two actuations, i.e. the effective control period. */
+  public double getAverageIntervalMs() {
+    return averageIntervalMs;
+  }
+
+  public long getSubmittedFrames() {
+    return submittedFrames;
+  }
+
+  /** Frames that were replaced by a newer frame or arrived while all buffers were busy. */
+  public long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  /** Results that were replaced by a newer result before they were actuated. */
+  public long getDroppedResults() {
+    return droppedResults;
+  }
+
+  public long getActuatedResults() {
+    return actuatedResults;
+  }
+}
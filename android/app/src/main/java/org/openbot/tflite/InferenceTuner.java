@@ -0,0 +1,287 @@
+package org.openbot.tflite;
+
+import android.app.Activity;
+import android.os.Build;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.openbot.env.SharedPreferencesManager;
+import timber.log.Timber;
+
+/**
+ * Picks the inference device and number of threads for a model by benchmarking the candidate
+ * configurations: the CPU with 1 to N threads, the GPU and NNAPI where they can be loaded. Every
+ * candidate runs a few warm-up inferences followed by timed ones on zero-filled inputs; the
+ * configuration with the lowest median latency wins, ties are broken by the 95th percentile.
+ *
+ * <p>{@link #getConfiguration} only benchmarks on the first use of a model file on a phone and
+ * remembers the winner in the {@link SharedPreferencesManager}. The benchmark takes seconds, so it
+ * runs on a thread of its own while the caller goes on with a default configuration, and the
+ * winner is reported to a {@link Listener} once it is known. Callers pause their inference while
+ * {@link #isTuning}, since a network running on the same cores would skew the stored winner
+ * towards fewer threads.
+ *
+ * <p>Candidates should be loaded without the {@link InterpreterCache}, e.g. with {@code
+ * TfLiteBackend::load}, so that the losing interpreters are closed instead of evicting the ones
+ * in use. The winner enters the cache once the network is created with it.
+ */
+public class InferenceTuner {
+
+  /** A device and number of threads together with the latency measured for them. */
+  public static class Configuration {
+    public final Network.Device device;
+    public final int numThreads;
+    /** Median and 95th percentile of the latency, NaN if not measured. */
+    public final double medianMs;
+
+    public final double p95Ms;
+
+    public Configuration(Network.Device device, int numThreads, double medianMs, double p95Ms) {
+      this.device = device;
+      this.numThreads = numThreads;
+      this.medianMs = medianMs;
+      this.p95Ms = p95Ms;
+    }
+
+    /** Parses a configuration stored with {@link #encode}, returns null if it is malformed. */
+    static Configuration decode(String value) {
+      if (value == null) {
+        return null;
+      }
+      final String[] parts = value.split(",");
+      if (parts.length != 4) {
+        return null;
+      }
+      try {
+        return new Configuration(
+            Network.Device.valueOf(parts[0]),
+            Integer.parseInt(parts[1]),
+            Double.parseDouble(parts[2]),
+            Double.parseDouble(parts[3]));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+
+    String encode() {
+      return device.name() + "," + numThreads + "," + medianMs + "," + p95Ms;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s (threads=%d, median=%.1fms, p95=%.1fms)", device, numThreads, medianMs, p95Ms);
+    }
+  }
+
+  /** Notified on the tuning thread when the benchmark of a model finished. */
+  public interface Listener {
+    void onTuned(Model model, Configuration configuration);
+  }
+
+  private static final int DEFAULT_MAX_THREADS = 8;
+
+  private final InferenceBackend.Factory factory;
+  private int maxThreads =
+      Math.min(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_THREADS);
+  private List<Network.Device> devices = defaultDevices();
+  private int numWarmupRuns = 3;
+  private int numRuns = 10;
+  /** Keys of the models that are benchmarked at the moment. */
+  private final Set<String> tuningKeys = new HashSet<>();
+
+  /** Benchmarks with the backends of {@code factory}, preferably an uncached one. */
+  public InferenceTuner(InferenceBackend.Factory factory) {
+    this.factory = factory;
+  }
+
+  private static List<Network.Device> defaultDevices() {
+    final List<Network.Device> devices = new ArrayList<>();
+    devices.add(Network.Device.CPU);
+    devices.add(Network.Device.GPU);
+    // Before Android 8.1 the interpreter silently falls back to the CPU.
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+      devices.add(Network.Device.NNAPI);
+    }
+    return devices;
+  }
+
+  /** Highest number of CPU threads to try. */
+  public InferenceTuner setMaxThreads(int maxThreads) {
+    this.maxThreads = Math.max(1, maxThreads);
+    return this;
+  }
+
+  public InferenceTuner setDevices(Network.Device... devices) {
+    this.devices = Arrays.asList(devices);
+    return this;
+  }
+
+  /** Number of untimed runs before the timed ones, e.g. for delegate initialization. */
+  public InferenceTuner setNumWarmupRuns(int numWarmupRuns) {
+    this.numWarmupRuns = Math.max(0, numWarmupRuns);
+    return this;
+  }
+
+  public InferenceTuner setNumRuns(int numRuns) {
+    this.numRuns = Math.max(1, numRuns);
+    return this;
+  }
+
+  /**
+   * Returns the configuration stored for the model on this phone. Otherwise the model is
+   * benchmarked in the background, and the CPU with the configured number of threads is returned
+   * until the winner is stored and reported to the listener. Nothing is reported if no candidate
+   * could be loaded.
+   */
+  public Configuration getConfiguration(
+      Activity activity,
+      Model model,
+      SharedPreferencesManager preferencesManager,
+      Listener listener) {
+    final String key = getKey(model);
+    final Configuration stored = Configuration.decode(preferencesManager.getInferenceConfig(key));
+    if (stored != null) {
+      return stored;
+    }
+    tuneInBackground(
+        activity,
+        model,
+        (tunedModel, best) -> {
+          preferencesManager.setInferenceConfig(key, best.encode());
+          listener.onTuned(tunedModel, best);
+        });
+    return new Configuration(
+        Network.Device.CPU, preferencesManager.getNumThreads(), Double.NaN, Double.NaN);
+  }
+
+  /**
+   * Benchmarks the model on a thread of its own and reports the fastest configuration, unless the
+   * model is benchmarked already.
+   *
+   * @return False if the model is benchmarked already.
+   */
+  boolean tuneInBackground(Activity activity, Model model, Listener listener) {
+    final String key = getKey(model);
+    synchronized (tuningKeys) {
+      if (!tuningKeys.add(key)) {
+        return false;
+      }
+    }
+    new Thread(
+            () -> {
+              try {
+                final Configuration best = tune(activity, model);
+                if (best != null) {
+                  listener.onTuned(model, best);
+                }
+              } finally {
+                synchronized (tuningKeys) {
+                  tuningKeys.remove(key);
+                }
+              }
+            },
+            "inference-tuner")
+        .start();
+    return true;
+  }
+
+  /** Whether a model is benchmarked in the background at the moment. */
+  public boolean isTuning() {
+    synchronized (tuningKeys) {
+      return !tuningKeys.isEmpty();
+    }
+  }
+
+  /** Model file and phone model the tuned configuration applies to. */
+  static String getKey(Model model) {
+    return Build.MODEL + ":" + model.pathType + ":" + model.path;
+  }
+
+  /** Benchmarks all candidates and returns the fastest, or null if none could be loaded. */
+  public Configuration tune(Activity activity, Model model) {
+    final Configuration best = selectBest(benchmark(activity, model));
+    Timber.i("Tuned inference configuration for %s: %s", model.name, best);
+    return best;
+  }
+
+  /** Benchmarks all candidates that can be loaded. */
+  public List<Configuration> benchmark(Activity activity, Model model) {
+    final List<Configuration> results = new ArrayList<>();
+    for (Network.Device device : devices) {
+      if (device == Network.Device.CPU) {
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads++) {
+          addIfLoaded(results, benchmark(activity, model, device, numThreads));
+        }
+      } else {
+        addIfLoaded(results, benchmark(activity, model, device, 1));
+      }
+    }
+    return results;
+  }
+
+  private static void addIfLoaded(List<Configuration> results, Configuration configuration) {
+    if (configuration != null) {
+      results.add(configuration);
+    }
+  }
+
+  /** Benchmarks a single candidate, returns null if it cannot be loaded or run. */
+  Configuration benchmark(Activity activity, Model model, Network.Device device, int numThreads) {
+    final InferenceBackend backend;
+    try {
+      backend = factory.load(activity, model, device, numThreads);
+    } catch (IOException | RuntimeException e) {
+      Timber.w("Skipping %s with %d threads: %s", device, numThreads, e.getMessage());
+      return null;
+    }
+    try {
+      final DummyTensors tensors = new DummyTensors(backend);
+      for (int i = 0; i < numWarmupRuns; i++) {
+        tensors.run();
+      }
+      final long[] timesNs = new long[numRuns];
+      for (int i = 0; i < numRuns; i++) {
+        final long startTime = System.nanoTime();
+        tensors.run();
+        timesNs[i] = System.nanoTime() - startTime;
+      }
+      Arrays.sort(timesNs);
+      final Configuration result =
+          new Configuration(
+              device, numThreads, percentile(timesNs, 0.5) / 1e6, percentile(timesNs, 0.95) / 1e6);
+      Timber.d("Benchmarked %s", result);
+      return result;
+    } catch (RuntimeException e) {
+      Timber.w("Skipping %s with %d threads: %s", device, numThreads, e.getMessage());
+      return null;
+    } finally {
+      backend.close();
+    }
+  }
+
+  /** Nearest-rank percentile of sorted values. */
+  static long percentile(long[] sorted, double p) {
+    final int rank = (int) Math.ceil(p * sorted.length);
+    return sorted[Math.min(Math.max(rank, 1), sorted.length) - 1];
+  }
+
+  /** Lowest median latency, ties broken by the lower 95th percentile and then fewer threads. */
+  static Configuration selectBest(List<Configuration> configurations) {
+    Configuration best = null;
+    for (Configuration configuration : configurations) {
+      if (best == null
+          || configuration.medianMs < best.medianMs
+          || (configuration.medianMs == best.medianMs && configuration.p95Ms < best.p95Ms)
+          || (configuration.medianMs == best.medianMs
+              && configuration.p95Ms == best.p95Ms
+              && configuration.numThreads < best.numThreads)) {
+        best = configuration;
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,72 @@
+package org.openbot.tflite;
+
+import java.util.Objects;
+
+/**
+ * How a network encodes an image into its input buffer: the input size, the bytes per channel, the
+ * normalization {@code (value - mean) / std} and, for 8 bit models, the quantization. Networks with
+ * equal specs write identical bytes for the same crop of a frame, so they can share one input
+ * buffer, see {@link PreprocessingCache}.
+ */
+public final class InputSpec {
+
+  final int width;
+  final int height;
+  final int bytesPerChannel;
+  final float mean;
+  final float std;
+  /** Null for float inputs and raw 8 bit pixel values. */
+  final Quantization quantization;
+
+  InputSpec(
+      int width,
+      int height,
+      int bytesPerChannel,
+      float mean,
+      float std,
+      Quantization quantization) {
+    this.width = width;
+    this.height = height;
+    this.bytesPerChannel = bytesPerChannel;
+    this.mean = mean;
+    this.std = std;
+    this.quantization = quantization;
+  }
+
+  /** Size of the input buffer in bytes. */
+  int getNumBytes() {
+    return Network.DIM_BATCH_SIZE * width * height * Network.DIM_PIXEL_SIZE * bytesPerChannel;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof InputSpec)) return false;
+    InputSpec spec = (InputSpec) o;
+    return width == spec.width
+        && height == spec.height
+        && bytesPerChannel == spec.bytesPerChannel
+        && Float.compare(spec.mean, mean) == 0
+        && Float.compare(spec.std, std) == 0
+        && Objects.equals(quantization, spec.quantization);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(width, height, bytesPerChannel, mean, std, quantization);
+  }
+
+  @Override
+  public String toString() {
+    return width
+        + "x"
+        + height
+        + ", "
+        + bytesPerChannel
+        + " bytes, mean="
+        + mean
+        + ", std="
+        + std
+        + (quantization != null ? ", " + quantization : "");
+  }
+}
@@ -0,0 +1,294 @@
+package org.openbot.tflite;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import timber.log.Timber;
+
+/**
+ * Keeps the backends of closed networks around, so that switching back to a recently used model,
+ * device or number of threads does not map the model file and build the interpreter again.
+ *
+ * <p>Backends are cached by model file, device and number of threads. A backend is handed to one
+ * network at a time; closing the network returns it to the cache, where it stays until the memory
+ * budget is exceeded and it is the least recently used one. New backends run one inference on
+ * zero-filled inputs before they are handed out, so that the first frame does not pay for lazy
+ * initialization.
+ *
+ * <p>The GPU delegate must be used and closed on the thread that created it, which differs between
+ * screens, while idle backends are evicted on whichever thread releases a backend or clears the
+ * cache. GPU backends are therefore not cached: they are warmed up like the others, but closing
+ * the network closes them right away on its own thread.
+ */
+public class InterpreterCache implements InferenceBackend.Factory {
+
+  private static class Key {
+    final Model.PATH_TYPE pathType;
+    final String path;
+    final Network.Device device;
+    final int numThreads;
+
+    Key(Model model, Network.Device device, int numThreads) {
+      pathType = model.pathType;
+      path = model.path;
+      this.device = device;
+      this.numThreads = numThreads;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      return numThreads == key.numThreads
+          && pathType == key.pathType
+          && Objects.equals(path, key.path)
+          && device == key.device;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(pathType, path, device, numThreads);
+    }
+
+    @Override
+    public String toString() {
+      return path + " (" + device + ", threads=" + numThreads + ")";
+    }
+  }
+
+  private static class Entry {
+    final Key key;
+    final InferenceBackend backend;
+    final long size;
+
+    Entry(Key key, InferenceBackend backend, long size) {
+      this.key = key;
+      this.backend = backend;
+      this.size = size;
+    }
+  }
+
+  private final InferenceBackend.Factory factory;
+  private long memoryBudget;
+
+  /** Idle backends in access order, the least recently used first. */
+  private final LinkedHashMap<Key, Entry> idle = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long idleSize;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * @param factory Loads the backends, e.g. {@code TfLiteBackend::load}.
+   * @param memoryBudget Estimated bytes the idle backends may take, see {@link #estimateSize}.
+   */
+  public InterpreterCache(InferenceBackend.Factory factory, long memoryBudget) {
+    this.factory = factory;
+    this.memoryBudget = memoryBudget;
+  }
+
+  @Override
+  public InferenceBackend load(
+      Context context, Model model, Network.Device device, int numThreads) throws IOException {
+    final Key key = new Key(model, device, numThreads);
+    final boolean cacheable = device != Network.Device.GPU;
+    if (cacheable) {
+      synchronized (this) {
+        final Entry entry = idle.remove(key);
+        if (entry != null) {
+          idleSize -= entry.size;
+          hits++;
+          Timber.d("Reusing interpreter for %s", key);
+          return new Lease(entry);
+        }
+        misses++;
+      }
+    }
+
+    final InferenceBackend backend = factory.load(context, model, device, numThreads);
+    final long size;
+    try {
+      final DummyTensors tensors = new DummyTensors(backend);
+      tensors.run();
+      size = estimateSize(context, model) + tensors.getSize();
+    } catch (RuntimeException e) {
+      backend.close();
+      throw e;
+    }
+    Timber.d("Loaded interpreter for %s, about %d kB", key, size / 1024);
+    return cacheable ? new Lease(new Entry(key, backend, size)) : backend;
+  }
+
+  /**
+   * Rough memory footprint of a backend: the size of the model file plus its input and output
+   * tensors. Intermediate tensors of the interpreter are not accounted for.
+   */
+  static long estimateSize(Context context, Model model) {
+    if (model.pathType == Model.PATH_TYPE.FILE) {
+      return new File(model.path).length();
+    }
+    if (model.pathType == Model.PATH_TYPE.ASSET && context != null) {
+      try (AssetFileDescriptor fileDescriptor = context.getAssets().openFd(model.path)) {
+        return fileDescriptor.getDeclaredLength();
+      } catch (IOException e) {
+        Timber.w(e, "Could not determine the size of %s", model.path);
+      }
+    }
+    return 0;
+  }
+
+  private void release(Entry entry) {
+    final List<InferenceBackend> evicted = new ArrayList<>();
+    synchronized (this) {
+      if (entry.size > memoryBudget || idle.containsKey(entry.key)) {
+        evicted.add(entry.backend);
+      } else {
+        idle.put(entry.key, entry);
+        idleSize += entry.size;
+        evict(memoryBudget, evicted);
+      }
+    }
+    close(evicted);
+  }
+
+  /** Removes the least recently used idle backends until they fit into the budget. */
+  private void evict(long budget, List<InferenceBackend> evicted) {
+    final Iterator<Map.Entry<Key, Entry>> iterator = idle.entrySet().iterator();
+    while (idleSize > budget && iterator.hasNext()) {
+      final Entry entry = iterator.next().getValue();
+      iterator.remove();
+      idleSize -= entry.size;
+      evictions++;
+      Timber.d("Evicting interpreter for %s", entry.key);
+      evicted.add(entry.backend);
+    }
+  }
+
+  private static void close(List<InferenceBackend> backends) {
+    for (InferenceBackend backend : backends) {
+      backend.close();
+    }
+  }
+
+  public synchronized long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /** Changes the budget, evicting idle backends if they no longer fit. */
+  public void setMemoryBudget(long memoryBudget) {
+    final List<InferenceBackend> evicted = new ArrayList<>();
+    synchronized (this) {
+      this.memoryBudget = memoryBudget;
+      evict(memoryBudget, evicted);
+    }
+    close(evicted);
+  }
+
+  /** Closes all idle backends, e.g. when the system runs low on memory. */
+  public void clear() {
+    final List<InferenceBackend> evicted = new ArrayList<>();
+    synchronized (this) {
+      evict(-1, evicted);
+    }
+    close(evicted);
+  }
+
+  public synchronized int getNumIdle() {
+    return idle.size();
+  }
+
+  /** Estimated bytes taken by the idle backends. */
+  public synchronized long getIdleSize() {
+    return idleSize;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /** The backend handed to a network; closing it returns the backend to the cache. */
+  private class Lease implements InferenceBackend {
+
+    private Entry entry;
+    private final InferenceBackend backend;
+
+    Lease(Entry entry) {
+      this.entry = entry;
+      backend = entry.backend;
+    }
+
+    @Override
+    public int getInputIndex(String name) {
+      return backend.getInputIndex(name);
+    }
+
+    @Override
+    public int getOutputIndex(String name) {
+      return backend.getOutputIndex(name);
+    }
+
+    @Override
+    public int getInputTensorCount() {
+      return backend.getInputTensorCount();
+    }
+
+    @Override
+    public int getOutputTensorCount() {
+      return backend.getOutputTensorCount();
+    }
+
+    @Override
+    public int[] getInputShape(int index) {
+      return backend.getInputShape(index);
+    }
+
+    @Override
+    public int[] getOutputShape(int index) {
+      return backend.getOutputShape(index);
+    }
+
+    @Override
+    public Quantization getInputQuantization(int index) {
+      return backend.getInputQuantization(index);
+    }
+
+    @Override
+    public Quantization getOutputQuantization(int index) {
+      return backend.getOutputQuantization(index);
+    }
+
+    @Override
+    public void run(Object[] inputs, Map<Integer, Object> outputs) {
+      if (entry == null) {
+        throw new IllegalStateException("The backend has been closed.");
+      }
+      backend.run(inputs, outputs);
+    }
+
+    @Override
+    public void close() {
+      if (entry != null) {
+        final Entry released = entry;
+        entry = null;
+        release(released);
+      }
+    }
+  }
+}
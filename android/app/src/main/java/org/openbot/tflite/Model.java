@@ -25,6 +25,7 @@ public class Model {
 
   public enum CLASS {
     AUTOPILOT_F,
+    AUTOPILOT_Q,
     MOBILENETV1_1_0_Q,
     MOBILENETV3_S_Q,
     YOLOV4,
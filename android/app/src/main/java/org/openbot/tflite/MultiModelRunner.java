@@ -0,0 +1,288 @@
+package org.openbot.tflite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import timber.log.Timber;
+
+/**
+ * Runs one camera frame through a primary network, e.g. the driving policy, and any number of
+ * secondary networks, e.g. an obstacle detector as a safety layer, at the same time.
+ *
+ * <p>The primary network runs on the calling thread, each secondary network on a thread of its
+ * own, so that every interpreter stays on one thread. {@link #run} waits for the primary result and
+ * for the secondary results until the deadline, counted from the start of the frame; secondary
+ * results that arrive later are discarded and counted as missed. The primary result is never held
+ * back beyond the deadline by a slow secondary network.
+ *
+ * <p>A secondary network that is still busy with an earlier frame skips new frames, so that its
+ * input buffer is not overwritten while it is read. The runner fits into an {@link
+ * InferencePipeline} as its network, with {@link #preprocess} as the preprocessing and {@link #run}
+ * as the inference stage.
+ *
+ * @param <P> The primary network.
+ * @param <T> The result of the primary network.
+ */
+public class MultiModelRunner<P extends Network, T> {
+
+  /** Runs a network on the input buffer {@code index}. */
+  public interface Inference<N, R> {
+    R run(N network, int index, long frameId);
+  }
+
+  /** Writes a frame into the input buffer {@code index} of a network. */
+  public interface Preprocessor {
+    void preprocess(Network network, int index);
+  }
+
+  /** Marks results that arrived after the deadline. */
+  private static final Object LATE = new Object();
+
+  /** Weight of the newest sample in the exponential moving averages of the inference times. */
+  private static final double SMOOTHING = 0.1;
+
+  /** A secondary network with its thread. */
+  public static class Lane<N extends Network, R> {
+    private final int id;
+    private final String name;
+    private final N network;
+    private final Inference<N, R> inference;
+    private final ExecutorService executor;
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private boolean[] prepared = new boolean[1];
+
+    private volatile double averageTimeMs;
+    private volatile long completedFrames;
+    private volatile long missedFrames;
+    // Counted by the preprocessing and the inference thread.
+    private final AtomicLong skippedFrames = new AtomicLong();
+
+    Lane(int id, String name, N network, Inference<N, R> inference) {
+      this.id = id;
+      this.name = name;
+      this.network = network;
+      this.inference = inference;
+      executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "inference-" + name));
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public N getNetwork() {
+      return network;
+    }
+
+    /** Returns the result of this network for a frame, null if it was skipped or too late. */
+    @SuppressWarnings("unchecked")
+    public R getResult(Results<?> results) {
+      return (R) results.secondaryResults[id];
+    }
+
+    private void preprocess(int index, Preprocessor preprocessor) {
+      prepared[index] = !busy.get();
+      if (prepared[index]) {
+        preprocessor.preprocess(network, index);
+      } else {
+        skippedFrames.incrementAndGet();
+      }
+    }
+
+    /** Returns false if the network is still busy or did not get the frame. */
+    private boolean dispatch(
+        int index, long frameId, AtomicReferenceArray<Object> slots, CountDownLatch done) {
+      if (!prepared[index]) {
+        return false;
+      }
+      if (!busy.compareAndSet(false, true)) {
+        skippedFrames.incrementAndGet();
+        return false;
+      }
+      try {
+        executor.execute(
+            () -> {
+              final long startTime = System.nanoTime();
+              try {
+                final R result = inference.run(network, index, frameId);
+                completedFrames++;
+                if (!slots.compareAndSet(id, null, result)) {
+                  missedFrames++;
+                }
+              } catch (RuntimeException e) {
+                Timber.e(e, "Inference of %s failed.", name);
+              } finally {
+                averageTimeMs = smooth(averageTimeMs, (System.nanoTime() - startTime) / 1e6);
+                busy.set(false);
+                done.countDown();
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        // The runner has been closed.
+        busy.set(false);
+        return false;
+      }
+      return true;
+    }
+
+    /** Moving average of the inference time, including the frames that missed the deadline. */
+    public double getAverageTimeMs() {
+      return averageTimeMs;
+    }
+
+    /** Frames this network was run on, in time or not. */
+    public long getCompletedFrames() {
+      return completedFrames;
+    }
+
+    /** Frames whose result arrived after the deadline. */
+    public long getMissedFrames() {
+      return missedFrames;
+    }
+
+    /** Frames this network did not get because it was still busy. */
+    public long getSkippedFrames() {
+      return skippedFrames.get();
+    }
+  }
+
+  /** The results of one frame. */
+  public static class Results<T> {
+    private final long frameId;
+    private final T primaryResult;
+    private final Object[] secondaryResults;
+    private final long durationNs;
+
+    Results(long frameId, T primaryResult, Object[] secondaryResults, long durationNs) {
+      this.frameId = frameId;
+      this.primaryResult = primaryResult;
+      this.secondaryResults = secondaryResults;
+      this.durationNs = durationNs;
+    }
+
+    public long getFrameId() {
+      return frameId;
+    }
+
+    public T getPrimaryResult() {
+      return primaryResult;
+    }
+
+    /** Time from the start of the frame until the results were joined. */
+    public double getDurationMs() {
+      return durationNs / 1e6;
+    }
+  }
+
+  private final P primary;
+  private final Inference<P, T> primaryInference;
+  private final long deadlineNs;
+  private final List<Lane<?, ?>> lanes = new ArrayList<>();
+  private boolean closed;
+
+  /**
+   * @param primary The network whose result is always waited for.
+   * @param primaryInference Runs the primary network on the calling thread.
+   * @param deadline Time after the start of a frame until which secondary results are waited for.
+   */
+  public MultiModelRunner(
+      P primary, Inference<P, T> primaryInference, long deadline, TimeUnit unit) {
+    this.primary = primary;
+    this.primaryInference = primaryInference;
+    deadlineNs = unit.toNanos(deadline);
+  }
+
+  /** Adds a secondary network, which gets a thread of its own named after it. */
+  public synchronized <N extends Network, R> Lane<N, R> addModel(
+      String name, N network, Inference<N, R> inference) {
+    if (closed) {
+      throw new IllegalStateException("The runner has been closed.");
+    }
+    final Lane<N, R> lane = new Lane<>(lanes.size(), name, network, inference);
+    lane.prepared = new boolean[primary.getNumInputBuffers()];
+    network.setNumInputBuffers(primary.getNumInputBuffers());
+    lanes.add(lane);
+    return lane;
+  }
+
+  public P getPrimary() {
+    return primary;
+  }
+
+  public synchronized List<Lane<?, ?>> getLanes() {
+    return new ArrayList<>(lanes);
+  }
+
+  /** Sets the number of input buffers of all networks, see {@link Network#setNumInputBuffers}. */
+  public synchronized void setNumInputBuffers(int numBuffers) {
+    primary.setNumInputBuffers(numBuffers);
+    for (Lane<?, ?> lane : lanes) {
+      lane.network.setNumInputBuffers(numBuffers);
+      lane.prepared = new boolean[numBuffers];
+    }
+  }
+
+  /**
+   * Writes a frame into the input buffer {@code index} of every network that is not busy. Networks
+   * with equal inputs can share the conversion through a {@link PreprocessingCache}.
+   */
+  public synchronized void preprocess(int index, Preprocessor preprocessor) {
+    preprocessor.preprocess(primary, index);
+    for (Lane<?, ?> lane : lanes) {
+      lane.preprocess(index, preprocessor);
+    }
+  }
+
+  /**
+   * Runs all networks on the input buffer {@code index} and returns once the primary network is
+   * done and either all secondary networks are done or the deadline has passed.
+   */
+  public Results<T> run(int index, long frameId) {
+    final long startTime = System.nanoTime();
+    final List<Lane<?, ?>> lanes = getLanes();
+    final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<>(lanes.size());
+    final CountDownLatch done = new CountDownLatch(lanes.size());
+    for (Lane<?, ?> lane : lanes) {
+      if (!lane.dispatch(index, frameId, slots, done)) {
+        done.countDown();
+      }
+    }
+
+    final T primaryResult = primaryInference.run(primary, index, frameId);
+
+    final long remainingNs = startTime + deadlineNs - System.nanoTime();
+    try {
+      if (remainingNs > 0) {
+        done.await(remainingNs, TimeUnit.NANOSECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    final Object[] secondaryResults = new Object[lanes.size()];
+    for (int i = 0; i < secondaryResults.length; i++) {
+      // Results that arrive from now on are too late.
+      final Object result = slots.getAndSet(i, LATE);
+      secondaryResults[i] = result != LATE ? result : null;
+    }
+    return new Results<>(frameId, primaryResult, secondaryResults, System.nanoTime() - startTime);
+  }
+
+  private static double smooth(double average, double value) {
+    return average == 0 ? value : average + SMOOTHING * (value - average);
+  }
+
+  /** Stops the threads of the secondary networks; the networks themselves are not closed. */
+  public synchronized void close() {
+    closed = true;
+    for (Lane<?, ?> lane : lanes) {
+      lane.executor.shutdown();
+    }
+  }
+}
@@ -2,11 +2,12 @@
 
 package org.openbot.tflite;
 
-import android.app.Activity;
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
 import android.os.SystemClock;
 import android.os.Trace;
+import android.util.Log;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -23,7 +24,8 @@ public class Navigation extends Network {
   /**
    * Creates a autopilot with the provided configuration.
    *
-   * @param activity The current Activity.
+   * @param backendFactory Loads the model, e.g. the interpreter cache of the app.
+   * @param context The context to load the model from.
    * @param model The model to use for classification.
    * @param device The device to use for classification.
    * @param numThreads The number of threads to use for classification.
@@ -36,26 +38,55 @@ public class Navigation extends Network {
   private int goalIndex;
   private int imgIndex;
 
+  /** Preallocated inputs and outputs, so that the inference loop does not allocate. */
+  private Object[] inputArray;
+
+  private final ControlOutput controlOutput = new ControlOutput();
+
   /** Initializes a {@code Autopilot}. */
-  public Navigation(Activity activity, Model model, Device device, int numThreads)
+  public Navigation(
+      InferenceBackend.Factory backendFactory,
+      Context context,
+      Model model,
+      Device device,
+      int numThreads)
       throws IOException, IllegalArgumentException {
-    super(activity, model, device, numThreads);
+    this(model, backendFactory.load(context, model, device, numThreads));
+  }
+
+  /** Initializes a navigation policy that runs on the given backend. */
+  public Navigation(Model model, InferenceBackend backend) throws IllegalArgumentException {
+    super(model, backend);
+    setInputNormalization(IMAGE_MEAN, IMAGE_STD, null);
+    // The policy was trained on frames that were scaled down with bitmap filtering.
+    setBilinearSampling(true);
 
-    goalIndex = tflite.getInputIndex("serving_default_goal_input:0");
-    imgIndex = tflite.getInputIndex("serving_default_img_input:0");
+    goalIndex = backend.getInputIndex("serving_default_goal_input:0");
+    imgIndex = backend.getInputIndex("serving_default_img_input:0");
 
     if (!Arrays.equals(
-        tflite.getInputTensor(imgIndex).shape(),
-        new int[] {1, getImageSizeY(), getImageSizeX(), 3})) {
+        backend.getInputShape(imgIndex), new int[] {1, getImageSizeY(), getImageSizeX(), 3})) {
       throw new IllegalArgumentException("Invalid tensor dimensions");
     }
 
     goalBuffer = ByteBuffer.allocateDirect(3 * 4);
     goalBuffer.order(ByteOrder.nativeOrder());
 
+    if (goalIndex == 0) {
+      inputArray = new Object[] {goalBuffer, imgData};
+    } else {
+      inputArray = new Object[] {imgData, goalBuffer};
+    }
+    outputMap.put(0, controlOutput.tensor);
+
     Timber.d("Created a tflite navigation policy.");
   }
 
+  @Override
+  protected void onInputBufferChanged() {
+    inputArray[goalIndex == 0 ? 1 : 0] = imgData;
+  }
+
   private void convertGoalToByteBuffer(float goalDistance, float goalSin, float goalCos) {
     if (goalBuffer == null) {
       return;
@@ -72,28 +103,38 @@ public class Navigation extends Network {
     Trace.beginSection("recognizeImage");
     Trace.beginSection("preprocessBitmap");
     convertBitmapToByteBuffer(bitmap);
-    convertGoalToByteBuffer(goalDistance, goalSin, goalCos);
     Trace.endSection(); // preprocessBitmap
+    Control control = runInference(goalDistance, goalSin, goalCos);
+    Trace.endSection(); // "recognizeImage"
+    return control;
+  }
+
+  /**
+   * Runs the policy on an image that has already been written into {@code imgData}, e.g. by
+   * {@link #convertYuvToByteBuffer}.
+   */
+  public Control recognizePreprocessedImage(
+      final float goalDistance, final float goalSin, final float goalCos) {
+    Trace.beginSection("recognizeImage");
+    Control control = runInference(goalDistance, goalSin, goalCos);
+    Trace.endSection(); // "recognizeImage"
+    return control;
+  }
+
+  private Control runInference(final float goalDistance, final float goalSin, final float goalCos) {
+    convertGoalToByteBuffer(goalDistance, goalSin, goalCos);
 
     // Run the inference call.
     Trace.beginSection("runInference");
     long startTime = SystemClock.elapsedRealtime();
-    Object[] inputArray;
-    if (goalIndex == 0) {
-      inputArray = new Object[] {goalBuffer, imgData};
-    } else {
-      inputArray = new Object[] {imgData, goalBuffer};
-    }
-
-    float[][] predicted_ctrl = new float[1][2];
-    outputMap.put(0, predicted_ctrl);
-    tflite.runForMultipleInputsOutputs(inputArray, outputMap);
+    backend.run(inputArray, outputMap);
     long endTime = SystemClock.elapsedRealtime();
     Trace.endSection();
-    Timber.v("Timecost to run model inference: %s", (endTime - startTime));
+    if (LOGGER.checkLoggable(Log.VERBOSE)) {
+      LOGGER.v("Timecost to run model inference: " + (endTime - startTime));
+    }
 
-    Trace.endSection(); // "recognizeImage"
-    return new Control(predicted_ctrl[0][0], predicted_ctrl[0][1]);
+    return controlOutput.toControl();
   }
 
   @Override
@@ -102,10 +143,10 @@ public class Navigation extends Network {
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+  protected void addPixelValue(ByteBuffer buffer, int pixelValue) {
+    buffer.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+    buffer.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+    buffer.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
   }
 
   @Override
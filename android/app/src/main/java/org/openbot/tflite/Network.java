@@ -17,24 +17,21 @@ limitations under the License.
 
 package org.openbot.tflite;
 
-import android.app.Activity;
-import android.content.res.AssetFileDescriptor;
+import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.os.SystemClock;
+import android.util.Log;
 import android.util.Size;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
+import org.openbot.env.ImageUtils;
 import org.openbot.env.Logger;
-import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.gpu.GpuDelegate;
+import org.openbot.env.YuvFrame;
 
 public abstract class Network {
 
@@ -57,77 +54,205 @@ public abstract class Network {
   /** Preallocated buffers for storing image data in. */
   protected final int[] intValues;
 
-  /** Options for configuring the Interpreter. */
-  protected final Interpreter.Options tfliteOptions = new Interpreter.Options();
-
-  /** Optional GPU delegate for accleration. */
-  protected GpuDelegate gpuDelegate = null;
-
-  /** An instance of the driver class to run model inference with Tensorflow Lite. */
-  protected Interpreter tflite;
+  /** The backend that runs model inference. */
+  protected InferenceBackend backend;
 
   /** A ByteBuffer to hold image data, to be feed into Tensorflow Lite as inputs. */
   protected ByteBuffer imgData = null;
-  /** A HashMap to hold output data, to be feed into Tensorflow Lite as outputs. */
-  protected Map<Integer, Object> outputMap = new HashMap<>();
 
-  /** Initializes a {@code Network}. */
-  protected Network(Activity activity, Model model, Device device, int numThreads)
+  /** Input buffers that can be written while another one is used for inference. */
+  private ByteBuffer[] inputBuffers;
+  /** Buffers shared with other networks that replace the input buffer at the same index. */
+  private PreprocessingCache.Input[] sharedInputs;
+  private int selectedIndex;
+  /** Null if the subclass did not declare its normalization. */
+  private InputSpec inputSpec;
+
+  /** A map to hold output data, to be feed into Tensorflow Lite as outputs. */
+  protected Map<Integer, Object> outputMap;
+
+  /** Offsets into the Y and UV planes for every input pixel, used by the fused YUV path. */
+  private int[] yIndices;
+
+  private int[] uvIndices;
+  /** Whether the fused YUV path interpolates between four pixels instead of taking the nearest. */
+  private boolean bilinearSampling;
+  /** Horizontal and vertical weight of the second neighbours of every input pixel. */
+  private float[] sampleWeights;
+  private final Matrix yuvTransform = new Matrix();
+  private int yuvWidth;
+  private int yuvHeight;
+  private int yuvRowStride;
+  private int yuvUvRowStride;
+  private int yuvUvPixelStride;
+
+  /** Initializes a {@code Network} on a backend loaded by {@code backendFactory}. */
+  protected Network(
+      InferenceBackend.Factory backendFactory,
+      Context context,
+      Model model,
+      Device device,
+      int numThreads)
       throws IOException {
+    this(model, backendFactory.load(context, model, device, numThreads));
+  }
 
+  /** Initializes a {@code Network} that runs on the given backend. */
+  protected Network(Model model, InferenceBackend backend) {
     imageSize = model.getInputSize();
     intValues = new int[getImageSizeX() * getImageSizeY()];
 
-    switch (device) {
-      case NNAPI:
-        tfliteOptions.setUseNNAPI(true);
-        break;
-      case GPU:
-        gpuDelegate = new GpuDelegate();
-        tfliteOptions.addDelegate(gpuDelegate);
-        break;
-      case CPU:
-        break;
-    }
-    tfliteOptions.setNumThreads(numThreads);
-
-    if (model.pathType == Model.PATH_TYPE.FILE) {
-      File modelFile = new File(model.path);
-      tflite = new Interpreter(modelFile, tfliteOptions);
-    } else if (model.pathType == Model.PATH_TYPE.ASSET) {
-      MappedByteBuffer tfliteModel = loadModelFile(activity, model);
-      tflite = new Interpreter(tfliteModel, tfliteOptions);
-    } else {
-      throw (new IOException("No model file specified!"));
-    }
+    this.backend = backend;
+    outputMap = new OutputMap(backend.getOutputTensorCount());
+
+    imgData = allocateInputBuffer();
+    inputBuffers = new ByteBuffer[] {imgData};
+    sharedInputs = new PreprocessingCache.Input[1];
+    LOGGER.d("Created a Tensorflow Lite Network.");
+  }
 
-    imgData =
+  /**
+   * Declares how {@link #addPixelValue} normalizes the channel values, which allows the input to be
+   * shared with other networks through a {@link PreprocessingCache}.
+   *
+   * @param quantization Quantization of the input if it is applied, null otherwise.
+   */
+  protected void setInputNormalization(float mean, float std, Quantization quantization) {
+    inputSpec =
+        new InputSpec(
+            getImageSizeX(), getImageSizeY(), getNumBytesPerChannel(), mean, std, quantization);
+  }
+
+  /** Returns null if the input of this network cannot be shared. */
+  public InputSpec getInputSpec() {
+    return bilinearSampling ? null : inputSpec;
+  }
+
+  /**
+   * Lets the fused YUV path interpolate bilinearly, like a bitmap scaled with filtering, for
+   * networks that were trained on such images. The input of such a network is not shared.
+   */
+  protected void setBilinearSampling(boolean bilinearSampling) {
+    this.bilinearSampling = bilinearSampling;
+    yIndices = null;
+  }
+
+  private ByteBuffer allocateInputBuffer() {
+    ByteBuffer buffer =
         ByteBuffer.allocateDirect(
             DIM_BATCH_SIZE
                 * getImageSizeX()
                 * getImageSizeY()
                 * DIM_PIXEL_SIZE
                 * getNumBytesPerChannel());
-    imgData.order(ByteOrder.nativeOrder());
-    LOGGER.d("Created a Tensorflow Lite Network.");
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+
+  /**
+   * Sets the number of input buffers. With more than one buffer, the next frame can be written
+   * with {@link #convertYuvToByteBuffer(YuvFrame, Matrix, int)} on one thread while inference runs
+   * on the buffer chosen by {@link #selectInputBuffer} on another.
+   */
+  public void setNumInputBuffers(int numBuffers) {
+    if (numBuffers < 1) {
+      throw new IllegalArgumentException("At least one input buffer is required: " + numBuffers);
+    }
+    final ByteBuffer[] buffers = new ByteBuffer[numBuffers];
+    for (int i = 0; i < numBuffers; i++) {
+      buffers[i] = i < inputBuffers.length ? inputBuffers[i] : allocateInputBuffer();
+    }
+    for (int i = numBuffers; i < sharedInputs.length; i++) {
+      releaseSharedInput(i);
+    }
+    inputBuffers = buffers;
+    sharedInputs = Arrays.copyOf(sharedInputs, numBuffers);
+    selectInputBuffer(0);
   }
 
-  /** Memory-map the model file in Assets. */
-  protected MappedByteBuffer loadModelFile(Activity activity, Model model) throws IOException {
-    AssetFileDescriptor fileDescriptor = activity.getAssets().openFd(model.path);
-    FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-    FileChannel fileChannel = inputStream.getChannel();
-    long startOffset = fileDescriptor.getStartOffset();
-    long declaredLength = fileDescriptor.getDeclaredLength();
-    return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+  public int getNumInputBuffers() {
+    return inputBuffers.length;
   }
 
+  /** Makes the given input buffer the one used by the next inference. */
+  public void selectInputBuffer(int index) {
+    selectedIndex = index;
+    final ByteBuffer buffer =
+        sharedInputs[index] != null ? sharedInputs[index].getBuffer() : inputBuffers[index];
+    if (imgData != buffer) {
+      imgData = buffer;
+      onInputBufferChanged();
+    }
+  }
+
+  /**
+   * Makes a frame converted by {@code cache} the given input buffer, until the next frame is
+   * written into it. The conversion is shared with other networks with the same {@link InputSpec},
+   * so the network must not write into the buffer, which is read-only.
+   */
+  public void convertYuvToByteBuffer(
+      YuvFrame frame,
+      Matrix frameToCropTransform,
+      int index,
+      PreprocessingCache cache,
+      long frameId) {
+    if (getInputSpec() == null) {
+      convertYuvToByteBuffer(frame, frameToCropTransform, index);
+      return;
+    }
+    final PreprocessingCache.Input input =
+        cache.acquire(frameId, this, frame, frameToCropTransform);
+    releaseSharedInput(index);
+    sharedInputs[index] = input;
+  }
+
+  /**
+   * Like {@link #convertYuvToByteBuffer(YuvFrame, Matrix, int, PreprocessingCache, long)} for a
+   * frame that was cropped into {@code croppedBitmap} with {@code frameToCropTransform}.
+   */
+  public void convertBitmapToByteBuffer(
+      Bitmap croppedBitmap,
+      Matrix frameToCropTransform,
+      int index,
+      PreprocessingCache cache,
+      long frameId) {
+    if (getInputSpec() == null) {
+      convertBitmapToByteBuffer(croppedBitmap, index);
+      return;
+    }
+    final PreprocessingCache.Input input =
+        cache.acquire(frameId, this, croppedBitmap, frameToCropTransform);
+    releaseSharedInput(index);
+    sharedInputs[index] = input;
+  }
+
+  private void releaseSharedInput(int index) {
+    if (sharedInputs[index] != null) {
+      sharedInputs[index].close();
+      sharedInputs[index] = null;
+    }
+  }
+
+  /** Called after {@link #imgData} was switched to another input buffer. */
+  protected void onInputBufferChanged() {}
+
   /** Writes Image data into a {@code ByteBuffer}. */
   protected void convertBitmapToByteBuffer(Bitmap bitmap) {
-    if (imgData == null) {
+    convertBitmapToByteBuffer(bitmap, selectedIndex);
+    selectInputBuffer(selectedIndex);
+  }
+
+  /** Writes Image data into the given input buffer, see {@link #setNumInputBuffers}. */
+  public void convertBitmapToByteBuffer(Bitmap bitmap, int index) {
+    releaseSharedInput(index);
+    convertBitmapToByteBuffer(bitmap, inputBuffers[index]);
+  }
+
+  void convertBitmapToByteBuffer(Bitmap bitmap, ByteBuffer buffer) {
+    if (buffer == null) {
       return;
     }
-    imgData.rewind();
+    buffer.rewind();
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
     // Convert the image to floating point.
     int pixel = 0;
@@ -135,22 +260,191 @@ public abstract class Network {
     for (int i = 0; i < getImageSizeX(); ++i) {
       for (int j = 0; j < getImageSizeY(); ++j) {
         final int val = intValues[pixel++];
-        addPixelValue(val);
+        addPixelValue(buffer, val);
       }
     }
     long endTime = SystemClock.elapsedRealtime();
-    LOGGER.v("Timecost to put values into ByteBuffer: " + (endTime - startTime));
+    if (LOGGER.checkLoggable(Log.VERBOSE)) {
+      LOGGER.v("Timecost to put values into ByteBuffer: " + (endTime - startTime));
+    }
+  }
+
+  /**
+   * Writes a YUV_420_888 frame directly into {@code imgData}. The crop, scale and rotation of
+   * {@code frameToCropTransform} are applied with nearest neighbour sampling like drawing the frame
+   * into a cropped bitmap, or bilinear sampling if enabled, but without the intermediate ARGB
+   * bitmaps and pixel copies.
+   */
+  public void convertYuvToByteBuffer(YuvFrame frame, Matrix frameToCropTransform) {
+    convertYuvToByteBuffer(frame, frameToCropTransform, selectedIndex);
+    selectInputBuffer(selectedIndex);
+  }
+
+  /** Writes a YUV_420_888 frame into the given input buffer, see {@link #setNumInputBuffers}. */
+  public void convertYuvToByteBuffer(YuvFrame frame, Matrix frameToCropTransform, int index) {
+    releaseSharedInput(index);
+    convertYuvToByteBuffer(frame, frameToCropTransform, inputBuffers[index]);
+  }
+
+  void convertYuvToByteBuffer(YuvFrame frame, Matrix frameToCropTransform, ByteBuffer buffer) {
+    if (buffer == null) {
+      return;
+    }
+    if (!isYuvLayoutCached(frame, frameToCropTransform)) {
+      computeYuvIndices(frame, frameToCropTransform);
+    }
+    buffer.rewind();
+    final ByteBuffer yPlane = frame.getYPlane();
+    final ByteBuffer uPlane = frame.getUPlane();
+    final ByteBuffer vPlane = frame.getVPlane();
+    long startTime = SystemClock.elapsedRealtime();
+    if (bilinearSampling) {
+      addBilinearPixelValues(buffer, yPlane, uPlane, vPlane);
+    } else {
+      addNearestPixelValues(buffer, yPlane, uPlane, vPlane);
+    }
+    long endTime = SystemClock.elapsedRealtime();
+    if (LOGGER.checkLoggable(Log.VERBOSE)) {
+      LOGGER.v("Timecost to put YUV values into ByteBuffer: " + (endTime - startTime));
+    }
+  }
+
+  private void addNearestPixelValues(
+      ByteBuffer buffer, ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane) {
+    for (int pixel = 0; pixel < yIndices.length; ++pixel) {
+      final int yIndex = yIndices[pixel];
+      if (yIndex < 0) {
+        // Outside of the frame, same as the untouched pixels of a cropped bitmap.
+        addPixelValue(buffer, 0);
+        continue;
+      }
+      final int uvIndex = uvIndices[pixel];
+      addPixelValue(buffer, yuvToRgb(yPlane, uPlane, vPlane, yIndex, uvIndex));
+    }
+  }
+
+  /** Interpolates the four neighbours that were mapped for every input pixel. */
+  private void addBilinearPixelValues(
+      ByteBuffer buffer, ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane) {
+    for (int pixel = 0, sample = 0; sample < yIndices.length; ++pixel, sample += 4) {
+      if (yIndices[sample] < 0) {
+        addPixelValue(buffer, 0);
+        continue;
+      }
+      final int topLeft = yuvToRgb(yPlane, uPlane, vPlane, yIndices[sample], uvIndices[sample]);
+      final int topRight =
+          yuvToRgb(yPlane, uPlane, vPlane, yIndices[sample + 1], uvIndices[sample + 1]);
+      final int bottomLeft =
+          yuvToRgb(yPlane, uPlane, vPlane, yIndices[sample + 2], uvIndices[sample + 2]);
+      final int bottomRight =
+          yuvToRgb(yPlane, uPlane, vPlane, yIndices[sample + 3], uvIndices[sample + 3]);
+      final float wx = sampleWeights[2 * pixel];
+      final float wy = sampleWeights[2 * pixel + 1];
+      int rgb = 0xff000000;
+      for (int shift = 0; shift <= 16; shift += 8) {
+        final float top = lerp(channel(topLeft, shift), channel(topRight, shift), wx);
+        final float bottom = lerp(channel(bottomLeft, shift), channel(bottomRight, shift), wx);
+        rgb |= Math.round(lerp(top, bottom, wy)) << shift;
+      }
+      addPixelValue(buffer, rgb);
+    }
+  }
+
+  private static int yuvToRgb(
+      ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane, int yIndex, int uvIndex) {
+    return ImageUtils.YUV2RGB(
+        0xff & yPlane.get(yIndex), 0xff & uPlane.get(uvIndex), 0xff & vPlane.get(uvIndex));
+  }
+
+  private static int channel(int rgb, int shift) {
+    return (rgb >> shift) & 0xff;
+  }
+
+  private static float lerp(float from, float to, float weight) {
+    return from + (to - from) * weight;
+  }
+
+  private boolean isYuvLayoutCached(YuvFrame frame, Matrix frameToCropTransform) {
+    return yIndices != null
+        && yuvWidth == frame.getWidth()
+        && yuvHeight == frame.getHeight()
+        && yuvRowStride == frame.getYRowStride()
+        && yuvUvRowStride == frame.getUvRowStride()
+        && yuvUvPixelStride == frame.getUvPixelStride()
+        && yuvTransform.equals(frameToCropTransform);
+  }
+
+  /** Maps every input pixel back into the frame once, so that each frame is a plain gather. */
+  private void computeYuvIndices(YuvFrame frame, Matrix frameToCropTransform) {
+    final Matrix cropToFrameTransform = new Matrix();
+    frameToCropTransform.invert(cropToFrameTransform);
+
+    final int numPixels = getImageSizeX() * getImageSizeY();
+    final int samplesPerPixel = bilinearSampling ? 4 : 1;
+    yIndices = new int[numPixels * samplesPerPixel];
+    uvIndices = new int[numPixels * samplesPerPixel];
+    sampleWeights = bilinearSampling ? new float[numPixels * 2] : null;
+    final float[] point = new float[2];
+    int pixel = 0;
+    for (int row = 0; row < getImageSizeY(); ++row) {
+      for (int col = 0; col < getImageSizeX(); ++col) {
+        point[0] = col + 0.5f;
+        point[1] = row + 0.5f;
+        cropToFrameTransform.mapPoints(point);
+        final int sample = pixel * samplesPerPixel;
+        final int x = (int) Math.floor(point[0]);
+        final int y = (int) Math.floor(point[1]);
+        if (x < 0 || y < 0 || x >= frame.getWidth() || y >= frame.getHeight()) {
+          Arrays.fill(yIndices, sample, sample + samplesPerPixel, -1);
+          Arrays.fill(uvIndices, sample, sample + samplesPerPixel, -1);
+        } else if (!bilinearSampling) {
+          setSample(frame, sample, x, y);
+        } else {
+          // Pixel centers are at half coordinates; neighbours beyond the edge repeat it.
+          final float sampleX = point[0] - 0.5f;
+          final float sampleY = point[1] - 0.5f;
+          final int left = (int) Math.floor(sampleX);
+          final int top = (int) Math.floor(sampleY);
+          sampleWeights[2 * pixel] = sampleX - left;
+          sampleWeights[2 * pixel + 1] = sampleY - top;
+          final int x0 = clamp(left, frame.getWidth());
+          final int x1 = clamp(left + 1, frame.getWidth());
+          final int y0 = clamp(top, frame.getHeight());
+          final int y1 = clamp(top + 1, frame.getHeight());
+          setSample(frame, sample, x0, y0);
+          setSample(frame, sample + 1, x1, y0);
+          setSample(frame, sample + 2, x0, y1);
+          setSample(frame, sample + 3, x1, y1);
+        }
+        pixel++;
+      }
+    }
+
+    yuvTransform.set(frameToCropTransform);
+    yuvWidth = frame.getWidth();
+    yuvHeight = frame.getHeight();
+    yuvRowStride = frame.getYRowStride();
+    yuvUvRowStride = frame.getUvRowStride();
+    yuvUvPixelStride = frame.getUvPixelStride();
+  }
+
+  private void setSample(YuvFrame frame, int sample, int x, int y) {
+    yIndices[sample] = y * frame.getYRowStride() + x;
+    uvIndices[sample] = (y >> 1) * frame.getUvRowStride() + (x >> 1) * frame.getUvPixelStride();
+  }
+
+  private static int clamp(int value, int size) {
+    return Math.min(Math.max(value, 0), size - 1);
   }
 
-  /** Closes the interpreter and model to release resources. */
+  /** Closes the backend and model to release resources. */
   public void close() {
-    if (tflite != null) {
-      tflite.close();
-      tflite = null;
+    for (int i = 0; i < sharedInputs.length; i++) {
+      releaseSharedInput(i);
     }
-    if (gpuDelegate != null) {
-      gpuDelegate.close();
-      gpuDelegate = null;
+    if (backend != null) {
+      backend.close();
+      backend = null;
     }
   }
 
@@ -182,9 +476,10 @@ public abstract class Network {
   /**
    * Add pixelValue to byteBuffer.
    *
+   * @param buffer
    * @param pixelValue
    */
-  protected abstract void addPixelValue(int pixelValue);
+  protected abstract void addPixelValue(ByteBuffer buffer, int pixelValue);
 
   /**
    * Get boolean that determines if aspect ratio should be preserved when rescaling.
@@ -0,0 +1,340 @@
+package org.openbot.tflite;
+
+/**
+ * Non maximum suppression on {@link Detections}. Candidates are sorted by score once and bucketed
+ * by class in a single pass, boxes are compared directly on the primitive arrays and all work
+ * arrays are reused between calls.
+ *
+ * <p>Besides greedy (hard) suppression, soft-NMS with linear or gaussian score decay is supported
+ * (Bodla et al., "Soft-NMS -- Improving Object Detection With One Line of Code", 2017). The kept
+ * detections are ordered by class and by decreasing score within a class, unless they are capped
+ * with {@link #setMaxDetections}, in which case only the best ones keep their relative order.
+ */
+public class NonMaxSuppression {
+
+  public enum Method {
+    /** Drops every box that overlaps a better box of the same class by the IoU threshold. */
+    HARD,
+    /** Scales the score of overlapping boxes by (1 - IoU) when above the IoU threshold. */
+    LINEAR,
+    /** Scales the score of every box by exp(-IoU^2 / sigma). */
+    GAUSSIAN
+  }
+
+  private float iouThreshold;
+  private Method method = Method.HARD;
+  private float sigma = 0.5f;
+  private float scoreThreshold = 0.001f;
+  private int maxDetections = Integer.MAX_VALUE;
+
+  private int[] order = new int[0];
+  private int[] bucketed = new int[0];
+  private float[] scores = new float[0];
+  private boolean[] removed = new boolean[0];
+  private int[] classStart = new int[1];
+  private int[] classCursor = new int[0];
+  private int[] kept = new int[0];
+  private float[] keptScores = new float[0];
+  private int numKept;
+
+  public NonMaxSuppression(float iouThreshold) {
+    this.iouThreshold = iouThreshold;
+  }
+
+  public float getIouThreshold() {
+    return iouThreshold;
+  }
+
+  public void setIouThreshold(float iouThreshold) {
+    this.iouThreshold = iouThreshold;
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  public void setMethod(Method method) {
+    this.method = method;
+  }
+
+  /** Spread of the gaussian decay, only used by {@link Method#GAUSSIAN}. */
+  public void setSigma(float sigma) {
+    this.sigma = sigma;
+  }
+
+  /** Boxes whose decayed score falls below this value are dropped, only used by soft-NMS. */
+  public void setScoreThreshold(float scoreThreshold) {
+    this.scoreThreshold = scoreThreshold;
+  }
+
+  /** Maximum number of kept detections over all classes (top-K). */
+  public void setMaxDetections(int maxDetections) {
+    this.maxDetections = maxDetections;
+  }
+
+  /**
+   * Runs the suppression. Class ids of the detections must not be negative.
+   *
+   * @return The number of kept detections.
+   */
+  public int run(Detections detections) {
+    final int n = detections.size();
+    ensureCapacity(n);
+    numKept = 0;
+    if (n == 0 || maxDetections <= 0) {
+      return 0;
+    }
+
+    // 1. Sort all candidates by score once.
+    int numClasses = 0;
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+      scores[i] = detections.getScore(i);
+      removed[i] = false;
+      numClasses = Math.max(numClasses, detections.getClassId(i) + 1);
+    }
+    sortByScore(order, n, scores);
+
+    // 2. Bucket by class in one pass; the buckets stay sorted by score.
+    if (classStart.length < numClasses + 1) {
+      classStart = new int[numClasses + 1];
+      classCursor = new int[numClasses];
+    }
+    for (int c = 0; c <= numClasses; c++) {
+      classStart[c] = 0;
+    }
+    for (int i = 0; i < n; i++) {
+      classStart[detections.getClassId(i) + 1]++;
+    }
+    for (int c = 0; c < numClasses; c++) {
+      classStart[c + 1] += classStart[c];
+      classCursor[c] = classStart[c];
+    }
+    for (int i = 0; i < n; i++) {
+      final int index = order[i];
+      bucketed[classCursor[detections.getClassId(index)]++] = index;
+    }
+
+    // 3. Suppress within every class.
+    for (int c = 0; c < numClasses; c++) {
+      if (method == Method.HARD) {
+        suppressHard(detections, classStart[c], classStart[c + 1]);
+      } else {
+        suppressSoft(detections, classStart[c], classStart[c + 1]);
+      }
+    }
+
+    if (numKept > maxDetections) {
+      capKept();
+    }
+    return numKept;
+  }
+
+  public int getNumKept() {
+    return numKept;
+  }
+
+  /** Index into the {@link Detections} of the i-th kept detection. */
+  public int getKept(int i) {
+    return kept[i];
+  }
+
+  /** Score of the i-th kept detection, after decay when using soft-NMS. */
+  public float getKeptScore(int i) {
+    return keptScores[i];
+  }
+
+  private void suppressHard(Detections detections, int from, int to) {
+    for (int i = from; i < to; i++) {
+      final int a = bucketed[i];
+      if (removed[a]) {
+        continue;
+      }
+      keep(a, scores[a]);
+      for (int j = i + 1; j < to; j++) {
+        final int b = bucketed[j];
+        // Written as !(iou < threshold) so that degenerate boxes (NaN) are dropped as before.
+        if (!removed[b] && !(iou(detections, a, b) < iouThreshold)) {
+          removed[b] = true;
+        }
+      }
+    }
+  }
+
+  private void suppressSoft(Detections detections, int from, int to) {
+    for (int i = from; i < to; i++) {
+      final int b = bucketed[i];
+      if (scores[b] < scoreThreshold) {
+        removed[b] = true;
+      }
+    }
+    while (true) {
+      int best = -1;
+      float bestScore = Float.NEGATIVE_INFINITY;
+      for (int i = from; i < to; i++) {
+        final int b = bucketed[i];
+        if (!removed[b] && scores[b] > bestScore) {
+          best = b;
+          bestScore = scores[b];
+        }
+      }
+      if (best < 0) {
+        return;
+      }
+      removed[best] = true;
+      keep(best, bestScore);
+
+      for (int i = from; i < to; i++) {
+        final int b = bucketed[i];
+        if (removed[b]) {
+          continue;
+        }
+        final float iou = iou(detections, best, b);
+        if (method == Method.LINEAR) {
+          if (iou >= iouThreshold) {
+            scores[b] *= 1 - iou;
+          }
+        } else {
+          scores[b] *= (float) Math.exp(-iou * iou / sigma);
+        }
+        if (scores[b] < scoreThreshold) {
+          removed[b] = true;
+        }
+      }
+    }
+  }
+
+  private void keep(int index, float score) {
+    kept[numKept] = index;
+    keptScores[numKept] = score;
+    numKept++;
+  }
+
+  /** Keeps the {@link #maxDetections} best detections in their current order. */
+  private void capKept() {
+    for (int i = 0; i < numKept; i++) {
+      order[i] = i;
+      removed[i] = true;
+    }
+    sortByScore(order, numKept, keptScores);
+    for (int i = 0; i < maxDetections; i++) {
+      removed[order[i]] = false;
+    }
+    int count = 0;
+    for (int i = 0; i < numKept; i++) {
+      if (!removed[i]) {
+        kept[count] = kept[i];
+        keptScores[count] = keptScores[i];
+        count++;
+      }
+    }
+    numKept = count;
+  }
+
+  private void ensureCapacity(int n) {
+    if (order.length < n) {
+      order = new int[n];
+      bucketed = new int[n];
+      scores = new float[n];
+      removed = new boolean[n];
+      kept = new int[n];
+      keptScores = new float[n];
+    }
+  }
+
+  private float iou(Detections detections, int a, int b) {
+    return iou(
+        detections.getLeft(a),
+        detections.getTop(a),
+        detections.getRight(a),
+        detections.getBottom(a),
+        detections.getLeft(b),
+        detections.getTop(b),
+        detections.getRight(b),
+        detections.getBottom(b));
+  }
+
+  /** Intersection over union of two boxes, computed exactly like the former Detector.box_iou. */
+  static float iou(
+      float left1,
+      float top1,
+      float right1,
+      float bottom1,
+      float left2,
+      float top2,
+      float right2,
+      float bottom2) {
+    final float w =
+        overlap((left1 + right1) / 2, right1 - left1, (left2 + right2) / 2, right2 - left2);
+    final float h =
+        overlap((top1 + bottom1) / 2, bottom1 - top1, (top2 + bottom2) / 2, bottom2 - top2);
+    final float intersection = (w < 0 || h < 0) ? 0 : w * h;
+    final float union =
+        (right1 - left1) * (bottom1 - top1) + (right2 - left2) * (bottom2 - top2) - intersection;
+    return intersection / union;
+  }
+
+  private static float overlap(float x1, float w1, float x2, float w2) {
+    final float l1 = x1 - w1 / 2;
+    final float l2 = x2 - w2 / 2;
+    final float left = l1 > l2 ? l1 : l2;
+    final float r1 = x1 + w1 / 2;
+    final float r2 = x2 + w2 / 2;
+    final float right = r1 < r2 ? r1 : r2;
+    return right - left;
+  }
+
+  /** Sorts the first n indices by decreasing key, ties by increasing index. */
+  private static void sortByScore(int[] indices, int n, float[] keys) {
+    quickSort(indices, 0, n - 1, keys);
+  }
+
+  private static boolean before(int a, int b, float[] keys) {
+    return keys[a] > keys[b] || (keys[a] == keys[b] && a < b);
+  }
+
+  private static void quickSort(int[] indices, int lo, int hi, float[] keys) {
+    while (hi - lo > 16) {
+      final int mid = (lo + hi) >>> 1;
+      // Median of three as pivot.
+      if (before(indices[mid], indices[lo], keys)) swap(indices, lo, mid);
+      if (before(indices[hi], indices[lo], keys)) swap(indices, lo, hi);
+      if (before(indices[hi], indices[mid], keys)) swap(indices, mid, hi);
+      final int pivot = indices[mid];
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (before(indices[i], pivot, keys)) i++;
+        while (before(pivot, indices[j], keys)) j--;
+        if (i <= j) {
+          swap(indices, i, j);
+          i++;
+          j--;
+        }
+      }
+      // Recurse into the smaller part to bound the stack depth.
+      if (j - lo < hi - i) {
+        quickSort(indices, lo, j, keys);
+        lo = i;
+      } else {
+        quickSort(indices, i, hi, keys);
+        hi = j;
+      }
+    }
+    for (int i = lo + 1; i <= hi; i++) {
+      final int value = indices[i];
+      int j = i - 1;
+      while (j >= lo && before(value, indices[j], keys)) {
+        indices[j + 1] = indices[j];
+        j--;
+      }
+      indices[j + 1] = value;
+    }
+  }
+
+  private static void swap(int[] array, int i, int j) {
+    final int tmp = array[i];
+    array[i] = array[j];
+    array[j] = tmp;
+  }
+}
@@ -0,0 +1,151 @@
+package org.openbot.tflite;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Output map for {@code Interpreter.runForMultipleInputsOutputs} that stores the output buffers in
+ * a plain array indexed by output tensor index. Entries and the entry iterator are preallocated,
+ * so handing the map to the interpreter on every frame does not create garbage. Not thread-safe,
+ * each network owns its own map.
+ */
+class OutputMap extends AbstractMap<Integer, Object> {
+
+  private final Object[] outputs;
+  private final OutputEntry[] entries;
+  private final EntrySet entrySet = new EntrySet();
+  private final EntryIterator iterator = new EntryIterator();
+  private int size;
+
+  OutputMap(int numOutputs) {
+    outputs = new Object[numOutputs];
+    entries = new OutputEntry[numOutputs];
+    for (int i = 0; i < numOutputs; i++) {
+      entries[i] = new OutputEntry(i);
+    }
+  }
+
+  @Override
+  public Object put(Integer index, Object output) {
+    if (output == null) {
+      throw new IllegalArgumentException("Output buffer must not be null");
+    }
+    Object previous = outputs[index];
+    if (previous == null) {
+      size++;
+    }
+    outputs[index] = output;
+    return previous;
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (!(key instanceof Integer)) {
+      return null;
+    }
+    int index = (Integer) key;
+    return index >= 0 && index < outputs.length ? outputs[index] : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    Object previous = get(key);
+    if (previous != null) {
+      outputs[(Integer) key] = null;
+      size--;
+    }
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < outputs.length; i++) {
+      outputs[i] = null;
+    }
+    size = 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Set<Entry<Integer, Object>> entrySet() {
+    return entrySet;
+  }
+
+  private class OutputEntry implements Entry<Integer, Object> {
+    private final Integer index;
+
+    OutputEntry(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public Integer getKey() {
+      return index;
+    }
+
+    @Override
+    public Object getValue() {
+      return outputs[index];
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      return put(index, value);
+    }
+  }
+
+  private class EntrySet extends AbstractSet<Entry<Integer, Object>> {
+    @Override
+    public Iterator<Entry<Integer, Object>> iterator() {
+      iterator.reset();
+      return iterator;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  private class EntryIterator implements Iterator<Entry<Integer, Object>> {
+    private int next;
+
+    void reset() {
+      next = advance(0);
+    }
+
+    private int advance(int from) {
+      while (from < outputs.length && outputs[from] == null) {
+        from++;
+      }
+      return from;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < outputs.length;
+    }
+
+    @Override
+    public Entry<Integer, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      OutputEntry entry = entries[next];
+      next = advance(next + 1);
+      return entry;
+    }
+  }
+}
@@ -0,0 +1,256 @@
+package org.openbot.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.openbot.env.YuvFrame;
+
+/**
+ * Converts each camera frame once for all networks that need the same input, e.g. a detector and
+ * an autopilot trained on the same resolution and normalization.
+ *
+ * <p>Converted frames are keyed by frame id, {@link InputSpec} and the frame to crop transform,
+ * which includes the crop, scale and rotation. The first network asking for a key converts the
+ * frame into a pooled direct buffer; the others get a read-only view on the same buffer, or wait
+ * until the conversion of the first one is done. A buffer is reused for another frame only after
+ * every {@link Input} handed out for it was closed. Up to {@code maxIdle} converted frames that
+ * nobody holds are kept for late requests, older ones are recycled.
+ *
+ * <p>The cache is thread-safe, the conversions of different keys run in parallel.
+ */
+public class PreprocessingCache {
+
+  /** How the frame is written into a buffer of the size of the spec. */
+  private interface Converter {
+    void convert(ByteBuffer buffer);
+  }
+
+  private static class Key {
+    final long frameId;
+    final InputSpec spec;
+    final float[] transform = new float[9];
+    /** Frames cropped from a bitmap are filtered, so they differ from the fused YUV path. */
+    final boolean fromBitmap;
+
+    Key(long frameId, InputSpec spec, Matrix frameToCropTransform, boolean fromBitmap) {
+      this.frameId = frameId;
+      this.spec = spec;
+      frameToCropTransform.getValues(transform);
+      this.fromBitmap = fromBitmap;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      return frameId == key.frameId
+          && fromBitmap == key.fromBitmap
+          && spec.equals(key.spec)
+          && Arrays.equals(transform, key.transform);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * Long.hashCode(frameId) + spec.hashCode()) + Arrays.hashCode(transform);
+    }
+  }
+
+  private static class Entry {
+    final Key key;
+    final ByteBuffer buffer;
+    int references;
+    boolean converted;
+    boolean failed;
+
+    Entry(Key key, ByteBuffer buffer) {
+      this.key = key;
+      this.buffer = buffer;
+    }
+  }
+
+  /** A converted frame, valid until it is closed. */
+  public class Input implements AutoCloseable {
+    private Entry entry;
+    private final ByteBuffer buffer;
+
+    Input(Entry entry) {
+      this.entry = entry;
+      buffer = entry.buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /** Read-only view on the shared buffer, positioned at the first pixel. */
+    public ByteBuffer getBuffer() {
+      return buffer;
+    }
+
+    @Override
+    public void close() {
+      if (entry != null) {
+        release(entry);
+        entry = null;
+      }
+    }
+  }
+
+  private final int maxIdle;
+
+  /** Converted frames in insertion order, the oldest first. */
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>();
+
+  /** Buffers of recycled frames, reused for frames of the same size. */
+  private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+
+  private int numIdle;
+  private long hits;
+  private long misses;
+
+  /** @param maxIdle Number of converted frames that are kept when nobody holds them. */
+  public PreprocessingCache(int maxIdle) {
+    this.maxIdle = maxIdle;
+  }
+
+  /**
+   * Returns frame {@code frameId} as {@code network} expects it, converting it with {@link
+   * Network#convertYuvToByteBuffer(YuvFrame, Matrix)} unless another network already did.
+   *
+   * @throws IllegalArgumentException If the network does not have an {@link InputSpec}.
+   */
+  public Input acquire(long frameId, Network network, YuvFrame frame, Matrix frameToCropTransform) {
+    return acquire(
+        new Key(frameId, getSpec(network), frameToCropTransform, false),
+        buffer -> network.convertYuvToByteBuffer(frame, frameToCropTransform, buffer));
+  }
+
+  /**
+   * Returns frame {@code frameId} as {@code network} expects it, converting the frame that was
+   * already cropped into {@code croppedBitmap} with {@code frameToCropTransform} unless another
+   * network already did.
+   *
+   * @throws IllegalArgumentException If the network does not have an {@link InputSpec}.
+   */
+  public Input acquire(
+      long frameId, Network network, Bitmap croppedBitmap, Matrix frameToCropTransform) {
+    return acquire(
+        new Key(frameId, getSpec(network), frameToCropTransform, true),
+        buffer -> network.convertBitmapToByteBuffer(croppedBitmap, buffer));
+  }
+
+  private static InputSpec getSpec(Network network) {
+    final InputSpec spec = network.getInputSpec();
+    if (spec == null) {
+      throw new IllegalArgumentException("The input of the network cannot be shared.");
+    }
+    return spec;
+  }
+
+  private Input acquire(Key key, Converter converter) {
+    Entry entry;
+    boolean convert = false;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null) {
+        misses++;
+        entry = new Entry(key, allocate(key.spec));
+        entries.put(key, entry);
+        convert = true;
+      } else {
+        hits++;
+        if (entry.references == 0) numIdle--;
+      }
+      entry.references++;
+    }
+
+    if (convert) {
+      try {
+        converter.convert(entry.buffer);
+        entry.buffer.rewind();
+      } catch (RuntimeException e) {
+        synchronized (this) {
+          entries.remove(key);
+          entry.failed = true;
+          notifyAll();
+        }
+        throw e;
+      }
+      synchronized (this) {
+        entry.converted = true;
+        notifyAll();
+      }
+      return new Input(entry);
+    }
+
+    synchronized (this) {
+      boolean interrupted = false;
+      while (!entry.converted && !entry.failed) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      if (entry.failed) {
+        hits--;
+      }
+    }
+    // Convert it ourselves if the first network failed.
+    return entry.failed ? acquire(key, converter) : new Input(entry);
+  }
+
+  private ByteBuffer allocate(InputSpec spec) {
+    final int numBytes = spec.getNumBytes();
+    final Iterator<ByteBuffer> iterator = freeBuffers.iterator();
+    while (iterator.hasNext()) {
+      final ByteBuffer buffer = iterator.next();
+      if (buffer.capacity() == numBytes) {
+        iterator.remove();
+        buffer.clear();
+        return buffer;
+      }
+    }
+    return ByteBuffer.allocateDirect(numBytes).order(ByteOrder.nativeOrder());
+  }
+
+  private synchronized void release(Entry entry) {
+    if (--entry.references > 0) {
+      return;
+    }
+    numIdle++;
+    // Recycle the oldest frames that nobody holds.
+    final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+    while (numIdle > maxIdle && iterator.hasNext()) {
+      final Entry oldest = iterator.next().getValue();
+      if (oldest.references == 0 && oldest.converted) {
+        iterator.remove();
+        numIdle--;
+        freeBuffers.add(oldest.buffer);
+      }
+    }
+    // Do not hoard buffers of specs that are no longer used.
+    while (freeBuffers.size() > maxIdle + 1) {
+      freeBuffers.poll();
+    }
+  }
+
+  /** Number of converted frames that were requested again by another network. */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /** Number of conversions. */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /** Number of converted frames that are held or kept. */
+  public synchronized int getNumEntries() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,66 @@
+package org.openbot.tflite;
+
+import java.util.Objects;
+
+/**
+ * Affine 8 bit quantization of a tensor, {@code real = scale * (quantized - zeroPoint)}, as used by
+ * uint8 and int8 models.
+ */
+public class Quantization {
+
+  final float scale;
+  final int zeroPoint;
+  /** True for int8, false for uint8 tensors. */
+  final boolean signed;
+
+  public Quantization(float scale, int zeroPoint, boolean signed) {
+    if (!(scale > 0)) {
+      throw new IllegalArgumentException("Invalid quantization scale: " + scale);
+    }
+    this.scale = scale;
+    this.zeroPoint = zeroPoint;
+    this.signed = signed;
+  }
+
+  public byte quantize(float value) {
+    int quantized = Math.round(value / scale) + zeroPoint;
+    final int min = signed ? Byte.MIN_VALUE : 0;
+    final int max = signed ? Byte.MAX_VALUE : 255;
+    quantized = Math.max(min, Math.min(max, quantized));
+    return (byte) quantized;
+  }
+
+  public float dequantize(byte value) {
+    final int quantized = signed ? value : value & 0xFF;
+    return scale * (quantized - zeroPoint);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof Quantization)) return false;
+    Quantization that = (Quantization) o;
+    return Float.compare(that.scale, scale) == 0
+        && zeroPoint == that.zeroPoint
+        && signed == that.signed;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(scale, zeroPoint, signed);
+  }
+
+  @Override
+  public String toString() {
+    return (signed ? "int8" : "uint8") + " (scale=" + scale + ", zeroPoint=" + zeroPoint + ")";
+  }
+
+  /** Lookup table from 8 bit pixel values, normalized by {@code mean} and {@code std}. */
+  byte[] createPixelTable(float mean, float std) {
+    final byte[] table = new byte[256];
+    for (int i = 0; i < 256; i++) {
+      table[i] = quantize((i - mean) / std);
+    }
+    return table;
+  }
+}
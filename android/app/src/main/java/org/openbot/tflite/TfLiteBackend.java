@@ -0,0 +1,140 @@
+package org.openbot.tflite;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.gpu.GpuDelegate;
+
+/** {@link InferenceBackend} running the model with the TensorFlow Lite interpreter. */
+public class TfLiteBackend implements InferenceBackend {
+
+  /** Options for configuring the Interpreter. */
+  private final Interpreter.Options tfliteOptions = new Interpreter.Options();
+
+  /** Optional GPU delegate for acceleration. */
+  private GpuDelegate gpuDelegate = null;
+
+  /** An instance of the driver class to run model inference with Tensorflow Lite. */
+  private Interpreter tflite;
+
+  public static TfLiteBackend load(
+      Context context, Model model, Network.Device device, int numThreads) throws IOException {
+    return new TfLiteBackend(context, model, device, numThreads);
+  }
+
+  private TfLiteBackend(Context context, Model model, Network.Device device, int numThreads)
+      throws IOException {
+    switch (device) {
+      case NNAPI:
+        tfliteOptions.setUseNNAPI(true);
+        break;
+      case GPU:
+        gpuDelegate = new GpuDelegate();
+        tfliteOptions.addDelegate(gpuDelegate);
+        break;
+      case CPU:
+        break;
+    }
+    tfliteOptions.setNumThreads(numThreads);
+
+    try {
+      if (model.pathType == Model.PATH_TYPE.FILE) {
+        File modelFile = new File(model.path);
+        tflite = new Interpreter(modelFile, tfliteOptions);
+      } else if (model.pathType == Model.PATH_TYPE.ASSET) {
+        MappedByteBuffer tfliteModel = loadModelFile(context, model);
+        tflite = new Interpreter(tfliteModel, tfliteOptions);
+      } else {
+        throw (new IOException("No model file specified!"));
+      }
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /** Memory-map the model file in Assets. */
+  private static MappedByteBuffer loadModelFile(Context context, Model model)
+      throws IOException {
+    AssetFileDescriptor fileDescriptor = context.getAssets().openFd(model.path);
+    FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+    FileChannel fileChannel = inputStream.getChannel();
+    long startOffset = fileDescriptor.getStartOffset();
+    long declaredLength = fileDescriptor.getDeclaredLength();
+    return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+  }
+
+  @Override
+  public int getInputIndex(String name) {
+    return tflite.getInputIndex(name);
+  }
+
+  @Override
+  public int getOutputIndex(String name) {
+    return tflite.getOutputIndex(name);
+  }
+
+  @Override
+  public int getInputTensorCount() {
+    return tflite.getInputTensorCount();
+  }
+
+  @Override
+  public int getOutputTensorCount() {
+    return tflite.getOutputTensorCount();
+  }
+
+  @Override
+  public int[] getInputShape(int index) {
+    return tflite.getInputTensor(index).shape();
+  }
+
+  @Override
+  public int[] getOutputShape(int index) {
+    return tflite.getOutputTensor(index).shape();
+  }
+
+  @Override
+  public Quantization getInputQuantization(int index) {
+    return getQuantization(tflite.getInputTensor(index));
+  }
+
+  @Override
+  public Quantization getOutputQuantization(int index) {
+    return getQuantization(tflite.getOutputTensor(index));
+  }
+
+  private static Quantization getQuantization(Tensor tensor) {
+    final DataType dataType = tensor.dataType();
+    if (dataType != DataType.UINT8 && dataType != DataType.INT8) {
+      return null;
+    }
+    final Tensor.QuantizationParams params = tensor.quantizationParams();
+    return new Quantization(params.getScale(), params.getZeroPoint(), dataType == DataType.INT8);
+  }
+
+  @Override
+  public void run(Object[] inputs, Map<Integer, Object> outputs) {
+    tflite.runForMultipleInputsOutputs(inputs, outputs);
+  }
+
+  @Override
+  public void close() {
+    if (tflite != null) {
+      tflite.close();
+      tflite = null;
+    }
+    if (gpuDelegate != null) {
+      gpuDelegate.close();
+      gpuDelegate = null;
+    }
+  }
+}
@@ -1,12 +1,22 @@
 package org.openbot.vehicle;
 
 public class Control {
-  private final float left;
-  private final float right;
+  private float left;
+  private float right;
 
   public Control(float left, float right) {
+    set(left, right);
+  }
+
+  /**
+   * Updates the control in place. Only meant for owners that recycle their controls, e.g. the
+   * inference loop of a policy or the vehicle; everybody else should treat a control as immutable
+   * and copy it if it is kept.
+   */
+  public Control set(float left, float right) {
     this.left = Math.max(-1.f, Math.min(1.f, left));
     this.right = Math.max(-1.f, Math.min(1.f, right));
+    return this;
   }
 
   public float getLeft() {
@@ -15,7 +15,11 @@ public class Vehicle {
 
   private int indicator = 0;
   private int speedMultiplier = 192; // 128,192,255
-  private Control control = new Control(0, 0);
+  /**
+   * Owned by the vehicle and guarded by itself. Controls that are set are copied, because their
+   * producers may recycle them, e.g. the pooled outputs of a policy.
+   */
+  private final Control control = new Control(0, 0);
 
   private final SensorReading batteryVoltage = new SensorReading();
   private final SensorReading leftWheelRpm = new SensorReading();
@@ -255,19 +259,47 @@ public class Vehicle {
   }
 
   public Control getControl() {
-    return control;
+    synchronized (control) {
+      return new Control(control.getLeft(), control.getRight());
+    }
   }
 
   public void setControl(Control control) {
-    this.control = control;
-    sendControl();
+    setControl(control.getLeft(), control.getRight());
   }
 
   public void setControl(float left, float right) {
-    this.control = new Control(left, right);
+    synchronized (control) {
+      control.set(left, right);
+    }
     sendControl();
   }
 
+  /** Measures the free space in front of the robot, e.g. from depth images. */
+  public interface ObstacleSensor {
+    /** Distance to the closest obstacle ahead in meters, may be called from any thread. */
+    float getFreeDistanceAhead();
+  }
+
+  private volatile ObstacleSensor obstacleSensor;
+  private float minFreeDistance;
+
+  /**
+   * Brakes instead of driving forward while the sensor reports an obstacle closer than {@code
+   * minFreeDistance} meters. Turning on the spot and reversing stay possible. Pass null to
+   * disable emergency braking.
+   */
+  public void setObstacleSensor(ObstacleSensor obstacleSensor, float minFreeDistance) {
+    this.minFreeDistance = minFreeDistance;
+    this.obstacleSensor = obstacleSensor;
+  }
+
+  /** Returns true if forward motion is currently blocked by an obstacle. */
+  public boolean isObstacleAhead() {
+    final ObstacleSensor sensor = obstacleSensor;
+    return sensor != null && sensor.getFreeDistanceAhead() < minFreeDistance;
+  }
+
   private Timer noiseTimer;
 
   public void toggleNoise() {
@@ -373,24 +405,39 @@ public class Vehicle {
   }
 
   public float getLeftSpeed() {
-    return control.getLeft() * speedMultiplier;
+    synchronized (control) {
+      return control.getLeft() * speedMultiplier;
+    }
   }
 
   public float getRightSpeed() {
-    return control.getRight() * speedMultiplier;
+    synchronized (control) {
+      return control.getRight() * speedMultiplier;
+    }
   }
 
   public void sendControl() {
-    int left = (int) (getLeftSpeed());
-    int right = (int) (getRightSpeed());
+    // Both sides are read at once, so that they always belong to the same control.
+    final float controlLeft;
+    final float controlRight;
+    synchronized (control) {
+      controlLeft = control.getLeft();
+      controlRight = control.getRight();
+    }
+    if (controlLeft + controlRight > 0 && isObstacleAhead()) {
+      sendStringToUsb("c0,0\n");
+      return;
+    }
+    int left = (int) (controlLeft * speedMultiplier);
+    int right = (int) (controlRight * speedMultiplier);
     if (noiseEnabled && noise.getDirection() < 0)
       left =
           (int)
-              ((control.getLeft() - noise.getValue())
+              ((controlLeft - noise.getValue())
                   * speedMultiplier); // since noise value does not have speedMultiplier component,
     // raw control value is used
     if (noiseEnabled && noise.getDirection() > 0)
-      right = (int) ((control.getRight() - noise.getValue()) * speedMultiplier);
+      right = (int) ((controlRight - noise.getValue()) * speedMultiplier);
     sendStringToUsb(String.format(Locale.US, "c%d,%d\n", left, right));
   }
 
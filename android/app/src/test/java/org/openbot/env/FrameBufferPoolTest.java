@@ -0,0 +1,59 @@
+package org.openbot.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.graphics.Bitmap;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class FrameBufferPoolTest {
+
+  private final FrameBufferPool pool = new FrameBufferPool(2);
+
+  @Test
+  public void acquire_dropsFramesWhileAllBuffersAreHeld() {
+    FrameBuffer first = pool.acquire(4, 2, 1, 100);
+    FrameBuffer second = pool.acquire(4, 2, 2, 200);
+    assertNotSame(first, second);
+    assertEquals(2, second.getFrameId());
+    assertEquals(200, second.getTimestampNs());
+
+    assertNull(pool.acquire(4, 2, 3, 300));
+    assertEquals(1, pool.getDroppedFrames());
+    assertEquals(2, pool.getAcquiredFrames());
+
+    first.release();
+    assertSame(first, pool.acquire(4, 2, 4, 400));
+    assertEquals(4, first.getFrameId());
+  }
+
+  @Test
+  public void release_reusesTheBitmapForFramesOfTheSameSize() {
+    FrameBuffer frame = pool.acquire(4, 2, 1, 0);
+    Bitmap bitmap = frame.getBitmap();
+    assertEquals(1, pool.getNumInUse());
+
+    frame.release();
+    assertEquals(0, pool.getNumInUse());
+
+    // The bitmap is reused for frames of the same size only.
+    FrameBuffer next = pool.acquire(4, 2, 2, 0);
+    assertSame(bitmap, next.getBitmap());
+    next.release();
+    next = pool.acquire(8, 4, 3, 0);
+    assertEquals(8, next.getBitmap().getWidth());
+    assertEquals(4, next.getBitmap().getHeight());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void release_twiceThrows() {
+    FrameBuffer frame = pool.acquire(4, 2, 1, 0);
+    frame.release();
+    frame.release();
+  }
+}
@@ -0,0 +1,60 @@
+package org.openbot.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrameLatencyTrackerTest {
+
+  private static final long MS = 1_000_000;
+
+  private final FrameLatencyTracker tracker = new FrameLatencyTracker(10);
+
+  private void track(long frameId, long latencyMs) {
+    final long sensorNs = frameId * 100 * MS;
+    tracker.stampEntry(frameId, sensorNs, sensorNs + 2 * MS);
+    tracker.stampConversion(frameId, sensorNs + 5 * MS);
+    assertTrue(tracker.stampConsumed(frameId, sensorNs + latencyMs * MS));
+  }
+
+  @Test
+  public void stampConsumed_recordsStagesOfTheFrame() {
+    track(1, 30);
+
+    assertEquals(1, tracker.getRecordedFrames());
+    assertEquals(30, tracker.getLatencyPercentileMs(50), 1e-9);
+    assertEquals(2, tracker.getAverageQueueMs(), 1e-9);
+    assertEquals(3, tracker.getAverageConversionMs(), 1e-9);
+    assertEquals(25, tracker.getAverageConsumerMs(), 1e-9);
+
+    // Each frame is recorded once.
+    assertFalse(tracker.stampConsumed(1, 200 * MS));
+    assertEquals(1, tracker.getRecordedFrames());
+  }
+
+  @Test
+  public void getLatencyPercentileMs_coversTheLastFrames() {
+    assertEquals(0, tracker.getLatencyPercentileMs(50), 0);
+    for (int i = 1; i <= 20; i++) {
+      track(i, i);
+    }
+    // Only the last ten frames with latencies of 11 to 20 ms are kept.
+    assertEquals(11, tracker.getLatencyPercentileMs(0), 1e-9);
+    assertEquals(15, tracker.getLatencyPercentileMs(50), 1e-9);
+    assertEquals(19, tracker.getLatencyPercentileMs(90), 1e-9);
+    assertEquals(20, tracker.getLatencyPercentileMs(100), 1e-9);
+  }
+
+  @Test
+  public void stampConsumed_ignoresOverwrittenFrames() {
+    tracker.stampEntry(1, 0, MS);
+    // Frame 17 takes the slot of frame 1, which was dropped on the way.
+    tracker.stampEntry(17, 10 * MS, 11 * MS);
+
+    assertFalse(tracker.stampConsumed(1, 20 * MS));
+    assertTrue(tracker.stampConsumed(17, 20 * MS));
+    assertEquals(10, tracker.getLatencyPercentileMs(50), 1e-9);
+  }
+}
@@ -0,0 +1,52 @@
+package org.openbot.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class LumaFrameTest {
+
+  /** A 3x2 plane with rows padded to 5 bytes; the last row ends right after its last pixel. */
+  private final ByteBuffer plane =
+      ByteBuffer.wrap(new byte[] {10, 20, (byte) 200, 0, 0, 40, 50, (byte) 255});
+
+  private final LumaFrame frame = new LumaFrame(plane, 3, 2, 5, 1);
+
+  @Test
+  public void get_honoursRowStride() {
+    assertEquals(200, frame.get(2, 0));
+    assertEquals(40, frame.get(0, 1));
+    assertEquals(255, frame.get(2, 1));
+  }
+
+  @Test
+  public void getRow_copiesOnlyTheVisiblePixels() {
+    byte[] row = new byte[4];
+    frame.getRow(1, row, 1);
+    assertArrayEquals(new byte[] {0, 40, 50, (byte) 255}, row);
+    assertEquals(0, plane.position());
+  }
+
+  @Test
+  public void getRow_withPixelStride() {
+    ByteBuffer interleaved = ByteBuffer.wrap(new byte[] {1, 9, 2, 9, 3, 9, 4, 9, 5, 9, 6});
+    LumaFrame strided = new LumaFrame(interleaved, 3, 2, 6, 2);
+    byte[] row = new byte[3];
+    strided.getRow(1, row, 0);
+    assertArrayEquals(new byte[] {4, 5, 6}, row);
+    assertEquals(5, strided.get(1, 1));
+  }
+
+  @Test
+  public void getMean_samplesEveryStepPixel() {
+    assertEquals((10 + 20 + 200 + 40 + 50 + 255) / 6f, frame.getMean(1), 1e-4);
+    assertEquals((10 + 200) / 2f, frame.getMean(2), 1e-4);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsRowStrideSmallerThanWidth() {
+    new LumaFrame(plane, 6, 1, 5, 1);
+  }
+}
@@ -1,6 +1,8 @@
 package org.openbot.env;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
@@ -32,6 +34,18 @@ public class VehicleTest {
     assertEquals(-180, vehicle.getRotation(), 0.0);
   }
 
+  @Test
+  public void setControl_copiesRecycledControls() {
+    vehicle.setSpeedMultiplier(Enums.SpeedMode.NORMAL.getValue());
+    Control control = new Control(1, -1);
+    vehicle.setControl(control);
+    // A policy reuses its controls for later frames.
+    control.set(0, 0);
+
+    assertEquals(192, vehicle.getLeftSpeed(), 0.0);
+    assertEquals(-192, vehicle.getRightSpeed(), 0.0);
+  }
+
   @Test
   public void getSpeed() {
     vehicle.setSpeedMultiplier(Enums.SpeedMode.SLOW.getValue());
@@ -52,4 +66,18 @@ public class VehicleTest {
     assertEquals(255, vehicle.getLeftSpeed(), 0.0);
     assertEquals(255, vehicle.getRightSpeed(), 0.0);
   }
+
+  @Test
+  public void isObstacleAhead() {
+    assertFalse(vehicle.isObstacleAhead());
+
+    vehicle.setObstacleSensor(() -> 0.3f, 0.5f);
+    assertTrue(vehicle.isObstacleAhead());
+
+    vehicle.setObstacleSensor(() -> 0.8f, 0.5f);
+    assertFalse(vehicle.isObstacleAhead());
+
+    vehicle.setObstacleSensor(null, 0.5f);
+    assertFalse(vehicle.isObstacleAhead());
+  }
 }
@@ -0,0 +1,100 @@
+package org.openbot.env;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Microbenchmark of {@link YuvToArgbConverter} against {@link
+ * ImageUtils#convertYUV420ToARGB8888}. Not part of the test suite, run {@link #main} from the IDE
+ * or with {@code java}.
+ */
+public class YuvToArgbConverterBenchmark {
+
+  private static final int WARM_UP_ITERATIONS = 20;
+  private static final long MIN_TIME_NS = 1_000_000_000L;
+
+  public static void main(String[] args) {
+    YuvToArgbConverter sequential = new YuvToArgbConverter(new ForkJoinPool(1), Integer.MAX_VALUE);
+    YuvToArgbConverter parallel = new YuvToArgbConverter();
+    System.out.println("Common pool parallelism: " + ForkJoinPool.commonPool().getParallelism());
+
+    for (int[] size : new int[][] {{640, 480}, {1280, 720}}) {
+      YuvToArgbConverterTest.Planes planes =
+          new YuvToArgbConverterTest.Planes(new Random(size[0]), size[0], size[1], 0, 2);
+      int[] out = new int[size[0] * size[1]];
+      ByteBuffer byteOut = ByteBuffer.allocateDirect(4 * out.length);
+
+      double legacy =
+          measure(
+              () -> {
+                ImageUtils.convertYUV420ToARGB8888(
+                    planes.y,
+                    planes.u,
+                    planes.v,
+                    planes.width,
+                    planes.height,
+                    planes.yRowStride,
+                    planes.uvRowStride,
+                    planes.uvPixelStride,
+                    out);
+                return out[0];
+              });
+      double lut =
+          measure(
+              () -> {
+                sequential.convert(planes.frame, out);
+                return out[0];
+              });
+      double lutParallel =
+          measure(
+              () -> {
+                parallel.convert(planes.frame, out);
+                return out[0];
+              });
+      double lutBuffer =
+          measure(
+              () -> {
+                parallel.convert(planes.frame, byteOut);
+                return byteOut.get(0);
+              });
+      System.out.println(
+          String.format(
+              Locale.US,
+              "%4dx%-4d: legacy %6.2f ms, lut %6.2f ms (%4.1fx), lut parallel %6.2f ms (%4.1fx),"
+                  + " lut parallel to direct buffer %6.2f ms (%4.1fx)",
+              size[0],
+              size[1],
+              legacy / 1e6,
+              lut / 1e6,
+              legacy / lut,
+              lutParallel / 1e6,
+              legacy / lutParallel,
+              lutBuffer / 1e6,
+              legacy / lutBuffer));
+    }
+  }
+
+  private interface Workload {
+    int run();
+  }
+
+  /** Returns the average time per iteration in ns. */
+  private static double measure(Workload workload) {
+    int sink = 0;
+    for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+      sink += workload.run();
+    }
+    long iterations = 0;
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      sink += workload.run();
+      iterations++;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < MIN_TIME_NS);
+    if (sink == 42) System.out.print("");
+    return (double) elapsed / iterations;
+  }
+}
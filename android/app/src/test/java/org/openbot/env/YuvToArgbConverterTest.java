@@ -0,0 +1,136 @@
+package org.openbot.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class YuvToArgbConverterTest {
+
+  /** Planes of a random frame, also as arrays for {@link ImageUtils#convertYUV420ToARGB8888}. */
+  static class Planes {
+    final int width;
+    final int height;
+    final int yRowStride;
+    final int uvRowStride;
+    final int uvPixelStride;
+    final byte[] y;
+    final byte[] u;
+    final byte[] v;
+    final YuvFrame frame;
+
+    /** Chroma is interleaved like the semi-planar layout of most cameras if uvPixelStride is 2. */
+    Planes(Random random, int width, int height, int rowPadding, int uvPixelStride) {
+      this.width = width;
+      this.height = height;
+      this.uvPixelStride = uvPixelStride;
+      yRowStride = width + rowPadding;
+      uvRowStride = ((width + 1) / 2) * uvPixelStride + rowPadding;
+      y = new byte[yRowStride * height];
+      random.nextBytes(y);
+      final int uvHeight = (height + 1) / 2;
+      final ByteBuffer uBuffer;
+      final ByteBuffer vBuffer;
+      if (uvPixelStride == 2) {
+        byte[] uv = new byte[uvRowStride * uvHeight + 1];
+        random.nextBytes(uv);
+        u = uv;
+        v = Arrays.copyOfRange(uv, 1, uv.length);
+        uBuffer = ByteBuffer.wrap(uv);
+        vBuffer = ByteBuffer.wrap(uv, 1, uv.length - 1).slice();
+      } else {
+        u = new byte[uvRowStride * uvHeight];
+        v = new byte[uvRowStride * uvHeight];
+        random.nextBytes(u);
+        random.nextBytes(v);
+        uBuffer = ByteBuffer.wrap(u);
+        vBuffer = ByteBuffer.wrap(v);
+      }
+      frame =
+          new YuvFrame(
+              ByteBuffer.wrap(y),
+              uBuffer,
+              vBuffer,
+              width,
+              height,
+              yRowStride,
+              uvRowStride,
+              uvPixelStride);
+    }
+
+    int[] convertWithImageUtils() {
+      int[] out = new int[width * height];
+      ImageUtils.convertYUV420ToARGB8888(
+          y, u, v, width, height, yRowStride, uvRowStride, uvPixelStride, out);
+      return out;
+    }
+  }
+
+  private final YuvToArgbConverter converter = new YuvToArgbConverter(new ForkJoinPool(4), 4);
+
+  @Test
+  public void convert_matchesImageUtils() {
+    Random random = new Random(7);
+    int[][] sizes = {{64, 48, 0, 2}, {64, 48, 16, 1}, {33, 17, 3, 2}, {7, 5, 0, 1}, {1, 1, 0, 2}};
+    for (int[] size : sizes) {
+      Planes planes = new Planes(random, size[0], size[1], size[2], size[3]);
+      int[] out = new int[size[0] * size[1]];
+      converter.convert(planes.frame, out);
+      assertArrayEquals(Arrays.toString(size), planes.convertWithImageUtils(), out);
+    }
+  }
+
+  @Test
+  public void convert_byteBufferUsesBitmapLayout() {
+    Planes planes = new Planes(new Random(3), 31, 21, 5, 2);
+    int[] expected = planes.convertWithImageUtils();
+    ByteBuffer out = ByteBuffer.allocateDirect(4 + 4 * expected.length);
+    out.position(4);
+
+    converter.convert(planes.frame, out);
+
+    assertEquals(4, out.position());
+    for (int i = 0; i < expected.length; i++) {
+      int offset = 4 + 4 * i;
+      assertEquals((expected[i] >> 16) & 0xff, out.get(offset) & 0xff);
+      assertEquals((expected[i] >> 8) & 0xff, out.get(offset + 1) & 0xff);
+      assertEquals(expected[i] & 0xff, out.get(offset + 2) & 0xff);
+      assertEquals(0xff, out.get(offset + 3) & 0xff);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void convert_rejectsSmallOutput() {
+    Planes planes = new Planes(new Random(1), 8, 8, 0, 2);
+    converter.convert(planes.frame, new int[63]);
+  }
+
+  @Test
+  public void convert_extremeValuesAreClamped() {
+    // Full white, black and saturated chroma exercise both ends of the clamp tables.
+    for (int value : new int[] {0, 255}) {
+      for (int chroma : new int[] {0, 255}) {
+        byte[] y = {(byte) value, (byte) value, (byte) value, (byte) value};
+        byte[] uv = {(byte) chroma, (byte) (255 - chroma)};
+        YuvFrame frame =
+            new YuvFrame(
+                ByteBuffer.wrap(y),
+                ByteBuffer.wrap(uv, 0, 1).slice(),
+                ByteBuffer.wrap(uv, 1, 1).slice(),
+                2,
+                2,
+                2,
+                1,
+                1);
+        int[] out = new int[4];
+        converter.convert(frame, out);
+        int expected = ImageUtils.YUV2RGB(value, chroma, 255 - chroma);
+        assertArrayEquals(new int[] {expected, expected, expected, expected}, out);
+      }
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package org.openbot.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncLogWriterTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("logs").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    final File[] files = dir.listFiles();
+    if (files != null) for (File file : files) file.delete();
+    dir.delete();
+  }
+
+  private static List<String> readLines(File file) throws IOException {
+    return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void close_writesAllLinesInOrder() throws IOException {
+    AsyncLogWriter writer = new AsyncLogWriter(16, 1024, 1, TimeUnit.SECONDS);
+    AsyncLogWriter.LogFile log = writer.open(new File(dir, "log.txt"));
+    for (int i = 0; i < 10; i++) assertTrue(writer.append(log, "line " + i));
+    writer.close();
+
+    List<String> lines = readLines(log.getFile());
+    assertEquals(10, lines.size());
+    for (int i = 0; i < 10; i++) assertEquals("line " + i, lines.get(i));
+    assertEquals(10, log.getEnqueuedLines());
+    assertEquals(10, log.getWrittenLines());
+    assertEquals(0, log.getDroppedLines());
+  }
+
+  @Test
+  public void closeAsync_completesInTheBackground() throws Exception {
+    AsyncLogWriter writer = new AsyncLogWriter(16, 1024, 1, TimeUnit.SECONDS);
+    AsyncLogWriter.LogFile log = writer.open(new File(dir, "log.txt"));
+    for (int i = 0; i < 10; i++) writer.append(log, "line " + i);
+    writer.closeAsync();
+
+    assertFalse(writer.append(log, "late"));
+    assertTrue(writer.awaitClosed(5, TimeUnit.SECONDS));
+    assertEquals(10, readLines(log.getFile()).size());
+    assertEquals(10, log.getWrittenLines());
+  }
+
+  @Test
+  public void append_fromSeveralThreads_countsEveryLine() throws Exception {
+    AsyncLogWriter writer = new AsyncLogWriter(64, 256, 10, TimeUnit.MILLISECONDS);
+    AsyncLogWriter.LogFile first = writer.open(new File(dir, "first.txt"));
+    AsyncLogWriter.LogFile second = writer.open(new File(dir, "second.txt"));
+
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final int thread = t;
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < 5000; i++) {
+                  writer.append(i % 2 == 0 ? first : second, thread + "," + i);
+                }
+              }));
+    }
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    writer.close();
+
+    for (AsyncLogWriter.LogFile log : writer.getFiles()) {
+      List<String> lines = readLines(log.getFile());
+      assertEquals(10000, log.getEnqueuedLines());
+      assertEquals(lines.size(), log.getWrittenLines());
+      assertEquals(10000, log.getWrittenLines() + log.getDroppedLines());
+      // No line is written twice or torn.
+      Set<String> unique = new HashSet<>(lines);
+      assertEquals(lines.size(), unique.size());
+      for (String line : lines) assertEquals(2, line.split(",").length);
+    }
+  }
+
+  @Test
+  public void closeAsync_whileThreadsAppend_writesOrDropsEveryLine() throws Exception {
+    for (int round = 0; round < 20; round++) {
+      AsyncLogWriter writer = new AsyncLogWriter(64, 256, 10, TimeUnit.MILLISECONDS);
+      AsyncLogWriter.LogFile log = writer.open(new File(dir, "log" + round + ".txt"));
+
+      List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        final int thread = t;
+        threads.add(
+            new Thread(
+                () -> {
+                  for (int i = 0; i < 2000; i++) writer.append(log, thread + "," + i);
+                }));
+      }
+      for (Thread thread : threads) thread.start();
+      writer.closeAsync();
+      for (Thread thread : threads) thread.join();
+      assertTrue(writer.awaitClosed(5, TimeUnit.SECONDS));
+
+      // A line published while the writer was closing is written, not lost.
+      assertEquals(readLines(log.getFile()).size(), log.getWrittenLines());
+      assertEquals(8000, log.getEnqueuedLines());
+      assertEquals(8000, log.getWrittenLines() + log.getDroppedLines());
+    }
+  }
+
+  @Test
+  public void binaryLog_writesRareRecordsAfterTheFlushInterval() throws Exception {
+    AsyncLogWriter writer = new AsyncLogWriter(16, 1024, 20, TimeUnit.MILLISECONDS);
+    AsyncLogWriter.BinaryLogFile log =
+        writer.openBinary(
+            new File(dir, "log.bin"), new LogSchema("timestamp[ns]", LogSchema.Type.INT64));
+    log.beginRecord().putLong(1).endRecord();
+
+    // No further record ages the chunk, so the writer thread has to hand it over itself.
+    final long deadlineMs = System.currentTimeMillis() + 2000;
+    while (log.getWrittenLines() == 0 && System.currentTimeMillis() < deadlineMs) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, log.getWrittenLines());
+    writer.close();
+    assertEquals(1, log.getWrittenLines());
+  }
+
+  @Test
+  public void append_afterClose_dropsLine() throws IOException {
+    AsyncLogWriter writer = new AsyncLogWriter(4, 1024, 1, TimeUnit.SECONDS);
+    AsyncLogWriter.LogFile log = writer.open(new File(dir, "log.txt"));
+    writer.close();
+
+    assertFalse(writer.append(log, "late"));
+    assertEquals(1, log.getEnqueuedLines());
+    assertEquals(1, log.getDroppedLines());
+    assertEquals(0, readLines(log.getFile()).size());
+  }
+}
@@ -0,0 +1,115 @@
+package org.openbot.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryLogReaderTest {
+
+  private static final LogSchema SCHEMA =
+      new LogSchema(
+          "timestamp[ns],count,x,latitude",
+          LogSchema.Type.INT64,
+          LogSchema.Type.INT32,
+          LogSchema.Type.FLOAT32,
+          LogSchema.Type.FLOAT64);
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("logs").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    final File[] files = dir.listFiles();
+    if (files != null) for (File file : files) file.delete();
+    dir.delete();
+  }
+
+  private File writeLog(int records) throws IOException {
+    AsyncLogWriter writer = new AsyncLogWriter(16, 1024, 1, TimeUnit.SECONDS);
+    AsyncLogWriter.BinaryLogFile log = writer.openBinary(new File(dir, "testLog.bin"), SCHEMA);
+    for (int i = 0; i < records; i++) {
+      log.beginRecord()
+          .putLong(1000L * i)
+          .putInt(-i)
+          .putFloat(i / 3.f)
+          .putDouble(i / 7.)
+          .endRecord();
+    }
+    writer.close();
+    assertEquals(records, log.getWrittenLines());
+    return log.getFile();
+  }
+
+  @Test
+  public void next_readsRecordsWrittenThroughChunks() throws IOException {
+    // More records than fit into one chunk.
+    File file = writeLog(1000);
+    assertEquals(SCHEMA.toByteBuffer().remaining() + 1000 * 24, file.length());
+
+    try (BinaryLogReader reader = new BinaryLogReader(file)) {
+      assertEquals(SCHEMA, reader.getSchema());
+      assertEquals("latitude", reader.getSchema().getColumnName(3));
+      for (int i = 0; i < 1000; i++) {
+        assertTrue(reader.next());
+        assertEquals(1000L * i, reader.getLong(0));
+        assertEquals(-i, reader.getInt(1));
+        assertEquals(i / 3.f, reader.getFloat(2), 0);
+        assertEquals(i / 7., reader.getDouble(3), 0);
+      }
+      assertFalse(reader.next());
+    }
+  }
+
+  @Test
+  public void next_ignoresTruncatedRecord() throws IOException {
+    File file = writeLog(3);
+    try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+      truncated.setLength(file.length() - 5);
+    }
+
+    try (BinaryLogReader reader = new BinaryLogReader(file)) {
+      assertTrue(reader.next());
+      assertTrue(reader.next());
+      assertFalse(reader.next());
+      assertEquals(2, reader.getRecords());
+    }
+  }
+
+  @Test
+  public void convertFolder_writesTextLogsLikeTheTextFormat() throws IOException {
+    writeLog(2);
+    assertEquals(1, BinaryLogReader.convertFolder(dir));
+
+    List<String> lines =
+        Files.readAllLines(new File(dir, "testLog.txt").toPath(), StandardCharsets.UTF_8);
+    assertEquals(3, lines.size());
+    assertEquals(SCHEMA.getHeader(), lines.get(0));
+    assertEquals(0 + "," + 0 + "," + 0.f + "," + 0., lines.get(1));
+    assertEquals(1000L + "," + -1 + "," + 1 / 3.f + "," + 1 / 7., lines.get(2));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void endRecord_withMissingColumn_throws() throws IOException {
+    AsyncLogWriter writer = new AsyncLogWriter(16, 1024, 1, TimeUnit.SECONDS);
+    try {
+      writer.openBinary(new File(dir, "testLog.bin"), SCHEMA).beginRecord().putLong(0).endRecord();
+    } finally {
+      writer.close();
+    }
+  }
+}
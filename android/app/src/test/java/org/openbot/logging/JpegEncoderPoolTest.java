@@ -0,0 +1,93 @@
+package org.openbot.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class JpegEncoderPoolTest {
+
+  private final Bitmap frame = Bitmap.createBitmap(64, 48, Bitmap.Config.ARGB_8888);
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("images").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    final File[] files = dir.listFiles();
+    if (files != null) for (File file : files) file.delete();
+    dir.delete();
+  }
+
+  @Test
+  public void close_encodesQueuedFrames() {
+    JpegEncoderPool pool = new JpegEncoderPool(1, 4, JpegEncoderPool.DropPolicy.DROP_NEWEST, 90);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(pool.submit(frame, i, dir.getPath(), i % 2 == 0, new Matrix(), 16, 12));
+    }
+    pool.close();
+
+    assertEquals(4, pool.getEncodedFrames());
+    assertEquals(0, pool.getDroppedFrames());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i % 2 == 0, new File(dir, i + "_preview.jpeg").exists());
+      assertTrue(new File(dir, i + "_crop.jpeg").exists());
+    }
+    assertFalse(pool.submit(frame, 4, dir.getPath(), true, null, 0, 0));
+  }
+
+  private void assertWrittenFrames(int frames, int... written) {
+    for (int i = 0; i < frames; i++) {
+      boolean expected = false;
+      for (int frame : written) expected |= frame == i;
+      assertEquals("Frame " + i, expected, new File(dir, i + "_preview.jpeg").exists());
+    }
+  }
+
+  @Test
+  public void submit_whenQueueIsFull_dropsOldestFrames() {
+    // Not started, so that all frames wait in the queue.
+    JpegEncoderPool pool =
+        new JpegEncoderPool(1, 2, JpegEncoderPool.DropPolicy.DROP_OLDEST, 90, false);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(pool.submit(frame, i, dir.getPath(), true, null, 0, 0));
+    }
+    pool.start();
+    pool.close();
+
+    assertEquals(5, pool.getSubmittedFrames());
+    assertEquals(3, pool.getDroppedFrames());
+    assertEquals(2, pool.getEncodedFrames());
+    assertWrittenFrames(5, 3, 4);
+  }
+
+  @Test
+  public void submit_whenQueueIsFull_dropsNewestFrames() {
+    JpegEncoderPool pool =
+        new JpegEncoderPool(1, 2, JpegEncoderPool.DropPolicy.DROP_NEWEST, 90, false);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(i < 2, pool.submit(frame, i, dir.getPath(), true, null, 0, 0));
+    }
+    pool.start();
+    pool.close();
+
+    assertEquals(5, pool.getSubmittedFrames());
+    assertEquals(3, pool.getDroppedFrames());
+    assertEquals(2, pool.getEncodedFrames());
+    assertWrittenFrames(5, 0, 1);
+  }
+}
@@ -0,0 +1,123 @@
+package org.openbot.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class TelemetryChannelTest {
+
+  private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+  private final List<String> records = new ArrayList<>();
+  private final TelemetryChannel channel =
+      new TelemetryChannel(
+          4,
+          tasks::add,
+          (type, timestamp, value0, value1, floats, text) ->
+              records.add(
+                  type
+                      + ","
+                      + timestamp
+                      + ","
+                      + value0
+                      + ","
+                      + value1
+                      + ","
+                      + Arrays.toString(floats)
+                      + ","
+                      + text));
+
+  private void runTasks() {
+    while (!tasks.isEmpty()) tasks.poll().run();
+  }
+
+  @Test
+  public void publish_schedulesOneDrainForSeveralRecords() {
+    assertTrue(channel.publish(0, 10, 1, 0, null));
+    assertTrue(channel.publish(6, 20, 0, 0, "12,13"));
+    assertEquals(1, tasks.size());
+
+    runTasks();
+    assertEquals(2, records.size());
+    assertEquals("0,10,1,0,[0.0, 0.0, 0.0, 0.0],null", records.get(0));
+    assertEquals("6,20,0,0,[0.0, 0.0, 0.0, 0.0],12,13", records.get(1));
+
+    // A record after the drain schedules the next one.
+    assertTrue(channel.publish(2, 30, -1, 1, null));
+    assertEquals(1, tasks.size());
+    runTasks();
+    assertEquals("2,30,-1,1,[0.0, 0.0, 0.0, 0.0],null", records.get(2));
+  }
+
+  @Test
+  public void publish_withFloats_deliversThemInTheRecord() {
+    assertTrue(channel.publish(1, 10, 0, 0, new float[] {0.5f, -1.25f, 7}, 2, null));
+    assertTrue(channel.publish(1, 20, 0, 0, new float[] {1, 2, 3, 4}, 4, null));
+    runTasks();
+    assertEquals("1,10,0,0,[0.5, -1.25, 0.0, 0.0],null", records.get(0));
+    assertEquals("1,20,0,0,[1.0, 2.0, 3.0, 4.0],null", records.get(1));
+
+    // The ring wraps around; the values of the earlier records in the slots are not delivered.
+    assertTrue(channel.publish(1, 30, 0, 0, null));
+    assertTrue(channel.publish(1, 40, 0, 0, null));
+    assertTrue(channel.publish(1, 50, 0, 0, null));
+    runTasks();
+    assertEquals("1,50,0,0,[0.0, 0.0, 0.0, 0.0],null", records.get(4));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void publish_withTooManyFloats_throws() {
+    channel.publish(1, 10, 0, 0, new float[5], 5, null);
+  }
+
+  @Test
+  public void publish_whenFull_dropsRecord() {
+    for (int i = 0; i < 4; i++) assertTrue(channel.publish(0, i, i, 0, null));
+    assertFalse(channel.publish(0, 4, 4, 0, null));
+    assertEquals(5, channel.getPublishedRecords());
+    assertEquals(1, channel.getDroppedRecords());
+
+    runTasks();
+    assertEquals(4, records.size());
+    assertTrue(channel.publish(0, 5, 5, 0, null));
+    runTasks();
+    assertEquals("0,5,5,0,[0.0, 0.0, 0.0, 0.0],null", records.get(4));
+  }
+
+  @Test
+  public void publish_fromSeveralThreads_deliversEveryRecordOnce() throws Exception {
+    List<Long> values = new ArrayList<>();
+    // Drains on the producer threads, one at a time like on a looper.
+    TelemetryChannel serialized =
+        new TelemetryChannel(
+            1 << 16,
+            task -> {
+              synchronized (values) {
+                task.run();
+              }
+            },
+            (type, timestamp, value0, value1, floats, text) -> values.add(value0));
+
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final long offset = t * 10000L;
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < 10000; i++) serialized.publish(0, 0, offset + i, 0, null);
+              }));
+    }
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    synchronized (values) {
+      assertEquals(0, serialized.getDroppedRecords());
+      assertEquals(40000, values.size());
+      assertEquals(40000, values.stream().distinct().count());
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package org.openbot.pointGoalNavigation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class DirectBufferPoolTest {
+
+  private final DirectBufferPool pool = new DirectBufferPool(1);
+
+  @Test
+  public void acquire_reusesReleasedBuffersOfTheSameSize() {
+    ByteBuffer first = pool.acquire(16);
+    assertTrue(first.isDirect());
+    assertEquals(ByteOrder.nativeOrder(), first.order());
+    first.position(8);
+    pool.release(first);
+
+    ByteBuffer second = pool.acquire(16);
+    assertSame(first, second);
+    assertEquals(0, second.position());
+    assertNotSame(second, pool.acquire(16));
+    assertEquals(8, pool.acquire(8).capacity());
+
+    assertEquals(3, pool.getAllocatedBuffers());
+    assertEquals(1, pool.getReusedBuffers());
+  }
+
+  @Test
+  public void copyOf_copiesRemainingBytesWithoutMovingTheSource() {
+    ByteBuffer source = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+    source.position(1);
+
+    ByteBuffer copy = pool.copyOf(source);
+
+    assertEquals(1, source.position());
+    assertEquals(3, copy.capacity());
+    assertEquals(0, copy.position());
+    assertEquals(2, copy.get(0));
+    assertEquals(4, copy.get(2));
+  }
+
+  @Test
+  public void release_keepsAtMostTheConfiguredNumberOfBuffers() {
+    ByteBuffer first = pool.acquire(4);
+    ByteBuffer second = pool.acquire(4);
+    pool.release(first);
+    pool.release(second);
+
+    pool.acquire(4);
+    pool.acquire(4);
+    assertEquals(3, pool.getAllocatedBuffers());
+  }
+}
@@ -0,0 +1,245 @@
+package org.openbot.pointGoalNavigation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.ar.core.Pose;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbot.tflite.Model;
+import org.openbot.tflite.Navigation;
+import org.openbot.tflite.Network.Device;
+import org.openbot.tflite.StubInferenceBackend;
+import org.openbot.vehicle.Control;
+import org.openbot.vehicle.Vehicle;
+
+@RunWith(AndroidJUnit4.class)
+public class NavigationWorkerTest {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+
+  /** Records the controls instead of sending them to the robot. */
+  private static class RecordingVehicle extends Vehicle {
+    final List<Control> controls = Collections.synchronizedList(new ArrayList<>());
+
+    RecordingVehicle() {
+      super(null, 115200);
+    }
+
+    @Override
+    public void setControl(float left, float right) {
+      controls.add(new Control(left, right));
+    }
+  }
+
+  /** A frame that remembers whether it was released. */
+  private static class TestFrame extends ImageFrame {
+    volatile boolean released;
+
+    TestFrame() {
+      super(
+          ByteBuffer.allocateDirect(WIDTH * HEIGHT),
+          ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4),
+          ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4),
+          WIDTH,
+          HEIGHT,
+          WIDTH,
+          WIDTH / 2,
+          1);
+    }
+
+    @Override
+    public void release() {
+      released = true;
+      super.release();
+    }
+  }
+
+  private final Model model =
+      new Model(
+          0,
+          Model.CLASS.NAVIGATION,
+          Model.TYPE.NAVIGATION,
+          "stub",
+          Model.PATH_TYPE.ASSET,
+          "networks/stub.tflite",
+          "160x90");
+  private final RecordingVehicle vehicle = new RecordingVehicle();
+  /** Counted down when the policy starts inference on a frame. */
+  private final CountDownLatch inferenceStarted = new CountDownLatch(1);
+  /** Lets every inference of the policy finish. */
+  private final CountDownLatch finishInference = new CountDownLatch(1);
+  private final CountDownLatch goalReached = new CountDownLatch(1);
+  /** Counted down when the worker starts creating the policy. */
+  private final CountDownLatch policyRequested = new CountDownLatch(1);
+  /** Lets the creation of the policy finish; open unless a test blocks it. */
+  private volatile CountDownLatch finishPolicyCreation = new CountDownLatch(0);
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final NavigationWorker worker =
+      new NavigationWorker(
+          (device, numThreads) -> {
+            policyRequested.countDown();
+            try {
+              assertTrue(finishPolicyCreation.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+              throw new AssertionError(e);
+            }
+            return createPolicy();
+          },
+          vehicle,
+          new NavigationWorker.Listener() {
+            @Override
+            public void onGoalReached() {
+              goalReached.countDown();
+            }
+
+            @Override
+            public void onPolicyError(Exception e) {
+              throw new AssertionError(e);
+            }
+          },
+          executor);
+
+  @After
+  public void tearDown() {
+    finishPolicyCreation.countDown();
+    finishInference.countDown();
+    worker.close();
+  }
+
+  private Navigation createPolicy() {
+    StubInferenceBackend backend =
+        new StubInferenceBackend()
+            .addInput("serving_default_goal_input:0", new int[] {1, 3}, null)
+            .addInput("serving_default_img_input:0", new int[] {1, 90, 160, 3}, null)
+            .addOutput("Identity", new int[] {1, 2}, null, new float[][] {{0.5f, 0.5f}});
+    return new Navigation(model, backend) {
+      @Override
+      public Control recognizePreprocessedImage(float goalDistance, float goalSin, float goalCos) {
+        inferenceStarted.countDown();
+        try {
+          assertTrue(finishInference.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+        return super.recognizePreprocessedImage(goalDistance, goalSin, goalCos);
+      }
+    };
+  }
+
+  /** Poses with the goal at the given distance straight ahead. */
+  private static NavigationPoses goalAhead(float distance) {
+    Pose start = Pose.makeTranslation(0, 0, 0);
+    return new NavigationPoses(start, Pose.makeTranslation(0, 0, -distance), start);
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  /** Waits until the worker has run the tasks queued so far. */
+  private void awaitQueuedTasks() throws Exception {
+    executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+  }
+
+  private void startWorker() throws InterruptedException {
+    worker.start(Device.CPU, 1);
+    await(worker::isRunning);
+  }
+
+  @Test
+  public void submit_whilePolicyIsBusy_keepsOnlyTheLatestFrame() throws InterruptedException {
+    startWorker();
+    TestFrame first = new TestFrame();
+    assertTrue(worker.submit(goalAhead(1), first));
+    assertTrue(inferenceStarted.await(5, TimeUnit.SECONDS));
+
+    TestFrame replaced = new TestFrame();
+    TestFrame latest = new TestFrame();
+    assertTrue(worker.submit(goalAhead(1), replaced));
+    assertTrue(worker.submit(goalAhead(1), latest));
+    assertTrue(replaced.released);
+    assertFalse(latest.released);
+
+    finishInference.countDown();
+    await(() -> worker.getProcessedFrames() == 2);
+    assertTrue(first.released);
+    assertTrue(latest.released);
+    assertEquals(3, worker.getSubmittedFrames());
+    assertEquals(1, worker.getDroppedFrames());
+    assertEquals(2, vehicle.controls.size());
+  }
+
+  @Test
+  public void stop_releasesThePendingFrameAndSendsNoControl() throws InterruptedException {
+    startWorker();
+    TestFrame running = new TestFrame();
+    assertTrue(worker.submit(goalAhead(1), running));
+    assertTrue(inferenceStarted.await(5, TimeUnit.SECONDS));
+    TestFrame pending = new TestFrame();
+    assertTrue(worker.submit(goalAhead(1), pending));
+
+    worker.stop();
+    assertTrue(pending.released);
+    finishInference.countDown();
+    await(() -> worker.getProcessedFrames() == 1);
+
+    // The control of the frame in flight is discarded, and new frames are not taken.
+    assertTrue(running.released);
+    assertTrue(vehicle.controls.isEmpty());
+    TestFrame afterStop = new TestFrame();
+    assertFalse(worker.submit(goalAhead(1), afterStop));
+    assertTrue(afterStop.released);
+  }
+
+  @Test
+  public void stop_whileThePolicyIsCreated_keepsTheWorkerStopped() throws Exception {
+    finishPolicyCreation = new CountDownLatch(1);
+    worker.start(Device.CPU, 1);
+    assertTrue(policyRequested.await(5, TimeUnit.SECONDS));
+
+    worker.stop();
+    finishPolicyCreation.countDown();
+    awaitQueuedTasks();
+
+    assertFalse(worker.isRunning());
+    TestFrame frame = new TestFrame();
+    assertFalse(worker.submit(goalAhead(1), frame));
+    assertTrue(frame.released);
+    awaitQueuedTasks();
+    assertTrue(vehicle.controls.isEmpty());
+  }
+
+  @Test
+  public void submit_atTheGoal_stopsTheRobot() throws InterruptedException {
+    startWorker();
+    TestFrame frame = new TestFrame();
+    assertTrue(worker.submit(goalAhead(0.1f), frame));
+
+    assertTrue(goalReached.await(5, TimeUnit.SECONDS));
+    assertFalse(worker.isRunning());
+    assertEquals(1, vehicle.controls.size());
+    assertEquals(0, vehicle.controls.get(0).getLeft(), 0);
+    assertEquals(0, vehicle.controls.get(0).getRight(), 0);
+    // The policy did not run.
+    assertEquals(1, inferenceStarted.getCount());
+  }
+}
@@ -0,0 +1,119 @@
+package org.openbot.pointGoalNavigation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class OccupancyGridTest {
+
+  private static final int NUM_CELLS = 32;
+  private static final float CELL_SIZE = 0.1f;
+
+  private final OccupancyGrid grid =
+      new OccupancyGrid(NUM_CELLS, CELL_SIZE).setSampleStep(2).setCameraHeight(0.1f);
+  private final CameraIntrinsics intrinsics = new CameraIntrinsics(40, 30, 20, 15, 20, 20);
+
+  /** A camera looking along the negative z axis from the given position. */
+  private static float[] cameraAt(float x, float z) {
+    float[] pose = new float[16];
+    pose[0] = pose[5] = pose[10] = pose[15] = 1;
+    pose[12] = x;
+    pose[14] = z;
+    return pose;
+  }
+
+  /** Depth in millimeters for the rows from {@code fromRow} on, no depth above. */
+  private static DepthFrame depth(int fromRow, short millimeters) {
+    return depth(fromRow, 30, millimeters);
+  }
+
+  /** Depth in millimeters for the rows from {@code fromRow} to {@code toRow}, exclusive. */
+  private static DepthFrame depth(int fromRow, int toRow, short millimeters) {
+    short[][] data = new short[30][40];
+    for (int row = fromRow; row < toRow; row++) {
+      for (int col = 0; col < data[row].length; col++) {
+        data[row][col] = millimeters;
+      }
+    }
+    return new DepthFrame(data);
+  }
+
+  @Test
+  public void integrate_marksWallAhead() {
+    DepthFrame wall = depth(0, (short) 1000);
+
+    grid.integrate(wall, intrinsics, cameraAt(0, 0));
+    // A single frame is not enough evidence.
+    assertFalse(grid.isOccupied(0, -0.95f));
+
+    grid.integrate(wall, intrinsics, cameraAt(0, 0));
+    assertTrue(grid.isOccupied(0, -0.95f));
+    assertTrue(grid.isOccupied(0.5f, -0.95f));
+    assertFalse(grid.isOccupied(0, -0.5f));
+    assertEquals(0.95f, grid.getFreeDistanceAhead(), CELL_SIZE);
+  }
+
+  @Test
+  public void integrate_clearsCellsWhereTheFloorIsSeen() {
+    DepthFrame wall = depth(0, (short) 1000);
+    grid.integrate(wall, intrinsics, cameraAt(0, 0));
+    grid.integrate(wall, intrinsics, cameraAt(0, 0));
+
+    // The wall is gone, only the floor below the camera is seen at the same distance.
+    DepthFrame floor = depth(17, (short) 950);
+    grid.integrate(floor, intrinsics, cameraAt(0, 0));
+    grid.integrate(floor, intrinsics, cameraAt(0, 0));
+
+    assertFalse(grid.isOccupied(0, -0.95f));
+    assertEquals(1.5f, grid.getFreeDistanceAhead(), 0);
+  }
+
+  @Test
+  public void integrate_marksLowObstaclesAboveTheFloorPlane() {
+    OccupancyGrid lowGrid = new OccupancyGrid(NUM_CELLS, CELL_SIZE).setSampleStep(1);
+    // A 5 cm high box 1 m ahead of a camera 15 cm above the floor, seen 10 cm below the camera.
+    lowGrid.setFloorY(-0.15f);
+    DepthFrame box = depth(17, 18, (short) 1000);
+
+    lowGrid.integrate(box, intrinsics, cameraAt(0, 0));
+    lowGrid.integrate(box, intrinsics, cameraAt(0, 0));
+    assertTrue(lowGrid.isOccupied(0, -1.f));
+  }
+
+  @Test
+  public void getFreeDistanceAhead_withoutNewFrames_reportsNoFreeSpace() {
+    grid.setMaxAge(100, TimeUnit.MILLISECONDS);
+    assertEquals(Float.POSITIVE_INFINITY, grid.getFreeDistanceAhead(), 0);
+
+    grid.integrate(depth(17, (short) 950), intrinsics, cameraAt(0, 0));
+    final long now = System.nanoTime();
+    assertEquals(1.5f, grid.getFreeDistanceAhead(now), 0);
+    assertEquals(0, grid.getFreeDistanceAhead(now + TimeUnit.SECONDS.toNanos(1)), 0);
+
+    grid.reset();
+    assertEquals(
+        Float.POSITIVE_INFINITY, grid.getFreeDistanceAhead(now + TimeUnit.SECONDS.toNanos(1)), 0);
+  }
+
+  @Test
+  public void integrate_reusesCellsLeftBehind() {
+    DepthFrame wall = depth(0, (short) 1000);
+    grid.integrate(wall, intrinsics, cameraAt(0, 0));
+    grid.integrate(wall, intrinsics, cameraAt(0, 0));
+    // Another world cell that maps to the same slot is unknown.
+    final float extent = NUM_CELLS * CELL_SIZE;
+    assertFalse(grid.isOccupied(0, extent - 0.95f));
+
+    // After driving on by the extent of the grid, the wall ahead replaces the old one.
+    grid.integrate(wall, intrinsics, cameraAt(0, extent));
+    assertFalse(grid.isOccupied(0, -0.95f));
+    grid.integrate(wall, intrinsics, cameraAt(0, extent));
+    assertTrue(grid.isOccupied(0, extent - 0.95f));
+  }
+}
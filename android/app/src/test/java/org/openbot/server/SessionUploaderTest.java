@@ -0,0 +1,183 @@
+package org.openbot.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionUploaderTest {
+
+  /** A file and the entries of its zip archive, as received by the stand-in server. */
+  private static class Upload {
+    String fileName;
+    String transferEncoding;
+    final Map<String, byte[]> entries = new HashMap<>();
+  }
+
+  private final List<Upload> uploads = Collections.synchronizedList(new ArrayList<>());
+  private HttpServer server;
+  private String uploadUrl;
+  private File session;
+  private volatile int status = 200;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/upload", this::handleUpload);
+    server.start();
+    uploadUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/upload";
+    session = Files.createTempDirectory("20210101_120000").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+    delete(session);
+  }
+
+  private static void delete(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) for (File child : children) delete(child);
+    file.delete();
+  }
+
+  private void handleUpload(HttpExchange exchange) throws IOException {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (InputStream in = exchange.getRequestBody()) {
+      final byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) >= 0) body.write(buffer, 0, read);
+    }
+    // The multipart body holds one part with the zip archive.
+    final byte[] bytes = body.toByteArray();
+    final String text = new String(bytes, StandardCharsets.ISO_8859_1);
+    final int zipStart = text.indexOf("\r\n\r\n") + 4;
+    final int zipEnd = text.lastIndexOf("\r\n--");
+    final Upload upload = new Upload();
+    upload.transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-encoding");
+    final int nameStart = text.indexOf("filename=\"") + 10;
+    upload.fileName = text.substring(nameStart, text.indexOf('"', nameStart));
+    try (ZipInputStream zip =
+        new ZipInputStream(new ByteArrayInputStream(bytes, zipStart, zipEnd - zipStart))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = zip.read(buffer)) >= 0) content.write(buffer, 0, read);
+        upload.entries.put(entry.getName(), content.toByteArray());
+      }
+    }
+    uploads.add(upload);
+
+    final byte[] response = "{}".getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, response.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(response);
+    }
+  }
+
+  private File write(String path, String content, long lastModified) throws IOException {
+    final File file = new File(session, path);
+    file.getParentFile().mkdirs();
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+    file.setLastModified(lastModified);
+    return file;
+  }
+
+  @Test
+  public void uploadClosedFiles_streamsFinishedFilesAsParts() throws IOException {
+    final long now = System.currentTimeMillis();
+    write("images/1_crop.jpeg", "image", now - 60000);
+    write("sensor_data/ctrlLog.txt", "timestamp[ns],leftCtrl,rightCtrl\n", now);
+    SessionUploader uploader = new SessionUploader(session, 5000);
+
+    assertTrue(uploader.uploadClosedFiles(uploadUrl));
+    // Nothing else was finished meanwhile.
+    assertTrue(uploader.uploadClosedFiles(uploadUrl));
+
+    assertEquals(1, uploads.size());
+    Upload part = uploads.get(0);
+    assertEquals("chunked", part.transferEncoding);
+    assertEquals(session.getName() + ".part1.zip", part.fileName);
+    assertEquals(Collections.singleton("images/1_crop.jpeg"), part.entries.keySet());
+    assertArrayEquals(
+        "image".getBytes(StandardCharsets.UTF_8), part.entries.get("images/1_crop.jpeg"));
+  }
+
+  @Test
+  public void uploadRemaining_sendsNewAndGrownFiles() throws IOException {
+    final long old = System.currentTimeMillis() - 60000;
+    write("images/1_crop.jpeg", "image", old);
+    write("sensor_data/indicatorLog.txt", "timestamp[ns],signal\n", old);
+    SessionUploader uploader = new SessionUploader(session, 5000);
+    assertTrue(uploader.uploadClosedFiles(uploadUrl));
+
+    write("sensor_data/indicatorLog.txt", "1,0\n", old);
+    write("sensor_data/ctrlLog.txt", "timestamp[ns],leftCtrl,rightCtrl\n", old);
+    assertTrue(uploader.uploadRemaining(uploadUrl));
+
+    assertEquals(2, uploads.size());
+    Upload last = uploads.get(1);
+    assertEquals(session.getName() + ".zip", last.fileName);
+    assertEquals(2, last.entries.size());
+    assertEquals(
+        "timestamp[ns],signal\n1,0\n",
+        new String(last.entries.get("sensor_data/indicatorLog.txt"), StandardCharsets.UTF_8));
+    assertTrue(last.entries.containsKey("sensor_data/ctrlLog.txt"));
+    assertEquals(2, uploader.getUploadedParts());
+  }
+
+  @Test
+  public void uploadRemaining_skipsBinaryLogs() throws IOException {
+    final long old = System.currentTimeMillis() - 60000;
+    write("sensor_data/ctrlLog.bin", "binary", old);
+    write("sensor_data/ctrlLog.txt", "timestamp[ns],leftCtrl,rightCtrl\n", old);
+    SessionUploader uploader = new SessionUploader(session, 5000);
+
+    assertTrue(uploader.uploadRemaining(uploadUrl));
+
+    assertEquals(1, uploads.size());
+    assertEquals(Collections.singleton("sensor_data/ctrlLog.txt"), uploads.get(0).entries.keySet());
+  }
+
+  @Test
+  public void upload_withServerError_retriesFilesLater() throws IOException {
+    write("images/1_crop.jpeg", "image", System.currentTimeMillis() - 60000);
+    SessionUploader uploader = new SessionUploader(session, 5000);
+
+    status = 500;
+    assertFalse(uploader.uploadClosedFiles(uploadUrl));
+    status = 200;
+    assertTrue(uploader.uploadRemaining(uploadUrl));
+
+    assertEquals(2, uploads.size());
+    assertTrue(uploads.get(1).entries.containsKey("images/1_crop.jpeg"));
+    assertEquals(1, uploader.getUploadedParts());
+  }
+}
@@ -0,0 +1,49 @@
+package org.openbot.tflite;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+
+/** Counts the bytes that the calling thread allocates on the JVM running the unit tests. */
+class AllocationCounter {
+
+  private static final ThreadMXBean THREAD_MX_BEAN =
+      (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private final long threadId = Thread.currentThread().getId();
+  /** What reading the counter allocates itself. */
+  private final long overhead;
+
+  /** Whether the JVM counts the allocations per thread; check it with {@code Assume}. */
+  static boolean isSupported() {
+    if (!THREAD_MX_BEAN.isThreadAllocatedMemorySupported()) return false;
+    THREAD_MX_BEAN.setThreadAllocatedMemoryEnabled(true);
+    return THREAD_MX_BEAN.isThreadAllocatedMemoryEnabled();
+  }
+
+  AllocationCounter() {
+    allocatedBytes();
+    overhead = -allocatedBytes() + allocatedBytes();
+  }
+
+  private long allocatedBytes() {
+    return THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+  }
+
+  /** Runs the task on the calling thread and returns the bytes it allocated. */
+  long measure(Runnable task) {
+    final long before = allocatedBytes();
+    task.run();
+    return allocatedBytes() - before - overhead;
+  }
+
+  /**
+   * Runs the task several times and returns the fewest bytes a run allocated, so that a one-time
+   * allocation of the JVM, e.g. while it recompiles a method, is not counted. An allocation of the
+   * task itself shows in every run.
+   */
+  long measureMinimum(Runnable task, int runs) {
+    long minimum = Long.MAX_VALUE;
+    for (int i = 0; i < runs; i++) minimum = Math.min(minimum, measure(task));
+    return minimum;
+  }
+}
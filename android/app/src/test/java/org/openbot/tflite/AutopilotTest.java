@@ -0,0 +1,149 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbot.vehicle.Control;
+
+/** Runs the autopilot pre- and post-processing against a {@link StubInferenceBackend}. */
+@RunWith(AndroidJUnit4.class)
+public class AutopilotTest {
+
+  private static final int[] IMAGE_SHAPE = {1, 96, 256, 3};
+
+  private final Model model =
+      new Model(
+          1,
+          Model.CLASS.AUTOPILOT_F,
+          Model.TYPE.AUTOPILOT,
+          "stub",
+          Model.PATH_TYPE.ASSET,
+          "networks/stub.tflite",
+          "256x96");
+
+  /** Records every object the network passes to the backend, by identity. */
+  private static class RecordingBackend extends StubInferenceBackend {
+    final Set<Object> inputArrays = Collections.newSetFromMap(new IdentityHashMap<>());
+    final Set<Object> inputs = Collections.newSetFromMap(new IdentityHashMap<>());
+    final Set<Object> outputMaps = Collections.newSetFromMap(new IdentityHashMap<>());
+    final Set<Object> outputs = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    @Override
+    public void run(Object[] inputs, Map<Integer, Object> outputs) {
+      super.run(inputs, outputs);
+      inputArrays.add(inputs);
+      Collections.addAll(this.inputs, inputs);
+      outputMaps.add(outputs);
+      this.outputs.addAll(outputs.values());
+    }
+  }
+
+  @Test
+  public void recognizeImage_reusesInputsOutputsAndControls() {
+    RecordingBackend backend = new RecordingBackend();
+    backend
+        .addInput("serving_default_img_input:0", IMAGE_SHAPE, null)
+        .addInput("serving_default_cmd_input:0", new int[] {1, 1}, null)
+        .addOutput("Identity", new int[] {1, 2}, null, null);
+    Autopilot autopilot = Autopilot.create(model, backend);
+    Bitmap bitmap = Bitmap.createBitmap(IMAGE_SHAPE[2], IMAGE_SHAPE[1], Bitmap.Config.ARGB_8888);
+
+    Set<Control> controls = Collections.newSetFromMap(new IdentityHashMap<>());
+    int frames = 3 * ControlOutput.POOL_SIZE;
+    for (int frame = 0; frame < frames; frame++) {
+      float left = frame / (float) frames;
+      backend.setOutput(0, new float[][] {{left, -left}});
+      Control control = autopilot.recognizeImage(bitmap, frame % 3 - 1);
+      assertEquals(left, control.getLeft(), 0.0f);
+      assertEquals(-left, control.getRight(), 0.0f);
+      controls.add(control);
+    }
+
+    // Every frame runs on the same buffers and returns one of the pooled controls.
+    assertEquals(frames, backend.getNumRuns());
+    assertEquals(1, backend.inputArrays.size());
+    assertEquals(2, backend.inputs.size());
+    assertEquals(1, backend.outputMaps.size());
+    assertEquals(1, backend.outputs.size());
+    assertEquals(ControlOutput.POOL_SIZE, controls.size());
+  }
+
+  @Test
+  public void recognizeImage_doesNotAllocateAfterWarmUp() {
+    Assume.assumeTrue(AllocationCounter.isSupported());
+    StubInferenceBackend backend =
+        new StubInferenceBackend()
+            .addInput("serving_default_img_input:0", IMAGE_SHAPE, null)
+            .addInput("serving_default_cmd_input:0", new int[] {1, 1}, null)
+            .addOutput("Identity", new int[] {1, 2}, null, new float[][] {{0.5f, -0.5f}});
+    Autopilot autopilot = Autopilot.create(model, backend);
+    Bitmap bitmap = Bitmap.createBitmap(IMAGE_SHAPE[2], IMAGE_SHAPE[1], Bitmap.Config.ARGB_8888);
+    Runnable frames =
+        () -> {
+          for (int frame = 0; frame < 100; frame++) {
+            autopilot.recognizeImage(bitmap, frame % 3 - 1);
+          }
+        };
+    for (int i = 0; i < 10; i++) frames.run();
+
+    assertEquals(0, new AllocationCounter().measureMinimum(frames, 5));
+  }
+
+  @Test
+  public void floatModel_returnsTheControlOfTheBackend() {
+    StubInferenceBackend backend =
+        new StubInferenceBackend()
+            .addInput("serving_default_img_input:0", IMAGE_SHAPE, null)
+            .addInput("serving_default_cmd_input:0", new int[] {1, 1}, null)
+            .addOutput("Identity", new int[] {1, 2}, null, new float[][] {{0.25f, -0.5f}});
+
+    Autopilot autopilot = Autopilot.create(model, backend);
+    Control control = autopilot.recognizePreprocessedImage(1);
+
+    assertTrue(autopilot instanceof AutopilotFloat);
+    assertEquals(0.25f, control.getLeft(), 0.0f);
+    assertEquals(-0.5f, control.getRight(), 0.0f);
+    assertEquals(1, backend.getNumRuns());
+  }
+
+  @Test
+  public void quantizedModel_isDetectedAndDequantized() {
+    Quantization output = new Quantization(1 / 127.f, 0, true);
+    StubInferenceBackend backend =
+        new StubInferenceBackend()
+            .addInput("cmd_input", new int[] {1, 1}, new Quantization(1.f, 0, true))
+            .addInput("img_input", IMAGE_SHAPE, new Quantization(1 / 255.f, -128, true))
+            .addOutput("Identity", new int[] {1, 2}, output, new byte[][] {{127, -64}});
+
+    Autopilot autopilot = Autopilot.create(model, backend);
+    autopilot.setNumInputBuffers(2);
+    autopilot.selectInputBuffer(1);
+    Control control = autopilot.recognizePreprocessedImage(-1);
+
+    assertTrue(autopilot instanceof AutopilotQuantized);
+    assertEquals(1.f, control.getLeft(), 1e-6f);
+    assertEquals(-64 / 127.f, control.getRight(), 1e-6f);
+  }
+
+  @Test
+  public void create_loadsTheBackendWithTheGivenFactory() throws Exception {
+    StubInferenceBackend backend =
+        new StubInferenceBackend()
+            .addInput("serving_default_img_input:0", IMAGE_SHAPE, null)
+            .addInput("serving_default_cmd_input:0", new int[] {1, 1}, null)
+            .addOutput("Identity", new int[] {1, 2}, null, new float[][] {{0.f, 0.f}});
+    Autopilot autopilot =
+        Autopilot.create(backend.asFactory(), null, model, Network.Device.CPU, 1);
+    autopilot.close();
+    assertTrue(backend.isClosed());
+  }
+}
@@ -0,0 +1,48 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Map;
+import org.junit.Test;
+import org.openbot.vehicle.Control;
+
+public class ControlOutputTest {
+
+  @Test
+  public void toControl_recyclesControls() {
+    ControlOutput controlOutput = new ControlOutput();
+    controlOutput.tensor[0][0] = 0.5f;
+    controlOutput.tensor[0][1] = 2.0f;
+    Control first = controlOutput.toControl();
+    assertEquals(0.5f, first.getLeft(), 0.0f);
+    assertEquals(1.0f, first.getRight(), 0.0f);
+
+    Control second = controlOutput.toControl();
+    assertNotSame(first, second);
+    for (int i = 2; i < ControlOutput.POOL_SIZE; i++) controlOutput.toControl();
+    assertSame(first, controlOutput.toControl());
+  }
+
+  @Test
+  public void outputMap_behavesLikeAMap() {
+    OutputMap outputMap = new OutputMap(4);
+    float[] a = new float[1];
+    float[] b = new float[1];
+    outputMap.put(3, a);
+    outputMap.put(1, b);
+
+    assertEquals(2, outputMap.size());
+    assertSame(a, outputMap.get(3));
+    assertSame(b, outputMap.get(1));
+    assertEquals(null, outputMap.get(0));
+
+    int keys = 0;
+    for (Map.Entry<Integer, Object> entry : outputMap.entrySet()) keys += entry.getKey();
+    assertEquals(4, keys);
+
+    outputMap.remove(3);
+    assertEquals(1, outputMap.size());
+  }
+}
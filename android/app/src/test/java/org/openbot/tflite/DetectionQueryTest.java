@@ -0,0 +1,47 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import org.junit.Test;
+
+public class DetectionQueryTest {
+
+  @Test
+  public void classIds_areAcceptedAndListedInOrder() {
+    BitSet classIds = new BitSet();
+    classIds.set(17);
+    classIds.set(0);
+    DetectionQuery query = new DetectionQuery(classIds, 0.5f, 10);
+    classIds.set(3);
+
+    assertFalse(query.isAllClasses());
+    assertTrue(query.accepts(0));
+    assertTrue(query.accepts(17));
+    assertFalse(query.accepts(3));
+    assertFalse(query.accepts(-1));
+    assertFalse(query.accepts(1000));
+    assertEquals(2, query.getNumClassIds());
+    assertEquals(0, query.getClassId(0));
+    assertEquals(17, query.getClassId(1));
+    assertEquals(0.5f, query.getMinConfidence(), 0.0f);
+    assertEquals(10, query.getMaxResults());
+  }
+
+  @Test
+  public void allClasses_acceptsEveryValidId() {
+    DetectionQuery query = new DetectionQuery(null, 0.0f, Integer.MAX_VALUE);
+
+    assertTrue(query.isAllClasses());
+    assertTrue(query.accepts(0));
+    assertTrue(query.accepts(79));
+    assertFalse(query.accepts(-1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeMaxResults_isRejected() {
+    new DetectionQuery(null, 0.0f, -1);
+  }
+}
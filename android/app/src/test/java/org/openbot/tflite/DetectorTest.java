@@ -0,0 +1,69 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class DetectorTest {
+
+  private final Model model =
+      new Model(
+          3,
+          Model.CLASS.MOBILENETV1_1_0_Q,
+          Model.TYPE.DETECTOR,
+          "stub",
+          Model.PATH_TYPE.ASSET,
+          "networks/stub.tflite",
+          "4x4");
+
+  /** Two person boxes that overlap by an IoU of 1/3. */
+  private Detector createDetector() {
+    StubInferenceBackend backend =
+        new StubInferenceBackend()
+            .addInput("normalized_input_image_tensor", new int[] {1, 4, 4, 3}, null)
+            .addOutput(
+                "TFLite_Detection_PostProcess",
+                new int[] {1, 2, 4},
+                null,
+                new float[][][] {{{0, 0, 1, 0.5f}, {0, 0.25f, 1, 0.75f}}})
+            .addOutput(
+                "TFLite_Detection_PostProcess:1", new int[] {1, 2}, null, new float[][] {{0, 0}})
+            .addOutput(
+                "TFLite_Detection_PostProcess:2",
+                new int[] {1, 2},
+                null,
+                new float[][] {{0.9f, 0.6f}})
+            .addOutput("TFLite_Detection_PostProcess:3", new int[] {1}, null, new float[] {2});
+    return Detector.create(model, backend, Arrays.asList("???", "person"));
+  }
+
+  private static List<Detector.Recognition> detect(Detector detector) {
+    return detector.recognizePreprocessedImage(detector.createQueryForAll(0.f, 10));
+  }
+
+  @Test
+  public void nms_usesTheConfiguredThreshold() {
+    Detector detector = createDetector();
+    assertEquals(0.25f, detector.getNmsThreshold(), 0.0f);
+    assertEquals(1, detect(detector).size());
+
+    detector.setNmsThreshold(0.5f);
+    assertEquals(2, detect(detector).size());
+  }
+
+  @Test
+  public void nms_withSoftNms_decaysOverlappingScores() {
+    Detector detector = createDetector();
+    detector.setNmsMethod(NonMaxSuppression.Method.LINEAR);
+
+    List<Detector.Recognition> recognitions = detect(detector);
+    assertEquals(2, recognitions.size());
+    assertEquals(0.9f, recognitions.get(0).getConfidence(), 1e-6f);
+    assertEquals(0.6f * (1 - 1 / 3.f), recognitions.get(1).getConfidence(), 1e-6f);
+  }
+}
@@ -0,0 +1,84 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import org.openbot.env.LumaFrame;
+
+public class FrameChangeGateTest {
+
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+
+  /** A frame of uniform brightness with a padded row stride. */
+  private static LumaFrame frame(int brightness) {
+    byte[] pixels = new byte[(WIDTH + 8) * HEIGHT];
+    Arrays.fill(pixels, (byte) brightness);
+    return new LumaFrame(ByteBuffer.wrap(pixels), WIDTH, HEIGHT, WIDTH + 8, 1);
+  }
+
+  @Test
+  public void shouldSkip_reusesResultOfUnchangedFramesWhileStandingStill() {
+    FrameChangeGate gate = new FrameChangeGate().setChangeThreshold(3).setMaxSpeedPercent(5);
+
+    assertFalse(gate.shouldSkip(frame(100), 0));
+    assertTrue(gate.shouldSkip(frame(101), 0));
+    // Too fast.
+    assertFalse(gate.shouldSkip(frame(101), 20));
+    // Reversing counts as well.
+    assertFalse(gate.shouldSkip(frame(101), -20));
+    // Too different.
+    assertFalse(gate.shouldSkip(frame(120), 0));
+
+    assertEquals(5, gate.getCheckedFrames());
+    assertEquals(1, gate.getSkippedFrames());
+    assertEquals(0.2f, gate.getSkipRatio(), 1e-6f);
+  }
+
+  @Test
+  public void shouldSkip_comparesWithLastInferredFrame() {
+    FrameChangeGate gate = new FrameChangeGate().setChangeThreshold(3);
+
+    assertFalse(gate.shouldSkip(frame(100), 0));
+    assertTrue(gate.shouldSkip(frame(102), 0));
+    // Only 2 away from the previous frame, but 4 from the inferred one.
+    assertFalse(gate.shouldSkip(frame(104), 0));
+    assertTrue(gate.shouldSkip(frame(104), 0));
+  }
+
+  @Test
+  public void shouldSkip_infersAfterMaxSkippedFramesAndReset() {
+    FrameChangeGate gate = new FrameChangeGate().setMaxSkippedFrames(2);
+
+    assertFalse(gate.shouldSkip(frame(100), 0));
+    assertTrue(gate.shouldSkip(frame(100), 0));
+    assertTrue(gate.shouldSkip(frame(100), 0));
+    assertFalse(gate.shouldSkip(frame(100), 0));
+    assertTrue(gate.shouldSkip(frame(100), 0));
+
+    gate.reset();
+    assertFalse(gate.shouldSkip(frame(100), 0));
+  }
+
+  @Test
+  public void computeSignature_averagesCells() {
+    byte[] pixels = new byte[WIDTH * HEIGHT];
+    // Brighten the right half of the image.
+    for (int y = 0; y < HEIGHT; y++) {
+      Arrays.fill(pixels, y * WIDTH + WIDTH / 2, (y + 1) * WIDTH, (byte) 200);
+    }
+    LumaFrame frame = new LumaFrame(ByteBuffer.wrap(pixels), WIDTH, HEIGHT, WIDTH, 1);
+    int[] signature = new int[4];
+
+    new FrameChangeGate(2, 2, 4).computeSignature(frame, signature);
+
+    assertEquals(0, signature[0]);
+    assertEquals(200, signature[1]);
+    assertEquals(0, signature[2]);
+    assertEquals(200, signature[3]);
+  }
+}
@@ -0,0 +1,197 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class InferencePipelineTest {
+
+  /** Runs tasks only when asked to, so that the stages can be interleaved deterministically. */
+  private static class ManualExecutor implements Executor {
+    final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runNext() {
+      tasks.remove().run();
+    }
+  }
+
+  private final ManualExecutor inferenceExecutor = new ManualExecutor();
+  private final ManualExecutor actuationExecutor = new ManualExecutor();
+  private final long[] written = new long[3];
+  private final List<Long> inferred = new ArrayList<>();
+  private final List<Long> actuated = new ArrayList<>();
+  private Runnable duringInference = () -> {};
+
+  private InferencePipeline<long[], Long> createPipeline(int numBuffers) {
+    return new InferencePipeline<>(
+        written,
+        numBuffers,
+        inferenceExecutor,
+        actuationExecutor,
+        (buffers, index, frameId) -> {
+          // The buffer has to hold the frame that was queued.
+          assertEquals(frameId, buffers[index]);
+          duringInference.run();
+          assertEquals(frameId, buffers[index]);
+          inferred.add(frameId);
+          return frameId;
+        },
+        (result, frameId) -> actuated.add(result));
+  }
+
+  private static boolean submit(InferencePipeline<long[], Long> pipeline, long frameId) {
+    return pipeline.submit(frameId, (buffers, index) -> buffers[index] = frameId);
+  }
+
+  @Test
+  public void latestFrameWins() {
+    InferencePipeline<long[], Long> pipeline = createPipeline(3);
+    assertTrue(submit(pipeline, 1));
+    assertTrue(submit(pipeline, 2));
+    assertTrue(submit(pipeline, 3));
+    assertEquals(1, inferenceExecutor.tasks.size());
+
+    inferenceExecutor.runNext();
+    actuationExecutor.runNext();
+
+    assertEquals(Arrays.asList(3L), inferred);
+    assertEquals(Arrays.asList(3L), actuated);
+    assertEquals(3, pipeline.getSubmittedFrames());
+    assertEquals(2, pipeline.getDroppedFrames());
+    assertTrue(inferenceExecutor.tasks.isEmpty());
+  }
+
+  @Test
+  public void preprocessingOverlapsInference() {
+    InferencePipeline<long[], Long> pipeline = createPipeline(3);
+    submit(pipeline, 1);
+    duringInference =
+        () -> {
+          duringInference = () -> {};
+          assertTrue(submit(pipeline, 2));
+          assertTrue(submit(pipeline, 3));
+        };
+
+    inferenceExecutor.runNext();
+    // The frame that arrived during inference is scheduled right away.
+    assertEquals(1, inferenceExecutor.tasks.size());
+    inferenceExecutor.runNext();
+    actuationExecutor.runNext();
+
+    assertEquals(Arrays.asList(1L, 3L), inferred);
+    assertEquals(Arrays.asList(3L), actuated);
+    assertEquals(1, pipeline.getDroppedFrames());
+    assertEquals(1, pipeline.getDroppedResults());
+  }
+
+  @Test
+  public void twoBuffers_reusePendingBuffer() {
+    InferencePipeline<long[], Long> pipeline = createPipeline(2);
+    submit(pipeline, 1);
+    duringInference =
+        () -> {
+          duringInference = () -> {};
+          assertTrue(submit(pipeline, 2));
+          assertTrue(submit(pipeline, 3));
+          assertTrue(submit(pipeline, 4));
+        };
+
+    inferenceExecutor.runNext();
+    inferenceExecutor.runNext();
+
+    assertEquals(Arrays.asList(1L, 4L), inferred);
+    assertEquals(2, pipeline.getDroppedFrames());
+  }
+
+  @Test
+  public void oneBuffer_dropsFramesDuringInference() {
+    InferencePipeline<long[], Long> pipeline = createPipeline(1);
+    submit(pipeline, 1);
+    duringInference = () -> assertFalse(submit(pipeline, 2));
+
+    inferenceExecutor.runNext();
+
+    assertEquals(Arrays.asList(1L), inferred);
+    assertEquals(1, pipeline.getDroppedFrames());
+    assertTrue(inferenceExecutor.tasks.isEmpty());
+  }
+
+  @Test
+  public void close_dropsWaitingWork() {
+    InferencePipeline<long[], Long> pipeline = createPipeline(3);
+    submit(pipeline, 1);
+    pipeline.close();
+    assertFalse(submit(pipeline, 2));
+
+    inferenceExecutor.runNext();
+
+    assertTrue(inferred.isEmpty());
+    assertTrue(actuationExecutor.tasks.isEmpty());
+  }
+
+  @Test
+  public void close_waitsForRunningPreprocessing() throws InterruptedException {
+    InferencePipeline<long[], Long> pipeline = createPipeline(3);
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean preprocessed = new AtomicBoolean();
+    Thread camera =
+        new Thread(
+            () ->
+                pipeline.submit(
+                    1,
+                    (buffers, index) -> {
+                      writing.countDown();
+                      try {
+                        release.await();
+                      } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                      }
+                      preprocessed.set(true);
+                    }));
+    camera.start();
+    assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+    Thread closer = new Thread(pipeline::close);
+    closer.start();
+    closer.join(100);
+    assertTrue(closer.isAlive());
+
+    release.countDown();
+    closer.join(5000);
+    assertFalse(closer.isAlive());
+    assertTrue(preprocessed.get());
+    camera.join();
+    assertTrue(inferenceExecutor.tasks.isEmpty());
+  }
+
+  @Test
+  public void stageTimesAreRecorded() {
+    InferencePipeline<long[], Long> pipeline = createPipeline(3);
+    submit(pipeline, 1);
+    inferenceExecutor.runNext();
+    actuationExecutor.runNext();
+
+    for (InferencePipeline.Stage stage : InferencePipeline.Stage.values()) {
+      assertTrue(pipeline.getAverageStageTimeMs(stage) > 0);
+    }
+    assertEquals(1, pipeline.getActuatedResults());
+    assertTrue(pipeline.getLastStageTimeMs(InferencePipeline.Stage.INFERENCE) > 0);
+  }
+}
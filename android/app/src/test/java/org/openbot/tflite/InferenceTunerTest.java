@@ -0,0 +1,147 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class InferenceTunerTest {
+
+  private final Model model =
+      new Model(
+          0,
+          Model.CLASS.AUTOPILOT_F,
+          Model.TYPE.AUTOPILOT,
+          "autopilot_float.tflite",
+          Model.PATH_TYPE.ASSET,
+          "networks/autopilot_float.tflite",
+          "256x96");
+
+  private final List<StubInferenceBackend> loaded = new ArrayList<>();
+
+  /** CPU latency drops up to two threads and rises again, the GPU cannot be loaded. */
+  private StubInferenceBackend load(Network.Device device, int numThreads) throws IOException {
+    if (device == Network.Device.GPU) {
+      throw new IllegalArgumentException("No GPU delegate");
+    }
+    long latencyMs = device == Network.Device.NNAPI ? 6 : Math.abs(numThreads - 2) * 2 + 2;
+    StubInferenceBackend backend =
+        new StubInferenceBackend()
+            .addInput("img_input", new int[] {1, 96, 256, 3}, null)
+            .addInput("cmd_input", new int[] {1, 1}, null)
+            .addOutput("Identity", new int[] {1, 2}, null, new float[][] {{0.1f, 0.2f}})
+            .setLatency(latencyMs, TimeUnit.MILLISECONDS);
+    loaded.add(backend);
+    return backend;
+  }
+
+  private InferenceTuner createTuner() {
+    return new InferenceTuner((activity, model, device, numThreads) -> load(device, numThreads))
+        .setDevices(Network.Device.CPU, Network.Device.GPU, Network.Device.NNAPI)
+        .setMaxThreads(4)
+        .setNumWarmupRuns(1)
+        .setNumRuns(5);
+  }
+
+  @Test
+  public void tune_picksFastestLoadableConfigurationAndClosesBackends() {
+    InferenceTuner tuner = createTuner();
+
+    List<InferenceTuner.Configuration> results = tuner.benchmark(null, model);
+    InferenceTuner.Configuration best = InferenceTuner.selectBest(results);
+
+    // CPU with 1 to 4 threads and NNAPI; the GPU failed to load and was skipped.
+    assertEquals(5, results.size());
+    assertEquals(Network.Device.CPU, best.device);
+    assertEquals(2, best.numThreads);
+    assertTrue(best.medianMs >= 2 && best.p95Ms >= best.medianMs);
+    for (StubInferenceBackend backend : loaded) {
+      assertTrue(backend.isClosed());
+      assertEquals(6, backend.getNumRuns());
+    }
+  }
+
+  @Test
+  public void tune_returnsNullIfNothingLoads() {
+    InferenceTuner tuner = createTuner().setDevices(Network.Device.GPU);
+    assertNull(tuner.tune(null, model));
+  }
+
+  @Test
+  public void percentile_usesNearestRank() {
+    long[] sorted = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+    assertEquals(5, InferenceTuner.percentile(sorted, 0.5));
+    assertEquals(10, InferenceTuner.percentile(sorted, 0.95));
+    assertEquals(1, InferenceTuner.percentile(new long[] {1}, 0.95));
+  }
+
+  @Test
+  public void selectBest_breaksTiesByP95() {
+    InferenceTuner.Configuration a = new InferenceTuner.Configuration(Network.Device.CPU, 4, 5, 9);
+    InferenceTuner.Configuration b = new InferenceTuner.Configuration(Network.Device.GPU, 1, 5, 6);
+    InferenceTuner.Configuration c = new InferenceTuner.Configuration(Network.Device.CPU, 2, 7, 7);
+    assertEquals(b, InferenceTuner.selectBest(Arrays.asList(a, b, c)));
+  }
+
+  @Test
+  public void selectBest_breaksFullTiesByFewerThreads() {
+    InferenceTuner.Configuration a = new InferenceTuner.Configuration(Network.Device.CPU, 4, 5, 6);
+    InferenceTuner.Configuration b = new InferenceTuner.Configuration(Network.Device.CPU, 2, 5, 6);
+    InferenceTuner.Configuration c = new InferenceTuner.Configuration(Network.Device.CPU, 3, 5, 6);
+    assertEquals(b, InferenceTuner.selectBest(Arrays.asList(a, b, c)));
+  }
+
+  @Test
+  public void tuneInBackground_reportsBestOnItsOwnThreadOnce() throws InterruptedException {
+    InferenceTuner tuner = createTuner();
+    CountDownLatch tuned = new CountDownLatch(1);
+    AtomicReference<InferenceTuner.Configuration> best = new AtomicReference<>();
+    AtomicReference<Thread> thread = new AtomicReference<>();
+    AtomicBoolean tuningWhenReported = new AtomicBoolean();
+
+    assertTrue(
+        tuner.tuneInBackground(
+            null,
+            model,
+            (tunedModel, configuration) -> {
+              best.set(configuration);
+              thread.set(Thread.currentThread());
+              tuningWhenReported.set(tuner.isTuning());
+              tuned.countDown();
+            }));
+    // The model is benchmarked already.
+    assertFalse(tuner.tuneInBackground(null, model, (tunedModel, configuration) -> {}));
+
+    assertTrue(tuned.await(10, TimeUnit.SECONDS));
+    assertEquals(Network.Device.CPU, best.get().device);
+    assertEquals(2, best.get().numThreads);
+    assertNotSame(Thread.currentThread(), thread.get());
+    // Callers keep their inference paused until the winner is reported.
+    assertTrue(tuningWhenReported.get());
+  }
+
+  @Test
+  public void configuration_survivesEncoding() {
+    InferenceTuner.Configuration configuration =
+        new InferenceTuner.Configuration(Network.Device.NNAPI, 1, 3.5, 4.25);
+    InferenceTuner.Configuration decoded =
+        InferenceTuner.Configuration.decode(configuration.encode());
+    assertEquals(Network.Device.NNAPI, decoded.device);
+    assertEquals(1, decoded.numThreads);
+    assertEquals(3.5, decoded.medianMs, 0.0);
+    assertEquals(4.25, decoded.p95Ms, 0.0);
+    assertNull(InferenceTuner.Configuration.decode("TPU,1,2,3"));
+    assertNull(InferenceTuner.Configuration.decode(null));
+  }
+}
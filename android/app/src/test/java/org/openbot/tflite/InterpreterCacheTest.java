@@ -0,0 +1,115 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class InterpreterCacheTest {
+
+  /** Inputs and outputs of the stub take 1 * 4 * 4 * 3 + 4 * 2 = 56 bytes. */
+  private static final long SIZE = 56;
+
+  private final List<StubInferenceBackend> loaded = new ArrayList<>();
+
+  private final InterpreterCache cache =
+      new InterpreterCache(
+          (activity, model, device, numThreads) -> {
+            StubInferenceBackend backend =
+                new StubInferenceBackend()
+                    .addInput("image", new int[] {1, 4, 4, 3}, new Quantization(1, 0, false))
+                    .addOutput("control", new int[] {1, 2}, null, new float[][] {{1, 2}});
+            loaded.add(backend);
+            return backend;
+          },
+          2 * SIZE);
+
+  private static Model model(String path) {
+    return new Model(
+        0,
+        Model.CLASS.AUTOPILOT_Q,
+        Model.TYPE.AUTOPILOT,
+        path,
+        Model.PATH_TYPE.ASSET,
+        path,
+        "4x4");
+  }
+
+  @Test
+  public void load_warmsUpAndReusesClosedBackends() throws IOException {
+    InferenceBackend first = cache.load(null, model("a"), Network.Device.CPU, 4);
+    assertEquals(1, loaded.size());
+    assertEquals(1, loaded.get(0).getNumRuns());
+    first.close();
+    assertFalse(loaded.get(0).isClosed());
+    assertEquals(SIZE, cache.getIdleSize());
+
+    InferenceBackend second = cache.load(null, model("a"), Network.Device.CPU, 4);
+    assertEquals(1, loaded.size());
+    assertEquals(1, cache.getHits());
+    assertEquals(0, cache.getIdleSize());
+    assertNotSame(first, second);
+
+    // A different number of threads needs another interpreter.
+    cache.load(null, model("a"), Network.Device.CPU, 2);
+    assertEquals(2, loaded.size());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void load_handsOutABackendToOneNetworkAtATime() throws IOException {
+    cache.load(null, model("a"), Network.Device.CPU, 1);
+    cache.load(null, model("a"), Network.Device.CPU, 1);
+    assertEquals(2, loaded.size());
+  }
+
+  @Test
+  public void load_closesGpuBackendsInsteadOfCachingThem() throws IOException {
+    InferenceBackend gpu = cache.load(null, model("a"), Network.Device.GPU, 1);
+    assertEquals(1, loaded.get(0).getNumRuns());
+    gpu.close();
+
+    assertTrue(loaded.get(0).isClosed());
+    assertEquals(0, cache.getNumIdle());
+    cache.load(null, model("a"), Network.Device.GPU, 1);
+    assertEquals(2, loaded.size());
+    assertEquals(0, cache.getHits());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void run_afterCloseThrows() throws IOException {
+    InferenceBackend backend = cache.load(null, model("a"), Network.Device.CPU, 1);
+    backend.close();
+    backend.close();
+    backend.run(new Object[] {new byte[48]}, new OutputMap(1));
+  }
+
+  @Test
+  public void release_evictsLeastRecentlyUsedBeyondBudget() throws IOException {
+    InferenceBackend a = cache.load(null, model("a"), Network.Device.CPU, 1);
+    InferenceBackend b = cache.load(null, model("b"), Network.Device.CPU, 1);
+    InferenceBackend c = cache.load(null, model("c"), Network.Device.CPU, 1);
+    a.close();
+    b.close();
+    cache.load(null, model("a"), Network.Device.CPU, 1).close();
+    c.close();
+
+    // "b" was used least recently.
+    assertEquals(2, cache.getNumIdle());
+    assertEquals(1, cache.getEvictions());
+    assertFalse(loaded.get(0).isClosed());
+    assertTrue(loaded.get(1).isClosed());
+    assertFalse(loaded.get(2).isClosed());
+
+    cache.setMemoryBudget(SIZE);
+    assertTrue(loaded.get(0).isClosed());
+    cache.clear();
+    assertTrue(loaded.get(2).isClosed());
+    assertEquals(0, cache.getIdleSize());
+  }
+}
@@ -0,0 +1,120 @@
+package org.openbot.tflite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The former Detector.nms/box_iou, with RectF/Recognition replaced by a plain box so that it runs
+ * on the JVM. Used as reference for {@link NonMaxSuppression}.
+ */
+class LegacyNms {
+
+  static class Box {
+    final int index;
+    final int classId;
+    final float confidence;
+    final float left;
+    final float top;
+    final float right;
+    final float bottom;
+
+    Box(
+        int index,
+        int classId,
+        float confidence,
+        float left,
+        float top,
+        float right,
+        float bottom) {
+      this.index = index;
+      this.classId = classId;
+      this.confidence = confidence;
+      this.left = left;
+      this.top = top;
+      this.right = right;
+      this.bottom = bottom;
+    }
+
+    Box getLocation() {
+      // The original returned a copy of the location on every call.
+      return new Box(index, classId, confidence, left, top, right, bottom);
+    }
+  }
+
+  static List<Box> toBoxes(Detections detections) {
+    List<Box> boxes = new ArrayList<>();
+    for (int i = 0; i < detections.size(); i++) {
+      boxes.add(
+          new Box(
+              i,
+              detections.getClassId(i),
+              detections.getScore(i),
+              detections.getLeft(i),
+              detections.getTop(i),
+              detections.getRight(i),
+              detections.getBottom(i)));
+    }
+    return boxes;
+  }
+
+  static ArrayList<Box> nms(List<Box> list, int numLabels, float nmsThresh) {
+    ArrayList<Box> nmsList = new ArrayList<>();
+
+    for (int k = 0; k < numLabels; k++) {
+      PriorityQueue<Box> pq =
+          new PriorityQueue<>(50, (lhs, rhs) -> Float.compare(rhs.confidence, lhs.confidence));
+
+      for (int i = 0; i < list.size(); ++i) {
+        if (list.get(i).classId == k) {
+          pq.add(list.get(i));
+        }
+      }
+
+      while (pq.size() > 0) {
+        Box[] a = new Box[pq.size()];
+        Box[] detections = pq.toArray(a);
+        Box max = detections[0];
+        nmsList.add(max);
+        pq.clear();
+
+        for (int j = 1; j < detections.length; j++) {
+          Box detection = detections[j];
+          Box b = detection.getLocation();
+          if (boxIou(max.getLocation(), b) < nmsThresh) {
+            pq.add(detection);
+          }
+        }
+      }
+    }
+    return nmsList;
+  }
+
+  static float boxIou(Box a, Box b) {
+    return boxIntersection(a, b) / boxUnion(a, b);
+  }
+
+  static float boxIntersection(Box a, Box b) {
+    float w =
+        overlap((a.left + a.right) / 2, a.right - a.left, (b.left + b.right) / 2, b.right - b.left);
+    float h =
+        overlap((a.top + a.bottom) / 2, a.bottom - a.top, (b.top + b.bottom) / 2, b.bottom - b.top);
+    if (w < 0 || h < 0) return 0;
+    return w * h;
+  }
+
+  static float boxUnion(Box a, Box b) {
+    float i = boxIntersection(a, b);
+    return (a.right - a.left) * (a.bottom - a.top) + (b.right - b.left) * (b.bottom - b.top) - i;
+  }
+
+  static float overlap(float x1, float w1, float x2, float w2) {
+    float l1 = x1 - w1 / 2;
+    float l2 = x2 - w2 / 2;
+    float left = l1 > l2 ? l1 : l2;
+    float r1 = x1 + w1 / 2;
+    float r2 = x2 + w2 / 2;
+    float right = r1 < r2 ? r1 : r2;
+    return right - left;
+  }
+}
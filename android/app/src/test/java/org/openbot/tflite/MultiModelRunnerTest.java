@@ -0,0 +1,113 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbot.vehicle.Control;
+
+@RunWith(AndroidJUnit4.class)
+public class MultiModelRunnerTest {
+
+  private static final int[] IMAGE_SHAPE = {1, 4, 8, 3};
+
+  private final Model model =
+      new Model(
+          1,
+          Model.CLASS.AUTOPILOT_F,
+          Model.TYPE.AUTOPILOT,
+          "stub",
+          Model.PATH_TYPE.ASSET,
+          "networks/stub.tflite",
+          "8x4");
+
+  private MultiModelRunner<Autopilot, Control> runner;
+  /** Lets the inference of a blocked secondary network finish. */
+  private final CountDownLatch unblock = new CountDownLatch(1);
+
+  private Autopilot createAutopilot(float left, long latencyMs) {
+    StubInferenceBackend backend =
+        new StubInferenceBackend()
+            .addInput("img_input", IMAGE_SHAPE, null)
+            .addInput("cmd_input", new int[] {1, 1}, null)
+            .addOutput("Identity", new int[] {1, 2}, null, new float[][] {{left, 0.f}})
+            .setLatency(latencyMs, TimeUnit.MILLISECONDS);
+    Autopilot autopilot = Autopilot.create(model, backend);
+    autopilot.setNumInputBuffers(2);
+    return autopilot;
+  }
+
+  private static Control infer(Autopilot autopilot, int index, long frameId) {
+    autopilot.selectInputBuffer(index);
+    return autopilot.recognizePreprocessedImage(0);
+  }
+
+  private Control inferWhenUnblocked(Autopilot autopilot, int index, long frameId) {
+    try {
+      assertTrue(unblock.await(5, TimeUnit.SECONDS));
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+    return infer(autopilot, index, frameId);
+  }
+
+  @After
+  public void tearDown() {
+    unblock.countDown();
+    if (runner != null) runner.close();
+  }
+
+  @Test
+  public void run_joinsSecondaryResultsBeforeTheDeadline() {
+    runner =
+        new MultiModelRunner<>(
+            createAutopilot(0.5f, 5), MultiModelRunnerTest::infer, 500, TimeUnit.MILLISECONDS);
+    MultiModelRunner.Lane<Autopilot, Control> lane =
+        runner.addModel("fast", createAutopilot(-0.5f, 20), MultiModelRunnerTest::infer);
+    assertEquals(2, lane.getNetwork().getNumInputBuffers());
+
+    runner.preprocess(1, (network, index) -> {});
+    MultiModelRunner.Results<Control> results = runner.run(1, 7);
+
+    assertEquals(7, results.getFrameId());
+    assertEquals(0.5f, results.getPrimaryResult().getLeft(), 0);
+    assertEquals(-0.5f, lane.getResult(results).getLeft(), 0);
+    assertTrue(results.getDurationMs() < 500);
+  }
+
+  @Test
+  public void run_publishesPrimaryResultWhenSecondaryMissesTheDeadline() throws Exception {
+    runner =
+        new MultiModelRunner<>(
+            createAutopilot(0.5f, 5), MultiModelRunnerTest::infer, 50, TimeUnit.MILLISECONDS);
+    MultiModelRunner.Lane<Autopilot, Control> lane =
+        runner.addModel("blocked", createAutopilot(-0.5f, 0), this::inferWhenUnblocked);
+
+    runner.preprocess(0, (network, index) -> {});
+    MultiModelRunner.Results<Control> first = runner.run(0, 1);
+    assertEquals(0.5f, first.getPrimaryResult().getLeft(), 0);
+    assertNull(lane.getResult(first));
+    assertEquals(0, lane.getCompletedFrames());
+
+    // The secondary network is still busy and skips the next frame.
+    runner.preprocess(1, (network, index) -> {});
+    MultiModelRunner.Results<Control> second = runner.run(1, 2);
+    assertNull(lane.getResult(second));
+    assertEquals(1, lane.getSkippedFrames());
+
+    // Let the late result arrive, which is counted as missed.
+    unblock.countDown();
+    long timeout = System.currentTimeMillis() + 2000;
+    while (lane.getMissedFrames() == 0 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, lane.getMissedFrames());
+    assertEquals(1, lane.getCompletedFrames());
+  }
+}
@@ -0,0 +1,94 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.graphics.Matrix;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbot.env.ImageUtils;
+import org.openbot.env.YuvFrame;
+
+@RunWith(AndroidJUnit4.class)
+public class NavigationTest {
+
+  private static final int WIDTH = 8;
+  private static final int HEIGHT = 4;
+
+  private final Model model =
+      new Model(
+          2,
+          Model.CLASS.NAVIGATION,
+          Model.TYPE.NAVIGATION,
+          "stub",
+          Model.PATH_TYPE.ASSET,
+          "networks/stub.tflite",
+          WIDTH / 2 + "x" + HEIGHT / 2);
+
+  private Navigation createNavigation() {
+    StubInferenceBackend backend =
+        new StubInferenceBackend()
+            .addInput("serving_default_goal_input:0", new int[] {1, 3}, null)
+            .addInput("serving_default_img_input:0", new int[] {1, HEIGHT / 2, WIDTH / 2, 3}, null)
+            .addOutput("Identity", new int[] {1, 2}, null, new float[][] {{0.f, 0.f}});
+    return new Navigation(model, backend);
+  }
+
+  /** Gray frame whose luma is ten times the column plus the row. */
+  private static YuvFrame createGradient() {
+    byte[] y = new byte[WIDTH * HEIGHT];
+    for (int row = 0; row < HEIGHT; row++) {
+      for (int col = 0; col < WIDTH; col++) y[row * WIDTH + col] = (byte) (16 + 10 * col + row);
+    }
+    byte[] uv = new byte[WIDTH * HEIGHT / 4];
+    Arrays.fill(uv, (byte) 128);
+    return new YuvFrame(
+        ByteBuffer.wrap(y),
+        ByteBuffer.wrap(uv),
+        ByteBuffer.wrap(uv.clone()),
+        WIDTH,
+        HEIGHT,
+        WIDTH,
+        WIDTH / 2,
+        1);
+  }
+
+  private static int red(int y) {
+    return (ImageUtils.YUV2RGB(y, 128, 128) >> 16) & 0xff;
+  }
+
+  @Test
+  public void convertYuvToByteBuffer_interpolatesLikeAFilteredBitmap() {
+    Navigation navigation = createNavigation();
+    Matrix halfSize = new Matrix();
+    halfSize.setScale(0.5f, 0.5f);
+
+    navigation.convertYuvToByteBuffer(createGradient(), halfSize);
+
+    // Input pixel (1, 0) is centered between frame columns 2 and 3 and rows 0 and 1.
+    ByteBuffer input = navigation.imgData;
+    float expected = (red(16 + 20) + red(16 + 30) + red(16 + 21) + red(16 + 31)) / 4.f;
+    assertEquals(Math.round(expected) / 255.f, input.getFloat(3 * 4), 1e-6f);
+    // The input is not shared, since the cache samples the nearest pixel.
+    assertNull(navigation.getInputSpec());
+  }
+
+  @Test
+  public void recognizePreprocessedImage_doesNotAllocateAfterWarmUp() {
+    Assume.assumeTrue(AllocationCounter.isSupported());
+    Navigation navigation = createNavigation();
+    Runnable frames =
+        () -> {
+          for (int frame = 0; frame < 1000; frame++) {
+            navigation.recognizePreprocessedImage(frame / 1000.f, 0.f, 1.f);
+          }
+        };
+    for (int i = 0; i < 10; i++) frames.run();
+
+    assertEquals(0, new AllocationCounter().measureMinimum(frames, 5));
+  }
+}
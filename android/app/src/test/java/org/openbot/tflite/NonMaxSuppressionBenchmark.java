@@ -0,0 +1,58 @@
+package org.openbot.tflite;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Microbenchmark of {@link NonMaxSuppression} against the former PriorityQueue based NMS of {@link
+ * Detector}. Not part of the test suite, run {@link #main} from the IDE or with {@code java}.
+ */
+public class NonMaxSuppressionBenchmark {
+
+  private static final int NUM_CLASSES = 80;
+  private static final int WARM_UP_ITERATIONS = 5;
+  private static final long MIN_TIME_NS = 1_000_000_000L;
+
+  public static void main(String[] args) {
+    for (int count : new int[] {100, 1000, 2535, 10000}) {
+      Detections detections =
+          NonMaxSuppressionTest.randomDetections(new Random(count), count, NUM_CLASSES);
+      List<LegacyNms.Box> boxes = LegacyNms.toBoxes(detections);
+      NonMaxSuppression nonMaxSuppression = new NonMaxSuppression(0.25f);
+
+      double legacy = measure(() -> LegacyNms.nms(boxes, NUM_CLASSES, 0.25f).size());
+      double primitive = measure(() -> nonMaxSuppression.run(detections));
+      System.out.println(
+          String.format(
+              Locale.US,
+              "%6d candidates: legacy %10.1f us, primitive %8.1f us, speedup %5.1fx",
+              count,
+              legacy / 1000,
+              primitive / 1000,
+              legacy / primitive));
+    }
+  }
+
+  private interface Workload {
+    int run();
+  }
+
+  /** Returns the average time per iteration in ns. */
+  private static double measure(Workload workload) {
+    int sink = 0;
+    for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+      sink += workload.run();
+    }
+    long iterations = 0;
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      sink += workload.run();
+      iterations++;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < MIN_TIME_NS);
+    if (sink == 42) System.out.print("");
+    return (double) elapsed / iterations;
+  }
+}
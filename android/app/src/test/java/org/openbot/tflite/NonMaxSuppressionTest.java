@@ -0,0 +1,110 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class NonMaxSuppressionTest {
+
+  /** Random candidates clustered around a few objects, like the raw output of a detector. */
+  static Detections randomDetections(Random random, int count, int numClasses) {
+    Detections detections = new Detections(count);
+    for (int i = 0; i < count; i++) {
+      float cx = 40 + 20 * random.nextInt(8) + 8 * random.nextFloat();
+      float cy = 40 + 20 * random.nextInt(8) + 8 * random.nextFloat();
+      float w = 20 + 30 * random.nextFloat();
+      float h = 20 + 30 * random.nextFloat();
+      detections.add(
+          i,
+          random.nextInt(numClasses),
+          random.nextFloat(),
+          cx - w / 2,
+          cy - h / 2,
+          cx + w / 2,
+          cy + h / 2);
+    }
+    return detections;
+  }
+
+  @Test
+  public void hardNms_matchesLegacyNms() {
+    Random random = new Random(42);
+    NonMaxSuppression nonMaxSuppression = new NonMaxSuppression(0.25f);
+    for (int round = 0; round < 50; round++) {
+      int numClasses = 1 + random.nextInt(10);
+      Detections detections = randomDetections(random, random.nextInt(500), numClasses);
+
+      List<LegacyNms.Box> expected =
+          LegacyNms.nms(LegacyNms.toBoxes(detections), numClasses, 0.25f);
+      int numKept = nonMaxSuppression.run(detections);
+
+      assertEquals(expected.size(), numKept);
+      for (int k = 0; k < numKept; k++) {
+        assertEquals(expected.get(k).index, nonMaxSuppression.getKept(k));
+        assertEquals(expected.get(k).confidence, nonMaxSuppression.getKeptScore(k), 0.0f);
+      }
+    }
+  }
+
+  @Test
+  public void hardNms_suppressesOverlappingBoxesOfTheSameClassOnly() {
+    Detections detections = new Detections(4);
+    detections.add(0, 0, 0.9f, 0, 0, 10, 10);
+    detections.add(1, 0, 0.8f, 1, 1, 11, 11);
+    detections.add(2, 1, 0.7f, 1, 1, 11, 11);
+    detections.add(3, 0, 0.6f, 50, 50, 60, 60);
+
+    NonMaxSuppression nonMaxSuppression = new NonMaxSuppression(0.25f);
+    assertEquals(3, nonMaxSuppression.run(detections));
+    assertEquals(0, nonMaxSuppression.getKept(0));
+    assertEquals(3, nonMaxSuppression.getKept(1));
+    assertEquals(2, nonMaxSuppression.getKept(2));
+  }
+
+  @Test
+  public void softNms_decaysInsteadOfDropping() {
+    Detections detections = new Detections(2);
+    detections.add(0, 0, 0.9f, 0, 0, 10, 10);
+    detections.add(1, 0, 0.8f, 0, 0, 10, 5);
+    float iou = NonMaxSuppression.iou(0, 0, 10, 10, 0, 0, 10, 5);
+
+    NonMaxSuppression linear = new NonMaxSuppression(0.25f);
+    linear.setMethod(NonMaxSuppression.Method.LINEAR);
+    assertEquals(2, linear.run(detections));
+    assertEquals(0.9f, linear.getKeptScore(0), 1e-6f);
+    assertEquals(0.8f * (1 - iou), linear.getKeptScore(1), 1e-6f);
+
+    NonMaxSuppression gaussian = new NonMaxSuppression(0.25f);
+    gaussian.setMethod(NonMaxSuppression.Method.GAUSSIAN);
+    gaussian.setSigma(0.5f);
+    assertEquals(2, gaussian.run(detections));
+    assertEquals(0.8f * (float) Math.exp(-iou * iou / 0.5f), gaussian.getKeptScore(1), 1e-6f);
+
+    gaussian.setScoreThreshold(0.5f);
+    assertEquals(1, gaussian.run(detections));
+  }
+
+  @Test
+  public void maxDetections_keepsTheBestInOrder() {
+    Detections detections = new Detections(4);
+    detections.add(0, 0, 0.3f, 0, 0, 10, 10);
+    detections.add(1, 1, 0.9f, 0, 0, 10, 10);
+    detections.add(2, 2, 0.5f, 0, 0, 10, 10);
+    detections.add(3, 3, 0.7f, 0, 0, 10, 10);
+
+    NonMaxSuppression nonMaxSuppression = new NonMaxSuppression(0.25f);
+    nonMaxSuppression.setMaxDetections(2);
+    assertEquals(2, nonMaxSuppression.run(detections));
+    assertEquals(1, nonMaxSuppression.getKept(0));
+    assertEquals(3, nonMaxSuppression.getKept(1));
+
+    nonMaxSuppression.setMaxDetections(Integer.MAX_VALUE);
+    assertEquals(4, nonMaxSuppression.run(detections));
+    for (int k = 1; k < 4; k++) {
+      assertTrue(nonMaxSuppression.getKept(k) > nonMaxSuppression.getKept(k - 1));
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Matrix;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbot.env.YuvFrame;
+
+@RunWith(AndroidJUnit4.class)
+public class PreprocessingCacheTest {
+
+  private static final int WIDTH = 8;
+  private static final int HEIGHT = 4;
+
+  private final Model model =
+      new Model(
+          1,
+          Model.CLASS.AUTOPILOT_F,
+          Model.TYPE.AUTOPILOT,
+          "stub",
+          Model.PATH_TYPE.ASSET,
+          "networks/stub.tflite",
+          WIDTH + "x" + HEIGHT);
+
+  private final YuvFrame frame = createFrame(new Random(1));
+  private final Matrix identity = new Matrix();
+  private final PreprocessingCache cache = new PreprocessingCache(1);
+
+  private static YuvFrame createFrame(Random random) {
+    byte[] y = new byte[WIDTH * HEIGHT];
+    byte[] u = new byte[WIDTH * HEIGHT / 4];
+    byte[] v = new byte[WIDTH * HEIGHT / 4];
+    random.nextBytes(y);
+    random.nextBytes(u);
+    random.nextBytes(v);
+    return new YuvFrame(
+        ByteBuffer.wrap(y),
+        ByteBuffer.wrap(u),
+        ByteBuffer.wrap(v),
+        WIDTH,
+        HEIGHT,
+        WIDTH,
+        WIDTH / 2,
+        1);
+  }
+
+  private Autopilot createAutopilot(Quantization imageQuantization) {
+    StubInferenceBackend backend =
+        new StubInferenceBackend()
+            .addInput("img_input", new int[] {1, HEIGHT, WIDTH, 3}, imageQuantization)
+            .addInput("cmd_input", new int[] {1, 1}, null)
+            .addOutput("Identity", new int[] {1, 2}, null, new float[][] {{0.f, 0.f}});
+    Autopilot autopilot = Autopilot.create(model, backend);
+    autopilot.setNumInputBuffers(2);
+    return autopilot;
+  }
+
+  @Test
+  public void networksWithEqualSpecs_shareOneConversion() {
+    Autopilot first = createAutopilot(null);
+    Autopilot second = createAutopilot(null);
+    assertEquals(first.getInputSpec(), second.getInputSpec());
+
+    first.convertYuvToByteBuffer(frame, identity, 0, cache, 1);
+    second.convertYuvToByteBuffer(frame, identity, 1, cache, 1);
+    first.selectInputBuffer(0);
+    second.selectInputBuffer(1);
+
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+    assertTrue(first.imgData.isReadOnly());
+    assertEquals(first.imgData, second.imgData);
+    second.recognizePreprocessedImage(0);
+
+    // The shared input is the same as the one the network writes itself.
+    first.convertYuvToByteBuffer(frame, identity, 1);
+    first.selectInputBuffer(1);
+    assertFalse(first.imgData.isReadOnly());
+    first.imgData.rewind();
+    assertEquals(second.imgData, first.imgData);
+  }
+
+  @Test
+  public void differentSpecsOrFrames_areConvertedSeparately() {
+    Autopilot floatAutopilot = createAutopilot(null);
+    Autopilot quantizedAutopilot = createAutopilot(new Quantization(1 / 255.f, -128, true));
+    assertNotEquals(floatAutopilot.getInputSpec(), quantizedAutopilot.getInputSpec());
+
+    floatAutopilot.convertYuvToByteBuffer(frame, identity, 0, cache, 1);
+    quantizedAutopilot.convertYuvToByteBuffer(frame, identity, 0, cache, 1);
+    floatAutopilot.convertYuvToByteBuffer(frame, identity, 1, cache, 2);
+
+    Matrix scaled = new Matrix();
+    scaled.setScale(0.5f, 0.5f);
+    floatAutopilot.convertYuvToByteBuffer(frame, scaled, 1, cache, 2);
+
+    assertEquals(4, cache.getMisses());
+    assertEquals(0, cache.getHits());
+  }
+
+  @Test
+  public void releasedFrames_areRecycled() {
+    Autopilot autopilot = createAutopilot(null);
+    for (int frameId = 0; frameId < 10; frameId++) {
+      autopilot.convertYuvToByteBuffer(frame, identity, frameId % 2, cache, frameId);
+    }
+    // Two frames are held by the input buffers, one more is kept.
+    assertEquals(3, cache.getNumEntries());
+
+    autopilot.close();
+    assertEquals(1, cache.getNumEntries());
+  }
+}
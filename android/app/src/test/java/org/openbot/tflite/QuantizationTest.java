@@ -0,0 +1,44 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class QuantizationTest {
+
+  @Test
+  public void uint8_roundTrips() {
+    Quantization quantization = new Quantization(1 / 255.f, 0, false);
+    assertEquals((byte) 200, quantization.quantize(200 / 255.f));
+    assertEquals(200 / 255.f, quantization.dequantize((byte) 200), 1e-6f);
+    assertEquals((byte) 255, quantization.quantize(2.f));
+    assertEquals((byte) 0, quantization.quantize(-1.f));
+  }
+
+  @Test
+  public void int8_usesZeroPoint() {
+    Quantization quantization = new Quantization(1 / 128.f, 0, true);
+    assertEquals(-1.f, quantization.dequantize((byte) -128), 1e-6f);
+    assertEquals(0.5f, quantization.dequantize((byte) 64), 1e-6f);
+    assertEquals((byte) 127, quantization.quantize(1.f));
+
+    Quantization shifted = new Quantization(1 / 255.f, -128, true);
+    assertEquals((byte) -128, shifted.quantize(0.f));
+    assertEquals((byte) 127, shifted.quantize(1.f));
+    assertEquals(1.f, shifted.dequantize((byte) 127), 1e-6f);
+  }
+
+  @Test
+  public void pixelTable_matchesFloatNormalization() {
+    Quantization quantization = new Quantization(1 / 255.f, -128, true);
+    byte[] table = quantization.createPixelTable(0.f, 255.f);
+    for (int i = 0; i < 256; i++) {
+      assertEquals(i / 255.f, quantization.dequantize(table[i]), 0.5f / 255);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zeroScale_isRejected() {
+    new Quantization(0, 0, false);
+  }
+}
@@ -0,0 +1,223 @@
+package org.openbot.tflite;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic {@link InferenceBackend} without a model: it declares the tensors it was
+ * configured with, waits for a configurable latency on every run and then copies canned values
+ * into the outputs. This allows to test and load-test the pre- and post-processing and the control
+ * loop on a plain JVM or workstation.
+ *
+ * <pre>{@code
+ * StubInferenceBackend backend =
+ *     new StubInferenceBackend()
+ *         .addInput("serving_default_img_input:0", new int[] {1, 96, 256, 3}, null)
+ *         .addInput("serving_default_cmd_input:0", new int[] {1, 1}, null)
+ *         .addOutput("Identity", new int[] {1, 2}, null, new float[][] {{0.5f, 0.5f}})
+ *         .setLatency(20, TimeUnit.MILLISECONDS);
+ * Autopilot autopilot = Autopilot.create(model, backend);
+ * }</pre>
+ */
+public class StubInferenceBackend implements InferenceBackend {
+
+  private static class TensorSpec {
+    final String name;
+    final int[] shape;
+    final Quantization quantization;
+    Object value;
+
+    TensorSpec(String name, int[] shape, Quantization quantization, Object value) {
+      this.name = name;
+      this.shape = shape.clone();
+      this.quantization = quantization;
+      this.value = value;
+    }
+  }
+
+  private final List<TensorSpec> inputs = new ArrayList<>();
+  private final List<TensorSpec> outputs = new ArrayList<>();
+  private long latencyNs;
+  private long numRuns;
+  private boolean closed;
+
+  /**
+   * Declares the next input tensor.
+   *
+   * @param quantization The quantization of an 8 bit input, or null for a float input.
+   */
+  public StubInferenceBackend addInput(String name, int[] shape, Quantization quantization) {
+    inputs.add(new TensorSpec(name, shape, quantization, null));
+    return this;
+  }
+
+  /**
+   * Declares the next output tensor.
+   *
+   * @param quantization The quantization of an 8 bit output, or null for a float output.
+   * @param value The canned output: an array shaped like the tensor (float for float outputs,
+   *     byte for quantized outputs), or a {@link ByteBuffer} with the raw tensor content.
+   */
+  public StubInferenceBackend addOutput(
+      String name, int[] shape, Quantization quantization, Object value) {
+    outputs.add(new TensorSpec(name, shape, quantization, value));
+    return this;
+  }
+
+  /** Replaces the canned value of an output, e.g. to script a sequence of results. */
+  public StubInferenceBackend setOutput(int index, Object value) {
+    outputs.get(index).value = value;
+    return this;
+  }
+
+  /** Time every run takes. */
+  public StubInferenceBackend setLatency(long latency, TimeUnit unit) {
+    latencyNs = unit.toNanos(latency);
+    return this;
+  }
+
+  /** Returns the number of completed runs. */
+  public synchronized long getNumRuns() {
+    return numRuns;
+  }
+
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /** Returns a factory that hands out this backend, e.g. for {@link Autopilot#create}. */
+  public InferenceBackend.Factory asFactory() {
+    return (context, model, device, numThreads) -> this;
+  }
+
+  @Override
+  public int getInputIndex(String name) {
+    return indexOf(inputs, name);
+  }
+
+  @Override
+  public int getOutputIndex(String name) {
+    return indexOf(outputs, name);
+  }
+
+  private static int indexOf(List<TensorSpec> tensors, String name) {
+    for (int i = 0; i < tensors.size(); i++) {
+      if (tensors.get(i).name.equals(name)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unknown tensor name: " + name);
+  }
+
+  @Override
+  public int getInputTensorCount() {
+    return inputs.size();
+  }
+
+  @Override
+  public int getOutputTensorCount() {
+    return outputs.size();
+  }
+
+  @Override
+  public int[] getInputShape(int index) {
+    return inputs.get(index).shape.clone();
+  }
+
+  @Override
+  public int[] getOutputShape(int index) {
+    return outputs.get(index).shape.clone();
+  }
+
+  @Override
+  public Quantization getInputQuantization(int index) {
+    return inputs.get(index).quantization;
+  }
+
+  @Override
+  public Quantization getOutputQuantization(int index) {
+    return outputs.get(index).quantization;
+  }
+
+  @Override
+  public void run(Object[] inputs, Map<Integer, Object> outputs) {
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("The backend has been closed.");
+      }
+    }
+    if (inputs.length != this.inputs.size()) {
+      throw new IllegalArgumentException(
+          "Expected " + this.inputs.size() + " inputs, got " + inputs.length);
+    }
+    for (Object input : inputs) {
+      if (input == null) {
+        throw new IllegalArgumentException("Input must not be null.");
+      }
+    }
+    if (latencyNs > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(latencyNs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    for (Map.Entry<Integer, Object> output : outputs.entrySet()) {
+      final Object value = this.outputs.get(output.getKey()).value;
+      if (value != null) {
+        copy(value, output.getValue());
+      }
+    }
+    synchronized (this) {
+      numRuns++;
+    }
+  }
+
+  /** Copies a canned value into an output the way the interpreter fills it. */
+  private static void copy(Object source, Object destination) {
+    if (destination instanceof ByteBuffer) {
+      put(source, (ByteBuffer) destination);
+    } else if (destination instanceof Object[]) {
+      final Object[] sourceArray = (Object[]) source;
+      final Object[] destinationArray = (Object[]) destination;
+      if (sourceArray.length != destinationArray.length) {
+        throw new IllegalArgumentException(
+            "Output shape mismatch: " + Arrays.deepToString(sourceArray));
+      }
+      for (int i = 0; i < sourceArray.length; i++) {
+        copy(sourceArray[i], destinationArray[i]);
+      }
+    } else {
+      System.arraycopy(source, 0, destination, 0, Array.getLength(source));
+    }
+  }
+
+  /** Writes a canned buffer or array into a raw output buffer. */
+  private static void put(Object source, ByteBuffer destination) {
+    if (source instanceof ByteBuffer) {
+      final ByteBuffer sourceBuffer = ((ByteBuffer) source).duplicate();
+      sourceBuffer.rewind();
+      destination.put(sourceBuffer);
+    } else if (source instanceof float[]) {
+      for (float value : (float[]) source) {
+        destination.putFloat(value);
+      }
+    } else if (source instanceof byte[]) {
+      destination.put((byte[]) source);
+    } else {
+      for (Object element : (Object[]) source) {
+        put(element, destination);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+  }
+}
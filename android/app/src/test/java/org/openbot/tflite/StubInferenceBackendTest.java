@@ -0,0 +1,93 @@
+package org.openbot.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class StubInferenceBackendTest {
+
+  private final Quantization quantization = new Quantization(0.5f, 3, false);
+
+  private final StubInferenceBackend backend =
+      new StubInferenceBackend()
+          .addInput("image", new int[] {1, 4, 4, 3}, quantization)
+          .addOutput("scores", new int[] {1, 2}, null, new float[][] {{0.25f, 0.75f}})
+          .addOutput("raw", new int[] {1, 2}, null, floatBuffer(1.f, 2.f));
+
+  private static ByteBuffer floatBuffer(float... values) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder());
+    for (float value : values) {
+      buffer.putFloat(value);
+    }
+    return buffer;
+  }
+
+  @Test
+  public void describesTensors() {
+    assertEquals(1, backend.getInputTensorCount());
+    assertEquals(2, backend.getOutputTensorCount());
+    assertEquals(0, backend.getInputIndex("image"));
+    assertEquals(1, backend.getOutputIndex("raw"));
+    assertArrayEquals(new int[] {1, 4, 4, 3}, backend.getInputShape(0));
+    assertArrayEquals(new int[] {1, 2}, backend.getOutputShape(0));
+    assertEquals(quantization, backend.getInputQuantization(0));
+    assertNull(backend.getOutputQuantization(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownName_throwsLikeTheInterpreter() {
+    backend.getOutputIndex("Identity");
+  }
+
+  @Test
+  public void run_copiesCannedOutputs() {
+    float[][] scores = new float[1][2];
+    ByteBuffer raw = ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder());
+    OutputMap outputs = new OutputMap(2);
+    outputs.put(0, scores);
+    outputs.put(1, raw);
+
+    backend.run(new Object[] {ByteBuffer.allocateDirect(48)}, outputs);
+
+    assertArrayEquals(new float[] {0.25f, 0.75f}, scores[0], 0.0f);
+    raw.rewind();
+    assertEquals(1.f, raw.getFloat(), 0.0f);
+    assertEquals(2.f, raw.getFloat(), 0.0f);
+    assertEquals(1, backend.getNumRuns());
+
+    backend.setOutput(0, new float[][] {{1.f, 0.f}});
+    // Like the interpreter, the stub writes buffers from their current position.
+    raw.rewind();
+    backend.run(new Object[] {ByteBuffer.allocateDirect(48)}, outputs);
+    assertArrayEquals(new float[] {1.f, 0.f}, scores[0], 0.0f);
+  }
+
+  @Test
+  public void run_takesTheConfiguredLatency() {
+    backend.setLatency(30, TimeUnit.MILLISECONDS);
+    OutputMap outputs = new OutputMap(2);
+    outputs.put(0, new float[1][2]);
+
+    long start = System.nanoTime();
+    backend.run(new Object[] {ByteBuffer.allocateDirect(48)}, outputs);
+
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void run_checksTheNumberOfInputs() {
+    backend.run(new Object[0], new OutputMap(2));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void run_failsAfterClose() {
+    backend.close();
+    backend.run(new Object[] {ByteBuffer.allocateDirect(48)}, new OutputMap(2));
+  }
+}
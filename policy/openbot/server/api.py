@@ -55,14 +55,18 @@ async def handle_models(request: web.Request) -> web.StreamResponse:
 
 async def handle_upload(request: web.Request) -> web.Response:
     reader = await request.multipart()
-    while not reader.at_eof():
+    res = None
+    while True:
         field = await reader.next()
+        if field is None:
+            break
         if field.name == "file":
             res = await handle_file_upload(field)
-            await rpc.notify("session")
-            return res
+    if res is None:
+        return web.Response(text="file not found")
 
-    return web.Response(text="file not found")
+    await rpc.notify("session")
+    return res
 
 
 async def init_api(app: web.Application):
@@ -1,11 +1,15 @@
 import hashlib
 import os
+import re
 import zipfile
 
 from aiohttp import multipart, web
 
 from .. import dataset_dir
 
+# Parts of a session uploaded while logging, e.g. 20210101_120000.part1.zip.
+PART_SUFFIX = re.compile(r"\.part\d+$")
+
 
 async def handle_file_upload(field: multipart.BodyPartReader) -> web.Response:
     size = 0
@@ -18,8 +22,10 @@ async def handle_file_upload(field: multipart.BodyPartReader) -> web.Response:
                 break
             size += f.write(chunk)
             hash.update(chunk)
+    # All parts of a session are extracted into the same folder.
+    session = PART_SUFFIX.sub("", field.filename[:-4])
     with zipfile.ZipFile(path, "r") as zip_ref:
-        zip_ref.extractall(dataset_dir + "/uploaded/" + field.filename[:-4])
+        zip_ref.extractall(dataset_dir + "/uploaded/" + session)
 
     os.unlink(path)
 